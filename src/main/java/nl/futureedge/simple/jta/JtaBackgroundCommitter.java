@@ -0,0 +1,90 @@
+package nl.futureedge.simple.jta;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import nl.futureedge.simple.jta.context.JtaTransactionContextThreadFactory;
+import nl.futureedge.simple.jta.util.HashedWheelTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes the second phase (commit) of transactions in the background when early acknowledge is enabled; not for external use!
+ *
+ * The number of threads and the number of waiting commits are bounded; when the committer is full the second phase is executed by the committing thread.
+ */
+final class JtaBackgroundCommitter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JtaBackgroundCommitter.class);
+
+    private final ThreadPoolExecutor executor;
+    private final HashedWheelTimer timer;
+    private final int maxRetries;
+
+    /**
+     * Constructor.
+     * @param name name (used for threads)
+     * @param threads number of threads
+     * @param queueSize maximum number of waiting commits
+     * @param maxRetries maximum number of retries for failed branches
+     * @param timer timer used to schedule retries
+     */
+    JtaBackgroundCommitter(final String name, final int threads, final int queueSize, final int maxRetries, final HashedWheelTimer timer) {
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                new JtaTransactionContextThreadFactory(name + "-", true));
+        this.timer = timer;
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Submit a commit.
+     * @param commit commit
+     * @return false, if the committer is full (or stopped) and the commit should be executed by the current thread
+     */
+    boolean submit(final Runnable commit) {
+        try {
+            executor.execute(commit);
+            return true;
+        } catch (final RejectedExecutionException e) {
+            LOGGER.debug("Background committer full; commit not submitted", e);
+            return false;
+        }
+    }
+
+    /**
+     * Schedule a retry of a commit (exponential back-off starting at one second).
+     * @param commit commit
+     * @param attempt number of the failed attempt (0 based)
+     * @return false, if no more retries are allowed
+     */
+    boolean retry(final Runnable commit, final int attempt) {
+        if (attempt >= maxRetries) {
+            return false;
+        }
+        final long delay = 1L << Math.min(attempt, 6);
+        timer.schedule(() -> resubmit(commit, attempt), delay, TimeUnit.SECONDS);
+        return true;
+    }
+
+    private void resubmit(final Runnable commit, final int attempt) {
+        if (!submit(commit)) {
+            // Never block the timer thread; try again later
+            timer.schedule(() -> resubmit(commit, attempt), 1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stop the committer; waits (a limited time) for running and waiting commits.
+     */
+    void stop() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOGGER.warn("Background committer did not complete all commits; remaining transactions will be completed by recovery");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
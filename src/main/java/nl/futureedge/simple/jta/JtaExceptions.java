@@ -71,6 +71,17 @@ public final class JtaExceptions {
         return new IllegalStateException(message);
     }
 
+    /**
+     * Create an illegal state exception
+     * @param message message
+     * @param cause cause
+     * @return illegal state exception
+     */
+    public static IllegalStateException illegalStateException(final String message, final Throwable cause) {
+        LOGGER.debug(message, cause);
+        return new IllegalStateException(message, cause);
+    }
+
     /**
      * Create an unsupported operation exception.
      * @param message message
@@ -0,0 +1,154 @@
+package nl.futureedge.simple.jta;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
+
+/**
+ * Determines the order in which the enlisted resources of a transaction are prepared (shared between transactions); not for external use!
+ *
+ * Resources with a higher prepare priority are prepared first. In adaptive mode resources with the same priority are ordered on their observed prepare
+ * results (keyed on resource manager unique name): the resources that most often fail to prepare (vote no) are prepared first, then the fastest; a doomed
+ * transaction is then rolled back after the first (cheap) prepare. Resources without observations (of which the cost is unknown) are prepared after the
+ * resources with observations. Resources that can not be distinguished keep their enlistment order.
+ */
+final class JtaPrepareOrder {
+
+    // Weight of a new observation in the (exponentially weighted) moving averages
+    private static final double WEIGHT = 0.1;
+
+    private static final Comparator<Ranked<?>> PREPARE_ORDER = (one, other) -> {
+        int result = Integer.compare(other.priority, one.priority);
+        if (result == 0) {
+            result = Boolean.compare(other.observed, one.observed);
+        }
+        if (result == 0) {
+            result = Double.compare(other.noVoteRate, one.noVoteRate);
+        }
+        if (result == 0) {
+            result = Double.compare(one.latency, other.latency);
+        }
+        return result;
+    };
+
+    private final boolean adaptive;
+    private final Map<String, Statistics> statistics = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     * @param adaptive true, to order resources (with the same priority) on their observed prepare results
+     */
+    JtaPrepareOrder(final boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * @return true, if prepare results should be registered (see {@link #prepared(XAResourceAdapter, boolean, long)})
+     */
+    boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Order resources for prepare.
+     * @param resources resources (in enlistment order)
+     * @param count number of resources
+     * @param xaResource function to determine the xa resource of a resource
+     * @param <T> resource type
+     * @return resources in prepare order (the given array if the order is not changed)
+     */
+    <T> T[] order(final T[] resources, final int count, final Function<T, XAResourceAdapter> xaResource) {
+        if (count < 2 || !adaptive && samePriority(resources, count, xaResource)) {
+            return resources;
+        }
+
+        // Snapshot the statistics so they can not change during the sort
+        final List<Ranked<T>> ranked = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            final XAResourceAdapter resource = xaResource.apply(resources[index]);
+            final Statistics resourceStatistics = adaptive && resource.getResourceManager() != null ? statistics.get(resource.getResourceManager()) : null;
+            if (resourceStatistics == null) {
+                ranked.add(new Ranked<>(resources[index], resource.getPreparePriority(), false, 0, 0));
+            } else {
+                synchronized (resourceStatistics) {
+                    ranked.add(new Ranked<>(resources[index], resource.getPreparePriority(), resourceStatistics.observed, resourceStatistics.noVoteRate,
+                            resourceStatistics.latency));
+                }
+            }
+        }
+        ranked.sort(PREPARE_ORDER);
+
+        final T[] result = resources.clone();
+        for (int index = 0; index < count; index++) {
+            result[index] = ranked.get(index).resource;
+        }
+        return result;
+    }
+
+    private static <T> boolean samePriority(final T[] resources, final int count, final Function<T, XAResourceAdapter> xaResource) {
+        final int priority = xaResource.apply(resources[0]).getPreparePriority();
+        for (int index = 1; index < count; index++) {
+            if (xaResource.apply(resources[index]).getPreparePriority() != priority) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Register the result of a prepare (only used in adaptive mode).
+     * @param xaResource xa resource
+     * @param vote true, if the resource prepared successfully
+     * @param nanos duration of the prepare in nanoseconds
+     */
+    void prepared(final XAResourceAdapter xaResource, final boolean vote, final long nanos) {
+        if (!adaptive || xaResource.getResourceManager() == null) {
+            return;
+        }
+        statistics.computeIfAbsent(xaResource.getResourceManager(), key -> new Statistics()).add(vote, nanos);
+    }
+
+    /**
+     * Prepare statistics of a resource manager.
+     */
+    private static final class Statistics {
+        private boolean observed;
+        private double noVoteRate;
+        private double latency;
+
+        synchronized void add(final boolean vote, final long nanos) {
+            final double noVote = vote ? 0 : 1;
+            if (observed) {
+                noVoteRate += WEIGHT * (noVote - noVoteRate);
+                latency += WEIGHT * (nanos - latency);
+            } else {
+                noVoteRate = noVote;
+                latency = nanos;
+                observed = true;
+            }
+        }
+    }
+
+    /**
+     * Resource with its (snapshotted) ranking.
+     */
+    private static final class Ranked<T> {
+        private final T resource;
+        private final int priority;
+        private final boolean observed;
+        private final double noVoteRate;
+        private final double latency;
+
+        Ranked(final T resource, final int priority, final boolean observed, final double noVoteRate, final double latency) {
+            this.resource = resource;
+            this.priority = priority;
+            this.observed = observed;
+            this.noVoteRate = noVoteRate;
+            this.latency = latency;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package nl.futureedge.simple.jta;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.transaction.xa.XAException;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the identity of resource managers (keyed on resource manager unique name) so joining an enlisted resource does not need a call to
+ * {@link javax.transaction.xa.XAResource#isSameRM(javax.transaction.xa.XAResource)} for every enlistment; not for external use!
+ *
+ * Resources with the same resource manager unique name are always considered to be the same resource manager; whether two different resource managers are
+ * the same is determined once (using isSameRM) and then remembered.
+ */
+final class JtaResourceManagerCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JtaResourceManagerCache.class);
+
+    private final Map<String, Map<String, Boolean>> sameResourceManagers = new ConcurrentHashMap<>();
+
+    /**
+     * Determine if two resources belong to the same resource manager.
+     * @param enlistedResource enlisted resource
+     * @param xaResource resource to join
+     * @return true, if the resources belong to the same resource manager
+     * @throws XAException thrown when isSameRM fails
+     */
+    boolean isSameResourceManager(final XAResourceAdapter enlistedResource, final XAResourceAdapter xaResource) throws XAException {
+        final String enlistedResourceManager = enlistedResource.getResourceManager();
+        final String resourceManager = xaResource.getResourceManager();
+        if (enlistedResourceManager == null || resourceManager == null) {
+            return enlistedResource.isSameRM(xaResource);
+        }
+        if (enlistedResourceManager.equals(resourceManager)) {
+            return true;
+        }
+
+        final Map<String, Boolean> known = sameResourceManagers.computeIfAbsent(enlistedResourceManager, key -> new ConcurrentHashMap<>());
+        final Boolean cached = known.get(resourceManager);
+        if (cached != null) {
+            return cached;
+        }
+
+        final boolean result = enlistedResource.isSameRM(xaResource);
+        LOGGER.debug("Resource manager {} is {}the same resource manager as {}", enlistedResourceManager, result ? "" : "not ", resourceManager);
+        known.put(resourceManager, result);
+        return result;
+    }
+}
@@ -10,4 +10,21 @@ public interface JtaSystemCallback {
      * @param transaction the completed transaction
      */
     void transactionCompleted(JtaTransaction transaction);
+
+    /**
+     * Callback when the transaction is going to be completed asynchronously (on another thread); called on the thread that requested the completion.
+     * @param transaction the transaction
+     */
+    default void transactionCompletingAsync(final JtaTransaction transaction) {
+        // Nothing by default
+    }
+
+    /**
+     * Callback when the transaction has timed out and its branches have been rolled back; the resource should refuse further use by the application
+     * (the work would no longer be part of the transaction). Called with the transaction locked, on the thread that rolled back the branches.
+     * @param transaction the timed out transaction
+     */
+    default void transactionTimedOut(final JtaTransaction transaction) {
+        // Nothing by default
+    }
 }
@@ -7,10 +7,18 @@ import static nl.futureedge.simple.jta.JtaExceptions.systemException;
 import static nl.futureedge.simple.jta.JtaExceptions.unsupportedOperationException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.transaction.InvalidTransactionException;
 import javax.transaction.RollbackException;
 import javax.transaction.Synchronization;
@@ -20,6 +28,7 @@ import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
 import nl.futureedge.simple.jta.store.JtaTransactionStore;
 import nl.futureedge.simple.jta.store.JtaTransactionStoreException;
+import nl.futureedge.simple.jta.util.HashedWheelTimer;
 import nl.futureedge.simple.jta.xa.XAResourceAdapter;
 import nl.futureedge.simple.jta.xid.BranchJtaXid;
 import nl.futureedge.simple.jta.xid.GlobalJtaXid;
@@ -33,19 +42,60 @@ public final class JtaTransaction implements Transaction {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(JtaTransaction.class);
     private static final String COULD_NOT_WRITE_TRANSACTION_LOG = "Could not write transaction log";
+    private static final EnlistedXaResource[] NO_ENLISTED_XA_RESOURCES = new EnlistedXaResource[0];
 
-    private final GlobalJtaXid globalXid;
+    private final String transactionManager;
+    private final long localId;
+    // Created (and stored as active) when the first resource is enlisted
+    private volatile GlobalJtaXid globalXid;
     private final JtaTransactionStore transactionStore;
 
     private Integer timeoutInSeconds;
+    private volatile HashedWheelTimer.Timeout timeout;
+    private Executor completionExecutor;
+    private JtaBackgroundCommitter backgroundCommitter;
+    private JtaResourceManagerCache resourceManagerCache;
+    private JtaPrepareOrder prepareOrder;
+    private boolean readOnly;
+    private volatile boolean timedOut;
+
+    private volatile JtaTransactionStatus status = JtaTransactionStatus.ACTIVE;
+
+    // Lock instead of monitor; completion does blocking I/O (xa calls, transaction log) which should not pin (virtual) threads
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Work that has been propagated to other threads (see JtaTransactionPropagation)
+    private final Condition participantsCompleted = lock.newCondition();
+    private int participants;
+    private boolean completing;
+
+    // Small inline arrays (a typical transaction has a few resources and exactly two system callbacks)
+    private EnlistedXaResource[] enlistedXaResources = NO_ENLISTED_XA_RESOURCES;
+    private int enlistedXaResourceCount;
+    private Map<String, EnlistedXaResource> enlistedXaResourcesByResourceManager;
+    private JtaSystemCallback[] systemCallbacks = new JtaSystemCallback[2];
+    private int systemCallbackCount;
+
+    // Created when needed
+    private List<Synchronization> synchronizations;
+    private Map<Object, List<Object>> connections;
+    // Identity slot with the last returned connection; lets a connection be reacquired without the lookup in the connections map
+    private volatile LastConnection lastConnection;
 
-    private JtaTransactionStatus status = JtaTransactionStatus.ACTIVE;
-
-    private final List<EnlistedXaResource> enlistedXaResources = new ArrayList<>();
-    private final List<JtaSystemCallback> systemCallbacks = new ArrayList<>();
-    private final List<Synchronization> synchronizations = new ArrayList<>();
-
-    private final Map<Object, List<Object>> connections = new HashMap<>();
+    /**
+     * Constructor; the transaction id is allocated when the first resource is enlisted.
+     * @param transactionManager transaction manager unique name
+     * @param localId local id (unique within the transaction manager)
+     * @param timeoutInSeconds timeout
+     * @param transactionStore transaction store
+     */
+    JtaTransaction(final String transactionManager, final long localId, final Integer timeoutInSeconds, final JtaTransactionStore transactionStore) {
+        LOGGER.trace("JtaTransaction(transactionManager={}, localId={}, transactionStore={})", transactionManager, localId, transactionStore);
+        this.transactionManager = transactionManager;
+        this.localId = localId;
+        this.timeoutInSeconds = timeoutInSeconds;
+        this.transactionStore = transactionStore;
+    }
 
     /**
      * Constructor.
@@ -56,6 +106,8 @@ public final class JtaTransaction implements Transaction {
     JtaTransaction(final GlobalJtaXid xid, final Integer timeoutInSeconds, final JtaTransactionStore transactionStore) throws SystemException {
         LOGGER.trace("JtaTransaction(xid={}, transactionStore={})", xid, transactionStore);
 
+        this.transactionManager = xid.getTransactionManager();
+        this.localId = xid.getTransactionId();
         this.globalXid = xid;
         this.timeoutInSeconds = timeoutInSeconds;
         this.transactionStore = transactionStore;
@@ -66,8 +118,58 @@ public final class JtaTransaction implements Transaction {
         }
     }
 
+    /**
+     * @return transaction id
+     * @throws IllegalStateException if no transaction id has been allocated (no resource has been enlisted)
+     */
     public long getTransactionId() {
-        return globalXid.getTransactionId();
+        final GlobalJtaXid xid = globalXid;
+        if (xid == null) {
+            throw illegalStateException("No transaction id allocated; no resource has been enlisted");
+        }
+        return xid.getTransactionId();
+    }
+
+    /**
+     * @return true, if a transaction id has been allocated (a resource has been enlisted)
+     */
+    public boolean hasTransactionId() {
+        return globalXid != null;
+    }
+
+    /**
+     * @return local id (unique within the transaction manager; available before a transaction id has been allocated)
+     */
+    long getLocalId() {
+        return localId;
+    }
+
+    private GlobalJtaXid getGlobalXid() throws SystemException {
+        if (globalXid == null) {
+            try {
+                final GlobalJtaXid xid = new GlobalJtaXid(transactionManager, transactionStore.nextTransactionId());
+                transactionStore.active(xid);
+                globalXid = xid;
+            } catch (final JtaTransactionStoreException e) {
+                throw systemException(COULD_NOT_WRITE_TRANSACTION_LOG, e);
+            }
+        }
+        return globalXid;
+    }
+
+    /**
+     * @return true, if this is a read-only transaction (see {@link JtaTransactionManager#beginReadOnly()})
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Mark this transaction as read-only; not for external use!
+     * @param readOnly read-only
+     */
+    void setReadOnly(final boolean readOnly) {
+        this.readOnly = readOnly;
     }
 
     /* ***************************** */
@@ -81,7 +183,12 @@ public final class JtaTransaction implements Transaction {
      * @return list of connections (can be null)
      */
     public <T> List<T> getConnections(final Object key) {
-        return (List<T>) connections.get(key);
+        lock.lock();
+        try {
+            return connections == null ? null : (List<T>) connections.get(key);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -90,8 +197,113 @@ public final class JtaTransaction implements Transaction {
      * @param connection connection
      */
     public void registerConnection(final Object key, final Object connection) {
-        connections.computeIfAbsent(key, unused -> new ArrayList<>());
-        connections.get(key).add(connection);
+        lock.lock();
+        try {
+            if (connections == null) {
+                connections = new HashMap<>();
+            }
+            List<Object> keyConnections = connections.get(key);
+            if (keyConnections == null) {
+                keyConnections = new ArrayList<>(1);
+                connections.put(key, keyConnections);
+            }
+            keyConnections.add(connection);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the last returned connection for a key; the key is compared on identity.
+     * @param key key
+     * @param <T> connection type
+     * @return connection (null if the last returned connection was not returned for the key)
+     */
+    public <T> T getLastConnection(final Object key) {
+        final LastConnection last = lastConnection;
+        return last != null && last.key == key ? (T) last.connection : null;
+    }
+
+    /**
+     * Set the last returned connection.
+     * @param key key
+     * @param connection connection (should also be registered using {@link #registerConnection(Object, Object)})
+     */
+    public void setLastConnection(final Object key, final Object connection) {
+        final LastConnection last = lastConnection;
+        if (last == null || last.key != key || last.connection != connection) {
+            lastConnection = new LastConnection(key, connection);
+        }
+    }
+
+    /**
+     * Last returned connection with its key.
+     */
+    private static final class LastConnection {
+        private final Object key;
+        private final Object connection;
+
+        LastConnection(final Object key, final Object connection) {
+            this.key = key;
+            this.connection = connection;
+        }
+    }
+
+    /* ***************************** */
+    /* *** PROPAGATION ************* */
+    /* ***************************** */
+
+    /**
+     * Register a participant (work that will execute in this transaction on another thread); not for external use!
+     * @throws RollbackException thrown if the transaction is marked for rollback only
+     * @throws IllegalStateException thrown if the transaction is not active or is completing
+     */
+    void addParticipant() throws RollbackException {
+        lock.lock();
+        try {
+            checkActive("propagate transaction");
+            if (completing) {
+                throw illegalStateException("Transaction is completing; propagate transaction not allowed.");
+            }
+            participants++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Unregister a participant; not for external use!
+     */
+    void removeParticipant() {
+        lock.lock();
+        try {
+            participants--;
+            if (participants == 0) {
+                participantsCompleted.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait (lock should be held) until all participants have completed; no new participants are accepted after this method has been called.
+     */
+    private void awaitParticipants() {
+        completing = true;
+        while (participants > 0 && !timedOut) {
+            LOGGER.debug("Waiting for {} participant(s) to complete", participants);
+            try {
+                participantsCompleted.await(1, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                LOGGER.warn("Interrupted while waiting for participants to complete; marking transaction for rollback only", e);
+                Thread.currentThread().interrupt();
+                if (JtaTransactionStatus.ACTIVE == status) {
+                    status = JtaTransactionStatus.MARKED_ROLLBACK;
+                }
+                return;
+            }
+        }
     }
 
     /* ***************************** */
@@ -105,9 +317,14 @@ public final class JtaTransaction implements Transaction {
     }
 
     @Override
-    public synchronized void setRollbackOnly() {
+    public void setRollbackOnly() {
         LOGGER.trace("setRollbackOnly()");
-        status = JtaTransactionStatus.MARKED_ROLLBACK;
+        lock.lock();
+        try {
+            status = JtaTransactionStatus.MARKED_ROLLBACK;
+        } finally {
+            lock.unlock();
+        }
     }
 
     private void checkActive(final String operation) throws RollbackException {
@@ -119,9 +336,46 @@ public final class JtaTransaction implements Transaction {
         }
     }
 
-    private boolean store(final boolean status, final TransactionStoreCommand command) {
+    /**
+     * Store the (global) transaction state.
+     * @param status current status
+     * @param state state to store
+     * @return the given status if the state was stored, false otherwise
+     */
+    private boolean store(final boolean status, final StoreState state) {
+        if (globalXid == null) {
+            // Nothing has been stored for this transaction
+            return status;
+        }
         try {
-            command.store();
+            switch (state) {
+                case PREPARING:
+                    transactionStore.preparing(globalXid);
+                    break;
+                case PREPARED:
+                    transactionStore.prepared(globalXid);
+                    break;
+                case COMMITTING:
+                    transactionStore.committing(globalXid);
+                    break;
+                case COMMITTED:
+                    transactionStore.committed(globalXid);
+                    break;
+                case COMMIT_FAILED:
+                    transactionStore.commitFailed(globalXid);
+                    break;
+                case ROLLING_BACK:
+                    transactionStore.rollingBack(globalXid);
+                    break;
+                case ROLLED_BACK:
+                    transactionStore.rolledBack(globalXid);
+                    break;
+                case ROLLBACK_FAILED:
+                    transactionStore.rollbackFailed(globalXid);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown state " + state);
+            }
             return status;
         } catch (final JtaTransactionStoreException e) {
             LOGGER.warn(COULD_NOT_WRITE_TRANSACTION_LOG, e);
@@ -129,10 +383,62 @@ public final class JtaTransaction implements Transaction {
         }
     }
 
+    private boolean store(final boolean status, final StoreState state, final EnlistedXaResource enlistedXaResource) {
+        return store(status, state, enlistedXaResource, null);
+    }
+
+    /**
+     * Store the branch transaction state.
+     * @param status current status
+     * @param state state to store
+     * @param enlistedXaResource enlisted resource (branch)
+     * @param cause cause (only used for failed states)
+     * @return the given status if the state was stored, false otherwise
+     */
+    private boolean store(final boolean status, final StoreState state, final EnlistedXaResource enlistedXaResource, final XAException cause) {
+        final BranchJtaXid branchXid = enlistedXaResource.getBranchXid();
+        final String resourceManager = enlistedXaResource.getXaResource().getResourceManager();
+        try {
+            switch (state) {
+                case PREPARING:
+                    transactionStore.preparing(branchXid, resourceManager);
+                    break;
+                case PREPARED:
+                    transactionStore.prepared(branchXid, resourceManager);
+                    break;
+                case COMMITTING:
+                    transactionStore.committing(branchXid, resourceManager);
+                    break;
+                case COMMITTED:
+                    transactionStore.committed(branchXid, resourceManager);
+                    break;
+                case COMMIT_FAILED:
+                    transactionStore.commitFailed(branchXid, resourceManager, cause);
+                    break;
+                case ROLLING_BACK:
+                    transactionStore.rollingBack(branchXid, resourceManager);
+                    break;
+                case ROLLED_BACK:
+                    transactionStore.rolledBack(branchXid, resourceManager);
+                    break;
+                case ROLLBACK_FAILED:
+                    transactionStore.rollbackFailed(branchXid, resourceManager, cause);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown state " + state);
+            }
+            return status;
+        } catch (final JtaTransactionStoreException e) {
+            LOGGER.warn(COULD_NOT_WRITE_TRANSACTION_LOG, e);
+            return false;
+        }
+    }
 
-    @FunctionalInterface
-    private interface TransactionStoreCommand {
-        void store() throws JtaTransactionStoreException;
+    /**
+     * States that are stored during completion (enum constants, so storing does not allocate a command per call).
+     */
+    private enum StoreState {
+        PREPARING, PREPARED, COMMITTING, COMMITTED, COMMIT_FAILED, ROLLING_BACK, ROLLED_BACK, ROLLBACK_FAILED
     }
 
     /* ***************************** */
@@ -140,13 +446,13 @@ public final class JtaTransaction implements Transaction {
     /* ***************************** */
 
     @Override
-    public synchronized boolean delistResource(final XAResource xaResource, final int flag) throws SystemException {
+    public boolean delistResource(final XAResource xaResource, final int flag) throws SystemException {
         LOGGER.trace("delistResource(xaResource={}, flag={})", xaResource, flag);
         throw unsupportedOperationException("delist resource not supported");
     }
 
     @Override
-    public synchronized boolean enlistResource(final XAResource xaResource) throws RollbackException, SystemException {
+    public boolean enlistResource(final XAResource xaResource) throws RollbackException, SystemException {
         LOGGER.trace("enlistResource(xaResource={})", xaResource);
         throw unsupportedOperationException("enlistResource resource not supported");
     }
@@ -158,24 +464,31 @@ public final class JtaTransaction implements Transaction {
      * @throws IllegalStateException thrown if no transaction is active
      * @throws SystemException thrown if the transaction manager encounters an internal error
      */
-    public synchronized void enlistResource(final XAResourceAdapter xaResource) throws RollbackException, SystemException {
+    public void enlistResource(final XAResourceAdapter xaResource) throws RollbackException, SystemException {
         LOGGER.trace("enlistResource(xaResource={})", xaResource);
-        checkActive("enlist resource");
+        lock.lock();
+        try {
+            checkActive("enlist resource");
 
-        if (xaResource.supportsJoin()) {
-            LOGGER.debug("Join supported; looping through enlisted resources to possibly join already enlisted resource");
-            if (join(xaResource)) {
-                return;
+            if (xaResource.supportsJoin()) {
+                LOGGER.debug("Join supported; looking up enlisted resource of the same resource manager to possibly join");
+                if (join(xaResource)) {
+                    return;
+                }
             }
-        }
 
-        doEnlistResource(xaResource);
+            doEnlistResource(xaResource);
+        } finally {
+            lock.unlock();
+        }
     }
 
     private void doEnlistResource(final XAResourceAdapter xaResource) throws SystemException {
         // Store
-        final BranchJtaXid branchXid = globalXid.createBranchXid();
-        enlistedXaResources.add(new EnlistedXaResource(xaResource, branchXid));
+        final BranchJtaXid branchXid = getGlobalXid().createBranchXid();
+        final EnlistedXaResource enlistedXaResource = new EnlistedXaResource(xaResource, branchXid);
+        addEnlistedXaResource(enlistedXaResource);
+        registerResourceManager(xaResource.getResourceManager(), enlistedXaResource);
         try {
             transactionStore.active(branchXid, xaResource.getResourceManager());
         } catch (final JtaTransactionStoreException e) {
@@ -194,24 +507,64 @@ public final class JtaTransaction implements Transaction {
         }
     }
 
+    private void addEnlistedXaResource(final EnlistedXaResource enlistedXaResource) {
+        if (enlistedXaResourceCount == enlistedXaResources.length) {
+            enlistedXaResources = Arrays.copyOf(enlistedXaResources, Math.max(4, enlistedXaResourceCount * 2));
+        }
+        enlistedXaResources[enlistedXaResourceCount++] = enlistedXaResource;
+    }
+
+    private void registerResourceManager(final String resourceManager, final EnlistedXaResource enlistedXaResource) {
+        if (resourceManager == null) {
+            return;
+        }
+        if (enlistedXaResourcesByResourceManager == null) {
+            enlistedXaResourcesByResourceManager = new HashMap<>();
+        }
+        enlistedXaResourcesByResourceManager.putIfAbsent(resourceManager, enlistedXaResource);
+    }
+
     private boolean join(final XAResourceAdapter xaResource) throws SystemException {
-        for (final EnlistedXaResource enlistedResource : enlistedXaResources) {
-            try {
-                if (enlistedResource.getXaResource().isSameRM(xaResource)) {
-                    if (timeoutInSeconds != null) {
-                        xaResource.setTransactionTimeout(timeoutInSeconds);
-                    }
-                    // Join the 'other' xaResource
-                    // Preparing and committing will be done through the 'other' xaResource, so we don't need to keep a reference to 'this' xaResource.
-                    LOGGER.debug("Calling xa_start(xid, TMJOIN) on {} using xid {}", xaResource, enlistedResource.getBranchXid());
-                    xaResource.start(enlistedResource.getBranchXid(), XAResource.TMJOIN);
-                    return true;
-                }
-            } catch (XAException e) {
-                throw systemException("Could not join transaction on XA resource", e);
+        try {
+            final EnlistedXaResource enlistedResource = findJoinableResource(xaResource);
+            if (enlistedResource == null) {
+                return false;
+            }
+            if (timeoutInSeconds != null) {
+                xaResource.setTransactionTimeout(timeoutInSeconds);
             }
+            enlistedResource.getXaResource().joined(xaResource);
+            // Join the 'other' xaResource
+            // Preparing and committing will be done through the 'other' xaResource, so we don't need to keep a reference to 'this' xaResource.
+            LOGGER.debug("Calling xa_start(xid, TMJOIN) on {} using xid {}", xaResource, enlistedResource.getBranchXid());
+            xaResource.start(enlistedResource.getBranchXid(), XAResource.TMJOIN);
+            return true;
+        } catch (XAException e) {
+            throw systemException("Could not join transaction on XA resource", e);
         }
-        return false;
+    }
+
+    private EnlistedXaResource findJoinableResource(final XAResourceAdapter xaResource) throws XAException {
+        // Known resource manager; no need to ask the resources
+        final String resourceManager = xaResource.getResourceManager();
+        if (enlistedXaResourcesByResourceManager != null && resourceManager != null) {
+            final EnlistedXaResource enlistedResource = enlistedXaResourcesByResourceManager.get(resourceManager);
+            if (enlistedResource != null) {
+                return enlistedResource;
+            }
+        }
+
+        if (resourceManagerCache == null) {
+            resourceManagerCache = new JtaResourceManagerCache();
+        }
+        for (int index = 0; index < enlistedXaResourceCount; index++) {
+            final EnlistedXaResource enlistedResource = enlistedXaResources[index];
+            if (resourceManagerCache.isSameResourceManager(enlistedResource.getXaResource(), xaResource)) {
+                registerResourceManager(resourceManager, enlistedResource);
+                return enlistedResource;
+            }
+        }
+        return null;
     }
 
     /* ***************************** */
@@ -222,39 +575,51 @@ public final class JtaTransaction implements Transaction {
         return status == JtaTransactionStatus.SUSPENDED;
     }
 
-    synchronized void suspend() throws SystemException {
-        for (final EnlistedXaResource enlistedResource : enlistedXaResources) {
-            if (enlistedResource.getXaResource().supportsSuspend()) {
-                try {
-                    enlistedResource.getXaResource().end(enlistedResource.getBranchXid(), XAResource.TMSUSPEND);
-                } catch (final XAException e) {
-                    status = JtaTransactionStatus.MARKED_ROLLBACK;
-                    throw systemException("Transaction could not be suspended; xa errorcode=" + e.errorCode, e);
+    void suspend() throws SystemException {
+        lock.lock();
+        try {
+            for (int index = 0; index < enlistedXaResourceCount; index++) {
+                final EnlistedXaResource enlistedResource = enlistedXaResources[index];
+                if (enlistedResource.getXaResource().supportsSuspend()) {
+                    try {
+                        enlistedResource.getXaResource().end(enlistedResource.getBranchXid(), XAResource.TMSUSPEND);
+                    } catch (final XAException e) {
+                        status = JtaTransactionStatus.MARKED_ROLLBACK;
+                        throw systemException("Transaction could not be suspended; xa errorcode=" + e.errorCode, e);
+                    }
                 }
             }
+            status = JtaTransactionStatus.SUSPENDED;
+        } finally {
+            lock.unlock();
         }
-        status = JtaTransactionStatus.SUSPENDED;
     }
 
-    synchronized void resume() throws SystemException, InvalidTransactionException {
-        if (!isSuspended()) {
-            throw JtaExceptions.invalidTransactionException("Given transaction is not a suspended transaction");
-        }
+    void resume() throws SystemException, InvalidTransactionException {
+        lock.lock();
+        try {
+            if (!isSuspended()) {
+                throw JtaExceptions.invalidTransactionException("Given transaction is not a suspended transaction");
+            }
 
-        for (final EnlistedXaResource enlistedResource : enlistedXaResources) {
-            if (enlistedResource.getXaResource().supportsSuspend()) {
-                try {
-                    XAResourceAdapter xaResource = enlistedResource.getXaResource();
-                    BranchJtaXid branchXid = enlistedResource.getBranchXid();
-                    LOGGER.debug("Calling xa_start(xid, TMRESUME) on {} using xid {}", xaResource, branchXid);
-                    xaResource.start(branchXid, XAResource.TMRESUME);
-                } catch (final XAException e) {
-                    status = JtaTransactionStatus.MARKED_ROLLBACK;
-                    throw systemException("Transaction could not be resumed.");
+            for (int index = 0; index < enlistedXaResourceCount; index++) {
+                final EnlistedXaResource enlistedResource = enlistedXaResources[index];
+                if (enlistedResource.getXaResource().supportsSuspend()) {
+                    try {
+                        XAResourceAdapter xaResource = enlistedResource.getXaResource();
+                        BranchJtaXid branchXid = enlistedResource.getBranchXid();
+                        LOGGER.debug("Calling xa_start(xid, TMRESUME) on {} using xid {}", xaResource, branchXid);
+                        xaResource.start(branchXid, XAResource.TMRESUME);
+                    } catch (final XAException e) {
+                        status = JtaTransactionStatus.MARKED_ROLLBACK;
+                        throw systemException("Transaction could not be resumed.");
+                    }
                 }
             }
+            status = JtaTransactionStatus.ACTIVE;
+        } finally {
+            lock.unlock();
         }
-        status = JtaTransactionStatus.ACTIVE;
     }
 
     /* ***************************** */
@@ -262,34 +627,43 @@ public final class JtaTransaction implements Transaction {
     /* ***************************** */
 
     @Override
-    public synchronized void commit() throws RollbackException, SystemException {
+    public void commit() throws RollbackException, SystemException {
         LOGGER.trace("commit()");
+        lock.lock();
+        try {
+            awaitParticipants();
 
-        // Check rollback only
-        if (status == JtaTransactionStatus.MARKED_ROLLBACK) {
-            rollback();
-            throw rollbackException("Transaction marked for rollback");
-        }
+            // Check rollback only
+            if (status == JtaTransactionStatus.MARKED_ROLLBACK) {
+                rollback();
+                throw rollbackException(timedOut ? "Transaction timed out" : "Transaction marked for rollback");
+            }
 
-        // Check active
-        if (JtaTransactionStatus.ACTIVE != status) {
-            throw illegalStateException("Transaction status is not active (but " + status + "); commit not allowed.");
-        }
+            // Check active
+            if (JtaTransactionStatus.ACTIVE != status) {
+                throw illegalStateException("Transaction status is not active (but " + status + "); commit not allowed.");
+            }
 
-        // Before completion
-        doBeforeCompletion();
+            // Before completion
+            doBeforeCompletion();
 
-        if (enlistedXaResources.isEmpty()) {
-            doNoPhaseCommit();
-        } else if (enlistedXaResources.size() == 1) {
-            doSinglePhaseCommit();
-        } else {
-            doTwoPhaseCommit();
+            if (enlistedXaResourceCount == 0) {
+                doNoPhaseCommit();
+            } else if (enlistedXaResourceCount == 1 || releaseUnwrittenBranches() == 1 || readOnly) {
+                doSinglePhaseCommit();
+            } else {
+                doTwoPhaseCommit();
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
     private void doBeforeCompletion() {
         LOGGER.trace("doBeforeCompletion()");
+        if (synchronizations == null) {
+            return;
+        }
         try {
             for (final Synchronization synchronization : synchronizations) {
                 synchronization.beforeCompletion();
@@ -300,9 +674,44 @@ public final class JtaTransaction implements Transaction {
         }
     }
 
+    /**
+     * Commit (1-phase) and close branches that have not written any data (only known for resources that track writes; all branches of a read-only
+     * transaction are considered to have not written any data), so they can be skipped in prepare. At least one branch is kept open.
+     * @return number of branches that are still open
+     */
+    private int releaseUnwrittenBranches() {
+        int open = enlistedXaResourceCount;
+        for (int index = 0; index < enlistedXaResourceCount && open > 1 && status == JtaTransactionStatus.ACTIVE; index++) {
+            final EnlistedXaResource enlistedXaResource = enlistedXaResources[index];
+            final XAResourceAdapter xaResource = enlistedXaResource.getXaResource();
+            final BranchJtaXid branchXid = enlistedXaResource.getBranchXid();
+            if (!readOnly && xaResource.hasWritten()) {
+                continue;
+            }
+
+            try {
+                LOGGER.debug("Calling xa_end on {} using xid {} (no data written)", xaResource, branchXid);
+                xaResource.end(branchXid, XAResource.TMSUCCESS);
+                enlistedXaResource.setEnded();
+
+                LOGGER.debug("Calling xa_commit on {} using xid {} (no data written)", xaResource, branchXid);
+                xaResource.commit(branchXid, true);
+                enlistedXaResource.setClosed();
+                open--;
+                if (!store(true, StoreState.COMMITTED, enlistedXaResource)) {
+                    status = JtaTransactionStatus.MARKED_ROLLBACK;
+                }
+            } catch (final XAException e) {
+                LOGGER.debug("Release of branch without written data failed", e);
+                status = JtaTransactionStatus.MARKED_ROLLBACK;
+            }
+        }
+        return open;
+    }
+
     private void doNoPhaseCommit() throws SystemException {
         LOGGER.trace("0-phase commit (no enlisted resources)");
-        boolean storeOk = store(true, () -> transactionStore.committed(globalXid));
+        boolean storeOk = store(true, StoreState.COMMITTED);
 
         status = JtaTransactionStatus.COMMITTED;
         doSystemCallbacks();
@@ -320,13 +729,13 @@ public final class JtaTransaction implements Transaction {
             LOGGER.debug("Starting 1-phase commit");
             // Commit
             status = JtaTransactionStatus.COMMITTING;
-            boolean storeOk = store(true, () -> transactionStore.committing(globalXid));
+            boolean storeOk = store(true, StoreState.COMMITTING);
 
-            final EnlistedXaResource enlistedXaResource = enlistedXaResources.get(0);
+            final EnlistedXaResource enlistedXaResource = firstOpenBranch();
             final XAResourceAdapter xaResource = enlistedXaResource.getXaResource();
             final BranchJtaXid branchXid = enlistedXaResource.getBranchXid();
             if (storeOk) {
-                storeOk = store(true, () -> transactionStore.committing(branchXid, xaResource.getResourceManager()));
+                storeOk = store(true, StoreState.COMMITTING, enlistedXaResource);
             }
 
             if (!storeOk) {
@@ -339,11 +748,11 @@ public final class JtaTransaction implements Transaction {
 
                     LOGGER.debug("Calling xa_commit on {} using xid {}", xaResource, branchXid);
                     xaResource.commit(branchXid, true);
-                    storeOk = store(true, () -> transactionStore.committed(branchXid, xaResource.getResourceManager()));
+                    storeOk = store(true, StoreState.COMMITTED, enlistedXaResource);
 
                     status = JtaTransactionStatus.COMMITTED;
 
-                    storeOk = store(storeOk, () -> transactionStore.committed(globalXid));
+                    storeOk = store(storeOk, StoreState.COMMITTED);
 
                     LOGGER.debug("1-phase commit committed");
                     doSystemCallbacks();
@@ -369,6 +778,15 @@ public final class JtaTransaction implements Transaction {
         }
     }
 
+    private EnlistedXaResource firstOpenBranch() {
+        for (int index = 0; index < enlistedXaResourceCount; index++) {
+            if (!enlistedXaResources[index].isClosed()) {
+                return enlistedXaResources[index];
+            }
+        }
+        throw illegalStateException("No open branch");
+    }
+
     private void doTwoPhaseCommit() throws RollbackException, SystemException {
         if (status == JtaTransactionStatus.ACTIVE) {
             // Preparing
@@ -388,8 +806,10 @@ public final class JtaTransaction implements Transaction {
         }
 
         if (status == JtaTransactionStatus.COMMITTING) {
-            // Commit
-            doCommit();
+            // Commit (the outcome has been decided and durably stored)
+            if (backgroundCommitter == null || !startBackgroundCommit()) {
+                doCommit();
+            }
         } else {
             // Rollback
             LOGGER.debug("Transaction not be prepared. Executing rollback.");
@@ -399,7 +819,7 @@ public final class JtaTransaction implements Transaction {
     }
 
     private void doPreparing() {
-        if (store(true, () -> transactionStore.preparing(globalXid))) {
+        if (store(true, StoreState.PREPARING)) {
             status = JtaTransactionStatus.PREPARING;
         } else {
             status = JtaTransactionStatus.MARKED_ROLLBACK;
@@ -411,16 +831,24 @@ public final class JtaTransaction implements Transaction {
 
         // Prepare
         boolean ok = true;
+        final EnlistedXaResource[] preparedXaResources =
+                prepareOrder == null ? enlistedXaResources : prepareOrder.order(enlistedXaResources, enlistedXaResourceCount, EnlistedXaResource::getXaResource);
+        final boolean measure = prepareOrder != null && prepareOrder.isAdaptive();
 
-        for (final EnlistedXaResource enlistedXaResource : enlistedXaResources) {
+        for (int index = 0; index < enlistedXaResourceCount; index++) {
+            final EnlistedXaResource enlistedXaResource = preparedXaResources[index];
             final XAResourceAdapter xaResource = enlistedXaResource.getXaResource();
             final BranchJtaXid branchXid = enlistedXaResource.getBranchXid();
             if (!ok) {
                 LOGGER.debug("Skipping prepare on {} as previous prepare has already failed.", xaResource);
                 continue;
             }
+            if (enlistedXaResource.isClosed()) {
+                LOGGER.debug("Skipping prepare on {} as it has already been closed (no data written)", xaResource);
+                continue;
+            }
 
-            ok = store(ok, () -> transactionStore.preparing(branchXid, xaResource.getResourceManager()));
+            ok = store(ok, StoreState.PREPARING, enlistedXaResource);
             if (!ok) {
                 continue;
             }
@@ -431,14 +859,27 @@ public final class JtaTransaction implements Transaction {
                 enlistedXaResource.setEnded();
 
                 LOGGER.debug("Calling xa_prepare on {} using xid {}", xaResource, branchXid);
-                final int prepareResult = xaResource.prepare(branchXid);
+                final long start = measure ? System.nanoTime() : 0L;
+                final int prepareResult;
+                try {
+                    prepareResult = xaResource.prepare(branchXid);
+                } catch (final XAException e) {
+                    if (measure) {
+                        prepareOrder.prepared(xaResource, false, System.nanoTime() - start);
+                    }
+                    throw e;
+                }
+                if (measure) {
+                    prepareOrder.prepared(xaResource, prepareResult == XAResource.XA_OK || prepareResult == XAResource.XA_RDONLY,
+                            System.nanoTime() - start);
+                }
                 if (prepareResult == XAResource.XA_OK) {
                     LOGGER.debug("xa_prepare on {}; result ok; adding xaResource to list of prepared resources.", xaResource);
-                    ok = store(ok, () -> transactionStore.prepared(branchXid, xaResource.getResourceManager()));
+                    ok = store(ok, StoreState.PREPARED, enlistedXaResource);
                 } else if (prepareResult == XAResource.XA_RDONLY) {
                     LOGGER.debug("xa_prepare on {}; result read-only. Skipping xa resource for commit.", xaResource);
                     enlistedXaResource.setClosed();
-                    ok = store(ok, () -> transactionStore.committed(branchXid, xaResource.getResourceManager()));
+                    ok = store(ok, StoreState.COMMITTED, enlistedXaResource);
                 } else {
                     ok = false;
                     LOGGER.error("Unknown result {} from xaResource.prepare on {}", prepareResult, xaResource);
@@ -455,7 +896,7 @@ public final class JtaTransaction implements Transaction {
         }
 
         if (ok) {
-            ok = store(ok, () -> transactionStore.prepared(globalXid));
+            ok = store(ok, StoreState.PREPARED);
         }
         LOGGER.debug("Prepare of 2-phase commit completed; result = {}", ok);
 
@@ -467,7 +908,7 @@ public final class JtaTransaction implements Transaction {
     }
 
     private void doCommitting() {
-        if (store(true, () -> transactionStore.committing(globalXid))) {
+        if (store(true, StoreState.COMMITTING)) {
             status = JtaTransactionStatus.COMMITTING;
         } else {
             status = JtaTransactionStatus.MARKED_ROLLBACK;
@@ -479,7 +920,8 @@ public final class JtaTransaction implements Transaction {
         boolean storeOk = true;
         boolean commitOk = true;
 
-        for (final EnlistedXaResource enlistedXaResource : enlistedXaResources) {
+        for (int index = 0; index < enlistedXaResourceCount; index++) {
+            final EnlistedXaResource enlistedXaResource = enlistedXaResources[index];
             final XAResourceAdapter xaResource = enlistedXaResource.getXaResource();
             final BranchJtaXid branchXid = enlistedXaResource.getBranchXid();
 
@@ -487,25 +929,25 @@ public final class JtaTransaction implements Transaction {
                 LOGGER.debug("Skipping commit on {} as it has already been closed (readonly)", xaResource);
                 continue;
             }
-            storeOk = store(storeOk, () -> transactionStore.committing(branchXid, xaResource.getResourceManager()));
+            storeOk = store(storeOk, StoreState.COMMITTING, enlistedXaResource);
             try {
                 LOGGER.debug("Calling xa_commit on {} using xid {}", xaResource, branchXid);
                 xaResource.commit(branchXid, false);
-                storeOk = store(storeOk, () -> transactionStore.committed(branchXid, xaResource.getResourceManager()));
+                storeOk = store(storeOk, StoreState.COMMITTED, enlistedXaResource);
             } catch (final XAException e) {
                 status = JtaTransactionStatus.COMMIT_FAILED;
                 commitOk = false;
                 LOGGER.error("XA exception during commit", e);
-                storeOk = store(storeOk, () -> transactionStore.commitFailed(branchXid, xaResource.getResourceManager(), e));
+                storeOk = store(storeOk, StoreState.COMMIT_FAILED, enlistedXaResource, e);
             }
         }
 
         LOGGER.debug("Commit of 2-phase commit completed; success = {}", commitOk);
         if (commitOk) {
-            storeOk = store(storeOk, () -> transactionStore.committed(globalXid));
+            storeOk = store(storeOk, StoreState.COMMITTED);
             status = JtaTransactionStatus.COMMITTED;
         } else {
-            storeOk = store(storeOk, () -> transactionStore.commitFailed(globalXid));
+            storeOk = store(storeOk, StoreState.COMMIT_FAILED);
             status = JtaTransactionStatus.COMMIT_FAILED;
         }
         doSystemCallbacks();
@@ -521,28 +963,127 @@ public final class JtaTransaction implements Transaction {
         doAfterCompletion();
     }
 
+    /**
+     * Set the background committer to use (enables early acknowledge); not for external use!
+     * @param backgroundCommitter background committer
+     */
+    void setBackgroundCommitter(final JtaBackgroundCommitter backgroundCommitter) {
+        this.backgroundCommitter = backgroundCommitter;
+    }
+
+    /**
+     * Set the resource manager cache to use (shared between transactions); not for external use!
+     * @param resourceManagerCache resource manager cache
+     */
+    void setResourceManagerCache(final JtaResourceManagerCache resourceManagerCache) {
+        this.resourceManagerCache = resourceManagerCache;
+    }
+
+    /**
+     * Set the prepare order to use (shared between transactions; resources are prepared in enlistment order if not set); not for external use!
+     * @param prepareOrder prepare order
+     */
+    void setPrepareOrder(final JtaPrepareOrder prepareOrder) {
+        this.prepareOrder = prepareOrder;
+    }
+
+    private boolean startBackgroundCommit() {
+        // Detach from the committing thread; completion (system callbacks and synchronizations) will be executed by the background committer
+        for (int index = 0; index < systemCallbackCount; index++) {
+            systemCallbacks[index].transactionCompletingAsync(this);
+        }
+        if (backgroundCommitter.submit(() -> doBackgroundCommit(0))) {
+            LOGGER.debug("Commit decision stored; commit of 2-phase commit will be executed in the background");
+            return true;
+        }
+        return false;
+    }
+
+    private void doBackgroundCommit(final int attempt) {
+        lock.lock();
+        try {
+            LOGGER.trace("doBackgroundCommit(attempt={})", attempt);
+            boolean commitOk = true;
+
+            for (int index = 0; index < enlistedXaResourceCount; index++) {
+                final EnlistedXaResource enlistedXaResource = enlistedXaResources[index];
+                final XAResourceAdapter xaResource = enlistedXaResource.getXaResource();
+                final BranchJtaXid branchXid = enlistedXaResource.getBranchXid();
+
+                if (enlistedXaResource.isClosed()) {
+                    continue;
+                }
+                store(true, StoreState.COMMITTING, enlistedXaResource);
+                try {
+                    LOGGER.debug("Calling xa_commit on {} using xid {}", xaResource, branchXid);
+                    xaResource.commit(branchXid, false);
+                } catch (final XAException e) {
+                    if (attempt > 0 && e.errorCode == XAException.XAER_NOTA) {
+                        // Branch unknown when retrying; the previous attempt did commit (but its reply was lost)
+                        LOGGER.debug("Branch unknown on retry of commit; assuming committed", e);
+                    } else {
+                        commitOk = false;
+                        LOGGER.warn("XA exception during background commit (attempt {})", attempt, e);
+                        store(true, StoreState.COMMIT_FAILED, enlistedXaResource, e);
+                        continue;
+                    }
+                }
+                store(true, StoreState.COMMITTED, enlistedXaResource);
+                enlistedXaResource.setClosed();
+            }
+
+            if (!commitOk && backgroundCommitter.retry(() -> doBackgroundCommit(attempt + 1), attempt)) {
+                LOGGER.info("Background commit failed (attempt {}); retrying failed branches later", attempt);
+                return;
+            }
+
+            LOGGER.debug("Background commit of 2-phase commit completed; success = {}", commitOk);
+            if (commitOk) {
+                store(true, StoreState.COMMITTED);
+                status = JtaTransactionStatus.COMMITTED;
+            } else {
+                LOGGER.error("Transaction could not be committed completely (after successful preparation); transaction will be completed by recovery. "
+                        + "DATA CAN BE INCONSISTENT UNTIL RECOVERY!");
+                store(true, StoreState.COMMIT_FAILED);
+                status = JtaTransactionStatus.COMMIT_FAILED;
+            }
+            doSystemCallbacks();
+            doAfterCompletion();
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /* ***************************** */
     /* *** ROLLBACK **************** */
     /* ***************************** */
 
     @Override
-    public synchronized void rollback() throws SystemException {
+    public void rollback() throws SystemException {
         LOGGER.trace("rollback()");
-        if (JtaTransactionStatus.ACTIVE != status && JtaTransactionStatus.MARKED_ROLLBACK != status) {
-            throw illegalStateException("Transaction status is not active or marked for rollback (but " + status + "); rollback not allowed.");
-        }
+        lock.lock();
+        try {
+            awaitParticipants();
 
-        doRollback();
+            if (JtaTransactionStatus.ACTIVE != status && JtaTransactionStatus.MARKED_ROLLBACK != status) {
+                throw illegalStateException("Transaction status is not active or marked for rollback (but " + status + "); rollback not allowed.");
+            }
+
+            doRollback();
+        } finally {
+            lock.unlock();
+        }
     }
 
     private void doRollback() throws SystemException {
         // Rollback
         LOGGER.debug("Starting rollback");
         status = JtaTransactionStatus.ROLLING_BACK;
-        boolean storeOk = store(true, () -> transactionStore.rollingBack(globalXid));
+        boolean storeOk = store(true, StoreState.ROLLING_BACK);
         boolean rollbackOk = true;
 
-        for (final EnlistedXaResource enlistedXaResource : enlistedXaResources) {
+        for (int index = 0; index < enlistedXaResourceCount; index++) {
+            final EnlistedXaResource enlistedXaResource = enlistedXaResources[index];
             final XAResourceAdapter xaResource = enlistedXaResource.getXaResource();
             final BranchJtaXid branchXid = enlistedXaResource.getBranchXid();
 
@@ -550,7 +1091,7 @@ public final class JtaTransaction implements Transaction {
                 LOGGER.debug("Skipping rollback on {} as it has already been closed (readonly/rolled back)", xaResource);
                 continue;
             }
-            storeOk = store(storeOk, () -> transactionStore.rollingBack(branchXid, xaResource.getResourceManager()));
+            storeOk = store(storeOk, StoreState.ROLLING_BACK, enlistedXaResource);
             try {
                 if (enlistedXaResource.isEnded()) {
                     LOGGER.debug("Skipping xa_end on {} as it has already been called", xaResource);
@@ -567,20 +1108,20 @@ public final class JtaTransaction implements Transaction {
                 LOGGER.debug("Calling xa_rollback on {} using xid {}", xaResource, branchXid);
                 xaResource.rollback(branchXid);
 
-                storeOk = store(storeOk, () -> transactionStore.rolledBack(branchXid, xaResource.getResourceManager()));
+                storeOk = store(storeOk, StoreState.ROLLED_BACK, enlistedXaResource);
             } catch (final XAException e) {
                 rollbackOk = false;
                 LOGGER.warn("XA exception during rollback", e);
-                storeOk = store(storeOk, () -> transactionStore.rollbackFailed(branchXid, xaResource.getResourceManager(), e));
+                storeOk = store(storeOk, StoreState.ROLLBACK_FAILED, enlistedXaResource, e);
             }
         }
 
         LOGGER.debug("Rollback completed; success = {}", rollbackOk);
         if (rollbackOk) {
-            storeOk = store(storeOk, () -> transactionStore.rolledBack(globalXid));
+            storeOk = store(storeOk, StoreState.ROLLED_BACK);
             status = JtaTransactionStatus.ROLLED_BACK;
         } else {
-            storeOk = store(storeOk, () -> transactionStore.rollbackFailed(globalXid));
+            storeOk = store(storeOk, StoreState.ROLLBACK_FAILED);
             status = JtaTransactionStatus.ROLLBACK_FAILED;
         }
         doSystemCallbacks();
@@ -597,6 +1138,84 @@ public final class JtaTransaction implements Transaction {
         doAfterCompletion();
     }
 
+    /* ***************************** */
+    /* *** ASYNC COMPLETION ******** */
+    /* ***************************** */
+
+    /**
+     * Set the executor used for asynchronous completion; not for external use!
+     * @param completionExecutor executor
+     */
+    void setCompletionExecutor(final Executor completionExecutor) {
+        this.completionExecutor = completionExecutor;
+    }
+
+    /**
+     * Commit the transaction asynchronously; the transaction is detached from the current thread immediately and all phases (including {@link
+     * Synchronization#beforeCompletion()} and {@link Synchronization#afterCompletion(int)}) are executed on the completion executor of the transaction
+     * manager.
+     *
+     * <p> The returned stage completes with the final status of the transaction ({@link javax.transaction.Status#STATUS_COMMITTED} or {@link
+     * javax.transaction.Status#STATUS_ROLLEDBACK} when the transaction could not be committed and has been rolled back) or completes exceptionally (with a
+     * {@link SystemException} or {@link IllegalStateException}) when the outcome could not be determined.
+     * @return stage that completes with the final status
+     * @throws IllegalStateException thrown if the transaction can not be completed from the current thread
+     */
+    public CompletionStage<Integer> commitAsync() {
+        LOGGER.trace("commitAsync()");
+        return completeAsync(true);
+    }
+
+    /**
+     * Rollback the transaction asynchronously; see {@link #commitAsync()}.
+     * @return stage that completes with the final status ({@link javax.transaction.Status#STATUS_ROLLEDBACK})
+     * @throws IllegalStateException thrown if the transaction can not be completed from the current thread
+     */
+    public CompletionStage<Integer> rollbackAsync() {
+        LOGGER.trace("rollbackAsync()");
+        return completeAsync(false);
+    }
+
+    private CompletionStage<Integer> completeAsync(final boolean commit) {
+        if (completionExecutor == null) {
+            throw illegalStateException("No executor available for asynchronous completion");
+        }
+        lock.lock();
+        try {
+            for (int index = 0; index < systemCallbackCount; index++) {
+                systemCallbacks[index].transactionCompletingAsync(this);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+        final Runnable completion = () -> complete(commit, result);
+        try {
+            completionExecutor.execute(completion);
+        } catch (final RejectedExecutionException e) {
+            LOGGER.warn("Asynchronous completion rejected; completing transaction on current thread", e);
+            completion.run();
+        }
+        return result;
+    }
+
+    private void complete(final boolean commit, final CompletableFuture<Integer> result) {
+        try {
+            if (commit) {
+                commit();
+            } else {
+                rollback();
+            }
+            result.complete(getStatus());
+        } catch (final RollbackException e) {
+            LOGGER.debug("Asynchronous commit rolled back", e);
+            result.complete(getStatus());
+        } catch (final SystemException | RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
     /* ***************************** */
     /* *** CALLBACKS *************** */
     /* ***************************** */
@@ -605,14 +1224,22 @@ public final class JtaTransaction implements Transaction {
      * Register a system callback; not for external use!
      * @param systemCallback system callback
      */
-    public synchronized void registerSystemCallback(final JtaSystemCallback systemCallback) {
+    public void registerSystemCallback(final JtaSystemCallback systemCallback) {
         LOGGER.trace("registerAfterCompletionCallback(systemCallback={}", systemCallback);
-        systemCallbacks.add(systemCallback);
+        lock.lock();
+        try {
+            if (systemCallbackCount == systemCallbacks.length) {
+                systemCallbacks = Arrays.copyOf(systemCallbacks, systemCallbackCount * 2);
+            }
+            systemCallbacks[systemCallbackCount++] = systemCallback;
+        } finally {
+            lock.unlock();
+        }
     }
 
     private void doSystemCallbacks() {
-        for (final JtaSystemCallback systemCallback : systemCallbacks) {
-            systemCallback.transactionCompleted(this);
+        for (int index = 0; index < systemCallbackCount; index++) {
+            systemCallbacks[index].transactionCompleted(this);
         }
     }
 
@@ -621,15 +1248,26 @@ public final class JtaTransaction implements Transaction {
     /* ***************************** */
 
     @Override
-    public synchronized void registerSynchronization(final Synchronization synchronization) throws RollbackException {
+    public void registerSynchronization(final Synchronization synchronization) throws RollbackException {
         LOGGER.trace("registerSynchronization(synchronization={}", synchronization);
-        checkActive("register synchronization");
+        lock.lock();
+        try {
+            checkActive("register synchronization");
 
-        synchronizations.add(synchronization);
+            if (synchronizations == null) {
+                synchronizations = new ArrayList<>(2);
+            }
+            synchronizations.add(synchronization);
+        } finally {
+            lock.unlock();
+        }
     }
 
     private void doAfterCompletion() {
         LOGGER.trace("doAfterCompletion()");
+        if (synchronizations == null) {
+            return;
+        }
         for (final Synchronization synchronization : synchronizations) {
             synchronization.afterCompletion(status.getJtaStatus());
         }
@@ -647,23 +1285,144 @@ public final class JtaTransaction implements Transaction {
      * SystemException is thrown.
      * @throws SystemException Thrown if the transaction manager encounters an unexpected error condition.
      */
-    synchronized void setTransactionTimeout(final int seconds) throws SystemException {
+    void setTransactionTimeout(final int seconds) throws SystemException {
         LOGGER.trace("setTransactionTimeout(seconds={})", seconds);
+        lock.lock();
+        try {
+            if (seconds < 0) {
+                throw systemException("Timeout may not be a negative value");
+            }
+
+            timeoutInSeconds = seconds;
 
-        if (seconds < 0) {
-            throw systemException("Timeout may not be a negative value");
+            // Update all enlisted xa resources
+            for (int index = 0; index < enlistedXaResourceCount; index++) {
+                final EnlistedXaResource enlistedXaResource = enlistedXaResources[index];
+                try {
+                    enlistedXaResource.getXaResource().setTransactionTimeout(timeoutInSeconds);
+                } catch (final XAException e) {
+                    throw systemException("Could not set timeout on XA resource", e);
+                }
+            }
+        } finally {
+            lock.unlock();
         }
+    }
 
-        timeoutInSeconds = seconds;
+    /**
+     * Register the timeout that has been scheduled for this transaction; not for external use!
+     * @param timeout timeout
+     */
+    void setTimeout(final HashedWheelTimer.Timeout timeout) {
+        this.timeout = timeout;
+    }
 
-        // Update all enlisted xa resources
-        for (final EnlistedXaResource enlistedXaResource : enlistedXaResources) {
+    /**
+     * Cancel the timeout that has been scheduled for this transaction (if any); not for external use!
+     */
+    void cancelTimeout() {
+        final HashedWheelTimer.Timeout currentTimeout = timeout;
+        if (currentTimeout != null) {
+            currentTimeout.cancel();
+            timeout = null;
+        }
+    }
+
+    /**
+     * @return true, if the transaction has timed out
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Called (by the timer of the transaction manager) when the transaction timeout has expired; not for external use!
+     *
+     * <p> The transaction is marked for rollback only and the enlisted branches are rolled back (on the completion executor, so the timer thread never
+     * waits for the resource managers or the transaction store), releasing the locks held in the resource managers. The transaction itself is completed
+     * when the application calls commit (which will throw a RollbackException) or rollback.
+     * @return false, if the transaction is currently in use (locked) by another thread and the timeout should be retried later; true otherwise
+     */
+    boolean timedOut() {
+        // Only active transactions; transactions that are completing (or suspended) are left alone
+        if (JtaTransactionStatus.ACTIVE != status) {
+            return true;
+        }
+        // Never block the timer thread
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            if (JtaTransactionStatus.ACTIVE != status) {
+                return true;
+            }
+            LOGGER.warn("Transaction timed out (after {} seconds); marking transaction for rollback only: {}", timeoutInSeconds, this);
+            status = JtaTransactionStatus.MARKED_ROLLBACK;
+            timedOut = true;
+        } finally {
+            lock.unlock();
+        }
+
+        if (completionExecutor == null) {
+            rollbackTimedOutBranches();
+        } else {
             try {
-                enlistedXaResource.getXaResource().setTransactionTimeout(timeoutInSeconds);
-            } catch (final XAException e) {
-                throw systemException("Could not set timeout on XA resource", e);
+                completionExecutor.execute(this::rollbackTimedOutBranches);
+            } catch (final RejectedExecutionException e) {
+                // The branches will be rolled back when the transaction is completed
+                LOGGER.warn("Rollback of timed out transaction rejected", e);
             }
         }
+        return true;
+    }
+
+    private void rollbackTimedOutBranches() {
+        lock.lock();
+        try {
+            // Completion (by the application) has already started and will roll back the branches
+            if (JtaTransactionStatus.MARKED_ROLLBACK != status) {
+                return;
+            }
+            for (int index = 0; index < enlistedXaResourceCount; index++) {
+                final EnlistedXaResource enlistedXaResource = enlistedXaResources[index];
+                if (!enlistedXaResource.isClosed()) {
+                    rollbackTimedOutBranch(enlistedXaResource);
+                }
+            }
+            // Stop the application from using the resources; further work would be done outside the transaction
+            for (int index = 0; index < systemCallbackCount; index++) {
+                try {
+                    systemCallbacks[index].transactionTimedOut(this);
+                } catch (final RuntimeException e) {
+                    LOGGER.warn("Unexpected exception in timed out callback", e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void rollbackTimedOutBranch(final EnlistedXaResource enlistedXaResource) {
+        final XAResourceAdapter xaResource = enlistedXaResource.getXaResource();
+        final BranchJtaXid branchXid = enlistedXaResource.getBranchXid();
+
+        store(true, StoreState.ROLLING_BACK, enlistedXaResource);
+        try {
+            if (!enlistedXaResource.isEnded()) {
+                LOGGER.debug("Calling xa_end on {} using xid {}", xaResource, branchXid);
+                enlistedXaResource.setEnded();
+                xaResource.end(branchXid, XAResource.TMFAIL);
+            }
+            LOGGER.debug("Calling xa_rollback on {} using xid {}", xaResource, branchXid);
+            xaResource.rollback(branchXid);
+        } catch (final XAException e) {
+            // The rollback will be retried when the transaction is completed
+            LOGGER.warn("XA exception during rollback of timed out transaction", e);
+            return;
+        }
+
+        store(true, StoreState.ROLLED_BACK, enlistedXaResource);
+        enlistedXaResource.setClosed();
     }
 
     @Override
@@ -675,18 +1434,19 @@ public final class JtaTransaction implements Transaction {
             return false;
         }
         JtaTransaction that = (JtaTransaction) o;
-        return Objects.equals(globalXid, that.globalXid);
+        return localId == that.localId && Objects.equals(transactionManager, that.transactionManager);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(globalXid);
+        return 31 * Objects.hashCode(transactionManager) + Long.hashCode(localId);
     }
 
     @Override
     public String toString() {
         return "JtaTransaction{" +
-                "globalXid=" + globalXid +
+                "localId=" + localId +
+                ", globalXid=" + globalXid +
                 ", status=" + status +
                 '}';
     }
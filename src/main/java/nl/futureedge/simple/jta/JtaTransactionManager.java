@@ -5,9 +5,14 @@ import static nl.futureedge.simple.jta.JtaExceptions.illegalStateException;
 import static nl.futureedge.simple.jta.JtaExceptions.notSupportedException;
 import static nl.futureedge.simple.jta.JtaExceptions.systemException;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.transaction.InvalidTransactionException;
 import javax.transaction.NotSupportedException;
 import javax.transaction.RollbackException;
@@ -17,8 +22,15 @@ import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
+import nl.futureedge.simple.jta.context.JtaTransactionContext;
+import nl.futureedge.simple.jta.context.JtaTransactionContextHolder;
+import nl.futureedge.simple.jta.context.JtaTransactionContextThreadFactory;
+import nl.futureedge.simple.jta.context.ThreadLocalTransactionContextHolder;
 import nl.futureedge.simple.jta.store.JtaTransactionStore;
 import nl.futureedge.simple.jta.store.JtaTransactionStoreException;
+import nl.futureedge.simple.jta.store.NoTransactionStore;
+import nl.futureedge.simple.jta.util.HashedWheelTimer;
+import nl.futureedge.simple.jta.util.StripedLongMap;
 import nl.futureedge.simple.jta.xa.XAResourceAdapter;
 import nl.futureedge.simple.jta.xid.BranchJtaXid;
 import nl.futureedge.simple.jta.xid.GlobalJtaXid;
@@ -38,13 +50,27 @@ public final class JtaTransactionManager implements InitializingBean, Disposable
     private static final String COULD_NOT_WRITE_TRANSACTION_LOG_INCONSISTENT =
             "Could not write transaction log; recovery could not be logged! TRANSACTION SYSTEM IS NOW INCONSISTENT!";
 
-    private final ThreadLocal<Integer> timeoutInSeconds = new ThreadLocal<>();
-    private final ThreadLocal<JtaTransaction> currentTransaction = new ThreadLocal<>();
-
-    private Map<Long, JtaTransaction> allTransactions = new HashMap<>();
+    private final StripedLongMap<JtaTransaction> allTransactions = new StripedLongMap<>();
 
     private String uniqueName;
     private JtaTransactionStore transactionStore;
+    private int defaultTransactionTimeout = 0;
+    private JtaTransactionContextHolder transactionContextHolder = new ThreadLocalTransactionContextHolder();
+    private Executor completionExecutor;
+    private ExecutorService internalCompletionExecutor;
+    private boolean earlyAcknowledge = false;
+    private int backgroundCommitThreads = 2;
+    private int backgroundCommitQueueSize = 1000;
+    private int backgroundCommitRetries = 5;
+    private boolean adaptivePrepareOrder = false;
+    private JtaBackgroundCommitter backgroundCommitter;
+    private JtaPrepareOrder prepareOrder;
+    private final JtaResourceManagerCache resourceManagerCache = new JtaResourceManagerCache();
+    private final JtaTransactionStore readOnlyTransactionStore = new NoTransactionStore();
+    private final AtomicLong readOnlyTransactionIds = new AtomicLong();
+    private final AtomicLong localTransactionIds = new AtomicLong();
+
+    private HashedWheelTimer timeoutTimer;
 
     /**
      * Set unique name to use for this transaction manager.
@@ -78,11 +104,95 @@ public final class JtaTransactionManager implements InitializingBean, Disposable
         this.transactionStore = transactionStore;
     }
 
+    /**
+     * Set the default transaction timeout (in seconds) that is used when no transaction timeout has been set for the current thread (default 0, no timeout).
+     *
+     * When a transaction times out it is marked for rollback only and its branches are rolled back (releasing the locks held in the resource managers).
+     * @param defaultTransactionTimeout default transaction timeout in seconds
+     */
+    public void setDefaultTransactionTimeout(final int defaultTransactionTimeout) {
+        this.defaultTransactionTimeout = defaultTransactionTimeout;
+    }
+
+    /**
+     * Set the holder of the transaction context (current transaction and timeout) of threads (default {@link ThreadLocalTransactionContextHolder}).
+     * @param transactionContextHolder transaction context holder
+     */
+    public void setTransactionContextHolder(final JtaTransactionContextHolder transactionContextHolder) {
+        this.transactionContextHolder = transactionContextHolder;
+    }
+
+    /**
+     * Set the executor to use for asynchronous completion (see {@link JtaTransaction#commitAsync()}); defaults to an internal (cached) thread pool.
+     * @param completionExecutor executor
+     */
+    public void setCompletionExecutor(final Executor completionExecutor) {
+        this.completionExecutor = completionExecutor;
+    }
+
+    /**
+     * Enable early acknowledge (default false); if enabled, commit of a 2-phase commit returns as soon as the commit decision has been stored in the
+     * transaction store. The second phase (commit of the branches, including retries of failed branches) is executed in the background; completion
+     * callbacks ({@link javax.transaction.Synchronization#afterCompletion(int)}) are executed by the background committer.
+     * @param earlyAcknowledge true, to enable early acknowledge
+     */
+    public void setEarlyAcknowledge(final boolean earlyAcknowledge) {
+        this.earlyAcknowledge = earlyAcknowledge;
+    }
+
+    /**
+     * Set the number of threads used to execute background commits (early acknowledge; default 2).
+     * @param backgroundCommitThreads number of threads
+     */
+    public void setBackgroundCommitThreads(final int backgroundCommitThreads) {
+        this.backgroundCommitThreads = backgroundCommitThreads;
+    }
+
+    /**
+     * Set the maximum number of waiting background commits (early acknowledge; default 1000); when full, commits are executed by the committing thread.
+     * @param backgroundCommitQueueSize maximum number of waiting background commits
+     */
+    public void setBackgroundCommitQueueSize(final int backgroundCommitQueueSize) {
+        this.backgroundCommitQueueSize = backgroundCommitQueueSize;
+    }
+
+    /**
+     * Set the maximum number of retries for failed branches of background commits (early acknowledge; default 5); transactions that can not be committed
+     * are completed by recovery.
+     * @param backgroundCommitRetries maximum number of retries
+     */
+    public void setBackgroundCommitRetries(final int backgroundCommitRetries) {
+        this.backgroundCommitRetries = backgroundCommitRetries;
+    }
+
+    /**
+     * Enable adaptive prepare order (default false); if enabled, resources with the same prepare priority are prepared in order of their observed prepare
+     * results: resources that most often fail to prepare first, then the fastest resources. A transaction that can not be prepared is then rolled back after
+     * the first prepare.
+     * @param adaptivePrepareOrder true, to enable adaptive prepare order
+     */
+    public void setAdaptivePrepareOrder(final boolean adaptivePrepareOrder) {
+        this.adaptivePrepareOrder = adaptivePrepareOrder;
+    }
+
     /**
      * Startup; executes an early cleanup on the transaction store.
      */
     @Override
     public void afterPropertiesSet() throws Exception {
+        if (defaultTransactionTimeout < 0) {
+            throw illegalStateException("Default transaction timeout may not be a negative value");
+        }
+        prepareOrder = new JtaPrepareOrder(adaptivePrepareOrder);
+        timeoutTimer = new HashedWheelTimer("simple-jta-timeout-" + uniqueName, 100, TimeUnit.MILLISECONDS, 512);
+        if (earlyAcknowledge) {
+            backgroundCommitter = new JtaBackgroundCommitter("simple-jta-commit-" + uniqueName, backgroundCommitThreads, backgroundCommitQueueSize,
+                    backgroundCommitRetries, timeoutTimer);
+        }
+        if (completionExecutor == null) {
+            internalCompletionExecutor = Executors.newCachedThreadPool(new JtaTransactionContextThreadFactory("simple-jta-completion-" + uniqueName + "-", true));
+            completionExecutor = internalCompletionExecutor;
+        }
         transactionStore.cleanup();
     }
 
@@ -91,12 +201,25 @@ public final class JtaTransactionManager implements InitializingBean, Disposable
      */
     @Override
     public void destroy() throws Exception {
+        // Complete background commits first
+        if (backgroundCommitter != null) {
+            backgroundCommitter.stop();
+        }
         if (!allTransactions.isEmpty()) {
             LOGGER.warn("Transaction manager shutting down, but not all transaction have been completed! "
                     + "This probably indicates a programming error/shutdown problem!");
+            for (final JtaTransaction transaction : allTransactions.values()) {
+                LOGGER.warn("Transaction not completed: {}", transaction);
+            }
 
             // Nothing now; we could wait for all transactions to end, warning for each open transaction (bad developer) and maybe kill them (the transactions).
         }
+        if (timeoutTimer != null) {
+            timeoutTimer.stop();
+        }
+        if (internalCompletionExecutor != null) {
+            internalCompletionExecutor.shutdown();
+        }
     }
 
     /* ************************************** */
@@ -105,10 +228,32 @@ public final class JtaTransactionManager implements InitializingBean, Disposable
 
     @Override
     public void transactionCompleted(final JtaTransaction completedTransaction) {
-        assert completedTransaction.equals(currentTransaction.get());
+        completedTransaction.cancelTimeout();
+        // Asynchronous completion runs on another thread; the transaction has already been detached from the thread that started it
+        if (completedTransaction == getTransaction()) {
+            clearCurrentTransaction();
+        }
+        allTransactions.remove(completedTransaction.getLocalId(), completedTransaction);
+    }
 
-        currentTransaction.remove();
-        allTransactions.remove(completedTransaction.getTransactionId());
+    @Override
+    public void transactionCompletingAsync(final JtaTransaction transaction) {
+        if (transaction != getTransaction()) {
+            // Not bound to this thread (for example suspended); nothing to detach
+            return;
+        }
+        // Throws when this thread is a participant
+        getCompletableTransaction();
+        clearCurrentTransaction();
+    }
+
+    /**
+     * Return a (weakly consistent) snapshot of all transactions that have been started by this transaction manager and that have not yet completed; can be
+     * used for monitoring without blocking transactions that are completing.
+     * @return list of in-flight transactions
+     */
+    public List<JtaTransaction> getActiveTransactions() {
+        return allTransactions.values();
     }
 
     /* ************************************** */
@@ -118,27 +263,161 @@ public final class JtaTransactionManager implements InitializingBean, Disposable
     @Override
     public void begin() throws NotSupportedException, SystemException {
         LOGGER.trace("begin()");
-        if (getTransaction() != null) {
+        begin(false);
+    }
+
+    /**
+     * Create a new read-only transaction and associate it with the current thread.
+     *
+     * A read-only transaction does not use the transaction store (no transaction id is requested and no state is stored) and is never committed using a
+     * 2-phase commit; all enlisted resources are committed using a 1-phase commit. Data written during a read-only transaction is therefor not committed
+     * atomically.
+     * @throws NotSupportedException Thrown if the thread is already associated with a transaction
+     * @throws SystemException Thrown if the transaction manager encounters an unexpected error condition.
+     */
+    public void beginReadOnly() throws NotSupportedException, SystemException {
+        LOGGER.trace("beginReadOnly()");
+        begin(true);
+    }
+
+    private void begin(final boolean readOnly) throws NotSupportedException, SystemException {
+        final JtaTransactionContext context = transactionContextHolder.getContext(true);
+        if (context.getTransaction() != null) {
             throw notSupportedException("Transaction already started");
         }
 
+        final Integer threadTimeout = context.getTimeoutInSeconds();
         final JtaTransaction result;
         try {
-            result = new JtaTransaction(new GlobalJtaXid(uniqueName, transactionStore.nextTransactionId()), timeoutInSeconds.get(), transactionStore);
-            result.registerSystemCallback(transactionStore);
+            if (readOnly) {
+                // Negative ids never clash with ids from the transaction store
+                result = new JtaTransaction(new GlobalJtaXid(uniqueName, readOnlyTransactionIds.decrementAndGet()), threadTimeout, readOnlyTransactionStore);
+                result.setReadOnly(true);
+            } else {
+                // The transaction id is allocated when the first resource is enlisted
+                result = new JtaTransaction(uniqueName, localTransactionIds.incrementAndGet(), threadTimeout, transactionStore);
+                result.registerSystemCallback(transactionStore);
+            }
             result.registerSystemCallback(this);
-        } catch (final JtaTransactionStoreException | IllegalStateException e) {
+            result.setCompletionExecutor(completionExecutor);
+            result.setBackgroundCommitter(backgroundCommitter);
+            result.setResourceManagerCache(resourceManagerCache);
+            result.setPrepareOrder(prepareOrder);
+        } catch (final IllegalStateException e) {
+            releaseContextIfEmpty(context);
             throw systemException("Could not create new transaction", e);
         }
 
-        currentTransaction.set(result);
-        allTransactions.put(result.getTransactionId(), result);
+        context.setTransaction(result);
+        allTransactions.put(result.getLocalId(), result);
+        scheduleTimeout(result, threadTimeout);
+    }
+
+    private void scheduleTimeout(final JtaTransaction transaction, final Integer threadTimeout) {
+        final int timeout = threadTimeout == null || threadTimeout == 0 ? defaultTransactionTimeout : threadTimeout;
+        if (timeout > 0 && timeoutTimer != null) {
+            transaction.setTimeout(timeoutTimer.schedule(() -> timeoutTransaction(transaction), timeout, TimeUnit.SECONDS));
+        }
+    }
+
+    private void timeoutTransaction(final JtaTransaction transaction) {
+        if (!transaction.timedOut()) {
+            // Transaction is busy (locked by another thread); retry shortly
+            transaction.setTimeout(timeoutTimer.schedule(() -> timeoutTransaction(transaction), 1, TimeUnit.SECONDS));
+        }
     }
 
     @Override
     public JtaTransaction getTransaction() {
         LOGGER.trace("getTransaction()");
-        return currentTransaction.get();
+        final JtaTransactionContext context = transactionContextHolder.getContext(false);
+        return context == null ? null : context.getTransaction();
+    }
+
+    private void clearCurrentTransaction() {
+        final JtaTransactionContext context = transactionContextHolder.getContext(false);
+        if (context != null) {
+            context.setTransaction(null);
+            context.setParticipant(false);
+            releaseContextIfEmpty(context);
+        }
+    }
+
+    /**
+     * Bind a transaction that has been propagated to the current thread; not for external use!
+     * @param transaction transaction
+     * @return true, if the transaction was bound; false, if the transaction was already bound to the current thread
+     * @throws IllegalStateException thrown when another transaction is bound to the current thread
+     */
+    boolean bindParticipant(final JtaTransaction transaction) {
+        final JtaTransactionContext context = transactionContextHolder.getContext(true);
+        if (context.getTransaction() == transaction) {
+            return false;
+        }
+        if (context.getTransaction() != null) {
+            throw illegalStateException("Transaction cannot be propagated to a thread that has another active transaction");
+        }
+        context.setTransaction(transaction);
+        context.setParticipant(true);
+        return true;
+    }
+
+    /**
+     * Unbind a propagated transaction from the current thread; not for external use!
+     */
+    void unbindParticipant() {
+        clearCurrentTransaction();
+    }
+
+    /**
+     * Run a task in a transaction context scope (see {@link JtaTransactionContextHolder#callInContext(Callable)}); only needed for context holders that can
+     * not create a context on demand (for example a {@code ScopedValue} based holder). Transactions started within the task must be completed (or
+     * suspended) within the task. When the current thread already has a context, the task is run in that context.
+     * @param task task
+     */
+    public void runInContext(final Runnable task) {
+        try {
+            callInContext(() -> {
+                task.run();
+                return null;
+            });
+        } catch (final RuntimeException e) {
+            throw e;
+        } catch (final Exception e) {
+            // Cannot happen; runnables do not throw checked exceptions
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Call a task in a transaction context scope; see {@link #runInContext(Runnable)}.
+     * @param task task
+     * @param <T> result type
+     * @return result of the task
+     * @throws Exception exception thrown by the task
+     */
+    public <T> T callInContext(final Callable<T> task) throws Exception {
+        if (transactionContextHolder.getContext(false) != null) {
+            return task.call();
+        }
+        return transactionContextHolder.callInContext(task);
+    }
+
+    private JtaTransaction getCompletableTransaction() {
+        final JtaTransactionContext context = transactionContextHolder.getContext(false);
+        if (context == null || context.getTransaction() == null) {
+            throw illegalStateException("No transaction active");
+        }
+        if (context.isParticipant()) {
+            throw illegalStateException("Transaction has been propagated to this thread and can only be completed by the thread that started it");
+        }
+        return context.getTransaction();
+    }
+
+    private void releaseContextIfEmpty(final JtaTransactionContext context) {
+        if (context.isEmpty()) {
+            transactionContextHolder.releaseContext();
+        }
     }
 
     /**
@@ -168,13 +447,33 @@ public final class JtaTransactionManager implements InitializingBean, Disposable
     @Override
     public void commit() throws RollbackException, SystemException {
         LOGGER.trace("commit()");
-        getRequiredTransaction().commit();
+        getCompletableTransaction().commit();
     }
 
     @Override
     public void rollback() throws SystemException {
         LOGGER.trace("rollback()");
-        getRequiredTransaction().rollback();
+        getCompletableTransaction().rollback();
+    }
+
+    /**
+     * Commit the current transaction asynchronously (see {@link JtaTransaction#commitAsync()}).
+     * @return stage that completes with the final status
+     * @throws IllegalStateException thrown when no transaction is active
+     */
+    public CompletionStage<Integer> commitAsync() {
+        LOGGER.trace("commitAsync()");
+        return getCompletableTransaction().commitAsync();
+    }
+
+    /**
+     * Rollback the current transaction asynchronously (see {@link JtaTransaction#rollbackAsync()}).
+     * @return stage that completes with the final status
+     * @throws IllegalStateException thrown when no transaction is active
+     */
+    public CompletionStage<Integer> rollbackAsync() {
+        LOGGER.trace("rollbackAsync()");
+        return getCompletableTransaction().rollbackAsync();
     }
 
     @Override
@@ -186,7 +485,7 @@ public final class JtaTransactionManager implements InitializingBean, Disposable
     @Override
     public void setTransactionTimeout(final int seconds) throws SystemException {
         LOGGER.trace("setTransactionTimeout(seconds={})", seconds);
-        timeoutInSeconds.set(seconds);
+        transactionContextHolder.getContext(true).setTimeoutInSeconds(seconds);
 
         final JtaTransaction transaction = getTransaction();
         if (transaction != null) {
@@ -206,9 +505,12 @@ public final class JtaTransactionManager implements InitializingBean, Disposable
             LOGGER.debug("No current transaction; returning null");
             return null;
         }
+        if (transactionContextHolder.getContext(false).isParticipant()) {
+            throw illegalStateException("Transaction has been propagated to this thread and can only be suspended by the thread that started it");
+        }
 
         result.suspend();
-        currentTransaction.remove();
+        clearCurrentTransaction();
         return result;
     }
 
@@ -223,7 +525,7 @@ public final class JtaTransactionManager implements InitializingBean, Disposable
         }
 
         final JtaTransaction jtaTransactionToBeResumed = (JtaTransaction) transactionToBeResumed;
-        currentTransaction.set(jtaTransactionToBeResumed);
+        transactionContextHolder.getContext(true).setTransaction(jtaTransactionToBeResumed);
         jtaTransactionToBeResumed.resume();
     }
 
@@ -0,0 +1,207 @@
+package nl.futureedge.simple.jta;
+
+import static nl.futureedge.simple.jta.JtaExceptions.illegalStateException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.transaction.RollbackException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Propagation of the current transaction to work that is executed on other threads (for example to execute independent database writes in parallel within one
+ * global transaction).
+ *
+ * <p> Work is registered with the transaction when it is wrapped; the transaction is bound to the executing thread while the work runs (without suspending
+ * the transaction), so resources used by the work are enlisted in the transaction (joining the branches of the same resource manager if supported). Commit
+ * and rollback wait until all wrapped work has completed; work that fails (throws an exception) marks the transaction for rollback only.
+ *
+ * <p> Propagated work may not commit, rollback or suspend the transaction. Wrapped work must be executed (or cancelled using {@link #cancel(Object)}) exactly
+ * once.
+ */
+public final class JtaTransactionPropagation {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JtaTransactionPropagation.class);
+
+    private final JtaTransactionManager transactionManager;
+
+    /**
+     * Constructor.
+     * @param transactionManager transaction manager
+     */
+    public JtaTransactionPropagation(final JtaTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    /**
+     * Wrap a runnable so it executes in the current transaction.
+     * @param task task
+     * @return wrapped task
+     * @throws IllegalStateException thrown when no transaction is active (or the transaction can not be propagated)
+     */
+    public Runnable wrap(final Runnable task) {
+        return new PropagatedTask<>(participate(transactionManager.getRequiredTransaction()), task, null, null);
+    }
+
+    /**
+     * Wrap a callable so it executes in the current transaction.
+     * @param task task
+     * @param <T> result type
+     * @return wrapped task
+     * @throws IllegalStateException thrown when no transaction is active (or the transaction can not be propagated)
+     */
+    public <T> Callable<T> wrap(final Callable<T> task) {
+        return new PropagatedTask<>(participate(transactionManager.getRequiredTransaction()), null, task, null);
+    }
+
+    /**
+     * Wrap a supplier (for example for {@link java.util.concurrent.CompletableFuture#supplyAsync(Supplier, Executor)}) so it executes in the current
+     * transaction.
+     * @param task task
+     * @param <T> result type
+     * @return wrapped task
+     * @throws IllegalStateException thrown when no transaction is active (or the transaction can not be propagated)
+     */
+    public <T> Supplier<T> wrapSupplier(final Supplier<T> task) {
+        return new PropagatedTask<>(participate(transactionManager.getRequiredTransaction()), null, null, task);
+    }
+
+    /**
+     * Wrap an executor so all commands executed by it execute in the current transaction; the transaction is captured when this method is called (so the
+     * executor can be used for {@link java.util.concurrent.CompletableFuture} pipelines that execute stages on other threads).
+     * @param executor executor
+     * @return wrapped executor
+     * @throws IllegalStateException thrown when no transaction is active; commands executed after the transaction has started completing are rejected
+     */
+    public Executor wrap(final Executor executor) {
+        final JtaTransaction transaction = transactionManager.getRequiredTransaction();
+        return command -> {
+            final PropagatedTask<Object> task;
+            try {
+                task = new PropagatedTask<>(participate(transaction), command, null, null);
+            } catch (final IllegalStateException e) {
+                throw new RejectedExecutionException("Transaction can not be propagated", e);
+            }
+            try {
+                executor.execute(task);
+            } catch (final RuntimeException e) {
+                task.cancel();
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * Cancel wrapped work that will not be executed (for example because it was rejected by an executor); the work is no longer registered with the
+     * transaction.
+     * @param wrapped wrapped work (returned by one of the wrap methods)
+     * @return true, if the work was cancelled; false, if the work has already been executed or cancelled
+     */
+    public boolean cancel(final Object wrapped) {
+        return wrapped instanceof PropagatedTask && ((PropagatedTask<?>) wrapped).cancel();
+    }
+
+    private static JtaTransaction participate(final JtaTransaction transaction) {
+        try {
+            transaction.addParticipant();
+        } catch (final RollbackException e) {
+            throw illegalStateException("Transaction is marked for rollback only; can not propagate transaction", e);
+        }
+        return transaction;
+    }
+
+    /**
+     * Propagated task.
+     * @param <T> result type
+     */
+    private final class PropagatedTask<T> implements Runnable, Callable<T>, Supplier<T> {
+        private static final int WAITING = 0;
+        private static final int STARTED = 1;
+        private static final int CANCELLED = 2;
+
+        private final JtaTransaction transaction;
+        private final Runnable runnable;
+        private final Callable<T> callable;
+        private final Supplier<T> supplier;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        PropagatedTask(final JtaTransaction transaction, final Runnable runnable, final Callable<T> callable, final Supplier<T> supplier) {
+            this.transaction = transaction;
+            this.runnable = runnable;
+            this.callable = callable;
+            this.supplier = supplier;
+        }
+
+        boolean cancel() {
+            if (state.compareAndSet(WAITING, CANCELLED)) {
+                transaction.removeParticipant();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void run() {
+            try {
+                call();
+            } catch (final RuntimeException e) {
+                throw e;
+            } catch (final Exception e) {
+                // Cannot happen; runnables and suppliers do not throw checked exceptions
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public T get() {
+            try {
+                return call();
+            } catch (final RuntimeException e) {
+                throw e;
+            } catch (final Exception e) {
+                // Cannot happen; runnables and suppliers do not throw checked exceptions
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public T call() throws Exception {
+            if (!state.compareAndSet(WAITING, STARTED)) {
+                throw illegalStateException("Propagated work can only be executed once");
+            }
+            return transactionManager.callInContext(this::execute);
+        }
+
+        private T execute() throws Exception {
+            final boolean bound;
+            try {
+                bound = transactionManager.bindParticipant(transaction);
+            } catch (final IllegalStateException e) {
+                transaction.removeParticipant();
+                throw e;
+            }
+            try {
+                if (runnable != null) {
+                    runnable.run();
+                    return null;
+                } else if (callable != null) {
+                    return callable.call();
+                } else {
+                    return supplier.get();
+                }
+            } catch (final Exception | Error e) {
+                LOGGER.debug("Propagated work failed; marking transaction for rollback only", e);
+                transaction.setRollbackOnly();
+                throw e;
+            } finally {
+                if (bound) {
+                    transactionManager.unbindParticipant();
+                }
+                transaction.removeParticipant();
+            }
+        }
+    }
+}
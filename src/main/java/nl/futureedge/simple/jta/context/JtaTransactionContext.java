@@ -0,0 +1,65 @@
+package nl.futureedge.simple.jta.context;
+
+import nl.futureedge.simple.jta.JtaTransaction;
+
+/**
+ * Transaction context (current transaction and transaction timeout) of a thread; not for external use!
+ */
+public final class JtaTransactionContext {
+
+    private JtaTransaction transaction;
+    private Integer timeoutInSeconds;
+    private boolean participant;
+
+    /**
+     * @return current transaction (can be null)
+     */
+    public JtaTransaction getTransaction() {
+        return transaction;
+    }
+
+    /**
+     * Set the current transaction.
+     * @param transaction transaction (null to clear)
+     */
+    public void setTransaction(final JtaTransaction transaction) {
+        this.transaction = transaction;
+    }
+
+    /**
+     * @return transaction timeout to use for new transactions (can be null)
+     */
+    public Integer getTimeoutInSeconds() {
+        return timeoutInSeconds;
+    }
+
+    /**
+     * Set the transaction timeout to use for new transactions.
+     * @param timeoutInSeconds timeout in seconds (null to clear)
+     */
+    public void setTimeoutInSeconds(final Integer timeoutInSeconds) {
+        this.timeoutInSeconds = timeoutInSeconds;
+    }
+
+    /**
+     * @return true, if the current transaction has been propagated to this thread (and should not be completed by this thread)
+     */
+    public boolean isParticipant() {
+        return participant;
+    }
+
+    /**
+     * Set if the current transaction has been propagated to this thread.
+     * @param participant true, if the current transaction has been propagated to this thread
+     */
+    public void setParticipant(final boolean participant) {
+        this.participant = participant;
+    }
+
+    /**
+     * @return true, if this context contains no transaction and no timeout
+     */
+    public boolean isEmpty() {
+        return transaction == null && timeoutInSeconds == null;
+    }
+}
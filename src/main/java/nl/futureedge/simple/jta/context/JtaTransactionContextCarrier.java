@@ -0,0 +1,18 @@
+package nl.futureedge.simple.jta.context;
+
+/**
+ * Thread that carries its own transaction context in a field; lookup of the context on such a thread does not need a thread local.
+ *
+ * The carried context belongs to one holder (the first holder that asks for it); other holders (of other transaction managers) do not see it, so
+ * transactions of different managers on the same thread stay isolated.
+ * @see JtaTransactionContextThreadFactory
+ */
+public interface JtaTransactionContextCarrier {
+
+    /**
+     * Only to be called on this thread.
+     * @param holder transaction context holder
+     * @return the transaction context of this thread, or null if the context is carried for another holder
+     */
+    JtaTransactionContext getJtaTransactionContext(Object holder);
+}
@@ -0,0 +1,43 @@
+package nl.futureedge.simple.jta.context;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Holds the transaction context for the current thread.
+ *
+ * The default implementation ({@link ThreadLocalTransactionContextHolder}) works on all supported Java versions; an alternative implementation (for example
+ * based on {@code ScopedValue} on Java 21+) can be configured on the transaction manager.
+ *
+ * A holder either creates a context on demand ({@link #getContext(boolean)} with create is true) or only provides a context within a scope ({@link
+ * #callInContext(Callable)}). A {@code ScopedValue} based holder binds a new context in {@code callInContext} (for example {@code
+ * ScopedValue.where(CONTEXT, new JtaTransactionContext()).call(task)}) and throws an {@link IllegalStateException} from {@code getContext(true)} when no
+ * context is bound; transactions are then started within {@link nl.futureedge.simple.jta.JtaTransactionManager#runInContext(Runnable)} (propagated work
+ * is executed in a new scope automatically).
+ */
+public interface JtaTransactionContextHolder {
+
+    /**
+     * Return the transaction context for the current thread; the context is only used by the current thread.
+     * @param create create the context if the current thread has no context
+     * @return transaction context (can only be null if create is false)
+     * @throws IllegalStateException thrown when create is true and the holder can only provide a context within {@link #callInContext(Callable)}
+     */
+    JtaTransactionContext getContext(boolean create);
+
+    /**
+     * Called when the transaction context of the current thread has become empty; implementations can release the resources held for the current thread.
+     */
+    void releaseContext();
+
+    /**
+     * Execute a task with a (new) transaction context for the current thread that is available for the duration of the task; the default implementation
+     * executes the task directly (the context is created on demand).
+     * @param task task
+     * @param <T> result type
+     * @return result of the task
+     * @throws Exception exception thrown by the task
+     */
+    default <T> T callInContext(final Callable<T> task) throws Exception {
+        return task.call();
+    }
+}
@@ -0,0 +1,53 @@
+package nl.futureedge.simple.jta.context;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory that creates threads that carry their own transaction context ({@link JtaTransactionContextCarrier}); can be used for executors running
+ * transactional work to avoid the thread local lookup of the transaction context.
+ */
+public final class JtaTransactionContextThreadFactory implements ThreadFactory {
+
+    private final String namePrefix;
+    private final boolean daemon;
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    /**
+     * Constructor.
+     * @param namePrefix prefix for thread names
+     * @param daemon should created threads be daemon threads
+     */
+    public JtaTransactionContextThreadFactory(final String namePrefix, final boolean daemon) {
+        this.namePrefix = namePrefix;
+        this.daemon = daemon;
+    }
+
+    @Override
+    public Thread newThread(final Runnable runnable) {
+        final Thread result = new CarrierThread(runnable, namePrefix + threadNumber.incrementAndGet());
+        result.setDaemon(daemon);
+        return result;
+    }
+
+    /**
+     * Thread carrying a transaction context.
+     */
+    private static final class CarrierThread extends Thread implements JtaTransactionContextCarrier {
+        private final JtaTransactionContext context = new JtaTransactionContext();
+        private Object owner;
+
+        CarrierThread(final Runnable runnable, final String name) {
+            super(runnable, name);
+        }
+
+        @Override
+        public JtaTransactionContext getJtaTransactionContext(final Object holder) {
+            // Only called on this thread; the first holder owns the context
+            if (owner == null) {
+                owner = holder;
+            }
+            return owner == holder ? context : null;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package nl.futureedge.simple.jta.context;
+
+/**
+ * Default transaction context holder.
+ *
+ * Threads that carry their own context ({@link JtaTransactionContextCarrier}) use that context when it is carried for this holder; for all other threads
+ * (and holders) the context is kept in a (single) thread local that is removed when the context becomes empty, so threads that are not in a transaction do
+ * not keep an entry in their thread local map.
+ */
+public final class ThreadLocalTransactionContextHolder implements JtaTransactionContextHolder {
+
+    private final ThreadLocal<JtaTransactionContext> context = new ThreadLocal<>();
+
+    @Override
+    public JtaTransactionContext getContext(final boolean create) {
+        final Thread current = Thread.currentThread();
+        if (current instanceof JtaTransactionContextCarrier) {
+            final JtaTransactionContext carried = ((JtaTransactionContextCarrier) current).getJtaTransactionContext(this);
+            if (carried != null) {
+                return carried;
+            }
+        }
+        JtaTransactionContext result = context.get();
+        if (result == null && create) {
+            result = new JtaTransactionContext();
+            context.set(result);
+        }
+        return result;
+    }
+
+    @Override
+    public void releaseContext() {
+        // Nothing to remove when the context is carried by the thread
+        context.remove();
+    }
+}
@@ -0,0 +1 @@
+package nl.futureedge.simple.jta.context;
@@ -0,0 +1,402 @@
+package nl.futureedge.simple.jta.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import nl.futureedge.simple.jta.util.ProxyMethods;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Least recently used cache of the prepared statements of one (pooled) physical connection.
+ *
+ * A cached statement is used by one caller at a time; closing the statement returns it to the cache (its result sets are closed and its parameters, batch
+ * and warnings are cleared) instead of closing it. Settings changed by the caller (max rows, query timeout, fetch size, fetch direction, max field size, escape processing and poolable) are restored to
+ * their values before the first change; statements of which the cursor name was set or close on completion was enabled are closed instead of cached. When the
+ * cache is full, the least recently used statement is closed. Statements that are not closed when the connection is returned to the pool are closed; this
+ * includes the statements that are not cached (plain and callable statements and statements with generated keys) that are registered with the cache.
+ */
+final class StatementCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StatementCache.class);
+
+    /**
+     * Holdability used in keys when the statement was prepared without holdability (driver default).
+     */
+    static final int DEFAULT_HOLDABILITY = -1;
+
+    private static final int MIN_PRUNE_SIZE = 16;
+
+    private final int maxSize;
+    private final LinkedHashMap<Key, PreparedStatement> cached = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<PreparedStatement> inUse = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<Statement> uncached = Collections.newSetFromMap(new IdentityHashMap<>());
+    private int pruneSize = MIN_PRUNE_SIZE;
+
+    /**
+     * Constructor.
+     * @param maxSize maximum number of cached statements
+     */
+    StatementCache(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get a prepared statement from the cache or prepare a new one.
+     * @param sql sql
+     * @param resultSetType result set type
+     * @param resultSetConcurrency result set concurrency
+     * @param resultSetHoldability result set holdability ({@link #DEFAULT_HOLDABILITY} if not given)
+     * @param preparer preparer to use if the statement is not cached
+     * @return prepared statement (returned to the cache when closed)
+     * @throws SQLException thrown when the statement could not be prepared
+     */
+    PreparedStatement prepareStatement(final String sql, final int resultSetType, final int resultSetConcurrency, final int resultSetHoldability,
+                                       final Preparer preparer) throws SQLException {
+        final Key key = new Key(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        PreparedStatement statement;
+        synchronized (this) {
+            statement = cached.remove(key);
+            if (statement != null) {
+                inUse.add(statement);
+            }
+        }
+        if (statement == null) {
+            LOGGER.trace("Statement not cached; preparing statement");
+            statement = preparer.prepare();
+            synchronized (this) {
+                inUse.add(statement);
+            }
+        }
+        return (PreparedStatement) Proxy.newProxyInstance(StatementCache.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                new CachedStatementHandler(key, statement));
+    }
+
+    /**
+     * Register a statement that is not cached; it is closed when the connection is returned to the pool (if the caller did not close it).
+     * @param statement statement (can be null)
+     * @param <T> statement type
+     * @return the given statement
+     */
+    synchronized <T extends Statement> T register(final T statement) {
+        if (statement == null) {
+            return null;
+        }
+        if (uncached.size() >= pruneSize) {
+            // Forget statements closed by the caller (when a connection is used for many statements)
+            uncached.removeIf(StatementCache::isClosed);
+            pruneSize = Math.max(MIN_PRUNE_SIZE, uncached.size() * 2);
+        }
+        uncached.add(statement);
+        return statement;
+    }
+
+    private static boolean isClosed(final Statement statement) {
+        try {
+            return statement.isClosed();
+        } catch (final SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return number of cached (unused) statements
+     */
+    synchronized int size() {
+        return cached.size();
+    }
+
+    private void returnStatement(final Key key, final PreparedStatement statement, final Map<String, Object> changedSettings,
+                                 final List<ResultSet> resultSets) {
+        synchronized (this) {
+            if (!inUse.remove(statement)) {
+                // Already closed (connection returned to the pool)
+                return;
+            }
+        }
+        try {
+            if (changedSettings != null && !statement.isClosed()) {
+                // Result sets left open by the caller would otherwise be returned to (or block) the next user of the statement
+                for (final ResultSet resultSet : resultSets) {
+                    resultSet.close();
+                }
+                final ResultSet current = statement.getResultSet();
+                if (current != null) {
+                    current.close();
+                }
+                statement.clearWarnings();
+                statement.clearParameters();
+                statement.clearBatch();
+                for (final Map.Entry<String, Object> setting : changedSettings.entrySet()) {
+                    restoreSetting(statement, setting.getKey(), setting.getValue());
+                }
+                synchronized (this) {
+                    if (!cached.containsKey(key)) {
+                        cached.put(key, statement);
+                        evict();
+                        return;
+                    }
+                }
+            }
+        } catch (final SQLException e) {
+            LOGGER.debug("Could not reset statement; statement will not be cached", e);
+        }
+        close(statement);
+    }
+
+    /**
+     * Read the current value of a setting (before it is changed by the caller).
+     * @param statement statement
+     * @param setter name of the setter that will change the setting
+     * @return current value
+     * @throws SQLException thrown when the setting could not be read
+     */
+    private static Object readSetting(final PreparedStatement statement, final String setter) throws SQLException {
+        switch (setter) {
+            case "setMaxRows":
+                return statement.getMaxRows();
+            case "setQueryTimeout":
+                return statement.getQueryTimeout();
+            case "setFetchSize":
+                return statement.getFetchSize();
+            case "setFetchDirection":
+                return statement.getFetchDirection();
+            case "setMaxFieldSize":
+                return statement.getMaxFieldSize();
+            case "setEscapeProcessing":
+                // No getter; enabled by default
+                return Boolean.TRUE;
+            case "setPoolable":
+                return statement.isPoolable();
+            default:
+                throw new IllegalArgumentException("Unknown setting " + setter);
+        }
+    }
+
+    private static void restoreSetting(final PreparedStatement statement, final String setter, final Object value) throws SQLException {
+        switch (setter) {
+            case "setMaxRows":
+                statement.setMaxRows((Integer) value);
+                break;
+            case "setQueryTimeout":
+                statement.setQueryTimeout((Integer) value);
+                break;
+            case "setFetchSize":
+                statement.setFetchSize((Integer) value);
+                break;
+            case "setFetchDirection":
+                statement.setFetchDirection((Integer) value);
+                break;
+            case "setMaxFieldSize":
+                statement.setMaxFieldSize((Integer) value);
+                break;
+            case "setEscapeProcessing":
+                statement.setEscapeProcessing((Boolean) value);
+                break;
+            case "setPoolable":
+                statement.setPoolable((Boolean) value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown setting " + setter);
+        }
+    }
+
+    private void evict() {
+        final Iterator<PreparedStatement> iterator = cached.values().iterator();
+        while (cached.size() > maxSize && iterator.hasNext()) {
+            final PreparedStatement eldest = iterator.next();
+            iterator.remove();
+            close(eldest);
+        }
+    }
+
+    /**
+     * Close the statements that are still in use (when the connection is returned to the pool).
+     */
+    void release() {
+        final List<Statement> statements;
+        synchronized (this) {
+            statements = new ArrayList<>(inUse);
+            inUse.clear();
+            uncached.removeIf(StatementCache::isClosed);
+            statements.addAll(uncached);
+            uncached.clear();
+            pruneSize = MIN_PRUNE_SIZE;
+        }
+        if (!statements.isEmpty()) {
+            LOGGER.debug("Closing {} statement(s) that were not closed before the transaction completed", statements.size());
+        }
+        statements.forEach(StatementCache::close);
+    }
+
+    /**
+     * Close all statements (when the connection is closed).
+     */
+    void close() {
+        release();
+        final List<PreparedStatement> statements;
+        synchronized (this) {
+            statements = new ArrayList<>(cached.values());
+            cached.clear();
+        }
+        statements.forEach(StatementCache::close);
+    }
+
+    private static void close(final Statement statement) {
+        try {
+            statement.close();
+        } catch (final SQLException e) {
+            LOGGER.debug("Could not close statement", e);
+        }
+    }
+
+    /**
+     * Statement preparer.
+     */
+    @FunctionalInterface
+    interface Preparer {
+
+        /**
+         * @return new prepared statement
+         * @throws SQLException thrown when the statement could not be prepared
+         */
+        PreparedStatement prepare() throws SQLException;
+    }
+
+    /**
+     * Cache key.
+     */
+    private static final class Key {
+        private final String sql;
+        private final int resultSetType;
+        private final int resultSetConcurrency;
+        private final int resultSetHoldability;
+
+        Key(final String sql, final int resultSetType, final int resultSetConcurrency, final int resultSetHoldability) {
+            this.sql = sql;
+            this.resultSetType = resultSetType;
+            this.resultSetConcurrency = resultSetConcurrency;
+            this.resultSetHoldability = resultSetHoldability;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return resultSetType == key.resultSetType && resultSetConcurrency == key.resultSetConcurrency
+                    && resultSetHoldability == key.resultSetHoldability && Objects.equals(sql, key.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        }
+    }
+
+    /**
+     * Invocation handler; returns the statement to the cache when it is closed.
+     */
+    private final class CachedStatementHandler implements InvocationHandler {
+        private final Key key;
+        private final PreparedStatement statement;
+        private boolean closed;
+        /**
+         * Values of the settings before they were first changed (null when the statement can not be reset).
+         */
+        private Map<String, Object> changedSettings = new HashMap<>(4);
+        /**
+         * Result sets returned by the statement (closed when the statement is returned to the cache).
+         */
+        private final List<ResultSet> resultSets = new ArrayList<>(2);
+
+        CachedStatementHandler(final Key key, final PreparedStatement statement) {
+            this.key = key;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            if (ProxyMethods.isObjectMethod(method)) {
+                return ProxyMethods.invoke(proxy, method, args, statement);
+            }
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        returnStatement(key, statement, changedSettings, resultSets);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || statement.isClosed();
+                default:
+                    if (closed) {
+                        throw new SQLException("Statement is closed");
+                    }
+                    recordSetting(method.getName());
+                    if (method.getName().startsWith("execute")) {
+                        // Executing a statement closes its current result set(s)
+                        resultSets.clear();
+                    }
+                    final Object result;
+                    try {
+                        result = method.invoke(statement, args);
+                    } catch (final InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    if (result instanceof ResultSet) {
+                        resultSets.add((ResultSet) result);
+                    }
+                    return result;
+            }
+        }
+
+        private void recordSetting(final String methodName) throws SQLException {
+            if (changedSettings == null) {
+                return;
+            }
+            switch (methodName) {
+                case "setLargeMaxRows":
+                    recordSetting("setMaxRows");
+                    break;
+                case "setMaxRows":
+                case "setQueryTimeout":
+                case "setFetchSize":
+                case "setFetchDirection":
+                case "setMaxFieldSize":
+                case "setEscapeProcessing":
+                case "setPoolable":
+                    if (!changedSettings.containsKey(methodName)) {
+                        changedSettings.put(methodName, readSetting(statement, methodName));
+                    }
+                    break;
+                case "setCursorName":
+                case "closeOnCompletion":
+                    // Can not be reset
+                    changedSettings = null;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
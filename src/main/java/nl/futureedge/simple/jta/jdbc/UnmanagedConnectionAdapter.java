@@ -19,11 +19,25 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
 import javax.sql.XAConnection;
-
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connection adapter for connections outside a transaction; delegates all calls to the connection of the wrapped xa connection.
+ *
+ * When created for a pooled xa connection, closing the connection returns it to its pool: uncommitted work (auto commit disabled) is rolled back (the pool
+ * restores the session state of the connection) and statements that were not closed are closed.
+ */
 final class UnmanagedConnectionAdapter implements Connection {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(UnmanagedConnectionAdapter.class);
+
     private final XAConnection xaConnection;
     private final Connection connection;
+    private final XAConnectionPool.PooledXAConnection pooled;
+    private final StatementCache statementCache;
+
+    private boolean closed;
 
     /**
      * Constructor.
@@ -33,275 +47,326 @@ final class UnmanagedConnectionAdapter implements Connection {
     UnmanagedConnectionAdapter(final XAConnection xaConnection) throws SQLException {
         this.xaConnection = xaConnection;
         connection = xaConnection.getConnection();
+        pooled = null;
+        statementCache = null;
+    }
+
+    /**
+     * Constructor.
+     * @param pooled pooled xa connection (with an opened connection handle)
+     */
+    UnmanagedConnectionAdapter(final XAConnectionPool.PooledXAConnection pooled) {
+        this.xaConnection = pooled.getXAConnection();
+        this.pooled = pooled;
+        connection = pooled.getConnection();
+        statementCache = pooled.getStatementCache();
+    }
+
+    private Connection connection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection is closed");
+        }
+        return connection;
+    }
+
+    private void checkNotClosedForClientInfo() throws SQLClientInfoException {
+        if (closed) {
+            throw new SQLClientInfoException("Connection is closed", null);
+        }
+    }
+
+    private <T extends Statement> T register(final T statement) {
+        // Closed when the connection is returned to the pool (the connection handle is kept open when statements are cached)
+        return statementCache == null ? statement : statementCache.register(statement);
+    }
+
+    private boolean rollbackUncommitted() {
+        try {
+            if (!connection.getAutoCommit()) {
+                LOGGER.debug("Rolling back uncommitted work of connection outside transaction");
+                connection.rollback();
+            }
+            return true;
+        } catch (final SQLException e) {
+            LOGGER.debug("Could not roll back connection outside transaction; connection will not be reused", e);
+            return false;
+        }
     }
 
     @Override
     public Statement createStatement() throws SQLException {
-        return connection.createStatement();
+        return register(connection().createStatement());
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql) throws SQLException {
-        return connection.prepareStatement(sql);
+        return register(connection().prepareStatement(sql));
     }
 
     @Override
     public CallableStatement prepareCall(String sql) throws SQLException {
-        return connection.prepareCall(sql);
+        return register(connection().prepareCall(sql));
     }
 
     @Override
     public String nativeSQL(String sql) throws SQLException {
-        return connection.nativeSQL(sql);
+        return connection().nativeSQL(sql);
     }
 
     @Override
     public void setAutoCommit(boolean autoCommit) throws SQLException {
-        connection.setAutoCommit(autoCommit);
+        connection().setAutoCommit(autoCommit);
     }
 
     @Override
     public boolean getAutoCommit() throws SQLException {
-        return connection.getAutoCommit();
+        return connection().getAutoCommit();
     }
 
     @Override
     public void commit() throws SQLException {
-        connection.commit();
+        connection().commit();
     }
 
     @Override
     public void rollback() throws SQLException {
-        connection.rollback();
+        connection().rollback();
     }
 
     @Override
     public void close() throws SQLException {
-        xaConnection.close();
+        if (pooled == null) {
+            xaConnection.close();
+        } else if (!closed) {
+            closed = true;
+            pooled.release(rollbackUncommitted());
+        }
     }
 
     @Override
     public boolean isClosed() throws SQLException {
-        return connection.isClosed();
+        return closed || connection.isClosed();
     }
 
     @Override
     public DatabaseMetaData getMetaData() throws SQLException {
-        return connection.getMetaData();
+        return connection().getMetaData();
     }
 
     @Override
     public void setReadOnly(boolean readOnly) throws SQLException {
-        connection.setReadOnly(readOnly);
+        connection().setReadOnly(readOnly);
     }
 
     @Override
     public boolean isReadOnly() throws SQLException {
-        return connection.isReadOnly();
+        return connection().isReadOnly();
     }
 
     @Override
     public void setCatalog(String catalog) throws SQLException {
-        connection.setCatalog(catalog);
+        connection().setCatalog(catalog);
     }
 
     @Override
     public String getCatalog() throws SQLException {
-        return connection.getCatalog();
+        return connection().getCatalog();
     }
 
     @Override
     public void setTransactionIsolation(int level) throws SQLException {
-        connection.setTransactionIsolation(level);
+        connection().setTransactionIsolation(level);
     }
 
     @Override
     public int getTransactionIsolation() throws SQLException {
-        return connection.getTransactionIsolation();
+        return connection().getTransactionIsolation();
     }
 
     @Override
     public SQLWarning getWarnings() throws SQLException {
-        return connection.getWarnings();
+        return connection().getWarnings();
     }
 
     @Override
     public void clearWarnings() throws SQLException {
-        connection.clearWarnings();
+        connection().clearWarnings();
     }
 
     @Override
     public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
-        return connection.createStatement(resultSetType, resultSetConcurrency);
+        return register(connection().createStatement(resultSetType, resultSetConcurrency));
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
-        return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        return register(connection().prepareStatement(sql, resultSetType, resultSetConcurrency));
     }
 
     @Override
     public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
-        return connection.prepareCall(sql, resultSetType, resultSetConcurrency);
+        return register(connection().prepareCall(sql, resultSetType, resultSetConcurrency));
     }
 
     @Override
     public Map<String, Class<?>> getTypeMap() throws SQLException {
-        return connection.getTypeMap();
+        return connection().getTypeMap();
     }
 
     @Override
     public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
-        connection.setTypeMap(map);
+        connection().setTypeMap(map);
     }
 
     @Override
     public void setHoldability(int holdability) throws SQLException {
-        connection.setHoldability(holdability);
+        connection().setHoldability(holdability);
     }
 
     @Override
     public int getHoldability() throws SQLException {
-        return connection.getHoldability();
+        return connection().getHoldability();
     }
 
     @Override
     public Savepoint setSavepoint() throws SQLException {
-        return connection.setSavepoint();
+        return connection().setSavepoint();
     }
 
     @Override
     public Savepoint setSavepoint(String name) throws SQLException {
-        return connection.setSavepoint(name);
+        return connection().setSavepoint(name);
     }
 
     @Override
     public void rollback(Savepoint savepoint) throws SQLException {
-        connection.rollback(savepoint);
+        connection().rollback(savepoint);
     }
 
     @Override
     public void releaseSavepoint(Savepoint savepoint) throws SQLException {
-        connection.releaseSavepoint(savepoint);
+        connection().releaseSavepoint(savepoint);
     }
 
     @Override
     public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-        return connection.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+        return register(connection().createStatement(resultSetType, resultSetConcurrency, resultSetHoldability));
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-        return connection.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        return register(connection().prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
     }
 
     @Override
     public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-        return connection.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        return register(connection().prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
-        return connection.prepareStatement(sql, autoGeneratedKeys);
+        return register(connection().prepareStatement(sql, autoGeneratedKeys));
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
-        return connection.prepareStatement(sql, columnIndexes);
+        return register(connection().prepareStatement(sql, columnIndexes));
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
-        return connection.prepareStatement(sql, columnNames);
+        return register(connection().prepareStatement(sql, columnNames));
     }
 
     @Override
     public Clob createClob() throws SQLException {
-        return connection.createClob();
+        return connection().createClob();
     }
 
     @Override
     public Blob createBlob() throws SQLException {
-        return connection.createBlob();
+        return connection().createBlob();
     }
 
     @Override
     public NClob createNClob() throws SQLException {
-        return connection.createNClob();
+        return connection().createNClob();
     }
 
     @Override
     public SQLXML createSQLXML() throws SQLException {
-        return connection.createSQLXML();
+        return connection().createSQLXML();
     }
 
     @Override
     public boolean isValid(int timeout) throws SQLException {
-        return connection.isValid(timeout);
+        return connection().isValid(timeout);
     }
 
     @Override
     public void setClientInfo(String name, String value) throws SQLClientInfoException {
+        checkNotClosedForClientInfo();
         connection.setClientInfo(name, value);
     }
 
     @Override
     public void setClientInfo(Properties properties) throws SQLClientInfoException {
+        checkNotClosedForClientInfo();
         connection.setClientInfo(properties);
     }
 
     @Override
     public String getClientInfo(String name) throws SQLException {
-        return connection.getClientInfo(name);
+        return connection().getClientInfo(name);
     }
 
     @Override
     public Properties getClientInfo() throws SQLException {
-        return connection.getClientInfo();
+        return connection().getClientInfo();
     }
 
     @Override
     public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
-        return connection.createArrayOf(typeName, elements);
+        return connection().createArrayOf(typeName, elements);
     }
 
     @Override
     public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
-        return connection.createStruct(typeName, attributes);
+        return connection().createStruct(typeName, attributes);
     }
 
     @Override
     public void setSchema(String schema) throws SQLException {
-        connection.setSchema(schema);
+        connection().setSchema(schema);
     }
 
     @Override
     public String getSchema() throws SQLException {
-        return connection.getSchema();
+        return connection().getSchema();
     }
 
     @Override
     public void abort(Executor executor) throws SQLException {
-        connection.abort(executor);
+        connection().abort(executor);
     }
 
     @Override
     public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
-        connection.setNetworkTimeout(executor, milliseconds);
+        connection().setNetworkTimeout(executor, milliseconds);
     }
 
     @Override
     public int getNetworkTimeout() throws SQLException {
-        return connection.getNetworkTimeout();
+        return connection().getNetworkTimeout();
     }
 
     @Override
     public <T> T unwrap(Class<T> iface) throws SQLException {
-        return connection.unwrap(iface);
+        return connection().unwrap(iface);
     }
 
     @Override
     public boolean isWrapperFor(Class<?> iface) throws SQLException {
-        return connection.isWrapperFor(iface);
+        return connection().isWrapperFor(iface);
     }
 }
@@ -0,0 +1,158 @@
+package nl.futureedge.simple.jta.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import nl.futureedge.simple.jta.util.ProxyMethods;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
+
+/**
+ * Wraps statements to register writes on the xa resource of the connection.
+ *
+ * Updates, batches and calls are always considered writes; other statements are considered writes unless the SQL is a plain SELECT. A SELECT is not plain
+ * when it contains INTO, a locking clause (FOR UPDATE, FOR SHARE, LOCK IN SHARE MODE or a lock hint), multiple statements or a call to a function that is
+ * not a known side effect free (standard) function; such statements hold locks or could change data and must take part in the prepare phase. The resource
+ * is marked as written before the statement is executed. Statements with an updatable result set concurrency are considered writes when they are created
+ * (see {@link XAConnectionAdapter}), as updates through their result sets are not visible to the wrapper.
+ *
+ * Writes through the statement returned by {@link Statement#unwrap(Class)} or {@link java.sql.ResultSet#getStatement()} (the statement of the driver) are
+ * not tracked.
+ */
+final class WriteTrackingStatements {
+
+    private static final Pattern SELECT_SQL = Pattern.compile("^(?:\\s|--[^\\n]*(?:\\n|$)|/\\*.*?\\*/|\\()*select\\b.*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern WRITE_CLAUSE = Pattern.compile("\\binto\\b|\\bfor\\s+(?:no\\s+key\\s+|key\\s+)?(?:update|share)\\b"
+            + "|\\block\\s+in\\s+share\\s+mode\\b|\\b(?:updlock|xlock|holdlock|rowlock|paglock|tablock|tablockx)\\b|;\\s*\\S", Pattern.CASE_INSENSITIVE);
+    private static final Pattern FUNCTION_CALL = Pattern.compile("([\\w$#.]+)\\s*\\(");
+
+    // Keywords that can precede a parenthesis and (standard) functions without side effects
+    private static final Set<String> READ_ONLY_CALLS = new HashSet<>(Arrays.asList(
+            "select", "from", "join", "on", "using", "where", "and", "or", "not", "in", "exists", "any", "some", "all", "as", "by", "having", "union",
+            "intersect", "except", "minus", "over", "values", "when", "then", "else", "case", "between", "like", "is", "distinct", "lateral", "filter",
+            "count", "sum", "min", "max", "avg", "coalesce", "nullif", "cast", "upper", "lower", "trim", "ltrim", "rtrim", "substring", "substr",
+            "length", "char_length", "character_length", "octet_length", "position", "extract", "abs", "round", "floor", "ceil", "ceiling", "mod",
+            "power", "sqrt", "concat", "replace", "greatest", "least", "row_number", "rank", "dense_rank"));
+
+    private WriteTrackingStatements() {
+        throw new IllegalStateException("Class should not be instantiated");
+    }
+
+    /**
+     * Wrap a statement.
+     * @param statement statement
+     * @param xaResource xa resource to register writes on
+     * @return wrapped statement
+     */
+    static Statement wrap(final Statement statement, final XAResourceAdapter xaResource) {
+        return wrap(Statement.class, statement, null, false, xaResource);
+    }
+
+    /**
+     * Wrap a prepared statement.
+     * @param statement prepared statement
+     * @param sql sql of the prepared statement
+     * @param xaResource xa resource to register writes on
+     * @return wrapped prepared statement
+     */
+    static PreparedStatement wrap(final PreparedStatement statement, final String sql, final XAResourceAdapter xaResource) {
+        return wrap(PreparedStatement.class, statement, sql, false, xaResource);
+    }
+
+    /**
+     * Wrap a callable statement.
+     * @param statement callable statement
+     * @param xaResource xa resource to register writes on
+     * @return wrapped callable statement
+     */
+    static CallableStatement wrap(final CallableStatement statement, final XAResourceAdapter xaResource) {
+        return wrap(CallableStatement.class, statement, null, true, xaResource);
+    }
+
+    private static <T extends Statement> T wrap(final Class<T> statementClass, final T statement, final String sql, final boolean call,
+                                                final XAResourceAdapter xaResource) {
+        if (statement == null) {
+            return null;
+        }
+        return statementClass.cast(Proxy.newProxyInstance(WriteTrackingStatements.class.getClassLoader(), new Class<?>[]{statementClass},
+                new WriteTrackingHandler(statement, sql, call, xaResource)));
+    }
+
+    /**
+     * Determine if the given SQL could write data.
+     * @param sql sql
+     * @return false, if the sql is a plain select statement
+     */
+    static boolean isWrite(final String sql) {
+        if (sql == null || !SELECT_SQL.matcher(sql).matches() || WRITE_CLAUSE.matcher(sql).find()) {
+            return true;
+        }
+        final Matcher call = FUNCTION_CALL.matcher(sql);
+        while (call.find()) {
+            if (!READ_ONLY_CALLS.contains(call.group(1).toLowerCase(Locale.ROOT))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Invocation handler.
+     */
+    private static final class WriteTrackingHandler implements InvocationHandler {
+        private final Statement statement;
+        private final String sql;
+        private final boolean call;
+        private final XAResourceAdapter xaResource;
+
+        WriteTrackingHandler(final Statement statement, final String sql, final boolean call, final XAResourceAdapter xaResource) {
+            this.statement = statement;
+            this.sql = sql;
+            this.call = call;
+            this.xaResource = xaResource;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            if (ProxyMethods.isObjectMethod(method)) {
+                return ProxyMethods.invoke(proxy, method, args, statement);
+            }
+            if (isWrite(method, args)) {
+                xaResource.markWritten();
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (final InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private boolean isWrite(final Method method, final Object[] args) {
+            switch (method.getName()) {
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                case "executeBatch":
+                case "executeLargeBatch":
+                    return true;
+                case "execute":
+                case "executeQuery":
+                    if (args != null && args.length > 0 && args[0] instanceof String) {
+                        return WriteTrackingStatements.isWrite((String) args[0]);
+                    }
+                    return call || WriteTrackingStatements.isWrite(sql);
+                default:
+                    return false;
+            }
+        }
+    }
+}
@@ -9,6 +9,7 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.NClob;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLClientInfoException;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
@@ -19,9 +20,12 @@ import java.sql.Struct;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import javax.sql.XAConnection;
+import javax.transaction.Status;
 import nl.futureedge.simple.jta.JtaSystemCallback;
 import nl.futureedge.simple.jta.JtaTransaction;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,15 +34,33 @@ import org.slf4j.LoggerFactory;
  *
  * The {@link #close()} method checks if a transaction is active. If a transaction is active, the wrapped connection will not be closed but 'registered' as
  * closed. When the transaction is completed {@link JtaTransaction#registerSynchronization} the connection will be closed.
+ *
+ * When created with a (lazy) enlistment, the xa resource is enlisted in the transaction when the first statement is created. When write tracking is enabled,
+ * created statements are wrapped to register writes on the xa resource (see {@link WriteTrackingStatements}).
+ *
+ * When created for a pooled xa connection, the connection is returned to its pool (instead of closed) when the transaction is completed; prepared statements
+ * are taken from (and returned to) the statement cache of the pooled connection if statement caching is enabled.
+ *
+ * When the transaction times out, the connection handle is closed (when the branch has been rolled back); statements (and the connection) can no longer be
+ * used, as their work would no longer be part of the transaction.
  */
 final class XAConnectionAdapter implements Connection, JtaSystemCallback {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(XAConnectionAdapter.class);
+    private static final AtomicIntegerFieldUpdater<XAConnectionAdapter> CONNECTION_CLOSED =
+            AtomicIntegerFieldUpdater.newUpdater(XAConnectionAdapter.class, "connectionClosed");
 
     private final XAConnection xaConnection;
     private final Connection connection;
+    private final XAConnectionPool.PooledXAConnection pooled;
+    private final StatementCache statementCache;
 
-    private boolean connectionClosed = false;
+    private final XAResourceAdapter writeTracking;
+
+    // 1 when closed by the application (but not yet completed); reopened atomically
+    private volatile int connectionClosed = 0;
+    private volatile boolean timedOut = false;
+    private Enlistment enlistment;
 
     /**
      * Constructor.
@@ -46,8 +68,45 @@ final class XAConnectionAdapter implements Connection, JtaSystemCallback {
      * @throws SQLException when the underlying connection of the xa connection could not be retrieved
      */
     XAConnectionAdapter(final XAConnection xaConnection) throws SQLException {
+        this(xaConnection, null, null);
+    }
+
+    /**
+     * Constructor.
+     * @param xaConnection xa connection
+     * @param enlistment enlistment to execute when the first statement is created (null if the connection is already enlisted)
+     * @param writeTracking xa resource to register writes on (null if writes should not be tracked)
+     * @throws SQLException when the underlying connection of the xa connection could not be retrieved
+     */
+    XAConnectionAdapter(final XAConnection xaConnection, final Enlistment enlistment, final XAResourceAdapter writeTracking) throws SQLException {
         this.xaConnection = xaConnection;
+        this.enlistment = enlistment;
+        this.writeTracking = writeTracking;
         connection = xaConnection.getConnection();
+        pooled = null;
+        statementCache = null;
+    }
+
+    /**
+     * Constructor.
+     * @param pooled pooled xa connection (with an opened connection handle)
+     * @param enlistment enlistment to execute when the first statement is created (null if the connection is already enlisted)
+     * @param writeTracking xa resource to register writes on (null if writes should not be tracked)
+     */
+    XAConnectionAdapter(final XAConnectionPool.PooledXAConnection pooled, final Enlistment enlistment, final XAResourceAdapter writeTracking) {
+        this.xaConnection = pooled.getXAConnection();
+        this.enlistment = enlistment;
+        this.writeTracking = writeTracking;
+        this.pooled = pooled;
+        connection = pooled.getConnection();
+        statementCache = pooled.getStatementCache();
+    }
+
+    /**
+     * @return true, if the xa resource of this connection has been enlisted in the transaction
+     */
+    boolean isEnlisted() {
+        return enlistment == null;
     }
 
     /* ******************************************************** */
@@ -56,9 +115,15 @@ final class XAConnectionAdapter implements Connection, JtaSystemCallback {
 
     @Override
     public void transactionCompleted(final JtaTransaction transaction) {
-        if (!connectionClosed) {
+        if (CONNECTION_CLOSED.getAndSet(this, 1) == 0) {
             LOGGER.warn("Transaction completed, but connection not closed! This probably indicates a programming error/connection leak!");
-            connectionClosed = true;
+        }
+
+        if (pooled != null) {
+            final int status = transaction.getStatus();
+            LOGGER.debug("Returning connection to pool after completion of transaction");
+            pooled.release(!timedOut && (status == Status.STATUS_COMMITTED || status == Status.STATUS_ROLLEDBACK));
+            return;
         }
 
         try {
@@ -69,9 +134,20 @@ final class XAConnectionAdapter implements Connection, JtaSystemCallback {
         }
     }
 
+    @Override
+    public void transactionTimedOut(final JtaTransaction transaction) {
+        LOGGER.debug("Transaction timed out; closing connection handle");
+        timedOut = true;
+        try {
+            connection.close();
+        } catch (final SQLException e) {
+            LOGGER.warn("Could not close connection handle after timeout of transaction", e);
+        }
+    }
+
     @Override
     public void close() throws SQLException {
-        connectionClosed = true;
+        connectionClosed = 1;
     }
 
     /* ******************************************************** */
@@ -81,12 +157,15 @@ final class XAConnectionAdapter implements Connection, JtaSystemCallback {
     @Override
     public boolean isClosed() throws SQLException {
         LOGGER.trace("isClosed()");
-        boolean result = connectionClosed || connection.isClosed();
+        boolean result = connectionClosed == 1 || connection.isClosed();
         LOGGER.trace("isClosed() -> {}", result);
         return result;
     }
 
     private void checkNotClosed() throws SQLException {
+        if (timedOut) {
+            throw new SQLException("Transaction has timed out");
+        }
         if (isClosed()) {
             throw new SQLException("Connection is closed");
         }
@@ -102,22 +181,50 @@ final class XAConnectionAdapter implements Connection, JtaSystemCallback {
         }
     }
 
+    private void checkNotClosedAndEnlisted() throws SQLException {
+        checkNotClosed();
+        if (enlistment != null) {
+            LOGGER.debug("First statement on connection; enlisting xa resource in transaction");
+            enlistment.enlist();
+            enlistment = null;
+        }
+    }
+
+    private Statement track(final Statement statement) {
+        return writeTracking == null ? statement : WriteTrackingStatements.wrap(statement, writeTracking);
+    }
+
+    private PreparedStatement track(final PreparedStatement statement, final String sql) {
+        return writeTracking == null ? statement : WriteTrackingStatements.wrap(statement, sql, writeTracking);
+    }
+
+    private CallableStatement track(final CallableStatement statement) {
+        return writeTracking == null ? statement : WriteTrackingStatements.wrap(statement, writeTracking);
+    }
+
+    private <T extends Statement> T register(final T statement) {
+        // Statements that are not cached are closed when the connection is returned to the pool (the connection handle is kept open)
+        return statementCache == null ? statement : statementCache.register(statement);
+    }
+
+    private void trackConcurrency(final int resultSetConcurrency) {
+        // Updates through an updatable result set can not be tracked (by the statement); consider the connection written
+        if (writeTracking != null && resultSetConcurrency == ResultSet.CONCUR_UPDATABLE) {
+            writeTracking.markWritten();
+        }
+    }
+
     /**
-     * Reopen this connection if possible; a connection can be reopened if it was closed but not yet committed.
+     * Reopen this connection if possible; a connection can be reopened if it was closed but not yet committed. Atomic: when called concurrently, only
+     * one caller reopens the connection.
      * @return true, if and only if this connection was reopend
      * @throws SQLException Thrown if the connection encountered an exception
      */
     public boolean reopen() throws SQLException {
-        if (connection.isClosed()) {
+        if (timedOut || connection.isClosed()) {
             return false;
         }
-
-        if (connectionClosed) {
-            connectionClosed = false;
-            return true;
-        }
-
-        return false;
+        return CONNECTION_CLOSED.compareAndSet(this, 1, 0);
     }
 
 
@@ -195,15 +302,16 @@ final class XAConnectionAdapter implements Connection, JtaSystemCallback {
     @Override
     public Statement createStatement() throws SQLException {
         LOGGER.trace("createStatement()");
-        checkNotClosed();
-        return connection.createStatement();
+        checkNotClosedAndEnlisted();
+        return track(register(connection.createStatement()));
     }
 
     @Override
     public Statement createStatement(final int resultSetType, final int resultSetConcurrency) throws SQLException {
         LOGGER.trace("createStatement(resultSetType={},resultSetConcurrency={})", resultSetType, resultSetConcurrency);
-        checkNotClosed();
-        return connection.createStatement(resultSetType, resultSetConcurrency);
+        checkNotClosedAndEnlisted();
+        trackConcurrency(resultSetConcurrency);
+        return track(register(connection.createStatement(resultSetType, resultSetConcurrency)));
     }
 
     @Override
@@ -211,8 +319,9 @@ final class XAConnectionAdapter implements Connection, JtaSystemCallback {
             throws SQLException {
         LOGGER.trace("createStatement(resultSetType={},resultSetConcurrency={},resultSetHoldability={})", resultSetType, resultSetConcurrency,
                 resultSetHoldability);
-        checkNotClosed();
-        return connection.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+        checkNotClosedAndEnlisted();
+        trackConcurrency(resultSetConcurrency);
+        return track(register(connection.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability)));
     }
 
     @Override
@@ -323,15 +432,16 @@ final class XAConnectionAdapter implements Connection, JtaSystemCallback {
     @Override
     public CallableStatement prepareCall(final String sql) throws SQLException {
         LOGGER.trace("prepareCall(sql={})", sql);
-        checkNotClosed();
-        return connection.prepareCall(sql);
+        checkNotClosedAndEnlisted();
+        return track(register(connection.prepareCall(sql)));
     }
 
     @Override
     public CallableStatement prepareCall(final String sql, final int resultSetType, final int resultSetConcurrency) throws SQLException {
         LOGGER.trace("prepareCall(sql={},resultSetType={},resultSetConcurrency={})", sql, resultSetType, resultSetConcurrency);
-        checkNotClosed();
-        return connection.prepareCall(sql, resultSetType, resultSetConcurrency);
+        checkNotClosedAndEnlisted();
+        trackConcurrency(resultSetConcurrency);
+        return track(register(connection.prepareCall(sql, resultSetType, resultSetConcurrency)));
     }
 
     @Override
@@ -339,44 +449,54 @@ final class XAConnectionAdapter implements Connection, JtaSystemCallback {
                                          final int resultSetHoldability) throws SQLException {
         LOGGER.trace("prepareCall(sql={},resultSetType={},resultSetConcurrency={},resultSetHoldability={})", sql, resultSetType, resultSetConcurrency,
                 resultSetHoldability);
-        checkNotClosed();
-        return connection.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        checkNotClosedAndEnlisted();
+        trackConcurrency(resultSetConcurrency);
+        return track(register(connection.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability)));
     }
 
     @Override
     public PreparedStatement prepareStatement(final String sql) throws SQLException {
         LOGGER.trace("prepareStatement(sql={})", sql);
-        checkNotClosed();
-        return connection.prepareStatement(sql);
+        checkNotClosedAndEnlisted();
+        if (statementCache != null) {
+            return track(statementCache.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, StatementCache.DEFAULT_HOLDABILITY,
+                    () -> connection.prepareStatement(sql)), sql);
+        }
+        return track(connection.prepareStatement(sql), sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(final String sql, final int autoGeneratedKeys) throws SQLException {
         LOGGER.trace("prepareStatement(sql={},autoGeneratedKeys={})", sql, autoGeneratedKeys);
-        checkNotClosed();
-        return connection.prepareStatement(sql, autoGeneratedKeys);
+        checkNotClosedAndEnlisted();
+        return track(register(connection.prepareStatement(sql, autoGeneratedKeys)), sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(final String sql, final int[] columnIndexes) throws SQLException {
         LOGGER.trace("prepareStatement(sql={},columnIndexes={})", sql, columnIndexes);
-        checkNotClosed();
-        return connection.prepareStatement(sql, columnIndexes);
+        checkNotClosedAndEnlisted();
+        return track(register(connection.prepareStatement(sql, columnIndexes)), sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(final String sql, final String[] columnNames) throws SQLException {
         LOGGER.trace("prepareStatement(sql={},columnIndexes={})", sql, columnNames);
-        checkNotClosed();
-        return connection.prepareStatement(sql, columnNames);
+        checkNotClosedAndEnlisted();
+        return track(register(connection.prepareStatement(sql, columnNames)), sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(final String sql, final int resultSetType, final int resultSetConcurrency)
             throws SQLException {
         LOGGER.trace("prepareStatement(sql={},resultSetType={},resultSetConcurrency={})", sql, resultSetType, resultSetConcurrency);
-        checkNotClosed();
-        return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        checkNotClosedAndEnlisted();
+        trackConcurrency(resultSetConcurrency);
+        if (statementCache != null) {
+            return track(statementCache.prepareStatement(sql, resultSetType, resultSetConcurrency, StatementCache.DEFAULT_HOLDABILITY,
+                    () -> connection.prepareStatement(sql, resultSetType, resultSetConcurrency)), sql);
+        }
+        return track(connection.prepareStatement(sql, resultSetType, resultSetConcurrency), sql);
     }
 
     @Override
@@ -384,8 +504,13 @@ final class XAConnectionAdapter implements Connection, JtaSystemCallback {
                                               final int resultSetHoldability) throws SQLException {
         LOGGER.trace("prepareStatement(sql={},resultSetType={},resultSetConcurrency={},resultSetHoldability={})", sql, resultSetType, resultSetConcurrency,
                 resultSetHoldability);
-        checkNotClosed();
-        return connection.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        checkNotClosedAndEnlisted();
+        trackConcurrency(resultSetConcurrency);
+        if (statementCache != null) {
+            return track(statementCache.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability,
+                    () -> connection.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability)), sql);
+        }
+        return track(connection.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability), sql);
     }
 
     @Override
@@ -493,4 +618,16 @@ final class XAConnectionAdapter implements Connection, JtaSystemCallback {
         connection.setTypeMap(map);
     }
 
+    /**
+     * Enlistment of the xa resource in the transaction.
+     */
+    @FunctionalInterface
+    interface Enlistment {
+
+        /**
+         * Enlist the xa resource.
+         * @throws SQLException when the xa resource could not be enlisted
+         */
+        void enlist() throws SQLException;
+    }
 }
@@ -0,0 +1,404 @@
+package nl.futureedge.simple.jta.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Objects;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.XAConnection;
+import nl.futureedge.simple.jta.context.JtaTransactionContextThreadFactory;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of physical xa connections.
+ *
+ * A pooled connection is borrowed for (a branch of) one transaction and only returned to the pool after the transaction has completed; a connection is never
+ * reused while its branch is still active or prepared. Connections of transactions that did not complete normally (commit or rollback failed) are closed
+ * instead of returned. The number of borrowed connections is limited to the maximum size; waiting for a connection is fair (first come, first served) and
+ * limited to the maximum wait time. Idle connections are validated when borrowed and closed when idle for longer than the idle timeout (keeping the minimum
+ * size).
+ *
+ * The connection handle of a pooled connection is closed when the connection is returned, unless statement caching is enabled: then the handle is kept open
+ * (to keep its prepared statements) and each pooled connection has its own {@link StatementCache}. The session state (auto commit, transaction isolation,
+ * read only, catalog and schema) of the connection when it was first opened is restored when the connection is returned.
+ */
+final class XAConnectionPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(XAConnectionPool.class);
+
+    private final String name;
+    private final XAConnectionFactory connectionFactory;
+    private final XAResourceFactory xaResourceFactory;
+    private final int minSize;
+    private final int maxWait;
+    private final int idleTimeout;
+    private final int validationTimeout;
+    private final int statementCacheSize;
+
+    private final Semaphore available;
+    // Most recently returned connections first; the oldest idle connections are evicted
+    private final Deque<PooledXAConnection> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    /**
+     * Constructor.
+     * @param name name (used for logging and the evictor thread)
+     * @param connectionFactory factory to create physical xa connections
+     * @param xaResourceFactory factory to create the xa resource adapter of a physical xa connection
+     * @param minSize minimum number of connections
+     * @param maxSize maximum number of connections
+     * @param maxWait maximum time to wait for a connection (in seconds)
+     * @param idleTimeout time after which an idle connection is closed (in seconds; 0 to never close idle connections)
+     * @param validationTimeout timeout for the validation of an idle connection (in seconds; 0 to not validate connections)
+     * @param statementCacheSize maximum number of cached prepared statements per connection (0 to not cache statements)
+     */
+    XAConnectionPool(final String name, final XAConnectionFactory connectionFactory, final XAResourceFactory xaResourceFactory, final int minSize,
+                     final int maxSize, final int maxWait, final int idleTimeout, final int validationTimeout, final int statementCacheSize) {
+        if (minSize < 0 || maxSize <= 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Pool size must be positive and minimum size may not exceed maximum size");
+        }
+        this.name = name;
+        this.connectionFactory = connectionFactory;
+        this.xaResourceFactory = xaResourceFactory;
+        this.minSize = minSize;
+        this.maxWait = maxWait;
+        this.idleTimeout = idleTimeout;
+        this.validationTimeout = validationTimeout;
+        this.statementCacheSize = statementCacheSize;
+        available = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Start; creates the minimum number of connections and starts eviction of idle connections.
+     * @throws SQLException thrown when a connection could not be created
+     */
+    void start() throws SQLException {
+        fill();
+        if (idleTimeout > 0) {
+            evictor = Executors.newSingleThreadScheduledExecutor(new JtaTransactionContextThreadFactory("simple-jta-pool-" + name + "-", true));
+            final long interval = Math.max(1, idleTimeout / 2);
+            evictor.scheduleWithFixedDelay(this::evict, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Close; closes all idle connections. Borrowed connections are closed when they are returned.
+     */
+    void close() {
+        closed = true;
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+        PooledXAConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    /**
+     * @return number of (idle and borrowed) connections
+     */
+    int getSize() {
+        return size.get();
+    }
+
+    /**
+     * @return number of idle connections
+     */
+    int getIdle() {
+        return idle.size();
+    }
+
+    /**
+     * Borrow a connection.
+     * @return pooled connection
+     * @throws SQLException thrown when no connection is available within the maximum wait time or a connection could not be created
+     */
+    PooledXAConnection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool " + name + " is closed");
+        }
+        try {
+            if (!available.tryAcquire(maxWait, TimeUnit.SECONDS)) {
+                throw new SQLException("No connection available in pool " + name + " within " + maxWait + " seconds");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection from pool " + name, e);
+        }
+
+        try {
+            PooledXAConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (open(pooled, true)) {
+                    return pooled;
+                }
+                destroy(pooled);
+            }
+
+            pooled = create();
+            if (!open(pooled, false)) {
+                destroy(pooled);
+                throw new SQLException("Could not open new connection in pool " + name);
+            }
+            return pooled;
+        } catch (final SQLException | RuntimeException e) {
+            available.release();
+            throw e;
+        }
+    }
+
+    private boolean open(final PooledXAConnection pooled, final boolean validate) {
+        try {
+            if (pooled.connection == null) {
+                pooled.connection = pooled.xaConnection.getConnection();
+                if (pooled.initialState == null) {
+                    pooled.initialState = new SessionState(pooled.connection);
+                }
+            }
+            if (validate && validationTimeout > 0 && !pooled.connection.isValid(validationTimeout)) {
+                LOGGER.debug("Idle connection in pool {} is not valid", name);
+                return false;
+            }
+            return true;
+        } catch (final SQLException e) {
+            LOGGER.debug("Could not open idle connection in pool {}", name, e);
+            return false;
+        }
+    }
+
+    private void release(final PooledXAConnection pooled, final boolean reusable) {
+        try {
+            if (reusable && !closed && reset(pooled)) {
+                pooled.xaResource.reset();
+                pooled.idleSince = System.nanoTime();
+                idle.offerFirst(pooled);
+            } else {
+                destroy(pooled);
+            }
+        } finally {
+            available.release();
+        }
+    }
+
+    private boolean reset(final PooledXAConnection pooled) {
+        if (pooled.connection != null && pooled.initialState != null) {
+            try {
+                pooled.initialState.restore(pooled.connection);
+            } catch (final SQLException e) {
+                LOGGER.debug("Could not restore session state of connection in pool {}", name, e);
+                return false;
+            }
+        }
+        if (pooled.statementCache == null) {
+            return close(pooled);
+        }
+        pooled.statementCache.release();
+        return true;
+    }
+
+    private boolean close(final PooledXAConnection pooled) {
+        if (pooled.statementCache != null) {
+            pooled.statementCache.close();
+        }
+        final Connection connection = pooled.connection;
+        pooled.connection = null;
+        try {
+            if (connection != null) {
+                connection.close();
+            }
+            return true;
+        } catch (final SQLException e) {
+            LOGGER.debug("Could not close connection handle in pool {}", name, e);
+            return false;
+        }
+    }
+
+    private PooledXAConnection create() throws SQLException {
+        final XAConnection xaConnection = connectionFactory.create();
+        final PooledXAConnection result;
+        try {
+            result = new PooledXAConnection(xaConnection, xaResourceFactory.create(xaConnection),
+                    statementCacheSize > 0 ? new StatementCache(statementCacheSize) : null);
+        } catch (final SQLException | RuntimeException e) {
+            xaConnection.close();
+            throw e;
+        }
+        size.incrementAndGet();
+        LOGGER.debug("Created new connection in pool {}", name);
+        return result;
+    }
+
+    private void destroy(final PooledXAConnection pooled) {
+        close(pooled);
+        size.decrementAndGet();
+        try {
+            LOGGER.debug("Closing connection in pool {}", name);
+            pooled.xaConnection.close();
+        } catch (final SQLException e) {
+            LOGGER.warn("Could not close connection in pool {}", name, e);
+        }
+    }
+
+    private void fill() throws SQLException {
+        while (!closed && size.get() < minSize) {
+            final PooledXAConnection pooled = create();
+            pooled.idleSince = System.nanoTime();
+            idle.offerLast(pooled);
+        }
+    }
+
+    private void evict() {
+        final long expired = System.nanoTime() - TimeUnit.SECONDS.toNanos(idleTimeout);
+        PooledXAConnection pooled;
+        while (size.get() > minSize && (pooled = idle.pollLast()) != null) {
+            if (pooled.idleSince - expired > 0) {
+                // Oldest idle connection has not expired
+                idle.offerLast(pooled);
+                break;
+            }
+            LOGGER.debug("Evicting idle connection in pool {}", name);
+            destroy(pooled);
+        }
+
+        try {
+            fill();
+        } catch (final SQLException e) {
+            LOGGER.warn("Could not create connection in pool {}", name, e);
+        }
+    }
+
+    /**
+     * Physical xa connection (with its xa resource) that belongs to a pool.
+     */
+    final class PooledXAConnection {
+        private final XAConnection xaConnection;
+        private final XAResourceAdapter xaResource;
+        private final StatementCache statementCache;
+        private Connection connection;
+        private SessionState initialState;
+        private long idleSince;
+
+        private PooledXAConnection(final XAConnection xaConnection, final XAResourceAdapter xaResource, final StatementCache statementCache) {
+            this.xaConnection = xaConnection;
+            this.xaResource = xaResource;
+            this.statementCache = statementCache;
+        }
+
+        XAConnection getXAConnection() {
+            return xaConnection;
+        }
+
+        XAResourceAdapter getXaResource() {
+            return xaResource;
+        }
+
+        /**
+         * @return connection handle (opened when the connection was borrowed)
+         */
+        Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * @return statement cache (null if statements are not cached)
+         */
+        StatementCache getStatementCache() {
+            return statementCache;
+        }
+
+        /**
+         * Return this connection to the pool.
+         * @param reusable false, if the connection should be closed (for example, because the transaction did not complete normally)
+         */
+        void release(final boolean reusable) {
+            XAConnectionPool.this.release(this, reusable);
+        }
+    }
+
+    /**
+     * Session state of a connection.
+     */
+    private static final class SessionState {
+        private final boolean autoCommit;
+        private final int transactionIsolation;
+        private final boolean readOnly;
+        private final String catalog;
+        private final boolean schemaSupported;
+        private final String schema;
+
+        SessionState(final Connection connection) throws SQLException {
+            autoCommit = connection.getAutoCommit();
+            transactionIsolation = connection.getTransactionIsolation();
+            readOnly = connection.isReadOnly();
+            catalog = connection.getCatalog();
+            String initialSchema = null;
+            boolean supported;
+            try {
+                initialSchema = connection.getSchema();
+                supported = true;
+            } catch (final SQLFeatureNotSupportedException | AbstractMethodError e) {
+                // Driver does not support schemas (JDBC 4.1)
+                supported = false;
+            }
+            schemaSupported = supported;
+            schema = initialSchema;
+        }
+
+        void restore(final Connection connection) throws SQLException {
+            if (connection.getAutoCommit() != autoCommit) {
+                connection.setAutoCommit(autoCommit);
+            }
+            if (connection.getTransactionIsolation() != transactionIsolation) {
+                connection.setTransactionIsolation(transactionIsolation);
+            }
+            if (connection.isReadOnly() != readOnly) {
+                connection.setReadOnly(readOnly);
+            }
+            if (catalog != null && !catalog.equals(connection.getCatalog())) {
+                connection.setCatalog(catalog);
+            }
+            if (schemaSupported && schema != null && !Objects.equals(schema, connection.getSchema())) {
+                connection.setSchema(schema);
+            }
+        }
+    }
+
+    /**
+     * XA connection factory.
+     */
+    @FunctionalInterface
+    interface XAConnectionFactory {
+
+        /**
+         * @return new physical xa connection
+         * @throws SQLException when the connection could not be created
+         */
+        XAConnection create() throws SQLException;
+    }
+
+    /**
+     * XA resource adapter factory.
+     */
+    @FunctionalInterface
+    interface XAResourceFactory {
+
+        /**
+         * @param xaConnection xa connection
+         * @return xa resource adapter for the xa resource of the connection
+         * @throws SQLException when the xa resource could not be retrieved
+         */
+        XAResourceAdapter create(XAConnection xaConnection) throws SQLException;
+    }
+}
@@ -6,17 +6,23 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.sql.DataSource;
 import javax.sql.XAConnection;
 import javax.sql.XADataSource;
 import javax.transaction.RollbackException;
 import javax.transaction.SystemException;
 import javax.transaction.xa.XAResource;
+import nl.futureedge.simple.jta.JtaSystemCallback;
 import nl.futureedge.simple.jta.JtaTransaction;
 import nl.futureedge.simple.jta.JtaTransactionManager;
+import nl.futureedge.simple.jta.metrics.MetricsRegistry;
+import nl.futureedge.simple.jta.metrics.ResourceMetrics;
 import nl.futureedge.simple.jta.xa.XAResourceAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Required;
@@ -26,8 +32,17 @@ import org.springframework.beans.factory.annotation.Required;
  *
  * Override the {@link #getConnection()} and {@link #getConnection(String, String)} methods to retrieve a xa connection, enlist the XAResource to the
  * transaction and return the (wrapped) connection.
+ *
+ * When pooling is enabled (see {@link #setMaxPoolSize(int)}) the physical xa connections (for the default user) are kept in a pool and reused for later
+ * transactions; connections outside a transaction are taken from the same pool (and reset when closed).
+ *
+ * When a read replica is configured (see {@link #setReadReplicaDataSource(DataSource)}) connections (for the default user) outside a transaction and within
+ * a read-only transaction are taken from the (plain, non-xa) replica data source instead; connections within other transactions keep using the xa datasource.
+ *
+ * Pool and enlistment metrics are kept (see {@link #getMetrics()}); they can be exposed using JMX (see {@link #setJmxEnabled(boolean)}) and forwarded to a
+ * {@link MetricsRegistry} (see {@link #setMetricsRegistry(MetricsRegistry)}).
  */
-public final class XADataSourceAdapter implements DataSource, InitializingBean {
+public final class XADataSourceAdapter implements DataSource, InitializingBean, DisposableBean {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(XADataSourceAdapter.class);
 
@@ -37,8 +52,30 @@ public final class XADataSourceAdapter implements DataSource, InitializingBean {
 
     private boolean supportsJoin = false;
     private boolean supportsSuspend = false;
+    private boolean lazyEnlistment = false;
+    private boolean writeTracking = false;
+    private int preparePriority = 0;
     private AllowNonTransactedConnections allowNonTransactedConnections = AllowNonTransactedConnections.WARN;
 
+    private int minPoolSize = 0;
+    private int maxPoolSize = 0;
+    private int poolMaxWait = 30;
+    private int poolIdleTimeout = 600;
+    private int poolValidationTimeout = 5;
+    private int statementCacheSize = 0;
+    private XAConnectionPool pool;
+    private DataSource readReplicaDataSource;
+
+    private MetricsRegistry metricsRegistry;
+    private boolean jmxEnabled = false;
+    private final ResourceMetrics metrics = new ResourceMetrics();
+
+    // Lock instead of monitor; opening and enlisting connections does blocking I/O which should not pin (virtual) threads
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Same instance for every connection of the default user; used to find the last returned connection on identity (see JtaTransaction#getLastConnection)
+    private final Object defaultConnectionKey = createConnectionKey(null);
+
 
     /**
      * Set unique name to use for this xa resource (manager).
@@ -86,6 +123,33 @@ public final class XADataSourceAdapter implements DataSource, InitializingBean {
         this.supportsSuspend = supportsSuspend;
     }
 
+    /**
+     * Enables lazy enlistment (default disabled); the xa resource of a connection is enlisted in the transaction when the first statement is created instead of
+     * when the connection is retrieved. Connections that are never used do not take part in the transaction.
+     * @param lazyEnlistment true, if connections should be enlisted lazily
+     */
+    public void setLazyEnlistment(final boolean lazyEnlistment) {
+        this.lazyEnlistment = lazyEnlistment;
+    }
+
+    /**
+     * Enables write tracking (default disabled); statements are inspected to determine if data is written using a connection. When committing a transaction
+     * with multiple resources, branches without written data are committed and released before the prepare phase (and when only one branch has written
+     * data, the transaction is committed using a 1-phase commit).
+     * @param writeTracking true, if writes should be tracked
+     */
+    public void setWriteTracking(final boolean writeTracking) {
+        this.writeTracking = writeTracking;
+    }
+
+    /**
+     * Set the prepare priority (default 0); during a 2-phase commit resources with a higher priority are prepared first.
+     * @param preparePriority prepare priority
+     */
+    public void setPreparePriority(final int preparePriority) {
+        this.preparePriority = preparePriority;
+    }
+
     /**
      * Determines if connections outside a transaction are allowed (yes, no, warn).
      * @param allowNonTransactedConnections allowed non-transacted connections
@@ -95,6 +159,88 @@ public final class XADataSourceAdapter implements DataSource, InitializingBean {
                 AllowNonTransactedConnections.valueOf(allowNonTransactedConnections.toUpperCase());
     }
 
+    /**
+     * Set the minimum number of pooled connections (default 0).
+     * @param minPoolSize minimum number of pooled connections
+     */
+    public void setMinPoolSize(final int minPoolSize) {
+        this.minPoolSize = minPoolSize;
+    }
+
+    /**
+     * Set the maximum number of pooled connections (default 0, pooling disabled); when pooling is enabled the physical xa connections are returned to the
+     * pool after the transaction has completed and reused by later transactions.
+     * @param maxPoolSize maximum number of pooled connections
+     */
+    public void setMaxPoolSize(final int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * Set the maximum time (in seconds) to wait for a pooled connection when all pooled connections are in use (default 30).
+     * @param poolMaxWait maximum wait time in seconds
+     */
+    public void setPoolMaxWait(final int poolMaxWait) {
+        this.poolMaxWait = poolMaxWait;
+    }
+
+    /**
+     * Set the time (in seconds) after which an idle pooled connection is closed (default 600; 0 to never close idle connections).
+     * @param poolIdleTimeout idle timeout in seconds
+     */
+    public void setPoolIdleTimeout(final int poolIdleTimeout) {
+        this.poolIdleTimeout = poolIdleTimeout;
+    }
+
+    /**
+     * Set the timeout (in seconds) used to validate an idle pooled connection before it is reused (default 5; 0 to not validate connections).
+     * @param poolValidationTimeout validation timeout in seconds
+     */
+    public void setPoolValidationTimeout(final int poolValidationTimeout) {
+        this.poolValidationTimeout = poolValidationTimeout;
+    }
+
+    /**
+     * Set the maximum number of cached prepared statements per pooled connection (default 0, no caching); only used when pooling is enabled. Prepared
+     * statements are returned to the cache of the connection when they are closed.
+     * @param statementCacheSize maximum number of cached prepared statements per pooled connection
+     */
+    public void setStatementCacheSize(final int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Set the (plain, non-xa) data source of a read replica (default none); when set, connections outside a transaction and within a read-only transaction
+     * are retrieved from the replica (these connections are not enlisted). The replica data source should pool its own connections.
+     * @param readReplicaDataSource replica data source
+     */
+    public void setReadReplicaDataSource(final DataSource readReplicaDataSource) {
+        this.readReplicaDataSource = readReplicaDataSource;
+    }
+
+    /**
+     * Set the registry to forward the pool and enlistment metrics to (default none).
+     * @param metricsRegistry metrics registry
+     */
+    public void setMetricsRegistry(final MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * Enables exposing the pool and enlistment metrics as MXBean nl.futureedge.simple.jta:type=Resource,name=&lt;unique name&gt; (default disabled).
+     * @param jmxEnabled true, if the metrics should be exposed using JMX
+     */
+    public void setJmxEnabled(final boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+    }
+
+    /**
+     * @return pool and enlistment metrics
+     */
+    public ResourceMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
         final XAConnection xaConnection = xaDataSource.getXAConnection();
@@ -107,6 +253,26 @@ public final class XADataSourceAdapter implements DataSource, InitializingBean {
         } finally {
             xaConnection.close();
         }
+
+        if (maxPoolSize > 0) {
+            pool = new XAConnectionPool(uniqueName, () -> xaDataSource.getXAConnection(), this::createXaResource, minPoolSize, maxPoolSize, poolMaxWait,
+                    poolIdleTimeout, poolValidationTimeout, statementCacheSize);
+            pool.start();
+            metrics.registerGauge(ResourceMetrics.POOL_SIZE, pool::getSize);
+            metrics.registerGauge(ResourceMetrics.POOL_IDLE, pool::getIdle);
+        }
+        metrics.start(uniqueName, metricsRegistry, jmxEnabled);
+    }
+
+    /**
+     * Shutdown; closes the pooled connections and stops publishing the metrics.
+     */
+    @Override
+    public void destroy() {
+        if (pool != null) {
+            pool.close();
+        }
+        metrics.stop();
     }
 
 
@@ -161,13 +327,14 @@ public final class XADataSourceAdapter implements DataSource, InitializingBean {
     /* ******************************************************** */
 
     private Object createConnectionKey(final String username) {
-        return "user-" + username;
+        return new ConnectionKey(this, username);
     }
 
     private XAConnectionAdapter reopenConnectionIfPossible(final List<XAConnectionAdapter> connections) throws SQLException {
         if (connections != null) {
             for (final XAConnectionAdapter connection : connections) {
                 if (connection.reopen()) {
+                    metrics.increment(ResourceMetrics.REOPENED);
                     return connection;
                 }
             }
@@ -176,58 +343,214 @@ public final class XADataSourceAdapter implements DataSource, InitializingBean {
     }
 
     @Override
-    public synchronized Connection getConnection() throws SQLException {
+    public Connection getConnection() throws SQLException {
         LOGGER.trace("getConnection()");
-        return getConnection(createConnectionKey(null), () -> xaDataSource.getXAConnection());
+        if (readReplicaDataSource != null) {
+            final JtaTransaction transaction = jtaTransactionManager.getTransaction();
+            if (transaction == null || transaction.isReadOnly()) {
+                return getReplicaConnection(transaction);
+            }
+        }
+        return getConnection(defaultConnectionKey, () -> xaDataSource.getXAConnection(), pool);
     }
 
     @Override
-    public synchronized Connection getConnection(final String username, final String password) throws SQLException {
+    public Connection getConnection(final String username, final String password) throws SQLException {
         LOGGER.trace("getConnection(username={}, password not logged)", username, password);
-        return getConnection(createConnectionKey(username), () -> xaDataSource.getXAConnection(username, password));
+        return getConnection(createConnectionKey(username), () -> xaDataSource.getXAConnection(username, password), null);
     }
 
-    private Connection getConnection(final Object connectionKey, final XaConnectionSupplier xaConnectionSupplier) throws SQLException {
+    private Connection getConnection(final Object connectionKey, final XaConnectionSupplier xaConnectionSupplier, final XAConnectionPool connectionPool)
+            throws SQLException {
         final JtaTransaction transaction = jtaTransactionManager.getTransaction();
+        if (transaction == null) {
+            return getUnmanagedConnection(xaConnectionSupplier, connectionPool);
+        }
+
+        final long start = System.nanoTime();
+        final Connection result = getTransactionConnection(transaction, connectionKey, xaConnectionSupplier, connectionPool);
+        metrics.recordSince(ResourceMetrics.ACQUIRE, start);
+        metrics.increment(ResourceMetrics.ACQUIRED);
+        return result;
+    }
+
+    private Connection getTransactionConnection(final JtaTransaction transaction, final Object connectionKey, final XaConnectionSupplier xaConnectionSupplier,
+                                                final XAConnectionPool connectionPool) throws SQLException {
+        if (transaction.isTimedOut()) {
+            throw new SQLException("Transaction has timed out");
+        }
+
+        // Fast path; reopen the last returned connection (atomic, without the lock)
+        final XAConnectionAdapter last = transaction.getLastConnection(connectionKey);
+        if (last != null && last.reopen()) {
+            LOGGER.debug("XADataSource returned last closed (but not committed) connection");
+            metrics.increment(ResourceMetrics.REOPENED);
+            return last;
+        }
+
+        if (connectionPool == null) {
+            lock.lock();
+            try {
+                return getConnection(transaction, connectionKey, xaConnectionSupplier, null);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        lock.lock();
+        try {
+            final XAConnectionAdapter reopened = reopenConnectionIfPossible(transaction.getConnections(connectionKey));
+            if (reopened != null) {
+                LOGGER.debug("XADataSource returned previously closed (but not committed) connection");
+                transaction.setLastConnection(connectionKey, reopened);
+                return reopened;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // Wait for a pooled connection without holding the lock; connections of other transactions are returned without it
+        final XAConnectionPool.PooledXAConnection pooled = borrow(connectionPool);
+        lock.lock();
+        try {
+            return getConnection(transaction, connectionKey, xaConnectionSupplier, pooled);
+        } catch (final SQLException | RuntimeException e) {
+            pooled.release(false);
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Connection getUnmanagedConnection(final XaConnectionSupplier xaConnectionSupplier, final XAConnectionPool connectionPool) throws SQLException {
+        checkConnectionOutsideTransaction();
+        if (connectionPool != null) {
+            return new UnmanagedConnectionAdapter(borrow(connectionPool));
+        }
+        return new UnmanagedConnectionAdapter(xaConnectionSupplier.getXAConnection());
+    }
 
+    private Connection getReplicaConnection(final JtaTransaction transaction) throws SQLException {
         if (transaction == null) {
-            if (AllowNonTransactedConnections.NO == allowNonTransactedConnections) {
-                throw new SQLException("Connection outside transaction not allowed");
-            } else {
-                if (AllowNonTransactedConnections.WARN == allowNonTransactedConnections) {
-                    LOGGER.warn("XADataSource returned connection outside transaction");
-                } else {
-                    LOGGER.debug("XADataSource returned connection outside transaction");
-                }
-                return new UnmanagedConnectionAdapter(xaConnectionSupplier.getXAConnection());
+            checkConnectionOutsideTransaction();
+        } else {
+            LOGGER.debug("XADataSource returned replica connection within read-only transaction");
+        }
+        metrics.increment(ResourceMetrics.REPLICA);
+        return readReplicaDataSource.getConnection();
+    }
+
+    private void checkConnectionOutsideTransaction() throws SQLException {
+        if (AllowNonTransactedConnections.NO == allowNonTransactedConnections) {
+            throw new SQLException("Connection outside transaction not allowed");
+        }
+        if (AllowNonTransactedConnections.WARN == allowNonTransactedConnections) {
+            LOGGER.warn("XADataSource returned connection outside transaction");
+        } else {
+            LOGGER.debug("XADataSource returned connection outside transaction");
+        }
+        metrics.increment(ResourceMetrics.NON_TRANSACTED);
+    }
+
+    private XAConnectionPool.PooledXAConnection borrow(final XAConnectionPool connectionPool) throws SQLException {
+        final long start = System.nanoTime();
+        final XAConnectionPool.PooledXAConnection result = connectionPool.borrow();
+        metrics.recordSince(ResourceMetrics.POOL_WAIT, start);
+        return result;
+    }
+
+    private Connection getConnection(final JtaTransaction transaction, final Object connectionKey, final XaConnectionSupplier xaConnectionSupplier,
+                                     final XAConnectionPool.PooledXAConnection pooled) throws SQLException {
+        if (pooled == null) {
+            final List<XAConnectionAdapter> connections = transaction.getConnections(connectionKey);
+            final XAConnectionAdapter reopened = reopenConnectionIfPossible(connections);
+
+            if (reopened != null) {
+                LOGGER.debug("XADataSource returned previously closed (but not committed) connection");
+                transaction.setLastConnection(connectionKey, reopened);
+                return reopened;
             }
         }
 
-        final List<XAConnectionAdapter> connections = transaction.getConnections(connectionKey);
-        final XAConnectionAdapter reopened = reopenConnectionIfPossible(connections);
+        // Create a new XA connection (or use the pooled XA connection)
+        final XAConnection xaConnection = pooled == null ? xaConnectionSupplier.getXAConnection() : pooled.getXAConnection();
+
+        final XAResourceAdapter xaResource = pooled == null ? createXaResource(xaConnection) : pooled.getXaResource();
+        final XAResourceAdapter writeTrackingResource = writeTracking ? xaResource : null;
 
-        if (reopened != null) {
-            LOGGER.debug("XADataSource returned previously closed (but not committed) connection");
-            return reopened;
+        // Wrap and register connection; enlist the xa resource in the current transaction (now or when the connection is first used)
+        final XAConnectionAdapter.Enlistment enlistment = lazyEnlistment ? () -> enlist(transaction, xaResource) : null;
+        if (!lazyEnlistment) {
+            enlist(transaction, xaResource);
         }
+        final XAConnectionAdapter connection = pooled == null ? new XAConnectionAdapter(xaConnection, enlistment, writeTrackingResource)
+                : new XAConnectionAdapter(pooled, enlistment, writeTrackingResource);
+        transaction.registerSystemCallback(new JtaSystemCallback() {
+            @Override
+            public void transactionCompleted(final JtaTransaction completed) {
+                final long start = System.nanoTime();
+                connection.transactionCompleted(completed);
+                metrics.recordSince(ResourceMetrics.CLOSE, start);
+            }
 
-        // Create a new XA connection
-        final XAConnection xaConnection = xaConnectionSupplier.getXAConnection();
+            @Override
+            public void transactionTimedOut(final JtaTransaction timedOut) {
+                connection.transactionTimedOut(timedOut);
+            }
+        });
+        if (transaction.getConnections(connectionKey) == null) {
+            metrics.increment(ResourceMetrics.TRANSACTIONS);
+        }
+        transaction.registerConnection(connectionKey, connection);
+        transaction.setLastConnection(connectionKey, connection);
 
-        // Enlist the xa resource in the current transaction
+        return connection;
+    }
+
+    private XAResourceAdapter createXaResource(final XAConnection xaConnection) throws SQLException {
+        return new XAResourceAdapter(uniqueName, supportsJoin, supportsSuspend, writeTracking, preparePriority, xaConnection.getXAResource());
+    }
+
+    private void enlist(final JtaTransaction transaction, final XAResourceAdapter xaResource) throws SQLException {
+        final long start = System.nanoTime();
         try {
-            transaction.enlistResource(new XAResourceAdapter(uniqueName, supportsJoin, supportsSuspend, xaConnection.getXAResource()));
+            transaction.enlistResource(xaResource);
+            metrics.recordSince(ResourceMetrics.ENLIST, start);
+            metrics.increment(ResourceMetrics.ENLISTED);
         } catch (IllegalStateException | RollbackException | SystemException e) {
             LOGGER.debug("Could not enlist connection to transaction", e);
             throw new SQLException("Could not enlist connection to transaction", e);
         }
+    }
 
-        // Wrap and register connection
-        final XAConnectionAdapter connection = new XAConnectionAdapter(xaConnection);
-        transaction.registerSystemCallback(connection);
-        transaction.registerConnection(connectionKey, connection);
+    /**
+     * Key of the connections of a user of a data source in a transaction.
+     */
+    private static final class ConnectionKey {
+        private final XADataSourceAdapter dataSource;
+        private final String username;
 
-        return connection;
+        ConnectionKey(final XADataSourceAdapter dataSource, final String username) {
+            this.dataSource = dataSource;
+            this.username = username;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final ConnectionKey that = (ConnectionKey) o;
+            return dataSource == that.dataSource && Objects.equals(username, that.username);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(dataSource) * 31 + Objects.hashCode(username);
+        }
     }
 
     /**
@@ -0,0 +1,340 @@
+package nl.futureedge.simple.jta.jms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.transaction.NotSupportedException;
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.SystemException;
+import nl.futureedge.simple.jta.JtaTransactionManager;
+import nl.futureedge.simple.jta.context.JtaTransactionContextThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Required;
+
+/**
+ * Batching message consumer; receives batches of messages in one JTA transaction per batch and hands them to a {@link BatchMessageListener}.
+ *
+ * A batch is complete when the batch size has been reached or the batch timeout has expired. When a batch fails (the listener throws an exception or
+ * marks the transaction as rollback only) the transaction is rolled back and the message ids of the batch are remembered (by all consumers, bounded). When
+ * such a message is redelivered it is processed in a transaction of its own (when it is received after other messages, the batch is ended with it), to
+ * isolate the failing message(s); its id is forgotten when it has been processed successfully. Messages without a message id can not be isolated.
+ *
+ * Use with a connection factory created by {@link XAConnectionFactoryAdapter} to receive the messages within the JTA transaction.
+ */
+public final class BatchMessageConsumer implements InitializingBean, DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchMessageConsumer.class);
+
+    private static final int MAX_FAILED_MESSAGE_IDS = 10_000;
+
+    private ConnectionFactory connectionFactory;
+    private JtaTransactionManager jtaTransactionManager;
+    private Destination destination;
+    private String messageSelector;
+    private BatchMessageListener batchMessageListener;
+    private int batchSize = 10;
+    private long batchTimeout = 1000;
+    private int concurrentConsumers = 1;
+    private long recoveryInterval = 5000;
+
+    private ExecutorService executor;
+    private volatile boolean running;
+
+    // Message ids of failed batches (oldest forgotten first); guarded by itself
+    private final Set<String> failedMessageIds = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_FAILED_MESSAGE_IDS;
+        }
+    });
+
+    /**
+     * Set the connection factory to use.
+     * @param connectionFactory connection factory
+     */
+    @Required
+    public void setConnectionFactory(final ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    /**
+     * Set the jta transaction manager to use.
+     * @param jtaTransactionManager jta transaction manager
+     */
+    @Required
+    @Autowired
+    public void setJtaTransactionManager(final JtaTransactionManager jtaTransactionManager) {
+        this.jtaTransactionManager = jtaTransactionManager;
+    }
+
+    /**
+     * Set the destination to receive messages from.
+     * @param destination destination
+     */
+    @Required
+    public void setDestination(final Destination destination) {
+        this.destination = destination;
+    }
+
+    /**
+     * Set the message selector (default none).
+     * @param messageSelector message selector
+     */
+    public void setMessageSelector(final String messageSelector) {
+        this.messageSelector = messageSelector;
+    }
+
+    /**
+     * Set the listener to process the batches of messages.
+     * @param batchMessageListener batch message listener
+     */
+    @Required
+    public void setBatchMessageListener(final BatchMessageListener batchMessageListener) {
+        this.batchMessageListener = batchMessageListener;
+    }
+
+    /**
+     * Set the maximum number of messages in a batch (default 10).
+     * @param batchSize batch size
+     */
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Set the maximum time (in milliseconds) to wait for the messages of a batch (default 1000).
+     * @param batchTimeout batch timeout in milliseconds
+     */
+    public void setBatchTimeout(final long batchTimeout) {
+        this.batchTimeout = batchTimeout;
+    }
+
+    /**
+     * Set the number of concurrent consumers (default 1); each consumer uses its own thread and connection.
+     * @param concurrentConsumers number of concurrent consumers
+     */
+    public void setConcurrentConsumers(final int concurrentConsumers) {
+        this.concurrentConsumers = concurrentConsumers;
+    }
+
+    /**
+     * Set the time (in milliseconds) to wait before reconnecting after a failure (default 5000).
+     * @param recoveryInterval recovery interval in milliseconds
+     */
+    public void setRecoveryInterval(final long recoveryInterval) {
+        this.recoveryInterval = recoveryInterval;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (batchSize <= 0 || batchTimeout <= 0 || concurrentConsumers <= 0) {
+            throw new IllegalStateException("Batch size, batch timeout and concurrent consumers must be positive");
+        }
+        running = true;
+        executor = Executors.newFixedThreadPool(concurrentConsumers, new JtaTransactionContextThreadFactory("simple-jta-batch-", true));
+        for (int i = 0; i < concurrentConsumers; i++) {
+            executor.execute(this::consume);
+        }
+    }
+
+    /**
+     * Shutdown; waits for the current batches to complete.
+     */
+    @Override
+    public void destroy() throws Exception {
+        running = false;
+        if (executor != null) {
+            executor.shutdown();
+            if (!executor.awaitTermination(batchTimeout + recoveryInterval, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Batch consumers did not stop in time; interrupting");
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /* ******************************************************** */
+    /* ******************************************************** */
+    /* ******************************************************** */
+
+    private void consume() {
+        Connection connection = null;
+        while (running) {
+            try {
+                if (connection == null) {
+                    connection = connectionFactory.createConnection();
+                    connection.start();
+                }
+                consume(connection, batchSize);
+            } catch (final Exception e) {
+                if (!running) {
+                    break;
+                }
+                LOGGER.warn("Could not consume messages; reconnecting in {} ms", recoveryInterval, e);
+                detach();
+                close(connection);
+                connection = null;
+                try {
+                    Thread.sleep(recoveryInterval);
+                } catch (final InterruptedException e2) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        close(connection);
+    }
+
+    /**
+     * Receive and process one batch of messages in a transaction.
+     * @param connection connection
+     * @param maxMessages maximum number of messages in the batch
+     * @return true, if the batch (of at least one message) has been processed successfully
+     * @throws JMSException thrown when the messages could not be received (the transaction is rolled back)
+     * @throws NotSupportedException thrown when the transaction could not be started
+     * @throws SystemException thrown when the transaction could not be completed
+     */
+    boolean consume(final Connection connection, final int maxMessages) throws JMSException, NotSupportedException, SystemException {
+        jtaTransactionManager.begin();
+        final List<Message> messages = new ArrayList<>(maxMessages);
+        try {
+            final Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+            final MessageConsumer consumer = session.createConsumer(destination, messageSelector);
+            receive(consumer, messages, maxMessages);
+            if (!messages.isEmpty()) {
+                batchMessageListener.onMessages(Collections.unmodifiableList(messages));
+            }
+            session.close();
+        } catch (final JMSException e) {
+            jtaTransactionManager.rollback();
+            throw e;
+        } catch (final RuntimeException e) {
+            LOGGER.warn("Could not process batch of {} message(s); transaction will be rolled back", messages.size(), e);
+            jtaTransactionManager.setRollbackOnly();
+        }
+
+        if (messages.isEmpty()) {
+            jtaTransactionManager.rollback();
+            return false;
+        }
+        if (jtaTransactionManager.getStatus() == Status.STATUS_MARKED_ROLLBACK) {
+            jtaTransactionManager.rollback();
+            failed(messages);
+            return false;
+        }
+        try {
+            jtaTransactionManager.commit();
+        } catch (final RollbackException e) {
+            LOGGER.warn("Could not commit batch of {} message(s); transaction rolled back", messages.size(), e);
+            failed(messages);
+            return false;
+        }
+        LOGGER.debug("Processed batch of {} message(s)", messages.size());
+        succeeded(messages);
+        return true;
+    }
+
+    private void receive(final MessageConsumer consumer, final List<Message> messages, final int maxMessages) throws JMSException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchTimeout);
+        while (messages.size() < maxMessages) {
+            final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            // Note: receive(0) blocks indefinitely
+            final Message message = remaining > 0 ? consumer.receive(remaining) : consumer.receiveNoWait();
+            if (message == null) {
+                return;
+            }
+            messages.add(message);
+            if (isFailed(message)) {
+                // Message of a failed batch; process on its own (or end the batch with it)
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param message message
+     * @return true, if the message was part of a failed batch (and has not been processed successfully since)
+     * @throws JMSException thrown when the message id could not be read
+     */
+    boolean isFailed(final Message message) throws JMSException {
+        final String messageId = message.getJMSMessageID();
+        if (messageId == null) {
+            return false;
+        }
+        synchronized (failedMessageIds) {
+            return failedMessageIds.contains(messageId);
+        }
+    }
+
+    private void failed(final List<Message> messages) throws JMSException {
+        if (messages.size() > 1) {
+            LOGGER.info("Batch of {} message(s) failed; processing redelivered messages individually", messages.size());
+        }
+        synchronized (failedMessageIds) {
+            for (final Message message : messages) {
+                final String messageId = message.getJMSMessageID();
+                if (messageId != null) {
+                    failedMessageIds.add(messageId);
+                }
+            }
+        }
+    }
+
+    private void succeeded(final List<Message> messages) throws JMSException {
+        synchronized (failedMessageIds) {
+            if (failedMessageIds.isEmpty()) {
+                return;
+            }
+            for (final Message message : messages) {
+                final String messageId = message.getJMSMessageID();
+                if (messageId != null) {
+                    failedMessageIds.remove(messageId);
+                }
+            }
+        }
+    }
+
+    private void detach() {
+        if (jtaTransactionManager.getTransaction() == null) {
+            return;
+        }
+        try {
+            jtaTransactionManager.rollback();
+        } catch (final IllegalStateException | SystemException e) {
+            LOGGER.warn("Could not rollback transaction of batch consumer", e);
+            try {
+                jtaTransactionManager.suspend();
+            } catch (final SystemException e2) {
+                LOGGER.warn("Could not detach transaction from batch consumer", e2);
+            }
+        }
+    }
+
+    private static void close(final Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (final JMSException e) {
+            LOGGER.debug("Could not close connection of batch consumer", e);
+        }
+    }
+}
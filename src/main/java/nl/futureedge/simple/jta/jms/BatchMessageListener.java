@@ -0,0 +1,18 @@
+package nl.futureedge.simple.jta.jms;
+
+import java.util.List;
+import javax.jms.Message;
+
+/**
+ * Listener for batches of messages (see {@link BatchMessageConsumer}).
+ */
+@FunctionalInterface
+public interface BatchMessageListener {
+
+    /**
+     * Process a batch of messages; called within the JTA transaction in which the messages were received. The transaction is rolled back when this method
+     * throws an exception or marks the transaction as rollback only.
+     * @param messages messages (at least one)
+     */
+    void onMessages(List<Message> messages);
+}
@@ -0,0 +1,293 @@
+package nl.futureedge.simple.jta.jms;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.QueueBrowser;
+import javax.jms.TransactionInProgressException;
+import javax.jms.XASession;
+import nl.futureedge.simple.jta.util.ProxyMethods;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transaction scoped xa session; the (enlisted) xa session that is used for all transacted sessions of a connection within one transaction on one thread.
+ *
+ * A JMS session may only be used by one thread at a time, so the xa session is owned by the thread that created it; other threads that participate in the
+ * transaction (see {@link nl.futureedge.simple.jta.JtaTransactionPropagation}) get their own (enlisted) transaction session.
+ *
+ * Each transacted session that is created returns a new handle on the same xa session. Closing a handle closes the consumers and browsers created with it,
+ * but not the xa session. Message producers are cached per destination and reused by later handles; closing a producer only closes the handle on the
+ * producer (the settings of a reused producer are restored to the settings it was created with). A cached producer is only reused when no other open
+ * handle holds it (otherwise a new producer is created and cached), so the settings of an open handle are never changed by another handle. When the
+ * transaction is completed the producers (and remaining consumers and browsers) are closed. As with a xa session, commit and rollback on a handle throw a {@link TransactionInProgressException}.
+ *
+ * When the transaction times out, all handles and producers are closed (when the branch has been rolled back); the session can no longer be used, as
+ * its work would no longer be part of the transaction.
+ */
+final class TransactionSession {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransactionSession.class);
+
+    private final XASession xaSession;
+    private final XAResourceAdapter xaResource;
+    private final Thread owner = Thread.currentThread();
+
+    private final Map<Destination, List<CachedProducer>> producers = new HashMap<>();
+    private final List<SessionHandler> handlers = new ArrayList<>();
+    private boolean closed;
+    private boolean timedOut;
+
+    /**
+     * Constructor.
+     * @param xaSession xa session
+     * @param xaResource (enlisted) xa resource of the session
+     */
+    TransactionSession(final XASession xaSession, final XAResourceAdapter xaResource) {
+        this.xaSession = xaSession;
+        this.xaResource = xaResource;
+    }
+
+    XASession getXaSession() {
+        return xaSession;
+    }
+
+    XAResourceAdapter getXaResource() {
+        return xaResource;
+    }
+
+    /**
+     * @return true, if the xa session is owned by (was created on) the current thread
+     */
+    boolean isOwnedByCurrentThread() {
+        return owner == Thread.currentThread();
+    }
+
+    /**
+     * @return number of cached producers
+     */
+    synchronized int getProducerCount() {
+        int count = 0;
+        for (final List<CachedProducer> cached : producers.values()) {
+            count += cached.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return new session handle on the xa session
+     * @throws JMSException thrown when the transaction has completed
+     */
+    XASession getSession() throws JMSException {
+        final SessionHandler handler = new SessionHandler();
+        synchronized (this) {
+            if (closed) {
+                throw new javax.jms.IllegalStateException(timedOut ? "Transaction of session has timed out" : "Transaction of session has completed");
+            }
+            handlers.add(handler);
+        }
+        return (XASession) Proxy.newProxyInstance(TransactionSession.class.getClassLoader(), new Class<?>[]{XASession.class}, handler);
+    }
+
+    private MessageProducer createProducer(final Destination destination) throws JMSException {
+        CachedProducer cached = null;
+        synchronized (this) {
+            for (final CachedProducer candidate : producers.getOrDefault(destination, Collections.emptyList())) {
+                if (!candidate.inUse) {
+                    candidate.inUse = true;
+                    cached = candidate;
+                    break;
+                }
+            }
+        }
+        if (cached == null) {
+            LOGGER.trace("Producer not cached (or in use by another handle); creating producer");
+            cached = new CachedProducer(xaSession.createProducer(destination));
+            synchronized (this) {
+                producers.computeIfAbsent(destination, key -> new ArrayList<>(1)).add(cached);
+            }
+        } else {
+            cached.restore();
+        }
+        return (MessageProducer) Proxy.newProxyInstance(TransactionSession.class.getClassLoader(), new Class<?>[]{MessageProducer.class},
+                new ProducerHandler(cached));
+    }
+
+    private synchronized void release(final CachedProducer cached) {
+        cached.inUse = false;
+    }
+
+    /**
+     * Close all handles and producers when the transaction has timed out; no new handles can be created.
+     */
+    void timedOut() {
+        synchronized (this) {
+            timedOut = true;
+        }
+        close();
+    }
+
+    /**
+     * Close all handles and producers (when the transaction is completed); the xa session itself is not closed.
+     */
+    void close() {
+        final List<SessionHandler> closingHandlers;
+        final List<CachedProducer> closingProducers;
+        synchronized (this) {
+            closed = true;
+            closingHandlers = new ArrayList<>(handlers);
+            handlers.clear();
+            closingProducers = new ArrayList<>();
+            producers.values().forEach(closingProducers::addAll);
+            producers.clear();
+        }
+        closingHandlers.forEach(SessionHandler::close);
+        for (final CachedProducer cached : closingProducers) {
+            close(cached.producer);
+        }
+    }
+
+    private static void close(final Object object) {
+        try {
+            if (object instanceof MessageConsumer) {
+                ((MessageConsumer) object).close();
+            } else if (object instanceof MessageProducer) {
+                ((MessageProducer) object).close();
+            } else {
+                ((QueueBrowser) object).close();
+            }
+        } catch (final JMSException e) {
+            LOGGER.debug("Could not close {} of transaction session", object, e);
+        }
+    }
+
+    private static Object invoke(final Object target, final Method method, final Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (final InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Producer (with its settings at creation); in use while an open handle holds it.
+     */
+    private static final class CachedProducer {
+        private final MessageProducer producer;
+        private boolean inUse = true;
+        private final int deliveryMode;
+        private final int priority;
+        private final long timeToLive;
+        private final boolean disableMessageID;
+        private final boolean disableMessageTimestamp;
+
+        CachedProducer(final MessageProducer producer) throws JMSException {
+            this.producer = producer;
+            deliveryMode = producer.getDeliveryMode();
+            priority = producer.getPriority();
+            timeToLive = producer.getTimeToLive();
+            disableMessageID = producer.getDisableMessageID();
+            disableMessageTimestamp = producer.getDisableMessageTimestamp();
+        }
+
+        void restore() throws JMSException {
+            producer.setDeliveryMode(deliveryMode);
+            producer.setPriority(priority);
+            producer.setTimeToLive(timeToLive);
+            producer.setDisableMessageID(disableMessageID);
+            producer.setDisableMessageTimestamp(disableMessageTimestamp);
+        }
+    }
+
+    /**
+     * Invocation handler of a session handle; producers are taken from the cache, created consumers and browsers are closed when the handle is closed.
+     */
+    private final class SessionHandler implements InvocationHandler {
+        private final List<Object> created = new ArrayList<>();
+        private boolean handleClosed;
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            if (ProxyMethods.isObjectMethod(method)) {
+                return ProxyMethods.invoke(proxy, method, args, xaSession);
+            }
+            switch (method.getName()) {
+                case "close":
+                    close();
+                    return null;
+                case "commit":
+                case "rollback":
+                    // As a xa session; also after the transaction has completed (and the handle has been closed)
+                    throw new TransactionInProgressException("Session is part of a JTA transaction; use the transaction manager to " + method.getName());
+                default:
+                    break;
+            }
+            synchronized (this) {
+                if (handleClosed) {
+                    throw new javax.jms.IllegalStateException("Session is closed");
+                }
+            }
+            if ("createProducer".equals(method.getName())) {
+                return createProducer((Destination) args[0]);
+            }
+            final Object result = TransactionSession.invoke(xaSession, method, args);
+            if (result instanceof MessageConsumer || result instanceof QueueBrowser) {
+                synchronized (this) {
+                    created.add(result);
+                }
+            }
+            return result;
+        }
+
+        void close() {
+            final List<Object> closing;
+            synchronized (this) {
+                handleClosed = true;
+                closing = new ArrayList<>(created);
+                created.clear();
+            }
+            closing.forEach(TransactionSession::close);
+        }
+    }
+
+    /**
+     * Invocation handler of a producer handle; closing the handle does not close the (cached) producer, but releases it for reuse.
+     */
+    private final class ProducerHandler implements InvocationHandler {
+        private final CachedProducer cached;
+        private volatile boolean handleClosed;
+
+        ProducerHandler(final CachedProducer cached) {
+            this.cached = cached;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            if (ProxyMethods.isObjectMethod(method)) {
+                return ProxyMethods.invoke(proxy, method, args, cached.producer);
+            }
+            if ("close".equals(method.getName())) {
+                if (!handleClosed) {
+                    handleClosed = true;
+                    release(cached);
+                }
+                return null;
+            }
+            if (handleClosed) {
+                throw new javax.jms.IllegalStateException("Producer is closed");
+            }
+            return TransactionSession.invoke(cached.producer, method, args);
+        }
+    }
+}
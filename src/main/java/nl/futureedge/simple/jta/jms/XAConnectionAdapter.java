@@ -1,6 +1,8 @@
 package nl.futureedge.simple.jta.jms;
 
 
+import java.util.ArrayList;
+import java.util.List;
 import javax.jms.Connection;
 import javax.jms.ConnectionConsumer;
 import javax.jms.ConnectionMetaData;
@@ -18,6 +20,7 @@ import javax.transaction.SystemException;
 import nl.futureedge.simple.jta.JtaSystemCallback;
 import nl.futureedge.simple.jta.JtaTransaction;
 import nl.futureedge.simple.jta.JtaTransactionManager;
+import nl.futureedge.simple.jta.metrics.ResourceMetrics;
 import nl.futureedge.simple.jta.xa.XAResourceAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,7 +28,14 @@ import org.slf4j.LoggerFactory;
 /**
  * XAConnection adapter; delegates all calls to the wrapped XAConnection.
  *
- * Overrides the {@link #createSession(boolean, int)} method to start a XASession and enlist the XAResource to the transaction.
+ * Overrides the {@link #createSession(boolean, int)} method to start a XASession and enlist the XAResource to the transaction. Transacted sessions are
+ * transaction scoped: within one transaction all transacted sessions of the connection created on the same thread are handles on the same (enlisted)
+ * XASession (see {@link TransactionSession}), which is closed when the transaction is completed. Connection consumers are supported with a
+ * {@link XAServerSessionPool}.
+ *
+ * When created for a session pool, the shared connection of the pool is used: transacted sessions are borrowed from the pool (and returned when the
+ * transaction is completed), closing this connection only closes the non-transacted sessions created with it and the client id can not be set (the shared
+ * connection is always started).
  */
 final class XAConnectionAdapter implements Connection, JtaSystemCallback {
 
@@ -34,24 +44,65 @@ final class XAConnectionAdapter implements Connection, JtaSystemCallback {
     private final String resourceManager;
     private final boolean supportsJoin;
     private final boolean supportsSuspend;
+    private final int preparePriority;
     private final XAConnection xaConnection;
+    private final XASessionPool pool;
     private final JtaTransactionManager transactionManager;
+    private final ResourceMetrics metrics;
 
     private boolean closeAfterCompletion = false;
+    private final List<XAConnectionConsumer> connectionConsumers = new ArrayList<>();
+
+    // Only used for pooled connections
+    private final List<Session> sessions = new ArrayList<>();
+    private ExceptionListener exceptionListener;
+    private boolean closed = false;
 
     /**
      * Constructor.
      * @param resourceManager resource manager unique name
+     * @param preparePriority prepare priority
      * @param xaConnection xa connection
      * @param transactionManager transaction manager
+     * @param metrics metrics of the connection factory
      */
-    XAConnectionAdapter(String resourceManager, boolean supportsJoin, boolean supportsSuspend, final XAConnection xaConnection,
-                        final JtaTransactionManager transactionManager) {
+    XAConnectionAdapter(String resourceManager, boolean supportsJoin, boolean supportsSuspend, final int preparePriority, final XAConnection xaConnection,
+                        final JtaTransactionManager transactionManager, final ResourceMetrics metrics) {
         this.resourceManager = resourceManager;
         this.supportsJoin = supportsJoin;
         this.supportsSuspend = supportsSuspend;
+        this.preparePriority = preparePriority;
         this.xaConnection = xaConnection;
         this.transactionManager = transactionManager;
+        this.metrics = metrics;
+        pool = null;
+    }
+
+    /**
+     * Constructor.
+     * @param pool session pool (which determines the resource manager and settings of the enlisted xa resources)
+     * @param transactionManager transaction manager
+     * @param metrics metrics of the connection factory
+     */
+    XAConnectionAdapter(final XASessionPool pool, final JtaTransactionManager transactionManager, final ResourceMetrics metrics) {
+        this.pool = pool;
+        this.transactionManager = transactionManager;
+        this.metrics = metrics;
+        resourceManager = null;
+        supportsJoin = false;
+        supportsSuspend = false;
+        preparePriority = 0;
+        xaConnection = null;
+    }
+
+    private XAConnection connection() throws JMSException {
+        if (pool == null) {
+            return xaConnection;
+        }
+        if (closed) {
+            throw new javax.jms.IllegalStateException("Connection is closed");
+        }
+        return pool.getConnection();
     }
 
     /* ******************************************************** */
@@ -77,23 +128,114 @@ final class XAConnectionAdapter implements Connection, JtaSystemCallback {
     @Override
     public Session createSession(final boolean transacted, final int acknowledgeMode) throws JMSException {
         LOGGER.trace("createSession(transacted={},acknowledgeMode={})", transacted, acknowledgeMode);
-        if (transacted) {
-            final JtaTransaction transaction = transactionManager.getRequiredTransaction();
+        if (!transacted) {
+            metrics.increment(ResourceMetrics.NON_TRANSACTED);
+            if (pool == null) {
+                return xaConnection.createSession(false, acknowledgeMode);
+            }
+            final Session session = connection().createSession(false, acknowledgeMode);
+            synchronized (sessions) {
+                sessions.add(session);
+            }
+            return session;
+        }
+
+        connection();
+        final JtaTransaction transaction = transactionManager.getRequiredTransaction();
 
-            final XASession xaSession = xaConnection.createXASession();
+        final long start = System.nanoTime();
+        final Session result = getTransactionSession(transaction).getSession();
+        metrics.recordSince(ResourceMetrics.ACQUIRE, start);
+        metrics.increment(ResourceMetrics.ACQUIRED);
+        return result;
+    }
+
+    private TransactionSession getTransactionSession(final JtaTransaction transaction) throws JMSException {
+        // Sessions are transaction (and thread) scoped; sessions of a pool are shared by all connections of the pool
+        final Object key = pool == null ? this : pool;
+        final List<TransactionSession> transactionSessions = transaction.getConnections(key);
+        if (transactionSessions != null) {
+            for (int index = 0; index < transactionSessions.size(); index++) {
+                final TransactionSession transactionSession = transactionSessions.get(index);
+                if (transactionSession != null && transactionSession.isOwnedByCurrentThread()) {
+                    LOGGER.debug("Returning enlisted session of transaction");
+                    metrics.increment(ResourceMetrics.REOPENED);
+                    return transactionSession;
+                }
+            }
+        }
+
+        final boolean first = transactionSessions == null || transactionSessions.isEmpty();
+        final TransactionSession transactionSession = pool == null ? createTransactionSession(transaction, first) : createPooledTransactionSession(transaction);
+        transaction.registerConnection(key, transactionSession);
+        if (first) {
+            metrics.increment(ResourceMetrics.TRANSACTIONS);
+        }
+        return transactionSession;
+    }
+
+    private TransactionSession createTransactionSession(final JtaTransaction transaction, final boolean first) throws JMSException {
+        final XASession xaSession = xaConnection.createXASession();
+        final XAResourceAdapter xaResource = createXaResource(xaSession);
+        enlist(transaction, xaResource);
+
+        final TransactionSession transactionSession = new TransactionSession(xaSession, xaResource);
+        transaction.registerSystemCallback(new SessionCallback(transactionSession, completed -> {
+            final long start = System.nanoTime();
+            transactionSession.close();
             try {
-                transaction.enlistResource(new XAResourceAdapter(resourceManager, supportsJoin, supportsSuspend, xaSession.getXAResource()));
-            } catch (IllegalStateException | RollbackException | SystemException e) {
-                final JMSException jmsException = new JMSException("Could not enlist connection to transaction");
-                jmsException.initCause(e);
-                throw jmsException;
+                xaSession.close();
+            } catch (final JMSException e) {
+                LOGGER.debug("Could not close session after completion of transaction", e);
             }
+            metrics.recordSince(ResourceMetrics.CLOSE, start);
+        }));
+        if (first) {
             transaction.registerSystemCallback(this);
+        }
+        return transactionSession;
+    }
 
-            return xaSession;
+    private TransactionSession createPooledTransactionSession(final JtaTransaction transaction) throws JMSException {
+        final long start = System.nanoTime();
+        final XASessionPool.PooledXASession pooled = pool.borrow();
+        metrics.recordSince(ResourceMetrics.POOL_WAIT, start);
+        try {
+            enlist(transaction, pooled.getXaResource());
+        } catch (final JMSException e) {
+            pooled.release(false);
+            throw e;
+        }
 
-        } else {
-            return xaConnection.createSession(false, acknowledgeMode);
+        final TransactionSession transactionSession = new TransactionSession(pooled.getXaSession(), pooled.getXaResource());
+        transaction.registerSystemCallback(new SessionCallback(transactionSession, completed -> {
+            final long closeStart = System.nanoTime();
+            transactionSession.close();
+            final int status = completed.getStatus();
+            LOGGER.debug("Returning session to pool after completion of transaction");
+            pooled.release(status == Status.STATUS_COMMITTED || status == Status.STATUS_ROLLEDBACK);
+            metrics.recordSince(ResourceMetrics.CLOSE, closeStart);
+        }));
+        return transactionSession;
+    }
+
+    private XAResourceAdapter createXaResource(final XASession xaSession) throws JMSException {
+        if (pool != null) {
+            return pool.createXaResource(xaSession);
+        }
+        return new XAResourceAdapter(resourceManager, supportsJoin, supportsSuspend, false, preparePriority, xaSession.getXAResource());
+    }
+
+    private void enlist(final JtaTransaction transaction, final XAResourceAdapter xaResource) throws JMSException {
+        final long start = System.nanoTime();
+        try {
+            transaction.enlistResource(xaResource);
+            metrics.recordSince(ResourceMetrics.ENLIST, start);
+            metrics.increment(ResourceMetrics.ENLISTED);
+        } catch (IllegalStateException | RollbackException | SystemException e) {
+            final JMSException jmsException = new JMSException("Could not enlist connection to transaction");
+            jmsException.initCause(e);
+            throw jmsException;
         }
     }
 
@@ -104,48 +246,81 @@ final class XAConnectionAdapter implements Connection, JtaSystemCallback {
     @Override
     public String getClientID() throws JMSException {
         LOGGER.trace("getClientID()");
-        return xaConnection.getClientID();
+        return connection().getClientID();
     }
 
     @Override
     public void setClientID(final String clientID) throws JMSException {
         LOGGER.trace("setClientID(clientID={})", clientID);
+        if (pool != null) {
+            throw new javax.jms.IllegalStateException("Client id can not be set on a pooled connection");
+        }
         xaConnection.setClientID(clientID);
     }
 
     @Override
     public ConnectionMetaData getMetaData() throws JMSException {
         LOGGER.trace("getMetaData()");
-        return xaConnection.getMetaData();
+        return connection().getMetaData();
     }
 
     @Override
     public ExceptionListener getExceptionListener() throws JMSException {
         LOGGER.trace("getExceptionListener()");
+        if (pool != null) {
+            connection();
+            return exceptionListener;
+        }
         return xaConnection.getExceptionListener();
     }
 
     @Override
     public void setExceptionListener(final ExceptionListener listener) throws JMSException {
         LOGGER.trace("setExceptionListener(listener={})", listener);
+        if (pool != null) {
+            connection();
+            if (exceptionListener != null) {
+                pool.removeExceptionListener(exceptionListener);
+            }
+            exceptionListener = listener;
+            if (listener != null) {
+                pool.addExceptionListener(listener);
+            }
+            return;
+        }
         xaConnection.setExceptionListener(listener);
     }
 
     @Override
     public void start() throws JMSException {
         LOGGER.trace("start()");
+        if (pool != null) {
+            // Shared connection is always started
+            connection();
+            return;
+        }
         xaConnection.start();
     }
 
     @Override
     public void stop() throws JMSException {
         LOGGER.trace("stop()");
+        if (pool != null) {
+            // Shared connection can not be stopped
+            connection();
+            return;
+        }
         xaConnection.stop();
     }
 
     @Override
     public void close() throws JMSException {
         LOGGER.trace("close()");
+        closeConnectionConsumers();
+        if (pool != null) {
+            closePooled();
+            return;
+        }
         if (Status.STATUS_NO_TRANSACTION == transactionManager.getStatus()) {
             xaConnection.close();
         } else {
@@ -154,12 +329,41 @@ final class XAConnectionAdapter implements Connection, JtaSystemCallback {
         }
     }
 
+    private void closePooled() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (exceptionListener != null) {
+            pool.removeExceptionListener(exceptionListener);
+        }
+        final List<Session> closing;
+        synchronized (sessions) {
+            closing = new ArrayList<>(sessions);
+            sessions.clear();
+        }
+        for (final Session session : closing) {
+            try {
+                session.close();
+            } catch (final JMSException e) {
+                LOGGER.debug("Could not close session of pooled connection", e);
+            }
+        }
+    }
+
     @Override
     public ConnectionConsumer createConnectionConsumer(final Destination destination, final String messageSelector,
                                                        final ServerSessionPool sessionPool, final int maxMessages) throws JMSException {
         LOGGER.trace("createConnectionConsumer(destination={},messageSelector={},sessionPool={},maxMessages={})", destination, messageSelector, sessionPool,
                 maxMessages);
-        throw new UnsupportedOperationException("Create connection consumer not supported");
+        final XAServerSessionPool serverSessionPool = openServerSessionPool(sessionPool);
+        try {
+            return registerConnectionConsumer(connection().createConnectionConsumer(destination, messageSelector, sessionPool, maxMessages),
+                    serverSessionPool);
+        } catch (final JMSException | RuntimeException e) {
+            serverSessionPool.close();
+            throw e;
+        }
     }
 
     @Override
@@ -168,6 +372,95 @@ final class XAConnectionAdapter implements Connection, JtaSystemCallback {
             throws JMSException {
         LOGGER.trace("createConnectionConsumer(topic={},subscriptionName={},messageSelector={},sessionPool={},maxMessages={})", topic, subscriptionName,
                 messageSelector, sessionPool, maxMessages);
-        throw new UnsupportedOperationException("Create durable connection consumer not supported");
+        final XAServerSessionPool serverSessionPool = openServerSessionPool(sessionPool);
+        try {
+            return registerConnectionConsumer(
+                    connection().createDurableConnectionConsumer(topic, subscriptionName, messageSelector, sessionPool, maxMessages), serverSessionPool);
+        } catch (final JMSException | RuntimeException e) {
+            serverSessionPool.close();
+            throw e;
+        }
+    }
+
+    private XAServerSessionPool openServerSessionPool(final ServerSessionPool sessionPool) throws JMSException {
+        if (!(sessionPool instanceof XAServerSessionPool)) {
+            throw new JMSException("Connection consumers are only supported with a " + XAServerSessionPool.class.getSimpleName());
+        }
+        final XAServerSessionPool serverSessionPool = (XAServerSessionPool) sessionPool;
+        serverSessionPool.open(connection(), transactionManager, this::createXaResource);
+        return serverSessionPool;
+    }
+
+    private ConnectionConsumer registerConnectionConsumer(final ConnectionConsumer connectionConsumer, final XAServerSessionPool serverSessionPool) {
+        final XAConnectionConsumer result = new XAConnectionConsumer(connectionConsumer, serverSessionPool);
+        synchronized (connectionConsumers) {
+            connectionConsumers.add(result);
+        }
+        return result;
+    }
+
+    private void closeConnectionConsumers() {
+        final List<XAConnectionConsumer> closing;
+        synchronized (connectionConsumers) {
+            closing = new ArrayList<>(connectionConsumers);
+            connectionConsumers.clear();
+        }
+        for (final XAConnectionConsumer connectionConsumer : closing) {
+            try {
+                connectionConsumer.close();
+            } catch (final JMSException e) {
+                LOGGER.debug("Could not close connection consumer", e);
+            }
+        }
+    }
+
+    /**
+     * Completion callback of a transaction session; closes the session handles when the transaction has timed out.
+     */
+    private static final class SessionCallback implements JtaSystemCallback {
+        private final TransactionSession transactionSession;
+        private final JtaSystemCallback completion;
+
+        SessionCallback(final TransactionSession transactionSession, final JtaSystemCallback completion) {
+            this.transactionSession = transactionSession;
+            this.completion = completion;
+        }
+
+        @Override
+        public void transactionCompleted(final JtaTransaction transaction) {
+            completion.transactionCompleted(transaction);
+        }
+
+        @Override
+        public void transactionTimedOut(final JtaTransaction transaction) {
+            transactionSession.timedOut();
+        }
+    }
+
+    /**
+     * Connection consumer; closes the server session pool when closed.
+     */
+    private static final class XAConnectionConsumer implements ConnectionConsumer {
+        private final ConnectionConsumer connectionConsumer;
+        private final XAServerSessionPool serverSessionPool;
+
+        XAConnectionConsumer(final ConnectionConsumer connectionConsumer, final XAServerSessionPool serverSessionPool) {
+            this.connectionConsumer = connectionConsumer;
+            this.serverSessionPool = serverSessionPool;
+        }
+
+        @Override
+        public ServerSessionPool getServerSessionPool() {
+            return serverSessionPool;
+        }
+
+        @Override
+        public void close() throws JMSException {
+            try {
+                connectionConsumer.close();
+            } finally {
+                serverSessionPool.close();
+            }
+        }
     }
 }
@@ -9,17 +9,26 @@ import javax.jms.XAConnectionFactory;
 import javax.jms.XASession;
 import javax.transaction.xa.XAResource;
 import nl.futureedge.simple.jta.JtaTransactionManager;
+import nl.futureedge.simple.jta.metrics.MetricsRegistry;
+import nl.futureedge.simple.jta.metrics.ResourceMetrics;
 import nl.futureedge.simple.jta.xa.XAResourceAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Required;
 
 /**
  * XAConnectionFactory adapter; creates connections on the wrapped xa connection factory and adapts them using a {@link XAConnectionAdapter}.
+ *
+ * When pooling is enabled (see {@link #setMaxPoolSize(int)}) connections (for the default user) share one physical xa connection and the xa sessions of
+ * transacted sessions are kept in a pool and reused for later transactions.
+ *
+ * Pool and enlistment metrics are kept (see {@link #getMetrics()}); they can be exposed using JMX (see {@link #setJmxEnabled(boolean)}) and forwarded to a
+ * {@link MetricsRegistry} (see {@link #setMetricsRegistry(MetricsRegistry)}).
  */
-public final class XAConnectionFactoryAdapter implements ConnectionFactory, InitializingBean {
+public final class XAConnectionFactoryAdapter implements ConnectionFactory, InitializingBean, DisposableBean {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(XAConnectionFactoryAdapter.class);
 
@@ -28,6 +37,16 @@ public final class XAConnectionFactoryAdapter implements ConnectionFactory, Init
     private JtaTransactionManager jtaTransactionManager;
     private boolean supportsJoin = false;
     private boolean supportsSuspend = false;
+    private int preparePriority = 0;
+
+    private int maxPoolSize = 0;
+    private int poolMaxWait = 30;
+    private int poolIdleTimeout = 600;
+    private XASessionPool pool;
+
+    private MetricsRegistry metricsRegistry;
+    private boolean jmxEnabled = false;
+    private final ResourceMetrics metrics = new ResourceMetrics();
 
     /**
      * Set unique name to use for this xa resource (manager).
@@ -72,6 +91,62 @@ public final class XAConnectionFactoryAdapter implements ConnectionFactory, Init
         this.supportsSuspend = supportsSuspend;
     }
 
+    /**
+     * Set the prepare priority (default 0); during a 2-phase commit resources with a higher priority are prepared first.
+     * @param preparePriority prepare priority
+     */
+    public void setPreparePriority(final int preparePriority) {
+        this.preparePriority = preparePriority;
+    }
+
+    /**
+     * Set the maximum number of pooled xa sessions (default 0, pooling disabled); when pooling is enabled connections share one physical xa connection and
+     * the xa sessions of transacted sessions are returned to the pool after the transaction has completed and reused by later transactions.
+     * @param maxPoolSize maximum number of pooled xa sessions
+     */
+    public void setMaxPoolSize(final int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * Set the maximum time (in seconds) to wait for a pooled xa session when all pooled sessions are in use (default 30).
+     * @param poolMaxWait maximum wait time in seconds
+     */
+    public void setPoolMaxWait(final int poolMaxWait) {
+        this.poolMaxWait = poolMaxWait;
+    }
+
+    /**
+     * Set the time (in seconds) after which an idle pooled xa session is closed (default 600; 0 to never close idle sessions).
+     * @param poolIdleTimeout idle timeout in seconds
+     */
+    public void setPoolIdleTimeout(final int poolIdleTimeout) {
+        this.poolIdleTimeout = poolIdleTimeout;
+    }
+
+    /**
+     * Set the registry to forward the pool and enlistment metrics to (default none).
+     * @param metricsRegistry metrics registry
+     */
+    public void setMetricsRegistry(final MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * Enables exposing the pool and enlistment metrics as MXBean nl.futureedge.simple.jta:type=Resource,name=&lt;unique name&gt; (default disabled).
+     * @param jmxEnabled true, if the metrics should be exposed using JMX
+     */
+    public void setJmxEnabled(final boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+    }
+
+    /**
+     * @return pool and enlistment metrics
+     */
+    public ResourceMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
         final XAConnection xaConnection = xaConnectionFactory.createXAConnection();
@@ -87,6 +162,27 @@ public final class XAConnectionFactoryAdapter implements ConnectionFactory, Init
         } finally {
             xaConnection.close();
         }
+
+        if (maxPoolSize > 0) {
+            pool = new XASessionPool(uniqueName, () -> xaConnectionFactory.createXAConnection(),
+                    xaSession -> new XAResourceAdapter(uniqueName, supportsJoin, supportsSuspend, false, preparePriority, xaSession.getXAResource()),
+                    maxPoolSize, poolMaxWait, poolIdleTimeout);
+            pool.start();
+            metrics.registerGauge(ResourceMetrics.POOL_SIZE, pool::getSize);
+            metrics.registerGauge(ResourceMetrics.POOL_IDLE, pool::getIdle);
+        }
+        metrics.start(uniqueName, metricsRegistry, jmxEnabled);
+    }
+
+    /**
+     * Shutdown; closes the pooled sessions and the shared connection and stops publishing the metrics.
+     */
+    @Override
+    public void destroy() {
+        if (pool != null) {
+            pool.close();
+        }
+        metrics.stop();
     }
 
     /* ******************************************************** */
@@ -96,14 +192,17 @@ public final class XAConnectionFactoryAdapter implements ConnectionFactory, Init
     @Override
     public Connection createConnection() throws JMSException {
         LOGGER.trace("getConnection()");
+        if (pool != null) {
+            return new XAConnectionAdapter(pool, jtaTransactionManager, metrics);
+        }
         final XAConnection xaConnection = xaConnectionFactory.createXAConnection();
-        return new XAConnectionAdapter(uniqueName, supportsJoin, supportsSuspend, xaConnection, jtaTransactionManager);
+        return new XAConnectionAdapter(uniqueName, supportsJoin, supportsSuspend, preparePriority, xaConnection, jtaTransactionManager, metrics);
     }
 
     @Override
     public Connection createConnection(final String username, final String password) throws JMSException {
         LOGGER.trace("getConnection(username={}, password not logged)", username, password);
         final XAConnection xaConnection = xaConnectionFactory.createXAConnection(username, password);
-        return new XAConnectionAdapter(uniqueName, supportsJoin, supportsSuspend, xaConnection, jtaTransactionManager);
+        return new XAConnectionAdapter(uniqueName, supportsJoin, supportsSuspend, preparePriority, xaConnection, jtaTransactionManager, metrics);
     }
 }
@@ -0,0 +1,288 @@
+package nl.futureedge.simple.jta.jms;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.ServerSession;
+import javax.jms.ServerSessionPool;
+import javax.jms.Session;
+import javax.jms.XAConnection;
+import javax.jms.XASession;
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.SystemException;
+import nl.futureedge.simple.jta.JtaTransactionManager;
+import nl.futureedge.simple.jta.context.JtaTransactionContextThreadFactory;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server session pool for connection consumers (see {@link javax.jms.Connection#createConnectionConsumer}) of connections created by a
+ * {@link XAConnectionFactoryAdapter}.
+ *
+ * Each server session is a xa session with the given message listener. The messages that the connection consumer loads into a server session are delivered
+ * on a worker thread in their own JTA transaction: the transaction is started, the xa session is enlisted, the messages are delivered to the listener and
+ * the transaction is committed (or rolled back when the listener throws an exception or marks the transaction as rollback only). Resources used by the
+ * listener are enlisted in the same transaction.
+ *
+ * The pool can be used by one connection consumer; it is closed when the connection consumer (or its connection) is closed.
+ */
+public final class XAServerSessionPool implements ServerSessionPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(XAServerSessionPool.class);
+
+    private final MessageListener messageListener;
+    private final Semaphore available;
+    private final Deque<XAServerSession> idle = new ConcurrentLinkedDeque<>();
+    private final List<XAServerSession> sessions = new ArrayList<>();
+
+    private Executor executor;
+    private ExecutorService ownedExecutor;
+
+    private XAConnection connection;
+    private JtaTransactionManager transactionManager;
+    private XASessionPool.XAResourceFactory xaResourceFactory;
+    private volatile boolean closed;
+
+    /**
+     * Constructor.
+     * @param messageListener message listener (called concurrently by the worker threads)
+     * @param maxSessions maximum number of server sessions (concurrent deliveries)
+     */
+    public XAServerSessionPool(final MessageListener messageListener, final int maxSessions) {
+        if (maxSessions <= 0) {
+            throw new IllegalArgumentException("Number of sessions must be positive");
+        }
+        this.messageListener = messageListener;
+        available = new Semaphore(maxSessions, true);
+        ownedExecutor = Executors.newFixedThreadPool(maxSessions, new JtaTransactionContextThreadFactory("simple-jta-consumer-", true));
+        executor = ownedExecutor;
+    }
+
+    /**
+     * Set the executor to deliver messages on (default a fixed thread pool with a thread per session); the executor is not shut down when the pool is
+     * closed.
+     * @param executor executor
+     */
+    public synchronized void setExecutor(final Executor executor) {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+            ownedExecutor = null;
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Bind the pool to the connection of the connection consumer.
+     * @param connection physical xa connection
+     * @param transactionManager transaction manager
+     * @param xaResourceFactory factory to create the xa resource adapter of a xa session
+     * @throws JMSException thrown when the pool is already used by a connection consumer (or is closed)
+     */
+    synchronized void open(final XAConnection connection, final JtaTransactionManager transactionManager,
+                           final XASessionPool.XAResourceFactory xaResourceFactory) throws JMSException {
+        if (closed || this.connection != null) {
+            throw new javax.jms.IllegalStateException("Server session pool is already used by a connection consumer");
+        }
+        this.connection = connection;
+        this.transactionManager = transactionManager;
+        this.xaResourceFactory = xaResourceFactory;
+    }
+
+    /**
+     * Close; closes all server sessions and shuts down the default executor.
+     */
+    void close() {
+        final List<XAServerSession> closing;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closing = new ArrayList<>(sessions);
+            sessions.clear();
+            if (ownedExecutor != null) {
+                ownedExecutor.shutdown();
+            }
+        }
+        idle.clear();
+        closing.forEach(XAServerSession::close);
+    }
+
+    @Override
+    public ServerSession getServerSession() throws JMSException {
+        LOGGER.trace("getServerSession()");
+        if (closed) {
+            throw new javax.jms.IllegalStateException("Server session pool is closed");
+        }
+        try {
+            available.acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final JMSException jmsException = new JMSException("Interrupted while waiting for a server session");
+            jmsException.initCause(e);
+            throw jmsException;
+        }
+
+        try {
+            final XAServerSession result = idle.pollFirst();
+            return result == null ? create() : result;
+        } catch (final JMSException | RuntimeException e) {
+            available.release();
+            throw e;
+        }
+    }
+
+    private XAServerSession create() throws JMSException {
+        final XAConnection sessionConnection;
+        synchronized (this) {
+            if (connection == null) {
+                throw new javax.jms.IllegalStateException("Server session pool is not used by a connection consumer");
+            }
+            sessionConnection = connection;
+        }
+        final XASession xaSession = sessionConnection.createXASession();
+        final XAServerSession result;
+        try {
+            xaSession.setMessageListener(this::onMessage);
+            result = new XAServerSession(xaSession, xaResourceFactory.create(xaSession));
+        } catch (final JMSException | RuntimeException e) {
+            xaSession.close();
+            throw e;
+        }
+        synchronized (this) {
+            sessions.add(result);
+        }
+        LOGGER.debug("Created new server session");
+        return result;
+    }
+
+    private void onMessage(final Message message) {
+        try {
+            messageListener.onMessage(message);
+        } catch (final RuntimeException e) {
+            LOGGER.warn("Message listener failed; transaction will be rolled back", e);
+            try {
+                transactionManager.setRollbackOnly();
+            } catch (final IllegalStateException | SystemException e2) {
+                LOGGER.warn("Could not mark transaction as rollback only", e2);
+            }
+        }
+    }
+
+    private void release(final XAServerSession serverSession, final boolean reusable) {
+        try {
+            if (reusable && !closed) {
+                serverSession.xaResource.reset();
+                idle.offerFirst(serverSession);
+            } else {
+                synchronized (this) {
+                    sessions.remove(serverSession);
+                }
+                serverSession.close();
+            }
+        } finally {
+            available.release();
+        }
+    }
+
+    /**
+     * Server session; delivers the loaded messages in a JTA transaction.
+     */
+    private final class XAServerSession implements ServerSession {
+        private final XASession xaSession;
+        private final XAResourceAdapter xaResource;
+
+        XAServerSession(final XASession xaSession, final XAResourceAdapter xaResource) {
+            this.xaSession = xaSession;
+            this.xaResource = xaResource;
+        }
+
+        @Override
+        public Session getSession() {
+            return xaSession;
+        }
+
+        @Override
+        public void start() throws JMSException {
+            final Executor sessionExecutor;
+            synchronized (XAServerSessionPool.this) {
+                sessionExecutor = executor;
+            }
+            try {
+                sessionExecutor.execute(this::deliver);
+            } catch (final RejectedExecutionException e) {
+                release(this, false);
+                final JMSException jmsException = new JMSException("Could not start delivery of server session");
+                jmsException.initCause(e);
+                throw jmsException;
+            }
+        }
+
+        private void deliver() {
+            boolean reusable = false;
+            try {
+                transactionManager.begin();
+                try {
+                    transactionManager.getTransaction().enlistResource(xaResource);
+                    xaSession.run();
+                } catch (final IllegalStateException | RollbackException | SystemException e) {
+                    LOGGER.warn("Could not deliver messages in transaction; transaction will be rolled back", e);
+                    transactionManager.setRollbackOnly();
+                }
+
+                if (transactionManager.getStatus() == Status.STATUS_MARKED_ROLLBACK) {
+                    transactionManager.rollback();
+                } else {
+                    transactionManager.commit();
+                }
+                reusable = true;
+            } catch (final RollbackException e) {
+                LOGGER.debug("Transaction of message delivery rolled back", e);
+                reusable = true;
+            } catch (final Exception e) {
+                LOGGER.warn("Could not complete transaction of message delivery", e);
+                detach();
+            } finally {
+                release(this, reusable);
+            }
+        }
+
+        private void detach() {
+            try {
+                final int status = transactionManager.getStatus();
+                if (status == Status.STATUS_ACTIVE || status == Status.STATUS_MARKED_ROLLBACK) {
+                    transactionManager.rollback();
+                    return;
+                }
+            } catch (final IllegalStateException | SystemException e) {
+                LOGGER.warn("Could not rollback transaction of message delivery", e);
+            }
+            try {
+                if (transactionManager.getTransaction() != null) {
+                    transactionManager.suspend();
+                }
+            } catch (final SystemException e) {
+                LOGGER.warn("Could not detach transaction from worker thread", e);
+            }
+        }
+
+        void close() {
+            try {
+                xaSession.close();
+            } catch (final JMSException e) {
+                LOGGER.debug("Could not close server session", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package nl.futureedge.simple.jta.jms;
+
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.XAConnection;
+import javax.jms.XASession;
+import nl.futureedge.simple.jta.context.JtaTransactionContextThreadFactory;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of xa sessions on one shared (started) physical xa connection.
+ *
+ * A pooled session is borrowed for (a branch of) one transaction and only returned to the pool after the transaction has completed; a session is never reused
+ * while its branch is still active or prepared. Sessions of transactions that did not complete normally (commit or rollback failed) are closed instead of
+ * returned. The number of borrowed sessions is limited to the maximum size; waiting for a session is fair (first come, first served) and limited to the
+ * maximum wait time. Idle sessions are closed when idle for longer than the idle timeout.
+ *
+ * The shared connection is created when first needed. When the connection reports an exception it is closed (with its sessions) and replaced by a new
+ * connection when next needed.
+ */
+final class XASessionPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(XASessionPool.class);
+
+    private final String name;
+    private final XAConnectionFactory connectionFactory;
+    private final XAResourceFactory xaResourceFactory;
+    private final int maxWait;
+    private final int idleTimeout;
+
+    private final Semaphore available;
+    // Most recently returned sessions first; the oldest idle sessions are evicted
+    private final Deque<PooledXASession> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Set<ExceptionListener> exceptionListeners = new CopyOnWriteArraySet<>();
+
+    private final ReentrantLock connectionLock = new ReentrantLock();
+    private volatile XAConnection connection;
+
+    private ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    /**
+     * Constructor.
+     * @param name name (used for logging and the evictor thread)
+     * @param connectionFactory factory to create the physical xa connection
+     * @param xaResourceFactory factory to create the xa resource adapter of a xa session
+     * @param maxSize maximum number of sessions
+     * @param maxWait maximum time to wait for a session (in seconds)
+     * @param idleTimeout time after which an idle session is closed (in seconds; 0 to never close idle sessions)
+     */
+    XASessionPool(final String name, final XAConnectionFactory connectionFactory, final XAResourceFactory xaResourceFactory, final int maxSize,
+                  final int maxWait, final int idleTimeout) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+        this.name = name;
+        this.connectionFactory = connectionFactory;
+        this.xaResourceFactory = xaResourceFactory;
+        this.maxWait = maxWait;
+        this.idleTimeout = idleTimeout;
+        available = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Start; starts eviction of idle sessions.
+     */
+    void start() {
+        if (idleTimeout > 0) {
+            evictor = Executors.newSingleThreadScheduledExecutor(new JtaTransactionContextThreadFactory("simple-jta-pool-" + name + "-", true));
+            final long interval = Math.max(1, idleTimeout / 2);
+            evictor.scheduleWithFixedDelay(this::evict, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Close; closes all idle sessions and the shared connection. Borrowed sessions are closed when they are returned.
+     */
+    void close() {
+        closed = true;
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+        PooledXASession pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+        connectionLock.lock();
+        try {
+            closeConnection(connection);
+            connection = null;
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+
+    /**
+     * @return number of (idle and borrowed) sessions
+     */
+    int getSize() {
+        return size.get();
+    }
+
+    /**
+     * @return number of idle sessions
+     */
+    int getIdle() {
+        return idle.size();
+    }
+
+    /**
+     * Create the xa resource adapter of a xa session (that is not pooled) of the shared connection.
+     * @param xaSession xa session
+     * @return xa resource adapter
+     * @throws JMSException when the xa resource could not be retrieved
+     */
+    XAResourceAdapter createXaResource(final XASession xaSession) throws JMSException {
+        return xaResourceFactory.create(xaSession);
+    }
+
+    /**
+     * Register an exception listener; notified when the shared connection reports an exception.
+     * @param exceptionListener exception listener
+     */
+    void addExceptionListener(final ExceptionListener exceptionListener) {
+        exceptionListeners.add(exceptionListener);
+    }
+
+    /**
+     * Remove an exception listener.
+     * @param exceptionListener exception listener
+     */
+    void removeExceptionListener(final ExceptionListener exceptionListener) {
+        exceptionListeners.remove(exceptionListener);
+    }
+
+    /**
+     * Get the shared connection; the connection is created (and started) when needed.
+     * @return shared physical xa connection
+     * @throws JMSException thrown when the pool is closed or the connection could not be created
+     */
+    XAConnection getConnection() throws JMSException {
+        final XAConnection result = connection;
+        if (result != null) {
+            return result;
+        }
+
+        connectionLock.lock();
+        try {
+            if (closed) {
+                throw new javax.jms.IllegalStateException("Session pool " + name + " is closed");
+            }
+            if (connection == null) {
+                final XAConnection created = connectionFactory.create();
+                try {
+                    created.setExceptionListener(exception -> connectionFailed(created, exception));
+                    created.start();
+                } catch (final JMSException | RuntimeException e) {
+                    closeConnection(created);
+                    throw e;
+                }
+                LOGGER.debug("Created new connection in pool {}", name);
+                connection = created;
+            }
+            return connection;
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+
+    private void connectionFailed(final XAConnection failed, final JMSException exception) {
+        connectionLock.lock();
+        try {
+            if (connection != failed) {
+                return;
+            }
+            LOGGER.warn("Connection in pool {} failed; connection will be replaced", name, exception);
+            connection = null;
+        } finally {
+            connectionLock.unlock();
+        }
+
+        // Idle sessions of the failed connection are closed when they are borrowed (or evicted)
+        closeConnection(failed);
+        for (final ExceptionListener exceptionListener : exceptionListeners) {
+            exceptionListener.onException(exception);
+        }
+    }
+
+    private void closeConnection(final XAConnection closing) {
+        if (closing == null) {
+            return;
+        }
+        try {
+            LOGGER.debug("Closing connection in pool {}", name);
+            closing.close();
+        } catch (final JMSException e) {
+            LOGGER.warn("Could not close connection in pool {}", name, e);
+        }
+    }
+
+    /**
+     * Borrow a session.
+     * @return pooled session
+     * @throws JMSException thrown when no session is available within the maximum wait time or a session could not be created
+     */
+    PooledXASession borrow() throws JMSException {
+        if (closed) {
+            throw new javax.jms.IllegalStateException("Session pool " + name + " is closed");
+        }
+        try {
+            if (!available.tryAcquire(maxWait, TimeUnit.SECONDS)) {
+                throw new JMSException("No session available in pool " + name + " within " + maxWait + " seconds");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final JMSException jmsException = new JMSException("Interrupted while waiting for a session from pool " + name);
+            jmsException.initCause(e);
+            throw jmsException;
+        }
+
+        try {
+            PooledXASession pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (pooled.connection == connection) {
+                    return pooled;
+                }
+                destroy(pooled);
+            }
+            return create();
+        } catch (final JMSException | RuntimeException e) {
+            available.release();
+            throw e;
+        }
+    }
+
+    private void release(final PooledXASession pooled, final boolean reusable) {
+        try {
+            if (reusable && !closed && pooled.connection == connection) {
+                pooled.xaResource.reset();
+                pooled.idleSince = System.nanoTime();
+                idle.offerFirst(pooled);
+            } else {
+                destroy(pooled);
+            }
+        } finally {
+            available.release();
+        }
+    }
+
+    private PooledXASession create() throws JMSException {
+        final XAConnection sessionConnection = getConnection();
+        final XASession xaSession = sessionConnection.createXASession();
+        final PooledXASession result;
+        try {
+            result = new PooledXASession(sessionConnection, xaSession, xaResourceFactory.create(xaSession));
+        } catch (final JMSException | RuntimeException e) {
+            xaSession.close();
+            throw e;
+        }
+        size.incrementAndGet();
+        LOGGER.debug("Created new session in pool {}", name);
+        return result;
+    }
+
+    private void destroy(final PooledXASession pooled) {
+        size.decrementAndGet();
+        try {
+            LOGGER.debug("Closing session in pool {}", name);
+            pooled.xaSession.close();
+        } catch (final JMSException e) {
+            LOGGER.debug("Could not close session in pool {}", name, e);
+        }
+    }
+
+    private void evict() {
+        final long expired = System.nanoTime() - TimeUnit.SECONDS.toNanos(idleTimeout);
+        PooledXASession pooled;
+        while ((pooled = idle.pollLast()) != null) {
+            if (pooled.idleSince - expired > 0 && pooled.connection == connection) {
+                // Oldest idle session has not expired
+                idle.offerLast(pooled);
+                break;
+            }
+            LOGGER.debug("Evicting idle session in pool {}", name);
+            destroy(pooled);
+        }
+    }
+
+    /**
+     * Physical xa session (with its xa resource) that belongs to a pool.
+     */
+    final class PooledXASession {
+        private final XAConnection connection;
+        private final XASession xaSession;
+        private final XAResourceAdapter xaResource;
+        private long idleSince;
+
+        private PooledXASession(final XAConnection connection, final XASession xaSession, final XAResourceAdapter xaResource) {
+            this.connection = connection;
+            this.xaSession = xaSession;
+            this.xaResource = xaResource;
+        }
+
+        XAResourceAdapter getXaResource() {
+            return xaResource;
+        }
+
+        XASession getXaSession() {
+            return xaSession;
+        }
+
+        /**
+         * Return this session to the pool.
+         * @param reusable false, if the session should be closed (for example, because the transaction did not complete normally)
+         */
+        void release(final boolean reusable) {
+            XASessionPool.this.release(this, reusable);
+        }
+    }
+
+    /**
+     * XA connection factory.
+     */
+    @FunctionalInterface
+    interface XAConnectionFactory {
+
+        /**
+         * @return new physical xa connection
+         * @throws JMSException when the connection could not be created
+         */
+        XAConnection create() throws JMSException;
+    }
+
+    /**
+     * XA resource adapter factory.
+     */
+    @FunctionalInterface
+    interface XAResourceFactory {
+
+        /**
+         * @param xaSession xa session
+         * @return xa resource adapter for the xa resource of the session
+         * @throws JMSException when the xa resource could not be retrieved
+         */
+        XAResourceAdapter create(XASession xaSession) throws JMSException;
+    }
+}
@@ -0,0 +1,60 @@
+package nl.futureedge.simple.jta.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with power of two buckets (in microseconds); recording is lock free.
+ *
+ * Bucket 0 contains latencies below 1 microsecond, bucket i (i &gt; 0) contains latencies from 2^(i-1) up to 2^i microseconds. Percentiles are reported as the
+ * upper bound of the bucket that contains them (so at most a factor two too high) and never above the maximum.
+ */
+final class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency.
+     * @param nanos duration in nanoseconds
+     */
+    void record(final long nanos) {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+        buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+        total.add(micros);
+        max.accumulateAndGet(micros, Math::max);
+    }
+
+    /**
+     * @return statistics of the recorded latencies
+     */
+    LatencyStatistics getStatistics() {
+        final long[] counts = new long[BUCKETS];
+        long recorded = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts[bucket] = buckets.get(bucket);
+            recorded += counts[bucket];
+        }
+        final long maxMicros = max.get();
+        final long mean = recorded == 0 ? 0 : total.sum() / recorded;
+        return new LatencyStatistics(recorded, mean, maxMicros, percentile(counts, recorded, 0.5, maxMicros),
+                percentile(counts, recorded, 0.99, maxMicros));
+    }
+
+    private static long percentile(final long[] counts, final long recorded, final double percentile, final long maxMicros) {
+        final long rank = (long) Math.ceil(recorded * percentile);
+        long cumulative = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            cumulative += counts[bucket];
+            if (cumulative > 0 && cumulative >= rank) {
+                return Math.min(1L << bucket, maxMicros);
+            }
+        }
+        return 0;
+    }
+}
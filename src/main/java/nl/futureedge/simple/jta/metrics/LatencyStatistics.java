@@ -0,0 +1,72 @@
+package nl.futureedge.simple.jta.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Statistics of a latency (all durations in microseconds).
+ */
+public final class LatencyStatistics {
+
+    private final long count;
+    private final long mean;
+    private final long max;
+    private final long p50;
+    private final long p99;
+
+    /**
+     * Constructor.
+     * @param count number of recorded latencies
+     * @param mean mean latency
+     * @param max maximum latency
+     * @param p50 median latency (upper bound)
+     * @param p99 99th percentile latency (upper bound)
+     */
+    @ConstructorProperties({"count", "mean", "max", "p50", "p99"})
+    public LatencyStatistics(final long count, final long mean, final long max, final long p50, final long p99) {
+        this.count = count;
+        this.mean = mean;
+        this.max = max;
+        this.p50 = p50;
+        this.p99 = p99;
+    }
+
+    /**
+     * @return number of recorded latencies
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return mean latency in microseconds
+     */
+    public long getMean() {
+        return mean;
+    }
+
+    /**
+     * @return maximum latency in microseconds
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return median latency in microseconds (upper bound)
+     */
+    public long getP50() {
+        return p50;
+    }
+
+    /**
+     * @return 99th percentile latency in microseconds (upper bound)
+     */
+    public long getP99() {
+        return p99;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyStatistics{count=" + count + ", mean=" + mean + ", max=" + max + ", p50=" + p50 + ", p99=" + p99 + "}";
+    }
+}
@@ -0,0 +1,43 @@
+package nl.futureedge.simple.jta.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Registry the metrics of resources (data sources and connection factories) are published to; implement to bridge the metrics to a monitoring system.
+ *
+ * Counters and latencies are reported when they occur (on the thread that uses the resource, so implementations should be fast and must not block); gauges
+ * are registered once and sampled by the registry.
+ */
+public interface MetricsRegistry {
+
+    /**
+     * Register a gauge.
+     * @param resource resource (unique name of the data source or connection factory)
+     * @param name name of the gauge (see {@link ResourceMetrics})
+     * @param value supplier of the current value
+     */
+    void registerGauge(String resource, String name, LongSupplier value);
+
+    /**
+     * Increment a counter.
+     * @param resource resource (unique name of the data source or connection factory)
+     * @param name name of the counter (see {@link ResourceMetrics})
+     */
+    void increment(String resource, String name);
+
+    /**
+     * Record a latency.
+     * @param resource resource (unique name of the data source or connection factory)
+     * @param name name of the latency (see {@link ResourceMetrics})
+     * @param nanos duration in nanoseconds
+     */
+    void record(String resource, String name, long nanos);
+
+    /**
+     * Remove all metrics of a resource (when the resource is shut down).
+     * @param resource resource (unique name of the data source or connection factory)
+     */
+    default void unregister(final String resource) {
+        // Nothing by default
+    }
+}
@@ -0,0 +1,208 @@
+package nl.futureedge.simple.jta.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Metrics of a resource (data source or connection factory); recording is not for external use!
+ *
+ * The metrics are always kept in memory (recording is lock free); they can be exposed as a MXBean (see {@link #start(String, MetricsRegistry, boolean)})
+ * and are forwarded to the {@link MetricsRegistry}, if one is configured.
+ */
+public final class ResourceMetrics implements ResourceMetricsMXBean {
+
+    /**
+     * Gauge; number of (idle and borrowed) pooled connections or sessions.
+     */
+    public static final String POOL_SIZE = "pool.size";
+    /**
+     * Gauge; number of idle pooled connections or sessions.
+     */
+    public static final String POOL_IDLE = "pool.idle";
+
+    /**
+     * Counter; connections (or transacted sessions) handed out within a transaction.
+     */
+    public static final String ACQUIRED = "acquired";
+    /**
+     * Counter; connections (or transacted sessions) handed out within a transaction that reused an earlier connection of the transaction.
+     */
+    public static final String REOPENED = "reopened";
+    /**
+     * Counter; connections (or sessions) handed out outside a transaction (or non-transacted).
+     */
+    public static final String NON_TRANSACTED = "nontransacted";
+    /**
+     * Counter; connections handed out by the read replica (outside a transaction or within a read-only transaction).
+     */
+    public static final String REPLICA = "replica";
+    /**
+     * Counter; transactions in which the resource was used.
+     */
+    public static final String TRANSACTIONS = "transactions";
+    /**
+     * Counter; branches enlisted in a transaction (enlisted / transactions is the number of branches per transaction).
+     */
+    public static final String ENLISTED = "enlisted";
+
+    /**
+     * Latency; handing out a connection (or transacted session) within a transaction, including waiting for the pool and enlistment.
+     */
+    public static final String ACQUIRE = "acquire";
+    /**
+     * Latency; waiting for a pooled connection (or session).
+     */
+    public static final String POOL_WAIT = "pool.wait";
+    /**
+     * Latency; enlisting a branch in a transaction (xa_start).
+     */
+    public static final String ENLIST = "enlist";
+    /**
+     * Latency; closing (or returning to the pool) the connection (or session) of a branch after completion of the transaction.
+     */
+    public static final String CLOSE = "close";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResourceMetrics.class);
+
+    private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+    private volatile String resource;
+    private volatile MetricsRegistry registry;
+    private ObjectName objectName;
+
+    /**
+     * Start publishing the metrics.
+     * @param resource resource (unique name of the data source or connection factory)
+     * @param registry registry to forward the metrics to (may be null)
+     * @param jmx true, if the metrics should be registered as MXBean (nl.futureedge.simple.jta:type=Resource,name=&lt;resource&gt;)
+     * @throws JMException thrown when the MXBean could not be registered
+     */
+    public void start(final String resource, final MetricsRegistry registry, final boolean jmx) throws JMException {
+        this.resource = resource;
+        if (registry != null) {
+            gauges.forEach((name, value) -> registry.registerGauge(resource, name, value));
+            this.registry = registry;
+        }
+        if (jmx) {
+            objectName = new ObjectName("nl.futureedge.simple.jta:type=Resource,name=" + ObjectName.quote(resource));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        }
+    }
+
+    /**
+     * Stop publishing the metrics.
+     */
+    public void stop() {
+        if (objectName != null) {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.unregisterMBean(objectName);
+            } catch (final JMException e) {
+                LOGGER.debug("Could not unregister metrics of resource {}", resource, e);
+            }
+            objectName = null;
+        }
+        final MetricsRegistry stopping = registry;
+        registry = null;
+        if (stopping != null) {
+            stopping.unregister(resource);
+        }
+    }
+
+    /**
+     * @return object name of the MXBean (null if not registered)
+     */
+    ObjectName getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * Register a gauge.
+     * @param name name
+     * @param value supplier of the current value
+     */
+    public void registerGauge(final String name, final LongSupplier value) {
+        gauges.put(name, value);
+        final MetricsRegistry current = registry;
+        if (current != null) {
+            current.registerGauge(resource, name, value);
+        }
+    }
+
+    /**
+     * Increment a counter.
+     * @param name name
+     */
+    public void increment(final String name) {
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(name, key -> new LongAdder());
+        }
+        counter.increment();
+        final MetricsRegistry current = registry;
+        if (current != null) {
+            current.increment(resource, name);
+        }
+    }
+
+    /**
+     * Record a latency.
+     * @param name name
+     * @param startNanos start of the operation (see {@link System#nanoTime()}); the duration is up to now
+     */
+    public void recordSince(final String name, final long startNanos) {
+        final long nanos = System.nanoTime() - startNanos;
+        LatencyHistogram histogram = latencies.get(name);
+        if (histogram == null) {
+            histogram = latencies.computeIfAbsent(name, key -> new LatencyHistogram());
+        }
+        histogram.record(nanos);
+        final MetricsRegistry current = registry;
+        if (current != null) {
+            current.record(resource, name, nanos);
+        }
+    }
+
+    /* ******************************************************** */
+    /* ******************************************************** */
+    /* ******************************************************** */
+
+    @Override
+    public String getResource() {
+        return resource;
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        final SortedMap<String, Long> result = new TreeMap<>();
+        gauges.forEach((name, value) -> result.put(name, value.getAsLong()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        final SortedMap<String, Long> result = new TreeMap<>();
+        counters.forEach((name, counter) -> result.put(name, counter.sum()));
+        return result;
+    }
+
+    @Override
+    public Map<String, LatencyStatistics> getLatencies() {
+        final SortedMap<String, LatencyStatistics> result = new TreeMap<>();
+        latencies.forEach((name, histogram) -> result.put(name, histogram.getStatistics()));
+        return result;
+    }
+}
@@ -0,0 +1,29 @@
+package nl.futureedge.simple.jta.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view on the metrics of a resource (data source or connection factory).
+ */
+public interface ResourceMetricsMXBean {
+
+    /**
+     * @return resource (unique name of the data source or connection factory)
+     */
+    String getResource();
+
+    /**
+     * @return current values of the gauges
+     */
+    Map<String, Long> getGauges();
+
+    /**
+     * @return current values of the counters
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @return statistics of the latencies
+     */
+    Map<String, LatencyStatistics> getLatencies();
+}
@@ -1,7 +1,8 @@
 package nl.futureedge.simple.jta.spring.config;
 
 
-import static nl.futureedge.simple.jta.spring.config.SpringConfigParser.isEmpty;
+import static nl.futureedge.simple.jta.spring.config.SpringConfigParser.addProperty;
+import static nl.futureedge.simple.jta.spring.config.SpringConfigParser.addPropertyReference;
 
 import nl.futureedge.simple.jta.jms.XAConnectionFactoryAdapter;
 import org.springframework.beans.factory.config.BeanDefinition;
@@ -32,14 +33,18 @@ public final class ConnectionFactoryParser extends AbstractBeanDefinitionParser
         // CONNECTION-FACTORY
         final BeanDefinitionBuilder builder = BeanDefinitionBuilder.rootBeanDefinition(XAConnectionFactoryAdapter.class);
 
-        final String jtaTransactionManager = element.getAttribute("jta-transaction-manager");
-        if (!isEmpty(jtaTransactionManager)) {
-            builder.addPropertyReference("jtaTransactionManager", jtaTransactionManager);
-        }
+        addPropertyReference(builder, element, "jta-transaction-manager", "jtaTransactionManager");
         builder.addPropertyValue("uniqueName", element.getAttribute("unique-name"));
         builder.addPropertyReference("xaConnectionFactory", element.getAttribute("xa-connection-factory"));
+        addProperty(builder, element, "prepare-priority", "preparePriority");
+        addProperty(builder, element, "max-pool-size", "maxPoolSize");
+        addProperty(builder, element, "pool-max-wait", "poolMaxWait");
+        addProperty(builder, element, "pool-idle-timeout", "poolIdleTimeout");
+        addProperty(builder, element, "jmx-enabled", "jmxEnabled");
+        addPropertyReference(builder, element, "metrics-registry", "metricsRegistry");
         SpringConfigParser.handleDependsOn(builder, element);
 
         return builder.getBeanDefinition();
     }
+
 }
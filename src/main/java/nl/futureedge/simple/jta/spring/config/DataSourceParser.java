@@ -1,7 +1,8 @@
 package nl.futureedge.simple.jta.spring.config;
 
 
-import static nl.futureedge.simple.jta.spring.config.SpringConfigParser.isEmpty;
+import static nl.futureedge.simple.jta.spring.config.SpringConfigParser.addProperty;
+import static nl.futureedge.simple.jta.spring.config.SpringConfigParser.addPropertyReference;
 
 import nl.futureedge.simple.jta.jdbc.XADataSourceAdapter;
 import org.springframework.beans.factory.config.BeanDefinition;
@@ -32,28 +33,29 @@ public final class DataSourceParser extends AbstractBeanDefinitionParser {
         // DATA-SOURCE
         final BeanDefinitionBuilder builder = BeanDefinitionBuilder.rootBeanDefinition(XADataSourceAdapter.class);
 
-        final String jtaTransactionManager = element.getAttribute("jta-transaction-manager");
-        if(!isEmpty(jtaTransactionManager)) {
-            builder.addPropertyReference("jtaTransactionManager", jtaTransactionManager);
-        }
+        addPropertyReference(builder, element, "jta-transaction-manager", "jtaTransactionManager");
 
         builder.addPropertyValue("uniqueName", element.getAttribute("unique-name"));
         builder.addPropertyReference("xaDataSource", element.getAttribute("xa-data-source"));
-        final String supportsJoin = element.getAttribute("supports-join");
-        if (!isEmpty(supportsJoin)) {
-            builder.addPropertyValue("supportsJoin", Boolean.parseBoolean(supportsJoin));
-        }
-        final String supportsSuspend = element.getAttribute("supports-suspend");
-        if (!isEmpty(supportsSuspend)) {
-            builder.addPropertyValue("supportsSuspend", Boolean.parseBoolean(supportsSuspend));
-        }
-        final String allowNonTransactedConnections = element.getAttribute("allow-non-transacted-connections");
-        if (!isEmpty(allowNonTransactedConnections)) {
-            builder.addPropertyValue("allowNonTransactedConnections", allowNonTransactedConnections);
-        }
+        addProperty(builder, element, "supports-join", "supportsJoin");
+        addProperty(builder, element, "supports-suspend", "supportsSuspend");
+        addProperty(builder, element, "allow-non-transacted-connections", "allowNonTransactedConnections");
+        addProperty(builder, element, "lazy-enlistment", "lazyEnlistment");
+        addProperty(builder, element, "write-tracking", "writeTracking");
+        addProperty(builder, element, "prepare-priority", "preparePriority");
+        addProperty(builder, element, "min-pool-size", "minPoolSize");
+        addProperty(builder, element, "max-pool-size", "maxPoolSize");
+        addProperty(builder, element, "pool-max-wait", "poolMaxWait");
+        addProperty(builder, element, "pool-idle-timeout", "poolIdleTimeout");
+        addProperty(builder, element, "pool-validation-timeout", "poolValidationTimeout");
+        addProperty(builder, element, "statement-cache-size", "statementCacheSize");
+        addPropertyReference(builder, element, "read-replica-data-source", "readReplicaDataSource");
+        addProperty(builder, element, "jmx-enabled", "jmxEnabled");
+        addPropertyReference(builder, element, "metrics-registry", "metricsRegistry");
 
         SpringConfigParser.handleDependsOn(builder, element);
 
         return builder.getBeanDefinition();
     }
+
 }
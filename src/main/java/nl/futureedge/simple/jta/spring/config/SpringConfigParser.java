@@ -24,6 +24,35 @@ public final class SpringConfigParser {
         }
     }
 
+    /**
+     * Add a property value when the attribute is set; the (string) value is converted to the type of the property by Spring.
+     * @param builder bean definition builder
+     * @param element element
+     * @param attributeName attribute name
+     * @param propertyName property name
+     */
+    public static void addProperty(final BeanDefinitionBuilder builder, final Element element, final String attributeName, final String propertyName) {
+        final String value = element.getAttribute(attributeName);
+        if (!isEmpty(value)) {
+            builder.addPropertyValue(propertyName, value);
+        }
+    }
+
+    /**
+     * Add a property reference when the attribute is set.
+     * @param builder bean definition builder
+     * @param element element
+     * @param attributeName attribute name (containing the bean name)
+     * @param propertyName property name
+     */
+    public static void addPropertyReference(final BeanDefinitionBuilder builder, final Element element, final String attributeName,
+                                            final String propertyName) {
+        final String beanName = element.getAttribute(attributeName);
+        if (!isEmpty(beanName)) {
+            builder.addPropertyReference(propertyName, beanName);
+        }
+    }
+
     public static boolean isEmpty(final String value) {
         return value == null || "".equals(value);
     }
@@ -1,11 +1,13 @@
 package nl.futureedge.simple.jta.spring.config;
 
 
+import static nl.futureedge.simple.jta.spring.config.SpringConfigParser.addProperty;
 import static nl.futureedge.simple.jta.spring.config.SpringConfigParser.isEmpty;
 import static nl.futureedge.simple.jta.spring.config.SpringConfigParser.whenEmpty;
 
 import java.util.List;
 import nl.futureedge.simple.jta.JtaTransactionManager;
+import nl.futureedge.simple.jta.spring.tx.SimpleJtaPlatformTransactionManager;
 import nl.futureedge.simple.jta.store.NoTransactionStore;
 import nl.futureedge.simple.jta.store.file.FileTransactionStore;
 import nl.futureedge.simple.jta.store.jdbc.JdbcTransactionStore;
@@ -20,7 +22,7 @@ import org.w3c.dom.Element;
 
 /**
  * {@link org.springframework.beans.factory.xml.BeanDefinitionParser} that parses an {@code transaction-manager} element and creates a {@link BeanDefinition}
- * for an {@link org.springframework.transaction.jta.JtaTransactionManager}.
+ * for an {@link org.springframework.transaction.jta.JtaTransactionManager} (a {@link SimpleJtaPlatformTransactionManager}).
  */
 public final class TransactionManagerParser extends AbstractBeanDefinitionParser {
 
@@ -45,6 +47,9 @@ public final class TransactionManagerParser extends AbstractBeanDefinitionParser
         final BeanDefinitionBuilder jtaTransactionManagerBuilder = BeanDefinitionBuilder.rootBeanDefinition(JtaTransactionManager.class);
         jtaTransactionManagerBuilder.addPropertyValue("uniqueName", element.getAttribute("unique-name"));
         jtaTransactionManagerBuilder.addPropertyReference("jtaTransactionStore", transactionStoreBeanName);
+        addProperty(jtaTransactionManagerBuilder, element, "default-transaction-timeout", "defaultTransactionTimeout");
+        addProperty(jtaTransactionManagerBuilder, element, "early-acknowledge", "earlyAcknowledge");
+        addProperty(jtaTransactionManagerBuilder, element, "adaptive-prepare-order", "adaptivePrepareOrder");
         SpringConfigParser.handleDependsOn(jtaTransactionManagerBuilder, element);
 
         final BeanDefinition jtaTransactionManager = jtaTransactionManagerBuilder.getBeanDefinition();
@@ -55,7 +60,7 @@ public final class TransactionManagerParser extends AbstractBeanDefinitionParser
 
         // SPRING-JTA-TRANSACTION-MANAGER
         final BeanDefinitionBuilder springJtaTransactionManagerBuilder =
-                BeanDefinitionBuilder.rootBeanDefinition(org.springframework.transaction.jta.JtaTransactionManager.class);
+                BeanDefinitionBuilder.rootBeanDefinition(SimpleJtaPlatformTransactionManager.class);
         springJtaTransactionManagerBuilder.addPropertyReference("transactionManager", jtaTransactionManagerBeanName);
         springJtaTransactionManagerBuilder.getRawBeanDefinition().setSource(parserContext.extractSource(element));
         return springJtaTransactionManagerBuilder.getBeanDefinition();
@@ -86,18 +91,12 @@ public final class TransactionManagerParser extends AbstractBeanDefinitionParser
         final BeanDefinitionBuilder jdbcTransactionStoreBuilder = BeanDefinitionBuilder.rootBeanDefinition(JdbcTransactionStore.class);
 
         final String id = element.getAttribute("id");
-        final String create = element.getAttribute("create");
-        if (!isEmpty(create)) {
-            jdbcTransactionStoreBuilder.addPropertyValue("create", create);
-        }
+        addProperty(jdbcTransactionStoreBuilder, element, "create", "create");
         jdbcTransactionStoreBuilder.addPropertyValue("driver", element.getAttribute("driver"));
         jdbcTransactionStoreBuilder.addPropertyValue("url", element.getAttribute("url"));
         jdbcTransactionStoreBuilder.addPropertyValue("user", element.getAttribute("user"));
         jdbcTransactionStoreBuilder.addPropertyValue("password", element.getAttribute("password"));
-        final String storeAll = element.getAttribute("store-all-states");
-        if (!isEmpty(storeAll)) {
-            jdbcTransactionStoreBuilder.addPropertyValue("storeAll", storeAll);
-        }
+        addProperty(jdbcTransactionStoreBuilder, element, "store-all-states", "storeAll");
         SpringConfigParser.handleDependsOn(jdbcTransactionStoreBuilder, element);
 
         final BeanDefinition jdbcTransactionStore = jdbcTransactionStoreBuilder.getBeanDefinition();
@@ -110,10 +109,7 @@ public final class TransactionManagerParser extends AbstractBeanDefinitionParser
 
         final String id = element.getAttribute("id");
         fileTransactionStoreBuilder.addPropertyValue("baseDirectory", element.getAttribute("location"));
-        final String storeAll = element.getAttribute("store-all-states");
-        if (!isEmpty(storeAll)) {
-            fileTransactionStoreBuilder.addPropertyValue("storeAll", storeAll);
-        }
+        addProperty(fileTransactionStoreBuilder, element, "store-all-states", "storeAll");
         SpringConfigParser.handleDependsOn(fileTransactionStoreBuilder, element);
 
         final BeanDefinition fileTransactionStore = fileTransactionStoreBuilder.getBeanDefinition();
@@ -125,10 +121,7 @@ public final class TransactionManagerParser extends AbstractBeanDefinitionParser
         final BeanDefinitionBuilder noTransactionStoreBuilder = BeanDefinitionBuilder.rootBeanDefinition(NoTransactionStore.class);
 
         final String id = element.getAttribute("id");
-        final String suppressWarning = element.getAttribute("suppress-warning");
-        if (!isEmpty(suppressWarning)) {
-            noTransactionStoreBuilder.addPropertyValue("suppressWarning", suppressWarning);
-        }
+        addProperty(noTransactionStoreBuilder, element, "suppress-warning", "suppressWarning");
 
         final BeanDefinition noTransactionStore = noTransactionStoreBuilder.getBeanDefinition();
         return register(whenEmpty(id, defaultId), noTransactionStore, parserContext);
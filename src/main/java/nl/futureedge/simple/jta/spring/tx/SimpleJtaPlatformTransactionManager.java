@@ -0,0 +1,27 @@
+package nl.futureedge.simple.jta.spring.tx;
+
+import javax.transaction.NotSupportedException;
+import javax.transaction.SystemException;
+import nl.futureedge.simple.jta.JtaTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.jta.JtaTransactionObject;
+
+/**
+ * Spring JTA transaction manager that starts a read-only transaction (see {@link JtaTransactionManager#beginReadOnly()}) for read-only transaction
+ * definitions (for example {@code @Transactional(readOnly = true)}) when the Simple JTA transaction manager is used.
+ */
+public class SimpleJtaPlatformTransactionManager extends org.springframework.transaction.jta.JtaTransactionManager {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doJtaBegin(final JtaTransactionObject txObject, final TransactionDefinition definition) throws NotSupportedException, SystemException {
+        if (definition.isReadOnly() && getTransactionManager() instanceof JtaTransactionManager) {
+            applyIsolationLevel(txObject, definition.getIsolationLevel());
+            applyTimeout(txObject, determineTimeout(definition));
+            ((JtaTransactionManager) getTransactionManager()).beginReadOnly();
+        } else {
+            super.doJtaBegin(txObject, definition);
+        }
+    }
+}
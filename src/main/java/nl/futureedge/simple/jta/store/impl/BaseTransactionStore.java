@@ -2,13 +2,13 @@ package nl.futureedge.simple.jta.store.impl;
 
 import java.util.Arrays;
 import java.util.EnumMap;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import javax.transaction.xa.XAException;
 import nl.futureedge.simple.jta.JtaTransaction;
 import nl.futureedge.simple.jta.store.JtaTransactionStore;
 import nl.futureedge.simple.jta.store.JtaTransactionStoreException;
+import nl.futureedge.simple.jta.util.StripedLongMap;
 import nl.futureedge.simple.jta.xid.BranchJtaXid;
 import nl.futureedge.simple.jta.xid.GlobalJtaXid;
 import nl.futureedge.simple.jta.xid.JtaXid;
@@ -53,7 +53,7 @@ public abstract class BaseTransactionStore implements DisposableBean, JtaTransac
         // Do not clean TransactionStatus.ROLLBACK_FAILED
     }
 
-    private final Map<Long, PersistentTransaction> transactions = new HashMap<>();
+    private final StripedLongMap<PersistentTransaction> transactions = new StripedLongMap<>();
 
     private boolean storeAll;
 
@@ -71,26 +71,28 @@ public abstract class BaseTransactionStore implements DisposableBean, JtaTransac
 
     private PersistentTransaction getPersistentTransaction(final JtaXid xid) throws JtaTransactionStoreException {
         final long transactionId = xid.getTransactionId();
-        if (transactions.containsKey(transactionId)) {
-            return transactions.get(transactionId);
-        } else {
-            synchronized (transactions) {
-                if (!transactions.containsKey(transactionId)) {
-                    final PersistentTransaction transaction = createPersistentTransaction(transactionId);
-                    transactions.put(transactionId, transaction);
-
-                }
-                return transactions.get(transactionId);
-            }
+        final PersistentTransaction existing = transactions.get(transactionId);
+        if (existing != null) {
+            return existing;
         }
+
+        // Create outside of any lock (creating can do I/O); when another thread registered a delegate in the meantime, that delegate wins
+        final PersistentTransaction created = createPersistentTransaction(transactionId);
+        final PersistentTransaction raced = transactions.putIfAbsent(transactionId, created);
+        if (raced != null) {
+            created.close();
+            return raced;
+        }
+        return created;
     }
 
     @Override
     public void transactionCompleted(final JtaTransaction transaction) {
-        final PersistentTransaction persistentTransaction;
-        synchronized (transactions) {
-            persistentTransaction = transactions.remove(transaction.getTransactionId());
+        if (!transaction.hasTransactionId()) {
+            // Nothing has been stored
+            return;
         }
+        final PersistentTransaction persistentTransaction = transactions.remove(transaction.getTransactionId());
         if (persistentTransaction != null) {
             persistentTransaction.close();
         }
@@ -99,11 +101,8 @@ public abstract class BaseTransactionStore implements DisposableBean, JtaTransac
     @Override
     public final void destroy() throws Exception {
         doDestroy();
-        synchronized (transactions) {
-            for (final PersistentTransaction transaction : transactions.values()) {
-                transaction.close();
-            }
-            transactions.clear();
+        for (final PersistentTransaction transaction : transactions.clear()) {
+            transaction.close();
         }
     }
 
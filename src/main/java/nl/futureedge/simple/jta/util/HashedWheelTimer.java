@@ -0,0 +1,304 @@
+package nl.futureedge.simple.jta.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed timing wheel; not for external use!
+ *
+ * Scheduling and cancelling a task are O(1) operations: a scheduled task is handed to the (single) worker thread via a lock-free queue and placed in the bucket
+ * for its deadline; each tick the worker thread only visits the tasks in the current bucket. The precision of the timer is one tick.
+ */
+public final class HashedWheelTimer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    private static final int WORKER_INIT = 0;
+    private static final int WORKER_STARTED = 1;
+    private static final int WORKER_SHUTDOWN = 2;
+
+    private final String name;
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger workerState = new AtomicInteger(WORKER_INIT);
+
+    private volatile long startTime;
+    private Thread workerThread;
+
+    /**
+     * Constructor.
+     * @param name name (used for the worker thread)
+     * @param tickDuration duration of one tick
+     * @param unit time unit of tick duration
+     * @param ticksPerWheel number of buckets (will be rounded up to a power of two)
+     */
+    public HashedWheelTimer(final String name, final long tickDuration, final TimeUnit unit, final int ticksPerWheel) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("Tick duration must be greater than 0");
+        }
+        if (ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("Ticks per wheel must be greater than 0");
+        }
+        this.name = name;
+        this.tickNanos = unit.toNanos(tickDuration);
+
+        int buckets = 1;
+        while (buckets < ticksPerWheel) {
+            buckets <<= 1;
+        }
+        wheel = new Bucket[buckets];
+        for (int index = 0; index < buckets; index++) {
+            wheel[index] = new Bucket();
+        }
+        mask = buckets - 1;
+    }
+
+    /**
+     * Start the worker thread (optional; the worker thread is started when the first task is scheduled).
+     */
+    public void start() {
+        if (workerState.compareAndSet(WORKER_INIT, WORKER_STARTED)) {
+            startTime = System.nanoTime();
+            workerThread = new Thread(this::work, name);
+            workerThread.setDaemon(true);
+            workerThread.start();
+        } else if (workerState.get() == WORKER_SHUTDOWN) {
+            throw new IllegalStateException("Timer has been stopped");
+        } else {
+            // Another thread is starting the timer
+            while (startTime == 0) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Stop the worker thread; tasks that have not expired will never be executed.
+     */
+    public void stop() {
+        if (workerState.getAndSet(WORKER_SHUTDOWN) == WORKER_STARTED) {
+            workerThread.interrupt();
+            try {
+                workerThread.join(TimeUnit.NANOSECONDS.toMillis(tickNanos) * 10 + 100);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Schedule a task.
+     * @param task task to execute (on the worker thread of this timer; tasks should not block)
+     * @param delay delay
+     * @param unit time unit of delay
+     * @return timeout handle that can be used to cancel the task
+     */
+    public Timeout schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        start();
+        final Timeout timeout = new Timeout(this, task, System.nanoTime() - startTime + unit.toNanos(delay));
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    /* ******************************************************** */
+    /* ******************************************************** */
+    /* ******************************************************** */
+
+    private void work() {
+        long tick = 0;
+        while (workerState.get() == WORKER_STARTED) {
+            final long deadline = waitForNextTick(tick);
+            if (deadline < 0) {
+                continue;
+            }
+            removeCancelled();
+            transferScheduled(tick);
+            wheel[(int) (tick & mask)].expire(deadline);
+            tick++;
+        }
+    }
+
+    private long waitForNextTick(final long tick) {
+        final long deadline = tickNanos * (tick + 1);
+        while (true) {
+            final long current = System.nanoTime() - startTime;
+            final long sleepMillis = (deadline - current + 999_999) / 1_000_000;
+            if (sleepMillis <= 0) {
+                return current;
+            }
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (final InterruptedException e) {
+                if (workerState.get() == WORKER_SHUTDOWN) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void transferScheduled(final long currentTick) {
+        // Limit the number of transfers per tick so a flood of new tasks cannot starve expiration
+        for (int index = 0; index < 100_000; index++) {
+            final Timeout timeout = scheduled.poll();
+            if (timeout == null) {
+                break;
+            }
+            if (timeout.state.get() == Timeout.CANCELLED) {
+                continue;
+            }
+
+            final long calculated = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (calculated - currentTick) / wheel.length;
+
+            // Never schedule in the past
+            final long ticks = Math.max(calculated, currentTick);
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    private void cancelled(final Timeout timeout) {
+        cancelled.add(timeout);
+    }
+
+    /**
+     * Bucket; doubly linked list of timeouts, only accessed by the worker thread.
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(final Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void expire(final long deadline) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                final Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    if (timeout.deadline <= deadline) {
+                        timeout.expire();
+                    } else {
+                        // Should not happen; timeouts are placed in the correct bucket
+                        LOGGER.warn("Timeout deadline ({}) after current deadline ({}); ignoring timeout", timeout.deadline, deadline);
+                    }
+                } else if (timeout.state.get() == Timeout.CANCELLED) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(final Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            final Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+
+    /**
+     * Handle to a scheduled task.
+     */
+    public static final class Timeout {
+        private static final int SCHEDULED = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(SCHEDULED);
+
+        // Only accessed by the worker thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(final HashedWheelTimer timer, final Runnable task, final long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the task.
+         * @return true, if the task was cancelled; false, if the task has already been expired or cancelled
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(SCHEDULED, CANCELLED)) {
+                return false;
+            }
+            timer.cancelled(this);
+            return true;
+        }
+
+        /**
+         * @return true, if the task has been cancelled
+         */
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        /**
+         * @return true, if the task has been executed (or is executing)
+         */
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(SCHEDULED, EXPIRED)) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (final RuntimeException e) {
+                LOGGER.warn("Timer task failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package nl.futureedge.simple.jta.util;
+
+import java.lang.reflect.Method;
+
+/**
+ * Object methods of dynamic proxies (handles); not for external use!
+ *
+ * The equals, hashCode and toString methods of a handle are based on the identity of the proxy instead of being passed to the wrapped object (which would
+ * make a handle unequal to itself).
+ */
+public final class ProxyMethods {
+
+    private ProxyMethods() {
+        throw new IllegalStateException("Class should not be instantiated");
+    }
+
+    /**
+     * @param method invoked method
+     * @return true, if the method is equals, hashCode or toString (the methods of {@link Object} that are passed to an invocation handler)
+     */
+    public static boolean isObjectMethod(final Method method) {
+        return method.getDeclaringClass() == Object.class;
+    }
+
+    /**
+     * Invoke equals, hashCode or toString on the identity of the proxy.
+     * @param proxy proxy
+     * @param method invoked method (see {@link #isObjectMethod(Method)})
+     * @param args arguments
+     * @param target wrapped object (included in the string representation)
+     * @return result
+     */
+    public static Object invoke(final Object proxy, final Method method, final Object[] args, final Object target) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return "Handle@" + Integer.toHexString(System.identityHashCode(proxy)) + "{" + target + "}";
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package nl.futureedge.simple.jta.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Concurrent map keyed on a primitive long; not for external use!
+ *
+ * The map is split in a fixed number of stripes, each containing a small open addressing hash table guarded by its own lock. Only the stripe of a key is
+ * locked when modifying that key, so threads working on different keys (almost) never contend and keys are never boxed. Lookups do not lock: they use an
+ * optimistic read of the stripe and only take the read lock when the stripe was modified during the lookup.
+ * @param <V> value type
+ */
+public final class StripedLongMap<V> {
+
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+    private static final int INITIAL_STRIPE_CAPACITY = 16;
+
+    private final Stripe<V>[] stripes;
+
+    /**
+     * Constructor.
+     */
+    @SuppressWarnings("unchecked")
+    public StripedLongMap() {
+        stripes = new Stripe[STRIPES];
+        for (int index = 0; index < STRIPES; index++) {
+            stripes[index] = new Stripe<>();
+        }
+    }
+
+    private static int stripes(final int processors) {
+        // Power of two, at least 4 and about four stripes per processor
+        int result = 4;
+        while (result < processors * 4 && result < 256) {
+            result <<= 1;
+        }
+        return result;
+    }
+
+    private static long hash(final long key) {
+        final long result = key * 0x9E3779B97F4A7C15L;
+        return result ^ (result >>> 32);
+    }
+
+    private Stripe<V> stripe(final long hash) {
+        return stripes[(int) (hash >>> 56) & (STRIPES - 1)];
+    }
+
+    /**
+     * Return the value for a key.
+     * @param key key
+     * @return value (null if no value is registered for the key)
+     */
+    public V get(final long key) {
+        final long hash = hash(key);
+        return stripe(hash).get(key, (int) hash);
+    }
+
+    /**
+     * @param key key
+     * @return true, if a value is registered for the key
+     */
+    public boolean containsKey(final long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Register a value; replaces a value previously registered for the key.
+     * @param key key
+     * @param value value (not null)
+     */
+    public void put(final long key, final V value) {
+        final long hash = hash(key);
+        stripe(hash).put(key, (int) hash, value, true);
+    }
+
+    /**
+     * Register a value if no value is registered for the key.
+     * @param key key
+     * @param value value (not null)
+     * @return the value previously registered for the key (null if the given value was registered)
+     */
+    public V putIfAbsent(final long key, final V value) {
+        final long hash = hash(key);
+        return stripe(hash).put(key, (int) hash, value, false);
+    }
+
+    /**
+     * Remove the value for a key.
+     * @param key key
+     * @return the removed value (null if no value was registered for the key)
+     */
+    public V remove(final long key) {
+        final long hash = hash(key);
+        return stripe(hash).remove(key, (int) hash, null);
+    }
+
+    /**
+     * Remove the value for a key, only if the registered value is the given value (same instance).
+     * @param key key
+     * @param value value
+     * @return true, if the value was removed
+     */
+    public boolean remove(final long key, final V value) {
+        final long hash = hash(key);
+        return stripe(hash).remove(key, (int) hash, value) != null;
+    }
+
+    /**
+     * @return true, if no values are registered (weakly consistent)
+     */
+    public boolean isEmpty() {
+        for (final Stripe<V> stripe : stripes) {
+            if (stripe.size != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of registered values (weakly consistent)
+     */
+    public int size() {
+        int result = 0;
+        for (final Stripe<V> stripe : stripes) {
+            result += stripe.size;
+        }
+        return result;
+    }
+
+    /**
+     * Return a (weakly consistent) snapshot of all registered values; only one stripe is locked at a time, so values registered or removed concurrently may or
+     * may not be contained.
+     * @return list of values
+     */
+    public List<V> values() {
+        final List<V> result = new ArrayList<>(size());
+        for (final Stripe<V> stripe : stripes) {
+            stripe.copyTo(result, false);
+        }
+        return result;
+    }
+
+    /**
+     * Remove all values (weakly consistent, see {@link #values()}).
+     * @return list of removed values
+     */
+    public List<V> clear() {
+        final List<V> result = new ArrayList<>(size());
+        for (final Stripe<V> stripe : stripes) {
+            stripe.copyTo(result, true);
+        }
+        return result;
+    }
+
+    /**
+     * Stripe; open addressing (linear probing) hash table guarded by its own lock (modifications) and read optimistically (lookups).
+     * @param <V> value type
+     */
+    private static final class Stripe<V> {
+        private final StampedLock lock = new StampedLock();
+        private long[] keys = new long[INITIAL_STRIPE_CAPACITY];
+        private Object[] values = new Object[INITIAL_STRIPE_CAPACITY];
+        private volatile int size;
+
+        @SuppressWarnings("unchecked")
+        V get(final long key, final int hash) {
+            final long optimistic = lock.tryOptimisticRead();
+            if (optimistic != 0) {
+                final Object result = find(keys, values, key, hash);
+                if (lock.validate(optimistic)) {
+                    return (V) result;
+                }
+            }
+            // Modified during the lookup; retry under the read lock
+            final long stamp = lock.readLock();
+            try {
+                return (V) find(keys, values, key, hash);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private static Object find(final long[] keys, final Object[] values, final long key, final int hash) {
+            // During an optimistic read the table can be inconsistent (the result is then discarded); never fail or loop endlessly
+            if (keys.length != values.length) {
+                return null;
+            }
+            final int mask = values.length - 1;
+            int slot = hash & mask;
+            for (int probe = 0; probe < values.length; probe++) {
+                final Object value = values[slot];
+                if (value == null) {
+                    return null;
+                }
+                if (keys[slot] == key) {
+                    return value;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        V put(final long key, final int hash, final V value, final boolean replace) {
+            final long stamp = lock.writeLock();
+            try {
+                if ((size + 1) * 2 > values.length) {
+                    resize(values.length * 2);
+                }
+                final int mask = values.length - 1;
+                int slot = hash & mask;
+                while (values[slot] != null) {
+                    if (keys[slot] == key) {
+                        final V previous = (V) values[slot];
+                        if (replace) {
+                            values[slot] = value;
+                            return null;
+                        }
+                        return previous;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = value;
+                size = size + 1;
+                return null;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        V remove(final long key, final int hash, final V expected) {
+            final long stamp = lock.writeLock();
+            try {
+                final int mask = values.length - 1;
+                int slot = hash & mask;
+                while (values[slot] != null) {
+                    if (keys[slot] == key) {
+                        final V previous = (V) values[slot];
+                        if (expected != null && previous != expected) {
+                            return null;
+                        }
+                        values[slot] = null;
+                        size = size - 1;
+                        shiftBack(slot, mask);
+                        return previous;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                return null;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void shiftBack(final int removedSlot, final int mask) {
+            // Backward shift deletion; keeps probe sequences intact without tombstones
+            int gap = removedSlot;
+            int slot = (gap + 1) & mask;
+            while (values[slot] != null) {
+                final int home = (int) hash(keys[slot]) & mask;
+                if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                    keys[gap] = keys[slot];
+                    values[gap] = values[slot];
+                    values[slot] = null;
+                    gap = slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void resize(final int capacity) {
+            final long[] oldKeys = keys;
+            final Object[] oldValues = values;
+            keys = new long[capacity];
+            values = new Object[capacity];
+            final int mask = capacity - 1;
+            for (int index = 0; index < oldValues.length; index++) {
+                if (oldValues[index] != null) {
+                    int slot = (int) hash(oldKeys[index]) & mask;
+                    while (values[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[index];
+                    values[slot] = oldValues[index];
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void copyTo(final List<V> result, final boolean clear) {
+            if (size == 0) {
+                return;
+            }
+            final long stamp = clear ? lock.writeLock() : lock.readLock();
+            try {
+                for (int index = 0; index < values.length; index++) {
+                    if (values[index] != null) {
+                        result.add((V) values[index]);
+                        if (clear) {
+                            values[index] = null;
+                        }
+                    }
+                }
+                if (clear) {
+                    size = 0;
+                }
+            } finally {
+                lock.unlock(stamp);
+            }
+        }
+    }
+}
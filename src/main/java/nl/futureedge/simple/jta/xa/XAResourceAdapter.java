@@ -16,13 +16,51 @@ public final class XAResourceAdapter implements XAResource {
     private final String resourceManager;
     private final boolean supportsJoin;
     private final boolean supportsSuspend;
+    private final boolean writeTracking;
+    private final int preparePriority;
 
     private final XAResource xaResource;
 
+    // Last transaction timeout successfully set on the xa resource (-1 if unknown)
+    private volatile int transactionTimeout = -1;
+
+    // Write tracking; writes through a joined resource are registered on the resource it joined
+    private volatile boolean written;
+    private volatile XAResourceAdapter joinedTo;
+
     public XAResourceAdapter(final String resourceManager, final boolean supportsJoin, final boolean supportsSuspend, final XAResource xaResource) {
+        this(resourceManager, supportsJoin, supportsSuspend, false, xaResource);
+    }
+
+    /**
+     * Constructor.
+     * @param resourceManager resource manager unique name
+     * @param supportsJoin true, if the resource supports joining
+     * @param supportsSuspend true, if the resource supports suspension
+     * @param writeTracking true, if writes through this resource are registered using {@link #markWritten()}
+     * @param xaResource xa resource
+     */
+    public XAResourceAdapter(final String resourceManager, final boolean supportsJoin, final boolean supportsSuspend, final boolean writeTracking,
+                             final XAResource xaResource) {
+        this(resourceManager, supportsJoin, supportsSuspend, writeTracking, 0, xaResource);
+    }
+
+    /**
+     * Constructor.
+     * @param resourceManager resource manager unique name
+     * @param supportsJoin true, if the resource supports joining
+     * @param supportsSuspend true, if the resource supports suspension
+     * @param writeTracking true, if writes through this resource are registered using {@link #markWritten()}
+     * @param preparePriority prepare priority; resources with a higher priority are prepared first
+     * @param xaResource xa resource
+     */
+    public XAResourceAdapter(final String resourceManager, final boolean supportsJoin, final boolean supportsSuspend, final boolean writeTracking,
+                             final int preparePriority, final XAResource xaResource) {
         this.resourceManager = resourceManager;
         this.supportsJoin = supportsJoin;
         this.supportsSuspend = supportsSuspend;
+        this.writeTracking = writeTracking;
+        this.preparePriority = preparePriority;
         this.xaResource = xaResource;
     }
 
@@ -38,6 +76,47 @@ public final class XAResourceAdapter implements XAResource {
         return supportsSuspend;
     }
 
+    public int getPreparePriority() {
+        return preparePriority;
+    }
+
+    /**
+     * Register that data has been written using this resource.
+     */
+    public void markWritten() {
+        written = true;
+        final XAResourceAdapter target = joinedTo;
+        if (target != null) {
+            target.markWritten();
+        }
+    }
+
+    /**
+     * @return false, if this resource tracks writes and no data has been written using this resource (or resources that joined it); true otherwise
+     */
+    public boolean hasWritten() {
+        return !writeTracking || written;
+    }
+
+    /**
+     * Register that a resource has joined (the transaction branch of) this resource; writes using the joined resource will be registered on this resource.
+     * @param joinedResource joined resource
+     */
+    public void joined(final XAResourceAdapter joinedResource) {
+        joinedResource.joinedTo = this;
+        if (joinedResource.hasWritten()) {
+            markWritten();
+        }
+    }
+
+    /**
+     * Reset the state of this resource in a transaction (write tracking), so the resource can be reused in another transaction.
+     */
+    public void reset() {
+        written = false;
+        joinedTo = null;
+    }
+
     @Override
     public void commit(final Xid xid, final boolean onePhase) throws XAException {
         LOGGER.trace("commit(xid={},onePhase={})", xid, onePhase);
@@ -90,7 +169,13 @@ public final class XAResourceAdapter implements XAResource {
     @Override
     public boolean setTransactionTimeout(final int seconds) throws XAException {
         LOGGER.trace("setTransactionTimeout(seconds={})", seconds);
-        return xaResource.setTransactionTimeout(seconds);
+        if (seconds == transactionTimeout) {
+            LOGGER.debug("Transaction timeout not changed; skipping call to xa resource");
+            return true;
+        }
+        final boolean result = xaResource.setTransactionTimeout(seconds);
+        transactionTimeout = result ? seconds : -1;
+        return result;
     }
 
     @Override
@@ -2,14 +2,16 @@ package nl.futureedge.simple.jta.xid;
 
 
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * Global Jta XID; not for external use!
  */
 public final class GlobalJtaXid extends BaseJtaXid {
 
-    private final AtomicLong branchSequence = new AtomicLong();
+    private static final AtomicLongFieldUpdater<GlobalJtaXid> BRANCH_SEQUENCE = AtomicLongFieldUpdater.newUpdater(GlobalJtaXid.class, "branchSequence");
+
+    private volatile long branchSequence;
 
     /**
      * Constructor (for XID created by this transaction manager).
@@ -25,7 +27,7 @@ public final class GlobalJtaXid extends BaseJtaXid {
      * @return a branch XID (using a new branch id)
      */
     public BranchJtaXid createBranchXid() {
-        return new BranchJtaXid(getTransactionManager(), getTransactionId(), branchSequence.incrementAndGet());
+        return new BranchJtaXid(getTransactionManager(), getTransactionId(), BRANCH_SEQUENCE.incrementAndGet(this));
     }
 
     @Override
@@ -43,7 +45,7 @@ public final class GlobalJtaXid extends BaseJtaXid {
 
     @Override
     public int hashCode() {
-        return Objects.hash(getTransactionManager(), getTransactionId());
+        return 31 * Objects.hashCode(getTransactionManager()) + Long.hashCode(getTransactionId());
     }
 
     @Override
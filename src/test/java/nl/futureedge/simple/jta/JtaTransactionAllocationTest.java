@@ -0,0 +1,155 @@
+package nl.futureedge.simple.jta;
+
+import java.lang.management.ManagementFactory;
+import javax.transaction.Status;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+import nl.futureedge.simple.jta.store.NoTransactionStore;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures the bytes allocated (by the current thread) per transaction on the commit path; guards against allocation regressions.
+ */
+public class JtaTransactionAllocationTest {
+
+    private static final int WARMUP = 20_000;
+    private static final int MEASURED = 10_000;
+
+    /**
+     * Budgets (in bytes) per transaction, including the resource adapters; about twice the measured allocation on Java 8 (two phase commit with two
+     * branches about 1.9 KB, one phase commit with one branch about 1.3 KB).
+     */
+    private static final long BUDGET_TWO_PHASE = 4096;
+    private static final long BUDGET_ONE_PHASE = 3072;
+
+    private com.sun.management.ThreadMXBean threadMXBean;
+    private Level logLevel;
+    private JtaTransactionManager transactionManager;
+    private final XAResource resourceOne = new NoOpXAResource();
+    private final XAResource resourceTwo = new NoOpXAResource();
+
+    @Before
+    public void setup() throws Exception {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        // Logging (trace in tests) would dominate the allocations
+        logLevel = LogManager.getLogger("nl.futureedge.simple.jta").getLevel();
+        Configurator.setLevel("nl.futureedge.simple.jta", Level.WARN);
+
+        final NoTransactionStore transactionStore = new NoTransactionStore();
+        transactionStore.setSuppressWarning(true);
+        transactionManager = new JtaTransactionManager();
+        transactionManager.setUniqueName("allocation");
+        transactionManager.setJtaTransactionStore(transactionStore);
+        transactionManager.afterPropertiesSet();
+    }
+
+    @After
+    public void destroy() throws Exception {
+        if (transactionManager != null) {
+            transactionManager.destroy();
+        }
+        if (logLevel != null) {
+            Configurator.setLevel("nl.futureedge.simple.jta", logLevel);
+        }
+    }
+
+    @Test
+    public void twoPhaseCommit() throws Exception {
+        final long allocated = allocatedPerTransaction(true);
+        Assert.assertTrue("Allocated " + allocated + " bytes per transaction", allocated < BUDGET_TWO_PHASE);
+    }
+
+    @Test
+    public void onePhaseCommit() throws Exception {
+        final long allocated = allocatedPerTransaction(false);
+        Assert.assertTrue("Allocated " + allocated + " bytes per transaction", allocated < BUDGET_ONE_PHASE);
+    }
+
+    private long allocatedPerTransaction(final boolean twoBranches) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            transaction(twoBranches);
+        }
+        final long threadId = Thread.currentThread().getId();
+        final long start = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED; i++) {
+            transaction(twoBranches);
+        }
+        return (threadMXBean.getThreadAllocatedBytes(threadId) - start) / MEASURED;
+    }
+
+    private void transaction(final boolean twoBranches) throws Exception {
+        transactionManager.begin();
+        final JtaTransaction transaction = transactionManager.getRequiredTransaction();
+        transaction.enlistResource(new XAResourceAdapter("resourceOne", false, false, resourceOne));
+        if (twoBranches) {
+            transaction.enlistResource(new XAResourceAdapter("resourceTwo", false, false, resourceTwo));
+        }
+        transactionManager.commit();
+        if (transaction.getStatus() != Status.STATUS_COMMITTED) {
+            throw new IllegalStateException("Transaction not committed");
+        }
+    }
+
+    /**
+     * XA resource that does nothing (and allocates nothing).
+     */
+    private static final class NoOpXAResource implements XAResource {
+
+        @Override
+        public void commit(final Xid xid, final boolean onePhase) {
+        }
+
+        @Override
+        public void end(final Xid xid, final int flags) {
+        }
+
+        @Override
+        public void forget(final Xid xid) {
+        }
+
+        @Override
+        public int getTransactionTimeout() {
+            return 0;
+        }
+
+        @Override
+        public boolean isSameRM(final XAResource xaResource) {
+            return xaResource == this;
+        }
+
+        @Override
+        public Xid[] recover(final int flag) {
+            return new Xid[0];
+        }
+
+        @Override
+        public void rollback(final Xid xid) {
+        }
+
+        @Override
+        public boolean setTransactionTimeout(final int seconds) {
+            return false;
+        }
+
+        @Override
+        public int prepare(final Xid xid) {
+            return XA_OK;
+        }
+
+        @Override
+        public void start(final Xid xid, final int flags) {
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package nl.futureedge.simple.jta;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import nl.futureedge.simple.jta.store.JtaTransactionStore;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class JtaTransactionAsyncTest {
+
+    private JtaTransactionStore transactionStore;
+    private JtaTransactionManager transactionManager;
+    private XAResource resourceOne;
+    private XAResource resourceTwo;
+
+    @Before
+    public void setup() throws Exception {
+        transactionStore = Mockito.mock(JtaTransactionStore.class);
+        transactionManager = new JtaTransactionManager();
+        transactionManager.setUniqueName("tm");
+        transactionManager.setJtaTransactionStore(transactionStore);
+        transactionManager.afterPropertiesSet();
+
+        resourceOne = Mockito.mock(XAResource.class);
+        resourceTwo = Mockito.mock(XAResource.class);
+    }
+
+    @After
+    public void destroy() throws Exception {
+        transactionManager.destroy();
+    }
+
+    private JtaTransaction beginAndEnlist() throws Exception {
+        transactionManager.begin();
+        final JtaTransaction transaction = transactionManager.getRequiredTransaction();
+        transaction.enlistResource(new XAResourceAdapter("resourceOne", false, false, resourceOne));
+        transaction.enlistResource(new XAResourceAdapter("resourceTwo", false, false, resourceTwo));
+        return transaction;
+    }
+
+    private static int await(final CompletableFuture<Integer> future) throws Exception {
+        return future.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testCommitAsync() throws Exception {
+        final JtaTransaction transaction = beginAndEnlist();
+        final AtomicReference<Thread> afterCompletionThread = new AtomicReference<>();
+        transaction.registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(final int status) {
+                afterCompletionThread.set(Thread.currentThread());
+            }
+        });
+
+        final CompletableFuture<Integer> result = transactionManager.commitAsync().toCompletableFuture();
+
+        // Detached from the current thread
+        Assert.assertNull(transactionManager.getTransaction());
+
+        Assert.assertEquals(Status.STATUS_COMMITTED, await(result));
+        Assert.assertNotNull(afterCompletionThread.get());
+        Assert.assertNotSame(Thread.currentThread(), afterCompletionThread.get());
+        Mockito.verify(resourceOne).commit(Mockito.any(), Mockito.eq(false));
+        Mockito.verify(resourceTwo).commit(Mockito.any(), Mockito.eq(false));
+        Mockito.verify(transactionStore).transactionCompleted(transaction);
+        Assert.assertTrue(transactionManager.getActiveTransactions().isEmpty());
+
+        // New transaction can be started
+        transactionManager.begin();
+        transactionManager.rollback();
+    }
+
+    @Test
+    public void testCommitAsyncRolledBack() throws Exception {
+        final JtaTransaction transaction = beginAndEnlist();
+        transaction.setRollbackOnly();
+
+        Assert.assertEquals(Status.STATUS_ROLLEDBACK, await(transaction.commitAsync().toCompletableFuture()));
+        Assert.assertNull(transactionManager.getTransaction());
+        Mockito.verify(resourceOne).rollback(Mockito.any());
+        Mockito.verify(resourceTwo).rollback(Mockito.any());
+    }
+
+    @Test
+    public void testRollbackAsync() throws Exception {
+        beginAndEnlist();
+
+        Assert.assertEquals(Status.STATUS_ROLLEDBACK, await(transactionManager.rollbackAsync().toCompletableFuture()));
+        Assert.assertNull(transactionManager.getTransaction());
+        Mockito.verify(resourceOne).rollback(Mockito.any());
+        Mockito.verify(resourceTwo).rollback(Mockito.any());
+    }
+
+    @Test
+    public void testCommitAsyncFailure() throws Exception {
+        Mockito.doThrow(new XAException(XAException.XAER_RMFAIL)).when(resourceTwo).commit(Mockito.any(), Mockito.eq(false));
+        final JtaTransaction transaction = beginAndEnlist();
+
+        try {
+            await(transaction.commitAsync().toCompletableFuture());
+            Assert.fail("ExecutionException expected");
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof SystemException);
+        }
+        Assert.assertEquals(Status.STATUS_UNKNOWN, transaction.getStatus());
+    }
+
+    @Test
+    public void testCompletionExecutor() throws Exception {
+        transactionManager.destroy();
+        transactionManager = new JtaTransactionManager();
+        transactionManager.setUniqueName("tm");
+        transactionManager.setJtaTransactionStore(transactionStore);
+        transactionManager.setCompletionExecutor(Runnable::run);
+        transactionManager.afterPropertiesSet();
+
+        beginAndEnlist();
+        final CompletableFuture<Integer> result = transactionManager.commitAsync().toCompletableFuture();
+        Assert.assertTrue(result.isDone());
+        Assert.assertEquals(Status.STATUS_COMMITTED, (int) result.get());
+    }
+}
@@ -43,7 +43,6 @@ public class JtaTransactionCommitTest {
         transactionManager.begin();
         transaction = transactionManager.getTransaction();
         Assert.assertEquals(Status.STATUS_ACTIVE, transaction.getStatus());
-        globalXid = ReflectionTestUtils.getField(transaction, "globalXid");
 
         resourceOne = Mockito.mock(XAResource.class);
         resourceTwo = Mockito.mock(XAResource.class);
@@ -52,6 +51,7 @@ public class JtaTransactionCommitTest {
         transaction.enlistResource(new XAResourceAdapter("resourceOne", true, false, resourceOne));
         transaction.enlistResource(new XAResourceAdapter("resourceTwo", true, false, resourceTwo));
         transaction.enlistResource(new XAResourceAdapter("resourceThree", true, false, resourceThree));
+        globalXid = ReflectionTestUtils.getField(transaction, "globalXid");
     }
 
     private void verifySetup(InOrder ordered) throws JtaTransactionStoreException, XAException {
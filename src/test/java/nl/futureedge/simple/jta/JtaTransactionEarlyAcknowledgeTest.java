@@ -0,0 +1,143 @@
+package nl.futureedge.simple.jta;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import nl.futureedge.simple.jta.store.JtaTransactionStore;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
+import nl.futureedge.simple.jta.xid.GlobalJtaXid;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+public class JtaTransactionEarlyAcknowledgeTest {
+
+    private JtaTransactionStore transactionStore;
+    private JtaTransactionManager transactionManager;
+    private XAResource resourceOne;
+    private XAResource resourceTwo;
+    private JtaTransaction transaction;
+    private GlobalJtaXid globalXid;
+    private CountDownLatch completed;
+    private int completedStatus;
+
+    @Before
+    public void setup() throws Exception {
+        transactionStore = Mockito.mock(JtaTransactionStore.class);
+        transactionManager = new JtaTransactionManager();
+        transactionManager.setUniqueName("tm");
+        transactionManager.setJtaTransactionStore(transactionStore);
+        transactionManager.setEarlyAcknowledge(true);
+        transactionManager.setBackgroundCommitThreads(1);
+        transactionManager.setBackgroundCommitQueueSize(10);
+        transactionManager.setBackgroundCommitRetries(1);
+
+        resourceOne = Mockito.mock(XAResource.class);
+        resourceTwo = Mockito.mock(XAResource.class);
+        completed = new CountDownLatch(1);
+    }
+
+    private void begin() throws Exception {
+        transactionManager.afterPropertiesSet();
+        transactionManager.begin();
+        transaction = transactionManager.getRequiredTransaction();
+        transaction.enlistResource(new XAResourceAdapter("resourceOne", false, false, resourceOne));
+        transaction.enlistResource(new XAResourceAdapter("resourceTwo", false, false, resourceTwo));
+        globalXid = ReflectionTestUtils.getField(transaction, "globalXid");
+        transaction.registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(final int status) {
+                completedStatus = status;
+                completed.countDown();
+            }
+        });
+    }
+
+    @After
+    public void destroy() throws Exception {
+        transactionManager.destroy();
+    }
+
+    @Test
+    public void testEarlyAcknowledge() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            release.await();
+            return null;
+        }).when(resourceTwo).commit(Mockito.any(), Mockito.eq(false));
+        begin();
+
+        transactionManager.commit();
+
+        // Returned after commit decision has been stored; second phase is still running
+        Assert.assertNull(transactionManager.getTransaction());
+        Assert.assertEquals(Status.STATUS_COMMITTING, transaction.getStatus());
+        Mockito.verify(transactionStore).committing(globalXid);
+        Mockito.verify(transactionStore, Mockito.never()).committed(globalXid);
+
+        release.countDown();
+        Assert.assertTrue(completed.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Status.STATUS_COMMITTED, completedStatus);
+        Assert.assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
+
+        final InOrder ordered = Mockito.inOrder(transactionStore, resourceOne, resourceTwo);
+        ordered.verify(transactionStore).committing(globalXid);
+        ordered.verify(resourceOne).commit(Mockito.any(), Mockito.eq(false));
+        ordered.verify(resourceTwo).commit(Mockito.any(), Mockito.eq(false));
+        ordered.verify(transactionStore).committed(globalXid);
+        ordered.verify(transactionStore).transactionCompleted(transaction);
+        Assert.assertTrue(transactionManager.getActiveTransactions().isEmpty());
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        Mockito.doThrow(new XAException(XAException.XAER_RMFAIL)).doNothing().when(resourceTwo).commit(Mockito.any(), Mockito.eq(false));
+        begin();
+
+        transactionManager.commit();
+        Assert.assertTrue(completed.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Status.STATUS_COMMITTED, completedStatus);
+
+        // Only the failed branch is retried
+        Mockito.verify(resourceOne, Mockito.times(1)).commit(Mockito.any(), Mockito.eq(false));
+        Mockito.verify(resourceTwo, Mockito.times(2)).commit(Mockito.any(), Mockito.eq(false));
+        Mockito.verify(transactionStore).commitFailed(Mockito.any(), Mockito.eq("resourceTwo"), Mockito.any());
+        Mockito.verify(transactionStore).committed(Mockito.any(), Mockito.eq("resourceTwo"));
+        Mockito.verify(transactionStore).committed(globalXid);
+    }
+
+    @Test
+    public void testRetriesExhausted() throws Exception {
+        transactionManager.setBackgroundCommitRetries(0);
+        Mockito.doThrow(new XAException(XAException.XAER_RMFAIL)).when(resourceTwo).commit(Mockito.any(), Mockito.eq(false));
+        begin();
+
+        transactionManager.commit();
+        Assert.assertTrue(completed.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Status.STATUS_UNKNOWN, completedStatus);
+        Mockito.verify(transactionStore).commitFailed(globalXid);
+        Mockito.verify(transactionStore, Mockito.never()).committed(globalXid);
+    }
+
+    @Test
+    public void testSinglePhaseNotAffected() throws Exception {
+        transactionManager.afterPropertiesSet();
+        transactionManager.begin();
+        transaction = transactionManager.getRequiredTransaction();
+        transaction.enlistResource(new XAResourceAdapter("resourceOne", false, false, resourceOne));
+
+        transactionManager.commit();
+        Assert.assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
+        Mockito.verify(resourceOne).commit(Mockito.any(), Mockito.eq(true));
+    }
+}
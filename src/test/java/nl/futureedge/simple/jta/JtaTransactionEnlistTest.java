@@ -220,6 +220,49 @@ public class JtaTransactionEnlistTest {
         Mockito.verifyNoMoreInteractions(transactionStore, resourceOne, resourceTwo, resourceThree);
     }
 
+    @Test
+    public void testJoinSameResourceManagerName() throws Exception {
+        transaction.enlistResource(new XAResourceAdapter("resourceOne", true, false, resourceOne));
+        transaction.enlistResource(new XAResourceAdapter("resourceOne", true, false, resourceTwo));
+        transaction.enlistResource(new XAResourceAdapter("resourceOne", true, false, resourceThree));
+
+        InOrder ordered = Mockito.inOrder(transactionStore, resourceOne, resourceTwo, resourceThree);
+        verifySetup(ordered);
+
+        // Enlist resource
+        final ArgumentCaptor<BranchJtaXid> branchXidOneCaptor = ArgumentCaptor.forClass(BranchJtaXid.class);
+        ordered.verify(transactionStore).active(branchXidOneCaptor.capture(), Mockito.eq("resourceOne"));
+        final BranchJtaXid branchXidOne = branchXidOneCaptor.getValue();
+        ordered.verify(resourceOne).start(branchXidOne, XAResource.TMNOFLAGS);
+
+        // Join (no isSameRM needed)
+        ordered.verify(resourceTwo).start(branchXidOne, XAResource.TMJOIN);
+        ordered.verify(resourceThree).start(branchXidOne, XAResource.TMJOIN);
+
+        Mockito.verifyNoMoreInteractions(transactionStore, resourceOne, resourceTwo, resourceThree);
+    }
+
+    @Test
+    public void testJoinCachedResourceManagerIdentity() throws Exception {
+        Mockito.doReturn(true).when(resourceOne).isSameRM(resourceTwo);
+
+        transaction.enlistResource(new XAResourceAdapter("resourceOne", true, false, resourceOne));
+        transaction.enlistResource(new XAResourceAdapter("resourceTwo", true, false, resourceTwo));
+        transaction.enlistResource(new XAResourceAdapter("resourceTwo", true, false, resourceThree));
+        transaction.commit();
+
+        // Second transaction; identity of resource managers is known
+        transactionManager.begin();
+        transaction = transactionManager.getTransaction();
+        transaction.enlistResource(new XAResourceAdapter("resourceOne", true, false, resourceOne));
+        transaction.enlistResource(new XAResourceAdapter("resourceTwo", true, false, resourceTwo));
+
+        Mockito.verify(resourceOne, Mockito.times(1)).isSameRM(Mockito.any());
+        Mockito.verify(resourceTwo, Mockito.times(2)).start(Mockito.any(), Mockito.eq(XAResource.TMJOIN));
+        Mockito.verify(resourceThree).start(Mockito.any(), Mockito.eq(XAResource.TMJOIN));
+        Mockito.verify(resourceThree, Mockito.never()).isSameRM(Mockito.any());
+    }
+
     @Test
     public void testJoinWithTimeoutOk() throws Exception {
         Mockito.doReturn(true).when(resourceOne).isSameRM(resourceTwo);
@@ -43,6 +43,50 @@ public class JtaTransactionManagerTest {
     }
 
 
+    @Test
+    public void testReadOnly() throws Exception {
+        final XAResource resourceOne = Mockito.mock(XAResource.class);
+        final XAResource resourceTwo = Mockito.mock(XAResource.class);
+
+        transactionManager.beginReadOnly();
+        final JtaTransaction transaction = transactionManager.getTransaction();
+        Assert.assertTrue(transaction.isReadOnly());
+        Assert.assertTrue(transaction.getTransactionId() < 0);
+        transaction.enlistResource(new XAResourceAdapter("resourceOne", false, false, resourceOne));
+        transaction.enlistResource(new XAResourceAdapter("resourceTwo", false, false, resourceTwo));
+        transactionManager.commit();
+
+        Assert.assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
+        Assert.assertNull(transactionManager.getTransaction());
+        Assert.assertEquals(0, transactionManager.getActiveTransactions().size());
+
+        Mockito.verify(resourceOne).end(Mockito.any(), Mockito.eq(XAResource.TMSUCCESS));
+        Mockito.verify(resourceOne).commit(Mockito.any(), Mockito.eq(true));
+        Mockito.verify(resourceTwo).end(Mockito.any(), Mockito.eq(XAResource.TMSUCCESS));
+        Mockito.verify(resourceTwo).commit(Mockito.any(), Mockito.eq(true));
+        Mockito.verify(resourceOne, Mockito.never()).prepare(Mockito.any());
+        Mockito.verify(resourceTwo, Mockito.never()).prepare(Mockito.any());
+
+        // No transaction id and no transaction log
+        Mockito.verify(transactionStore).cleanup();
+        Mockito.verifyNoMoreInteractions(transactionStore);
+    }
+
+    @Test
+    public void testReadOnlyRollback() throws Exception {
+        final XAResource resourceOne = Mockito.mock(XAResource.class);
+
+        transactionManager.beginReadOnly();
+        final JtaTransaction transaction = transactionManager.getTransaction();
+        transaction.enlistResource(new XAResourceAdapter("resourceOne", false, false, resourceOne));
+        transactionManager.rollback();
+
+        Assert.assertEquals(Status.STATUS_ROLLEDBACK, transaction.getStatus());
+        Mockito.verify(resourceOne).rollback(Mockito.any());
+        Mockito.verify(transactionStore).cleanup();
+        Mockito.verifyNoMoreInteractions(transactionStore);
+    }
+
     @Test
     public void test() throws Exception {
         // Initial
@@ -59,6 +103,8 @@ public class JtaTransactionManagerTest {
         transactionManager.begin();
         Assert.assertNotNull(transactionManager.getTransaction());
         Assert.assertEquals(Status.STATUS_ACTIVE, transactionManager.getStatus());
+        Assert.assertEquals(1, transactionManager.getActiveTransactions().size());
+        Assert.assertSame(transactionManager.getTransaction(), transactionManager.getActiveTransactions().get(0));
 
         try {
             transactionManager.begin();
@@ -71,6 +117,7 @@ public class JtaTransactionManagerTest {
         transactionManager.rollback();
         Assert.assertNull(transactionManager.getTransaction());
         Assert.assertEquals(Status.STATUS_NO_TRANSACTION, transactionManager.getStatus());
+        Assert.assertTrue(transactionManager.getActiveTransactions().isEmpty());
 
         // Begin
         transactionManager.begin();
@@ -101,20 +148,78 @@ public class JtaTransactionManagerTest {
         Assert.assertEquals(Status.STATUS_NO_TRANSACTION, transactionManager.getStatus());
     }
 
+    @Test
+    public void testTransactionTimeout() throws Exception {
+        transactionManager.setTransactionTimeout(1);
+        transactionManager.begin();
+        final JtaTransaction transaction = transactionManager.getRequiredTransaction();
+        Assert.assertEquals(Status.STATUS_ACTIVE, transaction.getStatus());
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (transaction.getStatus() == Status.STATUS_ACTIVE && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(Status.STATUS_MARKED_ROLLBACK, transaction.getStatus());
+        Assert.assertTrue(transaction.isTimedOut());
+
+        try {
+            transactionManager.commit();
+            Assert.fail("RollbackException expected");
+        } catch (final RollbackException e) {
+            // Expected
+        }
+        Assert.assertNull(transactionManager.getTransaction());
+        Assert.assertTrue(transactionManager.getActiveTransactions().isEmpty());
+    }
+
+    @Test
+    public void testTransactionTimeoutCancelled() throws Exception {
+        transactionManager.setDefaultTransactionTimeout(1);
+        transactionManager.begin();
+        final JtaTransaction transaction = transactionManager.getRequiredTransaction();
+        transactionManager.commit();
+
+        Thread.sleep(1500);
+        Assert.assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
+        Assert.assertFalse(transaction.isTimedOut());
+    }
+
     @Test
     public void testBeginNextTransactionIdFail() throws Exception {
         Mockito.when(transactionStore.nextTransactionId()).thenThrow(new JtaTransactionStoreException("Test"));
 
         Assert.assertEquals(Status.STATUS_NO_TRANSACTION, transactionManager.getStatus());
+        transactionManager.begin();
         try {
-            transactionManager.begin();
+            transactionManager.getTransaction().enlistResource(new XAResourceAdapter("resourceOne", false, false, Mockito.mock(XAResource.class)));
             Assert.fail("SystemException expected");
         } catch (SystemException e) {
             // Expected
         }
+        Assert.assertEquals(Status.STATUS_ACTIVE, transactionManager.getStatus());
+        transactionManager.rollback();
         Assert.assertEquals(Status.STATUS_NO_TRANSACTION, transactionManager.getStatus());
     }
 
+    @Test
+    public void testLazyTransactionId() throws Exception {
+        transactionManager.begin();
+        final JtaTransaction transaction = transactionManager.getTransaction();
+        Assert.assertFalse(transaction.hasTransactionId());
+        Assert.assertEquals(1, transactionManager.getActiveTransactions().size());
+        Mockito.verify(transactionStore, Mockito.never()).nextTransactionId();
+
+        transaction.enlistResource(new XAResourceAdapter("resourceOne", false, false, Mockito.mock(XAResource.class)));
+        Assert.assertTrue(transaction.hasTransactionId());
+        transaction.enlistResource(new XAResourceAdapter("resourceTwo", false, false, Mockito.mock(XAResource.class)));
+        Mockito.verify(transactionStore).nextTransactionId();
+        Mockito.verify(transactionStore).active(Mockito.any());
+
+        transactionManager.commit();
+        Assert.assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
+        Assert.assertTrue(transactionManager.getActiveTransactions().isEmpty());
+    }
+
     @Test
     public void testSetTransactionTimeout() throws Exception {
         XAResource resourceOne = Mockito.mock(XAResource.class);
@@ -3,9 +3,10 @@ package nl.futureedge.simple.jta;
 import javax.transaction.Status;
 import javax.transaction.SystemException;
 import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
 import nl.futureedge.simple.jta.store.JtaTransactionStore;
 import nl.futureedge.simple.jta.store.JtaTransactionStoreException;
-import nl.futureedge.simple.jta.xid.GlobalJtaXid;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -18,7 +19,6 @@ public class JtaTransactionNoPhaseTest {
     private JtaTransactionStore transactionStore;
     private JtaTransactionManager transactionManager;
     private JtaTransaction transaction;
-    private GlobalJtaXid globalXid;
 
     @Before
     public void setup() throws Exception {
@@ -31,16 +31,13 @@ public class JtaTransactionNoPhaseTest {
         transactionManager.begin();
         transaction = transactionManager.getTransaction();
         Assert.assertEquals(Status.STATUS_ACTIVE, transaction.getStatus());
-        globalXid = ReflectionTestUtils.getField(transaction, "globalXid");
     }
 
     private void verifySetup(InOrder ordered) throws JtaTransactionStoreException, XAException {
         // Startup manager
         ordered.verify(transactionStore).cleanup();
 
-        // Start transaction
-        ordered.verify(transactionStore).nextTransactionId();
-        ordered.verify(transactionStore).active(globalXid);
+        // Start transaction (no transaction id is allocated until a resource is enlisted)
     }
 
     @After
@@ -55,30 +52,48 @@ public class JtaTransactionNoPhaseTest {
         final InOrder ordered = Mockito.inOrder(transactionStore);
         verifySetup(ordered);
 
-        // Commit (commit)
-        ordered.verify(transactionStore).committed(globalXid);
+        // Commit (nothing to store)
+        Assert.assertFalse(transaction.hasTransactionId());
+        Assert.assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
 
         ordered.verify(transactionStore).transactionCompleted(transaction);
         ordered.verifyNoMoreInteractions();
     }
 
     @Test
-    public void testStoreCommittedFailure() throws Exception {
-        Mockito.doThrow(new JtaTransactionStoreException("Fail")).when(transactionStore).committed(globalXid);
-        try {
-            transactionManager.commit();
-            Assert.fail("SystemException expected");
-        } catch (SystemException e) {
-            // Expected
-        }
+    public void testRollback() throws Exception {
+        transactionManager.rollback();
 
         final InOrder ordered = Mockito.inOrder(transactionStore);
         verifySetup(ordered);
 
-        // Commit (commit)
-        ordered.verify(transactionStore).committed(globalXid);
+        // Rollback (nothing to store)
+        Assert.assertFalse(transaction.hasTransactionId());
+        Assert.assertEquals(Status.STATUS_ROLLEDBACK, transaction.getStatus());
 
         ordered.verify(transactionStore).transactionCompleted(transaction);
         ordered.verifyNoMoreInteractions();
     }
+
+    @Test
+    public void testNextTransactionIdFailure() throws Exception {
+        Mockito.doThrow(new JtaTransactionStoreException("Fail")).when(transactionStore).nextTransactionId();
+        try {
+            transaction.enlistResource(new XAResourceAdapter("resourceOne", false, false, Mockito.mock(XAResource.class)));
+            Assert.fail("SystemException expected");
+        } catch (SystemException e) {
+            // Expected
+        }
+        Assert.assertFalse(transaction.hasTransactionId());
+        try {
+            transaction.getTransactionId();
+            Assert.fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        // Transaction is still usable
+        transaction.commit();
+        Assert.assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
+    }
 }
@@ -0,0 +1,178 @@
+package nl.futureedge.simple.jta;
+
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import nl.futureedge.simple.jta.store.JtaTransactionStore;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+public class JtaTransactionPrepareOrderTest {
+
+    private XAResource resourceOne = Mockito.mock(XAResource.class);
+    private XAResource resourceTwo = Mockito.mock(XAResource.class);
+    private XAResource resourceThree = Mockito.mock(XAResource.class);
+
+    private JtaTransactionManager transactionManager;
+
+    private void setup(final boolean adaptive) throws Exception {
+        transactionManager = new JtaTransactionManager();
+        transactionManager.setUniqueName("tm");
+        transactionManager.setJtaTransactionStore(Mockito.mock(JtaTransactionStore.class));
+        transactionManager.setAdaptivePrepareOrder(adaptive);
+        transactionManager.afterPropertiesSet();
+    }
+
+    @After
+    public void destroy() throws Exception {
+        transactionManager.destroy();
+    }
+
+    private JtaTransaction begin(final int priorityOne, final int priorityTwo, final int priorityThree) throws Exception {
+        transactionManager.begin();
+        final JtaTransaction transaction = transactionManager.getTransaction();
+        transaction.enlistResource(new XAResourceAdapter("resourceOne", false, false, false, priorityOne, resourceOne));
+        transaction.enlistResource(new XAResourceAdapter("resourceTwo", false, false, false, priorityTwo, resourceTwo));
+        transaction.enlistResource(new XAResourceAdapter("resourceThree", false, false, false, priorityThree, resourceThree));
+        return transaction;
+    }
+
+    @Test
+    public void testEnlistmentOrder() throws Exception {
+        setup(false);
+        final JtaTransaction transaction = begin(0, 0, 0);
+        transaction.commit();
+        Assert.assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
+
+        final InOrder ordered = Mockito.inOrder(resourceOne, resourceTwo, resourceThree);
+        ordered.verify(resourceOne).prepare(Mockito.any());
+        ordered.verify(resourceTwo).prepare(Mockito.any());
+        ordered.verify(resourceThree).prepare(Mockito.any());
+    }
+
+    @Test
+    public void testPriority() throws Exception {
+        setup(false);
+        final JtaTransaction transaction = begin(0, 5, 2);
+        transaction.commit();
+        Assert.assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
+
+        final InOrder ordered = Mockito.inOrder(resourceOne, resourceTwo, resourceThree);
+        ordered.verify(resourceTwo).prepare(Mockito.any());
+        ordered.verify(resourceThree).prepare(Mockito.any());
+        ordered.verify(resourceOne).prepare(Mockito.any());
+
+        // Commit in enlistment order
+        ordered.verify(resourceOne).commit(Mockito.any(), Mockito.eq(false));
+        ordered.verify(resourceTwo).commit(Mockito.any(), Mockito.eq(false));
+        ordered.verify(resourceThree).commit(Mockito.any(), Mockito.eq(false));
+    }
+
+    @Test
+    public void testPriorityFailure() throws Exception {
+        setup(false);
+        Mockito.when(resourceThree.prepare(Mockito.any())).thenThrow(new XAException(XAException.XA_RBROLLBACK));
+
+        final JtaTransaction transaction = begin(0, 0, 1);
+        try {
+            transaction.commit();
+            Assert.fail("RollbackException expected");
+        } catch (final RollbackException e) {
+            // Expected
+        }
+        Assert.assertEquals(Status.STATUS_ROLLEDBACK, transaction.getStatus());
+
+        Mockito.verify(resourceThree).prepare(Mockito.any());
+        Mockito.verify(resourceOne, Mockito.never()).prepare(Mockito.any());
+        Mockito.verify(resourceTwo, Mockito.never()).prepare(Mockito.any());
+        Mockito.verify(resourceOne).rollback(Mockito.any());
+        Mockito.verify(resourceTwo).rollback(Mockito.any());
+    }
+
+    @Test
+    public void testAdaptive() throws Exception {
+        setup(true);
+        Mockito.when(resourceThree.prepare(Mockito.any())).thenThrow(new XAException(XAException.XA_RBROLLBACK));
+
+        // First transaction: prepared in enlistment order
+        final JtaTransaction first = begin(0, 0, 0);
+        try {
+            first.commit();
+            Assert.fail("RollbackException expected");
+        } catch (final RollbackException e) {
+            // Expected
+        }
+        final InOrder ordered = Mockito.inOrder(resourceOne, resourceTwo, resourceThree);
+        ordered.verify(resourceOne).prepare(Mockito.any());
+        ordered.verify(resourceTwo).prepare(Mockito.any());
+        ordered.verify(resourceThree).prepare(Mockito.any());
+        Mockito.reset(resourceOne, resourceTwo);
+
+        // Second transaction: the resource that failed is prepared first
+        final JtaTransaction second = begin(0, 0, 0);
+        try {
+            second.commit();
+            Assert.fail("RollbackException expected");
+        } catch (final RollbackException e) {
+            // Expected
+        }
+        Mockito.verify(resourceThree, Mockito.times(2)).prepare(Mockito.any());
+        Mockito.verify(resourceOne, Mockito.never()).prepare(Mockito.any());
+        Mockito.verify(resourceTwo, Mockito.never()).prepare(Mockito.any());
+    }
+
+    @Test
+    public void testAdaptiveUnobserved() throws Exception {
+        setup(true);
+
+        // Only resource two and three are observed
+        transactionManager.begin();
+        final JtaTransaction first = transactionManager.getTransaction();
+        first.enlistResource(new XAResourceAdapter("resourceTwo", false, false, false, 0, resourceTwo));
+        first.enlistResource(new XAResourceAdapter("resourceThree", false, false, false, 0, resourceThree));
+        first.commit();
+        Mockito.reset(resourceTwo, resourceThree);
+
+        // Resource one (unknown cost) is prepared after the observed resources (which are ordered on their observed latency)
+        final JtaTransaction second = begin(0, 0, 0);
+        second.commit();
+        Assert.assertEquals(Status.STATUS_COMMITTED, second.getStatus());
+
+        final InOrder afterTwo = Mockito.inOrder(resourceTwo, resourceOne);
+        afterTwo.verify(resourceTwo).prepare(Mockito.any());
+        afterTwo.verify(resourceOne).prepare(Mockito.any());
+        final InOrder afterThree = Mockito.inOrder(resourceThree, resourceOne);
+        afterThree.verify(resourceThree).prepare(Mockito.any());
+        afterThree.verify(resourceOne).prepare(Mockito.any());
+    }
+
+    @Test
+    public void testAdaptivePriority() throws Exception {
+        setup(true);
+        Mockito.when(resourceThree.prepare(Mockito.any())).thenThrow(new XAException(XAException.XA_RBROLLBACK));
+
+        final JtaTransaction first = begin(0, 0, 0);
+        try {
+            first.commit();
+            Assert.fail("RollbackException expected");
+        } catch (final RollbackException e) {
+            // Expected
+        }
+        Mockito.reset(resourceOne, resourceTwo, resourceThree);
+
+        // Priority takes precedence over the observed prepare results
+        final JtaTransaction second = begin(0, 1, 0);
+        second.commit();
+        Assert.assertEquals(Status.STATUS_COMMITTED, second.getStatus());
+
+        final InOrder ordered = Mockito.inOrder(resourceOne, resourceTwo, resourceThree);
+        ordered.verify(resourceTwo).prepare(Mockito.any());
+        ordered.verify(resourceThree).prepare(Mockito.any());
+        ordered.verify(resourceOne).prepare(Mockito.any());
+    }
+}
@@ -0,0 +1,262 @@
+package nl.futureedge.simple.jta;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.xa.XAResource;
+import nl.futureedge.simple.jta.context.ScopedTransactionContextHolder;
+import nl.futureedge.simple.jta.store.JtaTransactionStore;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class JtaTransactionPropagationTest {
+
+    private JtaTransactionStore transactionStore;
+    private JtaTransactionManager transactionManager;
+    private JtaTransactionPropagation propagation;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() throws Exception {
+        transactionStore = Mockito.mock(JtaTransactionStore.class);
+        transactionManager = new JtaTransactionManager();
+        transactionManager.setUniqueName("tm");
+        transactionManager.setJtaTransactionStore(transactionStore);
+        transactionManager.afterPropertiesSet();
+
+        propagation = new JtaTransactionPropagation(transactionManager);
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void destroy() throws Exception {
+        executor.shutdownNow();
+        transactionManager.destroy();
+    }
+
+    @Test
+    public void testNoTransaction() {
+        try {
+            propagation.wrap(() -> {
+            });
+            Assert.fail("IllegalStateException expected");
+        } catch (final IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testFanOut() throws Exception {
+        transactionManager.begin();
+        final JtaTransaction transaction = transactionManager.getTransaction();
+
+        final List<XAResource> resources = new ArrayList<>();
+        final List<Future<JtaTransaction>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final XAResource resource = Mockito.mock(XAResource.class);
+            resources.add(resource);
+            final String resourceManager = "resource" + i;
+            final Callable<JtaTransaction> task = propagation.wrap(() -> {
+                Thread.sleep(100);
+                final JtaTransaction current = transactionManager.getRequiredTransaction();
+                current.enlistResource(new XAResourceAdapter(resourceManager, false, false, resource));
+                return current;
+            });
+            futures.add(executor.submit(task));
+        }
+
+        // Commit waits for all propagated work to complete
+        transactionManager.commit();
+        Assert.assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
+        for (final Future<JtaTransaction> future : futures) {
+            // The task has completed; the future may not yet have been completed by the executor
+            Assert.assertSame(transaction, future.get(1, TimeUnit.SECONDS));
+        }
+        for (final XAResource resource : resources) {
+            Mockito.verify(resource).start(Mockito.any(), Mockito.eq(XAResource.TMNOFLAGS));
+            Mockito.verify(resource).prepare(Mockito.any());
+            Mockito.verify(resource).commit(Mockito.any(), Mockito.eq(false));
+        }
+
+        // Threads are no longer bound to the transaction
+        Assert.assertNull(executor.submit(() -> transactionManager.getTransaction()).get());
+        Assert.assertNull(transactionManager.getTransaction());
+    }
+
+    @Test
+    public void testScopedContextHolder() throws Exception {
+        final JtaTransactionManager scopedManager = new JtaTransactionManager();
+        scopedManager.setUniqueName("scoped");
+        scopedManager.setJtaTransactionStore(transactionStore);
+        scopedManager.setTransactionContextHolder(new ScopedTransactionContextHolder());
+        scopedManager.afterPropertiesSet();
+        try {
+            // No context outside a scope
+            try {
+                scopedManager.begin();
+                Assert.fail("IllegalStateException expected");
+            } catch (final IllegalStateException e) {
+                // Expected
+            }
+            Assert.assertNull(scopedManager.getTransaction());
+
+            final JtaTransactionPropagation scopedPropagation = new JtaTransactionPropagation(scopedManager);
+            final XAResource resource = Mockito.mock(XAResource.class);
+            final JtaTransaction transaction = scopedManager.callInContext(() -> {
+                scopedManager.begin();
+                final JtaTransaction current = scopedManager.getRequiredTransaction();
+
+                // Propagated work runs in a new scope on the participant thread
+                final Future<JtaTransaction> future = executor.submit(scopedPropagation.wrap(() -> {
+                    final JtaTransaction participant = scopedManager.getRequiredTransaction();
+                    participant.enlistResource(new XAResourceAdapter("resource", false, false, resource));
+                    return participant;
+                }));
+                Assert.assertSame(current, future.get(5, TimeUnit.SECONDS));
+
+                // Propagated work executed on the owning thread runs in the existing scope
+                scopedPropagation.wrap(() -> Assert.assertSame(current, scopedManager.getRequiredTransaction())).run();
+
+                scopedManager.commit();
+                return current;
+            });
+            Assert.assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
+            Mockito.verify(resource).commit(Mockito.any(), Mockito.eq(true));
+            Assert.assertNull(scopedManager.getTransaction());
+        } finally {
+            scopedManager.destroy();
+        }
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        transactionManager.begin();
+
+        final Future<?> future = executor.submit(propagation.wrap((Runnable) () -> {
+            throw new IllegalArgumentException("Fail");
+        }));
+        try {
+            future.get();
+            Assert.fail("ExecutionException expected");
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+
+        try {
+            transactionManager.commit();
+            Assert.fail("RollbackException expected");
+        } catch (final RollbackException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testPropagatedWorkCannotComplete() throws Exception {
+        transactionManager.begin();
+
+        final Future<?> commit = executor.submit(propagation.wrap((Callable<Object>) () -> {
+            transactionManager.commit();
+            return null;
+        }));
+        try {
+            commit.get();
+            Assert.fail("ExecutionException expected");
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(Status.STATUS_MARKED_ROLLBACK, transactionManager.getStatus());
+        transactionManager.rollback();
+    }
+
+    @Test
+    public void testExecutor() throws Exception {
+        transactionManager.begin();
+        final JtaTransaction transaction = transactionManager.getTransaction();
+        final Executor transactional = propagation.wrap(executor);
+
+        final CompletableFuture<JtaTransaction> supplied = CompletableFuture.supplyAsync(propagation.wrapSupplier(transactionManager::getTransaction), executor);
+        Assert.assertSame(transaction, supplied.get(5, TimeUnit.SECONDS));
+
+        final CompletableFuture<JtaTransaction> future = CompletableFuture.supplyAsync(transactionManager::getTransaction, transactional)
+                .thenApplyAsync(previous -> {
+                    Assert.assertSame(previous, transactionManager.getTransaction());
+                    return previous;
+                }, transactional);
+        Assert.assertSame(transaction, future.get(5, TimeUnit.SECONDS));
+
+        transactionManager.commit();
+        Assert.assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
+
+        // Transaction completed; work is rejected
+        try {
+            transactional.execute(() -> {
+            });
+            Assert.fail("RejectedExecutionException expected");
+        } catch (final RejectedExecutionException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testExecutorRejected() throws Exception {
+        transactionManager.begin();
+        final Executor transactional = propagation.wrap((Executor) command -> {
+            throw new RejectedExecutionException("Full");
+        });
+        try {
+            transactional.execute(() -> {
+            });
+            Assert.fail("RejectedExecutionException expected");
+        } catch (final RejectedExecutionException e) {
+            // Expected
+        }
+
+        // Rejected work is not waited for
+        transactionManager.commit();
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        transactionManager.begin();
+        final Runnable wrapped = propagation.wrap(() -> {
+        });
+        Assert.assertTrue(propagation.cancel(wrapped));
+        Assert.assertFalse(propagation.cancel(wrapped));
+        Assert.assertFalse(propagation.cancel(new Object()));
+
+        try {
+            wrapped.run();
+            Assert.fail("IllegalStateException expected");
+        } catch (final IllegalStateException e) {
+            // Expected
+        }
+
+        transactionManager.commit();
+    }
+
+    @Test
+    public void testCallerRuns() throws Exception {
+        transactionManager.begin();
+        final JtaTransaction transaction = transactionManager.getTransaction();
+
+        // Executing on the thread owning the transaction
+        propagation.wrap(() -> Assert.assertSame(transaction, transactionManager.getTransaction())).run();
+        Assert.assertSame(transaction, transactionManager.getTransaction());
+
+        transactionManager.commit();
+    }
+}
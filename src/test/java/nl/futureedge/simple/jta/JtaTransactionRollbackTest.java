@@ -1,5 +1,10 @@
 package nl.futureedge.simple.jta;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.transaction.RollbackException;
 import javax.transaction.Status;
 import javax.transaction.SystemException;
@@ -43,7 +48,6 @@ public class JtaTransactionRollbackTest {
         transactionManager.begin();
         transaction = transactionManager.getTransaction();
         Assert.assertEquals(Status.STATUS_ACTIVE, transaction.getStatus());
-        globalXid = ReflectionTestUtils.getField(transaction, "globalXid");
 
         resourceOne = Mockito.mock(XAResource.class);
         resourceTwo = Mockito.mock(XAResource.class);
@@ -52,6 +56,7 @@ public class JtaTransactionRollbackTest {
         transaction.enlistResource(new XAResourceAdapter("resourceOne", true, false, resourceOne));
         transaction.enlistResource(new XAResourceAdapter("resourceTwo", true, false, resourceTwo));
         transaction.enlistResource(new XAResourceAdapter("resourceThree", true, false, resourceThree));
+        globalXid = ReflectionTestUtils.getField(transaction, "globalXid");
     }
 
     private void verifySetup(InOrder ordered) throws JtaTransactionStoreException, XAException {
@@ -123,6 +128,156 @@ public class JtaTransactionRollbackTest {
         Mockito.verifyNoMoreInteractions(transactionStore, resourceOne, resourceTwo, resourceThree);
     }
 
+    @Test
+    public void testTimedOut() throws Exception {
+        transaction.setCompletionExecutor(Runnable::run);
+        transaction.timedOut();
+        Assert.assertEquals(Status.STATUS_MARKED_ROLLBACK, transaction.getStatus());
+        Assert.assertTrue(transaction.isTimedOut());
+
+        // Timeout is only handled once
+        transaction.timedOut();
+
+        try {
+            transaction.commit();
+            Assert.fail("RollbackException expected");
+        } catch (RollbackException e) {
+            // Expected
+        }
+
+        InOrder ordered = Mockito.inOrder(transactionStore, resourceOne, resourceTwo, resourceThree);
+        verifySetup(ordered);
+
+        // Timeout
+        ordered.verify(transactionStore).rollingBack(branchXidOne, "resourceOne");
+        ordered.verify(resourceOne).end(branchXidOne, XAResource.TMFAIL);
+        ordered.verify(resourceOne).rollback(branchXidOne);
+        ordered.verify(transactionStore).rolledBack(branchXidOne, "resourceOne");
+        ordered.verify(transactionStore).rollingBack(branchXidTwo, "resourceTwo");
+        ordered.verify(resourceTwo).end(branchXidTwo, XAResource.TMFAIL);
+        ordered.verify(resourceTwo).rollback(branchXidTwo);
+        ordered.verify(transactionStore).rolledBack(branchXidTwo, "resourceTwo");
+        ordered.verify(transactionStore).rollingBack(branchXidThree, "resourceThree");
+        ordered.verify(resourceThree).end(branchXidThree, XAResource.TMFAIL);
+        ordered.verify(resourceThree).rollback(branchXidThree);
+        ordered.verify(transactionStore).rolledBack(branchXidThree, "resourceThree");
+        ordered.verify(transactionStore).transactionTimedOut(transaction);
+
+        // Rollback (branches already rolled back)
+        ordered.verify(transactionStore).rollingBack(globalXid);
+        ordered.verify(transactionStore).rolledBack(globalXid);
+
+        ordered.verify(transactionStore).transactionCompleted(transaction);
+        Mockito.verifyNoMoreInteractions(transactionStore, resourceOne, resourceTwo, resourceThree);
+    }
+
+    @Test
+    public void testTimedOutExecutor() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        transaction.setCompletionExecutor(tasks::add);
+        transaction.timedOut();
+        Assert.assertEquals(Status.STATUS_MARKED_ROLLBACK, transaction.getStatus());
+
+        // Branches are rolled back on the executor, not on the timer thread
+        Assert.assertEquals(1, tasks.size());
+        Mockito.verify(resourceOne, Mockito.never()).rollback(Mockito.any());
+        tasks.get(0).run();
+        Mockito.verify(resourceOne).rollback(Mockito.any());
+        Mockito.verify(resourceTwo).rollback(Mockito.any());
+        Mockito.verify(resourceThree).rollback(Mockito.any());
+    }
+
+    @Test
+    public void testTimedOutExecutorAfterCompletion() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        transaction.setCompletionExecutor(tasks::add);
+        transaction.timedOut();
+        transaction.rollback();
+        Mockito.verify(resourceOne).rollback(Mockito.any());
+
+        // Transaction already completed by the application
+        tasks.get(0).run();
+        Mockito.verify(resourceOne).rollback(Mockito.any());
+        Assert.assertEquals(Status.STATUS_ROLLEDBACK, transaction.getStatus());
+    }
+
+    @Test
+    public void testTimedOutExecutorRejected() throws Exception {
+        transaction.setCompletionExecutor(task -> {
+            throw new RejectedExecutionException("Test");
+        });
+        Assert.assertTrue(transaction.timedOut());
+        Assert.assertEquals(Status.STATUS_MARKED_ROLLBACK, transaction.getStatus());
+        Mockito.verify(resourceOne, Mockito.never()).rollback(Mockito.any());
+
+        transaction.rollback();
+        Mockito.verify(resourceOne).rollback(Mockito.any());
+    }
+
+    @Test
+    public void testTimedOutBusy() throws Exception {
+        final ReentrantLock lock = ReflectionTestUtils.getField(transaction, "lock");
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread other = new Thread(() -> {
+            lock.lock();
+            try {
+                locked.countDown();
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock();
+            }
+        });
+        other.start();
+        locked.await();
+
+        // Busy; should be retried
+        Assert.assertFalse(transaction.timedOut());
+        Assert.assertEquals(Status.STATUS_ACTIVE, transaction.getStatus());
+
+        release.countDown();
+        other.join();
+        Assert.assertTrue(transaction.timedOut());
+        Assert.assertEquals(Status.STATUS_MARKED_ROLLBACK, transaction.getStatus());
+    }
+
+    @Test
+    public void testTimedOutRollbackFailure() throws Exception {
+        Mockito.doThrow(new XAException("Fail")).doNothing().when(resourceTwo).rollback(Mockito.any());
+        transaction.setCompletionExecutor(Runnable::run);
+        transaction.timedOut();
+        transaction.rollback();
+
+        InOrder ordered = Mockito.inOrder(transactionStore, resourceOne, resourceTwo, resourceThree);
+        verifySetup(ordered);
+
+        // Timeout
+        ordered.verify(transactionStore).rollingBack(branchXidOne, "resourceOne");
+        ordered.verify(resourceOne).end(branchXidOne, XAResource.TMFAIL);
+        ordered.verify(resourceOne).rollback(branchXidOne);
+        ordered.verify(transactionStore).rolledBack(branchXidOne, "resourceOne");
+        ordered.verify(transactionStore).rollingBack(branchXidTwo, "resourceTwo");
+        ordered.verify(resourceTwo).end(branchXidTwo, XAResource.TMFAIL);
+        ordered.verify(resourceTwo).rollback(branchXidTwo);
+        ordered.verify(transactionStore).rollingBack(branchXidThree, "resourceThree");
+        ordered.verify(resourceThree).end(branchXidThree, XAResource.TMFAIL);
+        ordered.verify(resourceThree).rollback(branchXidThree);
+        ordered.verify(transactionStore).rolledBack(branchXidThree, "resourceThree");
+        ordered.verify(transactionStore).transactionTimedOut(transaction);
+
+        // Rollback (retry failed branch)
+        ordered.verify(transactionStore).rollingBack(globalXid);
+        ordered.verify(transactionStore).rollingBack(branchXidTwo, "resourceTwo");
+        ordered.verify(resourceTwo).rollback(branchXidTwo);
+        ordered.verify(transactionStore).rolledBack(branchXidTwo, "resourceTwo");
+        ordered.verify(transactionStore).rolledBack(globalXid);
+
+        ordered.verify(transactionStore).transactionCompleted(transaction);
+        Mockito.verifyNoMoreInteractions(transactionStore, resourceOne, resourceTwo, resourceThree);
+    }
+
     @Test
     public void testStoreRollingBackFailure() throws Exception {
         Mockito.doThrow(new JtaTransactionStoreException("Fail")).when(transactionStore).rollingBack(globalXid);
@@ -39,11 +39,11 @@ public class JtaTransactionSinglePhaseTest {
         transactionManager.begin();
         transaction = transactionManager.getTransaction();
         Assert.assertEquals(Status.STATUS_ACTIVE, transaction.getStatus());
-        globalXid = ReflectionTestUtils.getField(transaction, "globalXid");
 
         resourceOne = Mockito.mock(XAResource.class);
 
         transaction.enlistResource(new XAResourceAdapter("resourceOne", true, false, resourceOne));
+        globalXid = ReflectionTestUtils.getField(transaction, "globalXid");
     }
 
     private void verifySetup(InOrder ordered) throws JtaTransactionStoreException, XAException {
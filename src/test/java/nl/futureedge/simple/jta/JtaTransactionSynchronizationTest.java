@@ -42,12 +42,12 @@ public class JtaTransactionSynchronizationTest {
         transactionManager.begin();
         transaction = transactionManager.getTransaction();
         Assert.assertEquals(Status.STATUS_ACTIVE, transaction.getStatus());
-        globalXid = ReflectionTestUtils.getField(transaction, "globalXid");
 
         resourceOne = Mockito.mock(XAResource.class);
         resourceTwo = Mockito.mock(XAResource.class);
         transaction.enlistResource(new XAResourceAdapter("resourceOne", false, false, resourceOne));
         transaction.enlistResource(new XAResourceAdapter("resourceTwo", false, false, resourceTwo));
+        globalXid = ReflectionTestUtils.getField(transaction, "globalXid");
 
         synchronization = Mockito.mock(Synchronization.class);
         transaction.registerSynchronization(synchronization);
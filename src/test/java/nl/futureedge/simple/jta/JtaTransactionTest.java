@@ -40,7 +40,6 @@ public class JtaTransactionTest {
         transactionManager.begin();
         transaction = transactionManager.getTransaction();
         Assert.assertEquals(Status.STATUS_ACTIVE, transaction.getStatus());
-        globalXid = ReflectionTestUtils.getField(transaction, "globalXid");
 
         resourceOne = Mockito.mock(XAResource.class);
         resourceTwo = Mockito.mock(XAResource.class);
@@ -49,6 +48,7 @@ public class JtaTransactionTest {
         transaction.enlistResource(new XAResourceAdapter("resourceOne", true, false, resourceOne));
         transaction.enlistResource(new XAResourceAdapter("resourceTwo", true, false, resourceTwo));
         transaction.enlistResource(new XAResourceAdapter("resourceThree", true, false, resourceThree));
+        globalXid = ReflectionTestUtils.getField(transaction, "globalXid");
     }
 
     @Test
@@ -333,6 +333,22 @@ public class JtaTransactionTest {
         Assert.assertNull(transaction.getConnections(otherKey));
     }
 
+    @Test
+    public void testLastConnection() {
+        final Object key = new Object();
+        final Object connection = new Object();
+        final Object otherConnection = new Object();
+
+        Assert.assertNull(transaction.getLastConnection(key));
+        transaction.setLastConnection(key, connection);
+        Assert.assertSame(connection, transaction.getLastConnection(key));
+        Assert.assertNull(transaction.getLastConnection(new Object()));
+        Assert.assertNull(transaction.getLastConnection(null));
+
+        transaction.setLastConnection(new Object(), otherConnection);
+        Assert.assertNull(transaction.getLastConnection(key));
+    }
+
     @Test
     public void testEquals() throws Exception {
         final JtaTransaction one = new JtaTransaction(new GlobalJtaXid("test", 1L), 0, transactionStore);
@@ -0,0 +1,158 @@
+package nl.futureedge.simple.jta;
+
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import nl.futureedge.simple.jta.store.JtaTransactionStore;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+public class JtaTransactionWriteTrackingTest {
+
+    private XAResource resourceOne;
+    private XAResourceAdapter adapterOne;
+    private XAResource resourceTwo;
+    private XAResourceAdapter adapterTwo;
+    private XAResource resourceThree;
+    private XAResourceAdapter adapterThree;
+
+    private JtaTransactionStore transactionStore;
+    private JtaTransactionManager transactionManager;
+    private JtaTransaction transaction;
+
+    @Before
+    public void setup() throws Exception {
+        transactionStore = Mockito.mock(JtaTransactionStore.class);
+        transactionManager = new JtaTransactionManager();
+        transactionManager.setUniqueName("tm");
+        transactionManager.setJtaTransactionStore(transactionStore);
+        transactionManager.afterPropertiesSet();
+
+        transactionManager.begin();
+        transaction = transactionManager.getTransaction();
+
+        resourceOne = Mockito.mock(XAResource.class);
+        adapterOne = new XAResourceAdapter("resourceOne", true, false, true, resourceOne);
+        resourceTwo = Mockito.mock(XAResource.class);
+        adapterTwo = new XAResourceAdapter("resourceTwo", true, false, true, resourceTwo);
+        resourceThree = Mockito.mock(XAResource.class);
+        adapterThree = new XAResourceAdapter("resourceThree", true, false, true, resourceThree);
+    }
+
+    @After
+    public void destroy() throws Exception {
+        transactionManager.destroy();
+    }
+
+    @Test
+    public void testOnlyOneBranchWritten() throws Exception {
+        transaction.enlistResource(adapterOne);
+        transaction.enlistResource(adapterTwo);
+        adapterTwo.markWritten();
+
+        transaction.commit();
+        Assert.assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
+
+        InOrder ordered = Mockito.inOrder(resourceOne, resourceTwo);
+        ordered.verify(resourceOne).end(Mockito.any(), Mockito.eq(XAResource.TMSUCCESS));
+        ordered.verify(resourceOne).commit(Mockito.any(), Mockito.eq(true));
+        ordered.verify(resourceTwo).end(Mockito.any(), Mockito.eq(XAResource.TMSUCCESS));
+        ordered.verify(resourceTwo).commit(Mockito.any(), Mockito.eq(true));
+        Mockito.verify(resourceOne, Mockito.never()).prepare(Mockito.any());
+        Mockito.verify(resourceTwo, Mockito.never()).prepare(Mockito.any());
+    }
+
+    @Test
+    public void testNoBranchWritten() throws Exception {
+        transaction.enlistResource(adapterOne);
+        transaction.enlistResource(adapterTwo);
+
+        transaction.commit();
+        Assert.assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
+
+        Mockito.verify(resourceOne).commit(Mockito.any(), Mockito.eq(true));
+        Mockito.verify(resourceTwo).commit(Mockito.any(), Mockito.eq(true));
+        Mockito.verify(resourceOne, Mockito.never()).prepare(Mockito.any());
+        Mockito.verify(resourceTwo, Mockito.never()).prepare(Mockito.any());
+    }
+
+    @Test
+    public void testMultipleBranchesWritten() throws Exception {
+        transaction.enlistResource(adapterOne);
+        transaction.enlistResource(adapterTwo);
+        transaction.enlistResource(adapterThree);
+        adapterOne.markWritten();
+        adapterThree.markWritten();
+
+        transaction.commit();
+        Assert.assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
+
+        InOrder ordered = Mockito.inOrder(resourceOne, resourceTwo, resourceThree);
+        ordered.verify(resourceTwo).commit(Mockito.any(), Mockito.eq(true));
+        ordered.verify(resourceOne).prepare(Mockito.any());
+        ordered.verify(resourceThree).prepare(Mockito.any());
+        ordered.verify(resourceOne).commit(Mockito.any(), Mockito.eq(false));
+        ordered.verify(resourceThree).commit(Mockito.any(), Mockito.eq(false));
+        Mockito.verify(resourceTwo, Mockito.never()).prepare(Mockito.any());
+    }
+
+    @Test
+    public void testWriteThroughJoinedResource() throws Exception {
+        final XAResource joiningResource = Mockito.mock(XAResource.class);
+        final XAResourceAdapter joiningAdapter = new XAResourceAdapter("resourceOne", true, false, true, joiningResource);
+
+        transaction.enlistResource(adapterOne);
+        transaction.enlistResource(adapterTwo);
+        transaction.enlistResource(joiningAdapter);
+        adapterTwo.markWritten();
+        joiningAdapter.markWritten();
+
+        transaction.commit();
+        Assert.assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
+
+        Mockito.verify(joiningResource).start(Mockito.any(), Mockito.eq(XAResource.TMJOIN));
+        Mockito.verify(resourceOne).prepare(Mockito.any());
+        Mockito.verify(resourceTwo).prepare(Mockito.any());
+    }
+
+    @Test
+    public void testNotTracked() throws Exception {
+        transaction.enlistResource(adapterOne);
+        transaction.enlistResource(new XAResourceAdapter("resourceTwo", true, false, resourceTwo));
+        adapterOne.markWritten();
+
+        transaction.commit();
+        Assert.assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
+
+        Mockito.verify(resourceOne).prepare(Mockito.any());
+        Mockito.verify(resourceTwo).prepare(Mockito.any());
+    }
+
+    @Test
+    public void testReleaseFailure() throws Exception {
+        Mockito.doThrow(new XAException("Fail")).when(resourceOne).commit(Mockito.any(), Mockito.eq(true));
+
+        transaction.enlistResource(adapterOne);
+        transaction.enlistResource(adapterTwo);
+        adapterTwo.markWritten();
+
+        try {
+            transaction.commit();
+            Assert.fail("RollbackException expected");
+        } catch (final RollbackException e) {
+            // Expected
+        }
+        Assert.assertEquals(Status.STATUS_ROLLEDBACK, transaction.getStatus());
+
+        Mockito.verify(resourceOne).rollback(Mockito.any());
+        Mockito.verify(resourceTwo).end(Mockito.any(), Mockito.eq(XAResource.TMFAIL));
+        Mockito.verify(resourceTwo).rollback(Mockito.any());
+        Mockito.verify(resourceTwo, Mockito.never()).commit(Mockito.any(), Mockito.anyBoolean());
+    }
+}
@@ -0,0 +1,40 @@
+package nl.futureedge.simple.jta.context;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Test holder that behaves like a {@code ScopedValue} based holder: a context is only available within {@link #callInContext(Callable)}.
+ */
+public final class ScopedTransactionContextHolder implements JtaTransactionContextHolder {
+
+    private final ThreadLocal<JtaTransactionContext> bound = new ThreadLocal<>();
+
+    @Override
+    public JtaTransactionContext getContext(final boolean create) {
+        final JtaTransactionContext result = bound.get();
+        if (result == null && create) {
+            throw new IllegalStateException("No transaction context bound");
+        }
+        return result;
+    }
+
+    @Override
+    public void releaseContext() {
+        // Context is released when the scope ends
+    }
+
+    @Override
+    public <T> T callInContext(final Callable<T> task) throws Exception {
+        final JtaTransactionContext previous = bound.get();
+        bound.set(new JtaTransactionContext());
+        try {
+            return task.call();
+        } finally {
+            if (previous == null) {
+                bound.remove();
+            } else {
+                bound.set(previous);
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package nl.futureedge.simple.jta.context;
+
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ThreadLocalTransactionContextHolderTest {
+
+    @Test
+    public void test() {
+        final ThreadLocalTransactionContextHolder holder = new ThreadLocalTransactionContextHolder();
+        Assert.assertNull(holder.getContext(false));
+
+        final JtaTransactionContext context = holder.getContext(true);
+        Assert.assertNotNull(context);
+        Assert.assertTrue(context.isEmpty());
+        Assert.assertSame(context, holder.getContext(false));
+        Assert.assertSame(context, holder.getContext(true));
+
+        context.setTimeoutInSeconds(10);
+        Assert.assertFalse(context.isEmpty());
+        Assert.assertEquals(Integer.valueOf(10), context.getTimeoutInSeconds());
+
+        holder.releaseContext();
+        Assert.assertNull(holder.getContext(false));
+    }
+
+    @Test
+    public void testCarrierThread() throws Exception {
+        final ThreadLocalTransactionContextHolder holder = new ThreadLocalTransactionContextHolder();
+        final JtaTransactionContextThreadFactory threadFactory = new JtaTransactionContextThreadFactory("test-", true);
+        final AtomicReference<JtaTransactionContext> before = new AtomicReference<>();
+        final AtomicReference<JtaTransactionContext> after = new AtomicReference<>();
+
+        final Thread thread = threadFactory.newThread(() -> {
+            before.set(holder.getContext(false));
+            holder.releaseContext();
+            after.set(holder.getContext(false));
+        });
+        Assert.assertEquals("test-1", thread.getName());
+        Assert.assertTrue(thread.isDaemon());
+        Assert.assertTrue(thread instanceof JtaTransactionContextCarrier);
+
+        thread.start();
+        thread.join();
+
+        // Carrier threads always have their own context
+        Assert.assertSame(((JtaTransactionContextCarrier) thread).getJtaTransactionContext(holder), before.get());
+        Assert.assertSame(before.get(), after.get());
+    }
+
+    @Test
+    public void testCarrierThreadOtherHolder() throws Exception {
+        final ThreadLocalTransactionContextHolder holder = new ThreadLocalTransactionContextHolder();
+        final ThreadLocalTransactionContextHolder other = new ThreadLocalTransactionContextHolder();
+        final JtaTransactionContextThreadFactory threadFactory = new JtaTransactionContextThreadFactory("test-", true);
+        final AtomicReference<JtaTransactionContext> carried = new AtomicReference<>();
+        final AtomicReference<JtaTransactionContext> otherBefore = new AtomicReference<>();
+        final AtomicReference<JtaTransactionContext> otherCreated = new AtomicReference<>();
+        final AtomicReference<JtaTransactionContext> otherAfter = new AtomicReference<>();
+
+        final Thread thread = threadFactory.newThread(() -> {
+            carried.set(holder.getContext(true));
+            carried.get().setTimeoutInSeconds(10);
+            // Other holder (transaction manager) on the same thread does not see (or overwrite) the carried context
+            otherBefore.set(other.getContext(false));
+            otherCreated.set(other.getContext(true));
+            otherCreated.get().setTimeoutInSeconds(20);
+            other.releaseContext();
+            otherAfter.set(other.getContext(false));
+        });
+        thread.start();
+        thread.join();
+
+        Assert.assertSame(((JtaTransactionContextCarrier) thread).getJtaTransactionContext(holder), carried.get());
+        Assert.assertNull(otherBefore.get());
+        Assert.assertNotSame(carried.get(), otherCreated.get());
+        Assert.assertEquals(Integer.valueOf(10), carried.get().getTimeoutInSeconds());
+        Assert.assertNull(otherAfter.get());
+    }
+}
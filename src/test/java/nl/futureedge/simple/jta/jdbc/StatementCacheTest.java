@@ -0,0 +1,271 @@
+package nl.futureedge.simple.jta.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class StatementCacheTest {
+
+    private StatementCache subject;
+
+    @Before
+    public void setup() {
+        subject = new StatementCache(2);
+    }
+
+    private PreparedStatement prepare(final String sql, final PreparedStatement statement) throws SQLException {
+        return prepare(sql, ResultSet.TYPE_FORWARD_ONLY, statement);
+    }
+
+    private PreparedStatement prepare(final String sql, final int resultSetType, final PreparedStatement statement) throws SQLException {
+        return subject.prepareStatement(sql, resultSetType, ResultSet.CONCUR_READ_ONLY, StatementCache.DEFAULT_HOLDABILITY, () -> statement);
+    }
+
+    @Test
+    public void cached() throws SQLException {
+        final PreparedStatement statement = Mockito.mock(PreparedStatement.class);
+        final PreparedStatement first = prepare("select 1", statement);
+        first.setInt(1, 2);
+        first.executeQuery();
+        first.close();
+        Assert.assertTrue(first.isClosed());
+        Assert.assertEquals(1, subject.size());
+
+        Mockito.verify(statement).setInt(1, 2);
+        Mockito.verify(statement).clearParameters();
+        Mockito.verify(statement).clearBatch();
+        Mockito.verify(statement, Mockito.never()).close();
+
+        // Same statement returned (preparer not used)
+        final PreparedStatement second = prepare("select 1", null);
+        Assert.assertEquals(0, subject.size());
+        second.executeQuery();
+        Mockito.verify(statement, Mockito.times(2)).executeQuery();
+        second.close();
+        Assert.assertEquals(1, subject.size());
+    }
+
+    @Test
+    public void resultSetsClosed() throws SQLException {
+        final PreparedStatement statement = Mockito.mock(PreparedStatement.class);
+        final ResultSet query = Mockito.mock(ResultSet.class);
+        final ResultSet keys = Mockito.mock(ResultSet.class);
+        final ResultSet current = Mockito.mock(ResultSet.class);
+        Mockito.when(statement.executeQuery()).thenReturn(query);
+        Mockito.when(statement.getGeneratedKeys()).thenReturn(keys);
+
+        final PreparedStatement first = prepare("select 1", statement);
+        first.executeQuery();
+        first.getGeneratedKeys();
+        Mockito.when(statement.getResultSet()).thenReturn(current);
+        first.close();
+
+        // Result sets (left open by the caller) closed and warnings cleared before caching
+        Mockito.verify(query).close();
+        Mockito.verify(keys).close();
+        Mockito.verify(current).close();
+        Mockito.verify(statement).clearWarnings();
+        Mockito.verify(statement, Mockito.never()).close();
+        Assert.assertEquals(1, subject.size());
+    }
+
+    @Test
+    public void resultSetCloseFailed() throws SQLException {
+        final PreparedStatement statement = Mockito.mock(PreparedStatement.class);
+        final ResultSet query = Mockito.mock(ResultSet.class);
+        Mockito.when(statement.executeQuery()).thenReturn(query);
+        Mockito.doThrow(new SQLException("Fail")).when(query).close();
+
+        final PreparedStatement first = prepare("select 1", statement);
+        first.executeQuery();
+        first.close();
+
+        // Not reusable; closed instead of cached
+        Mockito.verify(statement).close();
+        Assert.assertEquals(0, subject.size());
+    }
+
+    @Test
+    public void uncachedClosedOnRelease() throws SQLException {
+        final Statement open = Mockito.mock(Statement.class);
+        Assert.assertSame(open, subject.register(open));
+        Assert.assertNull(subject.register(null));
+        // Statements closed by the caller are forgotten
+        for (int i = 0; i < 100; i++) {
+            final Statement closed = Mockito.mock(Statement.class);
+            Mockito.when(closed.isClosed()).thenReturn(true);
+            subject.register(closed);
+        }
+
+        subject.release();
+        Mockito.verify(open).close();
+        subject.release();
+        Mockito.verify(open, Mockito.times(1)).close();
+    }
+
+    @Test
+    public void handleIdentity() throws SQLException {
+        final PreparedStatement statement = Mockito.mock(PreparedStatement.class);
+        final PreparedStatement first = prepare("select 1", statement);
+        first.close();
+        // Closed handles are still equal to themselves; a new handle on the same statement is not
+        final PreparedStatement second = prepare("select 1", null);
+        Assert.assertEquals(first, first);
+        Assert.assertEquals(first.hashCode(), first.hashCode());
+        Assert.assertNotEquals(first, second);
+        Assert.assertNotEquals(first, statement);
+        Assert.assertTrue(second.toString().contains(statement.toString()));
+    }
+
+    @Test
+    public void closedHandle() throws SQLException {
+        final PreparedStatement first = prepare("select 1", Mockito.mock(PreparedStatement.class));
+        first.close();
+        first.close();
+        try {
+            first.executeQuery();
+            Assert.fail("SQLException expected");
+        } catch (final SQLException e) {
+            // Expected
+        }
+        Assert.assertEquals(1, subject.size());
+    }
+
+    @Test
+    public void key() throws SQLException {
+        final PreparedStatement forwardOnly = Mockito.mock(PreparedStatement.class);
+        final PreparedStatement scrollable = Mockito.mock(PreparedStatement.class);
+        prepare("select 1", forwardOnly).close();
+        prepare("select 1", ResultSet.TYPE_SCROLL_INSENSITIVE, scrollable).close();
+        Assert.assertEquals(2, subject.size());
+
+        final PreparedStatement result = prepare("select 1", ResultSet.TYPE_SCROLL_INSENSITIVE, null);
+        result.executeQuery();
+        Mockito.verify(scrollable).executeQuery();
+        Mockito.verify(forwardOnly, Mockito.never()).executeQuery();
+    }
+
+    @Test
+    public void leastRecentlyUsed() throws SQLException {
+        final PreparedStatement one = Mockito.mock(PreparedStatement.class);
+        final PreparedStatement two = Mockito.mock(PreparedStatement.class);
+        final PreparedStatement three = Mockito.mock(PreparedStatement.class);
+        prepare("select 1", one).close();
+        prepare("select 2", two).close();
+
+        // Use one; two is now the least recently used
+        prepare("select 1", null).close();
+        prepare("select 3", three).close();
+
+        Assert.assertEquals(2, subject.size());
+        Mockito.verify(two).close();
+        Mockito.verify(one, Mockito.never()).close();
+        Mockito.verify(three, Mockito.never()).close();
+    }
+
+    @Test
+    public void duplicate() throws SQLException {
+        final PreparedStatement one = Mockito.mock(PreparedStatement.class);
+        final PreparedStatement two = Mockito.mock(PreparedStatement.class);
+        final PreparedStatement first = prepare("select 1", one);
+        final PreparedStatement second = prepare("select 1", two);
+        first.close();
+        second.close();
+
+        Assert.assertEquals(1, subject.size());
+        Mockito.verify(one, Mockito.never()).close();
+        Mockito.verify(two).close();
+    }
+
+    @Test
+    public void settingsRestored() throws SQLException {
+        final PreparedStatement statement = Mockito.mock(PreparedStatement.class);
+        Mockito.when(statement.getMaxRows()).thenReturn(0);
+        Mockito.when(statement.getQueryTimeout()).thenReturn(30);
+        Mockito.when(statement.getFetchSize()).thenReturn(10);
+        Mockito.when(statement.getFetchDirection()).thenReturn(ResultSet.FETCH_FORWARD);
+        final PreparedStatement first = prepare("select 1", statement);
+        first.setMaxRows(5);
+        first.setMaxRows(6);
+        first.setQueryTimeout(1);
+        first.setFetchSize(100);
+        first.setFetchDirection(ResultSet.FETCH_REVERSE);
+        first.setEscapeProcessing(false);
+        first.close();
+        Assert.assertEquals(1, subject.size());
+
+        // Values before the first change are restored
+        Mockito.verify(statement).setMaxRows(0);
+        Mockito.verify(statement).setQueryTimeout(30);
+        Mockito.verify(statement).setFetchSize(10);
+        Mockito.verify(statement).setFetchDirection(ResultSet.FETCH_FORWARD);
+        Mockito.verify(statement).setEscapeProcessing(true);
+        Mockito.verify(statement, Mockito.never()).setMaxFieldSize(Mockito.anyInt());
+        Mockito.verify(statement, Mockito.never()).close();
+
+        // Unchanged settings are not restored on the next use
+        prepare("select 1", null).close();
+        Mockito.verify(statement, Mockito.times(1)).setMaxRows(0);
+    }
+
+    @Test
+    public void settingsNotRestorable() throws SQLException {
+        final PreparedStatement cursor = Mockito.mock(PreparedStatement.class);
+        final PreparedStatement closeOnCompletion = Mockito.mock(PreparedStatement.class);
+        final PreparedStatement first = prepare("select 1", cursor);
+        first.setCursorName("cursor");
+        first.close();
+        final PreparedStatement second = prepare("select 2", closeOnCompletion);
+        second.closeOnCompletion();
+        second.close();
+
+        Assert.assertEquals(0, subject.size());
+        Mockito.verify(cursor).close();
+        Mockito.verify(closeOnCompletion).close();
+    }
+
+    @Test
+    public void settingsRestoreFailed() throws SQLException {
+        final PreparedStatement statement = Mockito.mock(PreparedStatement.class);
+        Mockito.doNothing().doThrow(new SQLException("Fail")).when(statement).setQueryTimeout(Mockito.anyInt());
+        final PreparedStatement first = prepare("select 1", statement);
+        first.setQueryTimeout(1);
+        first.close();
+
+        Assert.assertEquals(0, subject.size());
+        Mockito.verify(statement).close();
+    }
+
+    @Test
+    public void closedStatement() throws SQLException {
+        final PreparedStatement statement = Mockito.mock(PreparedStatement.class);
+        Mockito.when(statement.isClosed()).thenReturn(true);
+        prepare("select 1", statement).close();
+        Assert.assertEquals(0, subject.size());
+    }
+
+    @Test
+    public void release() throws SQLException {
+        final PreparedStatement open = Mockito.mock(PreparedStatement.class);
+        final PreparedStatement cached = Mockito.mock(PreparedStatement.class);
+        final PreparedStatement handle = prepare("select 1", open);
+        prepare("select 2", cached).close();
+
+        subject.release();
+        Mockito.verify(open).close();
+        Mockito.verify(cached, Mockito.never()).close();
+
+        // Closing after release does not cache the (closed) statement
+        handle.close();
+        Assert.assertEquals(1, subject.size());
+
+        subject.close();
+        Mockito.verify(cached).close();
+        Assert.assertEquals(0, subject.size());
+    }
+}
@@ -0,0 +1,152 @@
+package nl.futureedge.simple.jta.jdbc;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import javax.sql.XAConnection;
+import javax.transaction.xa.XAResource;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+public class UnmanagedConnectionAdapterTest {
+
+    private Connection connection;
+    private XAConnection xaConnection;
+    private XAConnectionPool pool;
+
+    @Before
+    public void setup() throws Exception {
+        connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.getAutoCommit()).thenReturn(true);
+        Mockito.when(connection.getTransactionIsolation()).thenReturn(Connection.TRANSACTION_READ_COMMITTED);
+        Mockito.when(connection.isValid(Mockito.anyInt())).thenReturn(true);
+        xaConnection = Mockito.mock(XAConnection.class);
+        Mockito.when(xaConnection.getConnection()).thenReturn(connection);
+        Mockito.when(xaConnection.getXAResource()).thenReturn(Mockito.mock(XAResource.class));
+
+        pool = new XAConnectionPool("test", () -> xaConnection, xa -> new XAResourceAdapter("test", false, false, xa.getXAResource()), 0, 1, 1, 0, 5, 1);
+        pool.start();
+    }
+
+    @After
+    public void destroy() {
+        pool.close();
+    }
+
+    @Test
+    public void notPooled() throws Exception {
+        final UnmanagedConnectionAdapter subject = new UnmanagedConnectionAdapter(xaConnection);
+        subject.setAutoCommit(false);
+        subject.close();
+
+        Mockito.verify(connection).setAutoCommit(false);
+        Mockito.verify(connection, Mockito.never()).rollback();
+        Mockito.verify(xaConnection).close();
+    }
+
+    @Test
+    public void pooledUnchanged() throws Exception {
+        final UnmanagedConnectionAdapter subject = new UnmanagedConnectionAdapter(pool.borrow());
+        subject.createStatement();
+        subject.close();
+        Assert.assertTrue(subject.isClosed());
+
+        Mockito.verify(connection).createStatement();
+        Mockito.verify(connection, Mockito.atLeastOnce()).getAutoCommit();
+        Mockito.verify(connection, Mockito.never()).rollback();
+        Mockito.verify(xaConnection, Mockito.never()).close();
+        Assert.assertEquals(1, pool.getIdle());
+    }
+
+    @Test
+    public void pooledReset() throws Exception {
+        final UnmanagedConnectionAdapter subject = new UnmanagedConnectionAdapter(pool.borrow());
+        subject.setAutoCommit(false);
+        subject.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        subject.setReadOnly(true);
+        Mockito.when(connection.getAutoCommit()).thenReturn(false);
+        Mockito.when(connection.getTransactionIsolation()).thenReturn(Connection.TRANSACTION_SERIALIZABLE);
+        Mockito.when(connection.isReadOnly()).thenReturn(true);
+        subject.close();
+        subject.close();
+
+        // Uncommitted work rolled back; session state restored by the pool
+
+        final InOrder ordered = Mockito.inOrder(connection);
+        ordered.verify(connection).setAutoCommit(false);
+        ordered.verify(connection).setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        ordered.verify(connection).setReadOnly(true);
+        ordered.verify(connection).rollback();
+        ordered.verify(connection).setAutoCommit(true);
+        ordered.verify(connection).setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+        ordered.verify(connection).setReadOnly(false);
+        Mockito.verify(xaConnection, Mockito.never()).close();
+        Assert.assertEquals(1, pool.getIdle());
+    }
+
+    @Test
+    public void pooledStatementsClosed() throws Exception {
+        final Statement statement = Mockito.mock(Statement.class);
+        final CallableStatement callable = Mockito.mock(CallableStatement.class);
+        final PreparedStatement keys = Mockito.mock(PreparedStatement.class);
+        final PreparedStatement closed = Mockito.mock(PreparedStatement.class);
+        Mockito.when(connection.createStatement()).thenReturn(statement);
+        Mockito.when(connection.prepareCall("{call test}")).thenReturn(callable);
+        Mockito.when(connection.prepareStatement("insert", Statement.RETURN_GENERATED_KEYS)).thenReturn(keys);
+        Mockito.when(connection.prepareStatement("select 1")).thenReturn(closed);
+        Mockito.when(closed.isClosed()).thenReturn(true);
+
+        final UnmanagedConnectionAdapter subject = new UnmanagedConnectionAdapter(pool.borrow());
+        subject.createStatement();
+        subject.prepareCall("{call test}");
+        subject.prepareStatement("insert", Statement.RETURN_GENERATED_KEYS);
+        subject.prepareStatement("select 1").close();
+        subject.close();
+
+        // Handle kept open (statement cache); statements left open by the caller closed
+        Mockito.verify(connection, Mockito.never()).close();
+        Mockito.verify(statement).close();
+        Mockito.verify(callable).close();
+        Mockito.verify(keys).close();
+        Mockito.verify(closed, Mockito.times(1)).close();
+        Assert.assertEquals(1, pool.getIdle());
+    }
+
+    @Test
+    public void pooledResetFailed() throws Exception {
+        final UnmanagedConnectionAdapter subject = new UnmanagedConnectionAdapter(pool.borrow());
+        Mockito.when(connection.getAutoCommit()).thenReturn(false);
+        Mockito.doThrow(new SQLException("Fail")).when(connection).rollback();
+        subject.close();
+
+        Mockito.verify(xaConnection).close();
+        Assert.assertEquals(0, pool.getSize());
+    }
+
+    @Test
+    public void pooledClosed() throws Exception {
+        final UnmanagedConnectionAdapter subject = new UnmanagedConnectionAdapter(pool.borrow());
+        subject.close();
+
+        try {
+            subject.createStatement();
+            Assert.fail("SQLException expected");
+        } catch (final SQLException e) {
+            // Expected
+        }
+        try {
+            subject.setClientInfo("name", "value");
+            Assert.fail("SQLException expected");
+        } catch (final SQLException e) {
+            // Expected
+        }
+        Mockito.verify(connection, Mockito.never()).createStatement();
+    }
+}
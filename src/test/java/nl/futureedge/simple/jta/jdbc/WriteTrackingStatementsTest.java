@@ -0,0 +1,144 @@
+package nl.futureedge.simple.jta.jdbc;
+
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import javax.transaction.xa.XAResource;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class WriteTrackingStatementsTest {
+
+    private XAResourceAdapter xaResource;
+
+    @Before
+    public void setup() {
+        xaResource = new XAResourceAdapter("resourceManager", false, false, true, Mockito.mock(XAResource.class));
+    }
+
+    @Test
+    public void isWrite() {
+        Assert.assertFalse(WriteTrackingStatements.isWrite("select * from table"));
+        Assert.assertFalse(WriteTrackingStatements.isWrite("  SELECT id\nFROM table WHERE id = ?"));
+        Assert.assertFalse(WriteTrackingStatements.isWrite("-- comment\n/* comment */ (select 1) union (select 2)"));
+        Assert.assertFalse(WriteTrackingStatements.isWrite("select count(*), max(id) from table where id in (1, 2) and exists (select 1 from other)"));
+        Assert.assertFalse(WriteTrackingStatements.isWrite("select id from table;"));
+
+        Assert.assertTrue(WriteTrackingStatements.isWrite(null));
+        Assert.assertTrue(WriteTrackingStatements.isWrite("insert into table values (1)"));
+        Assert.assertTrue(WriteTrackingStatements.isWrite("update table set id = 2"));
+        Assert.assertTrue(WriteTrackingStatements.isWrite("select * into copy from table"));
+        Assert.assertTrue(WriteTrackingStatements.isWrite("with cte as (select 1) delete from table"));
+        Assert.assertTrue(WriteTrackingStatements.isWrite("selection_procedure()"));
+    }
+
+    @Test
+    public void isWriteLocking() {
+        Assert.assertTrue(WriteTrackingStatements.isWrite("select id from table for update"));
+        Assert.assertTrue(WriteTrackingStatements.isWrite("select id from table where id = ? FOR UPDATE OF table NOWAIT"));
+        Assert.assertTrue(WriteTrackingStatements.isWrite("select id from table for share"));
+        Assert.assertTrue(WriteTrackingStatements.isWrite("select id from table for no key update"));
+        Assert.assertTrue(WriteTrackingStatements.isWrite("select id from table for key share"));
+        Assert.assertTrue(WriteTrackingStatements.isWrite("select id from table lock in share mode"));
+        Assert.assertTrue(WriteTrackingStatements.isWrite("select id from table with (updlock)"));
+    }
+
+    @Test
+    public void isWriteFunctionCall() {
+        Assert.assertTrue(WriteTrackingStatements.isWrite("select my_function(1)"));
+        Assert.assertTrue(WriteTrackingStatements.isWrite("select nextval('sequence')"));
+        Assert.assertTrue(WriteTrackingStatements.isWrite("select id, audit.log_access (id) from table"));
+        Assert.assertTrue(WriteTrackingStatements.isWrite("select count(*) from table where id = next_id()"));
+    }
+
+    @Test
+    public void isWriteMultipleStatements() {
+        Assert.assertTrue(WriteTrackingStatements.isWrite("select 1; delete from table"));
+    }
+
+    @Test
+    public void statement() throws SQLException {
+        final Statement statement = Mockito.mock(Statement.class);
+        final Statement subject = WriteTrackingStatements.wrap(statement, xaResource);
+
+        subject.executeQuery("select 1");
+        subject.execute("select 2");
+        Mockito.verify(statement).executeQuery("select 1");
+        Mockito.verify(statement).execute("select 2");
+        Assert.assertFalse(xaResource.hasWritten());
+
+        subject.execute("delete from table");
+        Mockito.verify(statement).execute("delete from table");
+        Assert.assertTrue(xaResource.hasWritten());
+    }
+
+    @Test
+    public void statementIdentity() throws SQLException {
+        final Statement statement = Mockito.mock(Statement.class);
+        final Statement subject = WriteTrackingStatements.wrap(statement, xaResource);
+
+        Assert.assertEquals(subject, subject);
+        Assert.assertEquals(System.identityHashCode(subject), subject.hashCode());
+        Assert.assertNotEquals(subject, statement);
+        Assert.assertNotEquals(subject, WriteTrackingStatements.wrap(statement, xaResource));
+    }
+
+    @Test
+    public void statementBatch() throws SQLException {
+        final Statement statement = Mockito.mock(Statement.class);
+        final Statement subject = WriteTrackingStatements.wrap(statement, xaResource);
+
+        subject.addBatch("insert into table values (1)");
+        Assert.assertFalse(xaResource.hasWritten());
+        subject.executeBatch();
+        Assert.assertTrue(xaResource.hasWritten());
+    }
+
+    @Test
+    public void preparedStatement() throws SQLException {
+        final PreparedStatement statement = Mockito.mock(PreparedStatement.class);
+        final PreparedStatement subject = WriteTrackingStatements.wrap(statement, "select * from table where id = ?", xaResource);
+
+        subject.setInt(1, 3);
+        subject.executeQuery();
+        subject.execute();
+        Mockito.verify(statement).setInt(1, 3);
+        Assert.assertFalse(xaResource.hasWritten());
+
+        final PreparedStatement update = Mockito.mock(PreparedStatement.class);
+        Mockito.when(update.executeUpdate()).thenReturn(1);
+        Assert.assertEquals(1, WriteTrackingStatements.wrap(update, "update table set id = 4", xaResource).executeUpdate());
+        Assert.assertTrue(xaResource.hasWritten());
+    }
+
+    @Test
+    public void callableStatement() throws SQLException {
+        final CallableStatement statement = Mockito.mock(CallableStatement.class);
+        final CallableStatement subject = WriteTrackingStatements.wrap(statement, xaResource);
+
+        subject.execute();
+        Assert.assertTrue(xaResource.hasWritten());
+    }
+
+    @Test
+    public void exception() throws SQLException {
+        final Statement statement = Mockito.mock(Statement.class);
+        Mockito.when(statement.executeQuery("select 1")).thenThrow(new SQLException("Fail"));
+
+        try {
+            WriteTrackingStatements.wrap(statement, xaResource).executeQuery("select 1");
+            Assert.fail("SQLException expected");
+        } catch (final SQLException e) {
+            Assert.assertEquals("Fail", e.getMessage());
+        }
+    }
+
+    @Test
+    public void nullStatement() {
+        Assert.assertNull(WriteTrackingStatements.wrap((Statement) null, xaResource));
+    }
+}
@@ -14,13 +14,19 @@ import java.sql.SQLWarning;
 import java.sql.SQLXML;
 import java.sql.Statement;
 import java.sql.Struct;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.sql.XAConnection;
+import javax.transaction.xa.XAResource;
 import nl.futureedge.simple.jta.JtaTransactionManager;
 import nl.futureedge.simple.jta.store.JtaTransactionStore;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -109,6 +115,39 @@ public class XAConnectionAdapterTest {
         Assert.assertFalse(subject.reopen());
     }
 
+    @Test
+    public void testReopenConcurrently() throws Exception {
+        final int threads = 8;
+        for (int round = 0; round < 50; round++) {
+            subject.close();
+            final CountDownLatch start = new CountDownLatch(1);
+            final AtomicInteger reopened = new AtomicInteger();
+            final List<Thread> reopeners = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                final Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                        if (subject.reopen()) {
+                            reopened.incrementAndGet();
+                        }
+                    } catch (final Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                thread.start();
+                reopeners.add(thread);
+            }
+            start.countDown();
+            for (final Thread thread : reopeners) {
+                thread.join();
+            }
+
+            // Only one caller gets the connection
+            Assert.assertEquals(1, reopened.get());
+            Assert.assertFalse(subject.isClosed());
+        }
+    }
+
     @Test
     public void testIsWrapperFor() throws SQLException {
         Assert.assertFalse(subject.isWrapperFor(null));
@@ -641,5 +680,19 @@ public class XAConnectionAdapterTest {
                 () -> Mockito.verify(connection).setTypeMap(map)
         );
     }
-}
 
+    @Test
+    public void testWriteTrackingUpdatable() throws SQLException {
+        final XAResourceAdapter xaResource = new XAResourceAdapter("test", false, false, true, Mockito.mock(XAResource.class));
+        final XAConnectionAdapter tracking = new XAConnectionAdapter(xaConnection, null, xaResource);
+
+        tracking.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        tracking.prepareStatement("select 1", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        tracking.prepareCall("{call test}", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, ResultSet.HOLD_CURSORS_OVER_COMMIT);
+        Assert.assertFalse(xaResource.hasWritten());
+
+        // Updates through the result set are not visible to the statement
+        tracking.prepareStatement("select id from table", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
+        Assert.assertTrue(xaResource.hasWritten());
+    }
+}
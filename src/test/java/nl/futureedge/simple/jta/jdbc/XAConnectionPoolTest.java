@@ -0,0 +1,252 @@
+package nl.futureedge.simple.jta.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.sql.XAConnection;
+import javax.transaction.xa.XAResource;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class XAConnectionPoolTest {
+
+    private final List<XAConnection> xaConnections = new ArrayList<>();
+    private XAConnectionPool subject;
+
+    private XAConnection createXaConnection() throws SQLException {
+        final Connection connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.isValid(Mockito.anyInt())).thenReturn(true);
+        final XAConnection xaConnection = Mockito.mock(XAConnection.class);
+        Mockito.when(xaConnection.getConnection()).thenReturn(connection);
+        Mockito.when(xaConnection.getXAResource()).thenReturn(Mockito.mock(XAResource.class));
+        xaConnections.add(xaConnection);
+        return xaConnection;
+    }
+
+    private XAConnectionPool createPool(final int minSize, final int maxSize, final int maxWait, final int idleTimeout) {
+        return createPool(minSize, maxSize, maxWait, idleTimeout, 0);
+    }
+
+    private XAConnectionPool createPool(final int minSize, final int maxSize, final int maxWait, final int idleTimeout, final int statementCacheSize) {
+        return new XAConnectionPool("test", this::createXaConnection,
+                xaConnection -> new XAResourceAdapter("test", false, false, true, xaConnection.getXAResource()), minSize, maxSize, maxWait, idleTimeout, 5,
+                statementCacheSize);
+    }
+
+    @After
+    public void destroy() {
+        if (subject != null) {
+            subject.close();
+        }
+    }
+
+    @Test
+    public void reuse() throws Exception {
+        subject = createPool(0, 2, 1, 0);
+        subject.start();
+        Assert.assertEquals(0, subject.getSize());
+
+        final XAConnectionPool.PooledXAConnection pooled = subject.borrow();
+        Assert.assertEquals(1, subject.getSize());
+        Assert.assertNotNull(pooled.getConnection());
+        pooled.getXaResource().markWritten();
+        final Connection connection = pooled.getConnection();
+        pooled.release(true);
+
+        // Handle closed, physical connection kept
+        Mockito.verify(connection).close();
+        Mockito.verify(pooled.getXAConnection(), Mockito.never()).close();
+        Assert.assertEquals(1, subject.getIdle());
+        Assert.assertFalse(pooled.getXaResource().hasWritten());
+
+        final XAConnectionPool.PooledXAConnection reused = subject.borrow();
+        Assert.assertSame(pooled, reused);
+        Mockito.verify(connection).isValid(5);
+        Mockito.verify(reused.getXAConnection(), Mockito.times(2)).getConnection();
+        Assert.assertEquals(1, xaConnections.size());
+        reused.release(true);
+    }
+
+    @Test
+    public void reuseWithStatementCache() throws Exception {
+        subject = createPool(0, 2, 1, 0, 10);
+        subject.start();
+
+        final XAConnectionPool.PooledXAConnection pooled = subject.borrow();
+        Assert.assertNotNull(pooled.getStatementCache());
+        final Connection connection = pooled.getConnection();
+        final PreparedStatement statement = Mockito.mock(PreparedStatement.class);
+        Mockito.when(connection.prepareStatement("select 1")).thenReturn(statement);
+        pooled.getStatementCache().prepareStatement("select 1", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY,
+                StatementCache.DEFAULT_HOLDABILITY, () -> connection.prepareStatement("select 1")).close();
+        pooled.release(true);
+
+        // Handle kept open (with its statements)
+        Mockito.verify(connection, Mockito.never()).close();
+        Mockito.verify(statement, Mockito.never()).close();
+
+        final XAConnectionPool.PooledXAConnection reused = subject.borrow();
+        Assert.assertSame(pooled, reused);
+        Assert.assertSame(connection, reused.getConnection());
+        Assert.assertEquals(1, reused.getStatementCache().size());
+        Mockito.verify(reused.getXAConnection(), Mockito.times(1)).getConnection();
+
+        reused.release(false);
+        Mockito.verify(statement).close();
+        Mockito.verify(connection).close();
+    }
+
+    @Test
+    public void resetSessionState() throws Exception {
+        subject = createPool(0, 2, 1, 0, 10);
+        subject.start();
+
+        final XAConnectionPool.PooledXAConnection pooled = subject.borrow();
+        final Connection connection = pooled.getConnection();
+        Mockito.when(connection.getSchema()).thenReturn("initial");
+
+        // Session state changed by the application
+        Mockito.when(connection.getAutoCommit()).thenReturn(true);
+        Mockito.when(connection.getTransactionIsolation()).thenReturn(Connection.TRANSACTION_SERIALIZABLE);
+        Mockito.when(connection.isReadOnly()).thenReturn(true);
+        Mockito.when(connection.getCatalog()).thenReturn("other");
+        pooled.release(true);
+
+        Mockito.verify(connection).setAutoCommit(false);
+        Mockito.verify(connection).setTransactionIsolation(0);
+        Mockito.verify(connection).setReadOnly(false);
+        // Catalog and schema were not set initially
+        Mockito.verify(connection, Mockito.never()).setCatalog(Mockito.anyString());
+        Mockito.verify(connection, Mockito.never()).setSchema(Mockito.anyString());
+        Assert.assertEquals(1, subject.getIdle());
+
+        // Restore fails; connection destroyed
+        final XAConnectionPool.PooledXAConnection reused = subject.borrow();
+        Mockito.doThrow(new SQLException("Fail")).when(connection).setAutoCommit(false);
+        reused.release(true);
+        Mockito.verify(reused.getXAConnection()).close();
+        Assert.assertEquals(0, subject.getSize());
+    }
+
+    @Test
+    public void notReusable() throws Exception {
+        subject = createPool(0, 2, 1, 0);
+        subject.start();
+
+        final XAConnectionPool.PooledXAConnection pooled = subject.borrow();
+        pooled.release(false);
+
+        Mockito.verify(pooled.getXAConnection()).close();
+        Assert.assertEquals(0, subject.getSize());
+        Assert.assertEquals(0, subject.getIdle());
+    }
+
+    @Test
+    public void invalid() throws Exception {
+        subject = createPool(0, 2, 1, 0);
+        subject.start();
+
+        final XAConnectionPool.PooledXAConnection pooled = subject.borrow();
+        final Connection connection = pooled.getConnection();
+        pooled.release(true);
+        Mockito.when(connection.isValid(5)).thenReturn(false);
+
+        final XAConnectionPool.PooledXAConnection other = subject.borrow();
+        Assert.assertNotSame(pooled, other);
+        Mockito.verify(pooled.getXAConnection()).close();
+        Assert.assertEquals(1, subject.getSize());
+        other.release(true);
+    }
+
+    @Test
+    public void maxSize() throws Exception {
+        subject = createPool(0, 1, 1, 0);
+        subject.start();
+
+        final XAConnectionPool.PooledXAConnection pooled = subject.borrow();
+        final long start = System.nanoTime();
+        try {
+            subject.borrow();
+            Assert.fail("SQLException expected");
+        } catch (final SQLException e) {
+            // Expected
+        }
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+
+        // Waiting borrower receives the returned connection
+        final CompletableFuture<XAConnectionPool.PooledXAConnection> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return subject.borrow();
+            } catch (final SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        pooled.release(true);
+        Assert.assertSame(pooled, waiting.get(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, xaConnections.size());
+        pooled.release(true);
+    }
+
+    @Test
+    public void minSize() throws Exception {
+        subject = createPool(2, 3, 1, 0);
+        subject.start();
+        Assert.assertEquals(2, subject.getSize());
+        Assert.assertEquals(2, subject.getIdle());
+    }
+
+    @Test
+    public void idleTimeout() throws Exception {
+        subject = createPool(1, 3, 1, 1);
+        subject.start();
+
+        final XAConnectionPool.PooledXAConnection one = subject.borrow();
+        final XAConnectionPool.PooledXAConnection two = subject.borrow();
+        one.release(true);
+        two.release(true);
+        Assert.assertEquals(2, subject.getIdle());
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (subject.getSize() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(1, subject.getSize());
+        Assert.assertEquals(1, subject.getIdle());
+    }
+
+    @Test
+    public void close() throws Exception {
+        subject = createPool(0, 2, 1, 0);
+        subject.start();
+
+        final XAConnectionPool.PooledXAConnection idle = subject.borrow();
+        final XAConnectionPool.PooledXAConnection borrowed = subject.borrow();
+        idle.release(true);
+        subject.close();
+
+        Mockito.verify(idle.getXAConnection()).close();
+        Mockito.verify(borrowed.getXAConnection(), Mockito.never()).close();
+        borrowed.release(true);
+        Mockito.verify(borrowed.getXAConnection()).close();
+
+        try {
+            subject.borrow();
+            Assert.fail("SQLException expected");
+        } catch (final SQLException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSize() {
+        createPool(3, 2, 1, 0);
+    }
+}
@@ -2,16 +2,31 @@ package nl.futureedge.simple.jta.jdbc;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.function.LongSupplier;
+import javax.management.JMX;
+import javax.management.ObjectName;
+import javax.sql.DataSource;
 import javax.sql.XAConnection;
 import javax.sql.XADataSource;
+import javax.transaction.RollbackException;
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
 import javax.transaction.xa.Xid;
+import nl.futureedge.simple.jta.JtaTransaction;
 import nl.futureedge.simple.jta.JtaTransactionManager;
 import nl.futureedge.simple.jta.ReflectionTestUtils;
+import nl.futureedge.simple.jta.metrics.MetricsRegistry;
+import nl.futureedge.simple.jta.metrics.ResourceMetrics;
+import nl.futureedge.simple.jta.metrics.ResourceMetricsMXBean;
 import nl.futureedge.simple.jta.store.JtaTransactionStore;
+import org.hsqldb.jdbc.pool.JDBCXADataSource;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -227,6 +242,328 @@ public class XADataSourceAdapterTest {
         Mockito.verifyNoMoreInteractions(xaDataSource, xaConnection, xaResource, connection);
     }
 
+    @Test
+    public void getConnectionInTransactionLazyEnlistment() throws Exception {
+        subject.setLazyEnlistment(true);
+        transactionManager.begin();
+
+        Connection connection = Mockito.mock(Connection.class);
+        XAResource xaResource = Mockito.mock(XAResource.class);
+        XAConnection xaConnection = Mockito.mock(XAConnection.class);
+        Mockito.when(xaConnection.getConnection()).thenReturn(connection);
+        Mockito.when(xaConnection.getXAResource()).thenReturn(xaResource);
+        Mockito.when(xaDataSource.getXAConnection()).thenReturn(xaConnection);
+
+        Connection result = subject.getConnection();
+        Assert.assertTrue(result instanceof XAConnectionAdapter);
+        Assert.assertFalse(((XAConnectionAdapter) result).isEnlisted());
+
+        Mockito.verify(xaDataSource).getXAConnection();
+        Mockito.verify(xaConnection).getXAResource();
+        Mockito.verify(xaConnection).getConnection();
+        Mockito.verifyNoMoreInteractions(xaDataSource, xaConnection, xaResource, connection);
+
+        // First statement enlists
+        result.createStatement();
+        result.prepareStatement("sql");
+        Assert.assertTrue(((XAConnectionAdapter) result).isEnlisted());
+
+        Mockito.verify(xaResource).start(Mockito.any(), Mockito.eq(XAResource.TMNOFLAGS));
+        Mockito.verify(connection).createStatement();
+        Mockito.verify(connection, Mockito.times(2)).isClosed();
+        Mockito.verify(connection).prepareStatement("sql");
+        Mockito.verifyNoMoreInteractions(xaDataSource, xaConnection, xaResource, connection);
+    }
+
+    @Test
+    public void getConnectionInTransactionLazyEnlistmentUnused() throws Exception {
+        subject.setLazyEnlistment(true);
+        transactionManager.begin();
+
+        Connection connection = Mockito.mock(Connection.class);
+        XAResource xaResource = Mockito.mock(XAResource.class);
+        XAConnection xaConnection = Mockito.mock(XAConnection.class);
+        Mockito.when(xaConnection.getConnection()).thenReturn(connection);
+        Mockito.when(xaConnection.getXAResource()).thenReturn(xaResource);
+        Mockito.when(xaDataSource.getXAConnection()).thenReturn(xaConnection);
+
+        subject.getConnection().close();
+        transactionManager.commit();
+
+        // Never enlisted; connection closed after completion
+        Mockito.verify(xaDataSource).getXAConnection();
+        Mockito.verify(xaConnection).getXAResource();
+        Mockito.verify(xaConnection).getConnection();
+        Mockito.verify(xaConnection).close();
+        Mockito.verifyNoMoreInteractions(xaDataSource, xaConnection, xaResource, connection);
+    }
+
+    @Test
+    public void getConnectionInTransactionLazyEnlistmentFailed() throws Exception {
+        subject.setLazyEnlistment(true);
+        transactionManager.begin();
+
+        Connection connection = Mockito.mock(Connection.class);
+        XAResource xaResource = Mockito.mock(XAResource.class);
+        XAConnection xaConnection = Mockito.mock(XAConnection.class);
+        Mockito.when(xaConnection.getConnection()).thenReturn(connection);
+        Mockito.when(xaConnection.getXAResource()).thenReturn(xaResource);
+        Mockito.when(xaDataSource.getXAConnection()).thenReturn(xaConnection);
+        Mockito.doThrow(new XAException("Test")).when(xaResource).start(Mockito.any(), Mockito.eq(XAResource.TMNOFLAGS));
+
+        Connection result = subject.getConnection();
+        try {
+            result.createStatement();
+            Assert.fail("SQLException expected");
+        } catch (SQLException e) {
+            // Expected
+        }
+
+        Mockito.verify(xaResource).start(Mockito.any(), Mockito.eq(XAResource.TMNOFLAGS));
+        Mockito.verify(connection, Mockito.never()).createStatement();
+    }
+
+    @Test
+    public void getConnectionInTransactionWriteTracking() throws Exception {
+        subject.setWriteTracking(true);
+        transactionManager.begin();
+
+        Connection connection = Mockito.mock(Connection.class);
+        XAResource xaResource = Mockito.mock(XAResource.class);
+        XAConnection xaConnection = Mockito.mock(XAConnection.class);
+        Statement statement = Mockito.mock(Statement.class);
+        Mockito.when(xaConnection.getConnection()).thenReturn(connection);
+        Mockito.when(xaConnection.getXAResource()).thenReturn(xaResource);
+        Mockito.when(xaDataSource.getXAConnection()).thenReturn(xaConnection);
+        Mockito.when(connection.createStatement()).thenReturn(statement);
+
+        Connection result = subject.getConnection();
+        Statement resultStatement = result.createStatement();
+        Assert.assertNotSame(statement, resultStatement);
+        resultStatement.executeUpdate("delete from table");
+
+        Mockito.verify(statement).executeUpdate("delete from table");
+    }
+
+    @Test
+    public void getConnectionInTransactionPooled() throws Exception {
+        Connection connection = Mockito.mock(Connection.class);
+        XAResource xaResource = Mockito.mock(XAResource.class);
+        XAConnection xaConnection = Mockito.mock(XAConnection.class);
+        Mockito.when(connection.isValid(Mockito.anyInt())).thenReturn(true);
+        Mockito.when(xaConnection.getConnection()).thenReturn(connection);
+        Mockito.when(xaConnection.getXAResource()).thenReturn(xaResource);
+        Mockito.when(xaResource.recover(XAResource.TMENDRSCAN)).thenReturn(new Xid[]{});
+        Mockito.when(xaDataSource.getXAConnection()).thenReturn(xaConnection);
+
+        subject.setMaxPoolSize(2);
+        subject.afterPropertiesSet();
+        try {
+            for (int i = 0; i < 3; i++) {
+                transactionManager.begin();
+                subject.getConnection().close();
+                transactionManager.commit();
+            }
+
+            // One physical connection for recovery, one (pooled) for the transactions
+            Mockito.verify(xaDataSource, Mockito.times(2)).getXAConnection();
+            Mockito.verify(xaConnection, Mockito.times(1)).close();
+            Mockito.verify(xaResource, Mockito.times(3)).start(Mockito.any(), Mockito.eq(XAResource.TMNOFLAGS));
+            Mockito.verify(xaResource, Mockito.times(3)).commit(Mockito.any(), Mockito.eq(true));
+            Mockito.verify(connection, Mockito.times(3)).close();
+        } finally {
+            subject.destroy();
+        }
+        Mockito.verify(xaConnection, Mockito.times(2)).close();
+    }
+
+    @Test
+    public void getConnectionInTransactionPooledRollbackFailed() throws Exception {
+        Connection connection = Mockito.mock(Connection.class);
+        XAResource xaResource = Mockito.mock(XAResource.class);
+        XAConnection xaConnection = Mockito.mock(XAConnection.class);
+        Mockito.when(xaConnection.getConnection()).thenReturn(connection);
+        Mockito.when(xaConnection.getXAResource()).thenReturn(xaResource);
+        Mockito.when(xaResource.recover(XAResource.TMENDRSCAN)).thenReturn(new Xid[]{});
+        Mockito.when(xaDataSource.getXAConnection()).thenReturn(xaConnection);
+        Mockito.doThrow(new XAException(XAException.XAER_RMFAIL)).when(xaResource).rollback(Mockito.any());
+
+        subject.setMaxPoolSize(2);
+        subject.afterPropertiesSet();
+        try {
+            transactionManager.begin();
+            subject.getConnection().close();
+            try {
+                transactionManager.rollback();
+            } catch (final Exception e) {
+                // Expected
+            }
+
+            // Not returned to the pool
+            Mockito.verify(xaConnection, Mockito.times(2)).close();
+        } finally {
+            subject.destroy();
+        }
+    }
+
+    @Test
+    public void getConnectionOutsideTransactionPooled() throws Exception {
+        subject.setAllowNonTransactedConnections("yes");
+
+        Connection connection = Mockito.mock(Connection.class);
+        XAResource xaResource = Mockito.mock(XAResource.class);
+        XAConnection xaConnection = Mockito.mock(XAConnection.class);
+        Mockito.when(connection.getAutoCommit()).thenReturn(true);
+        Mockito.when(connection.isValid(Mockito.anyInt())).thenReturn(true);
+        Mockito.when(xaConnection.getConnection()).thenReturn(connection);
+        Mockito.when(xaConnection.getXAResource()).thenReturn(xaResource);
+        Mockito.when(xaResource.recover(XAResource.TMENDRSCAN)).thenReturn(new Xid[]{});
+        Mockito.when(xaDataSource.getXAConnection()).thenReturn(xaConnection);
+
+        subject.setMaxPoolSize(1);
+        subject.afterPropertiesSet();
+        try {
+            for (int i = 0; i < 3; i++) {
+                subject.getConnection().close();
+            }
+            transactionManager.begin();
+            subject.getConnection().close();
+            transactionManager.commit();
+
+            // One physical connection for recovery, one (pooled) for the connections outside and inside the transaction
+            Mockito.verify(xaDataSource, Mockito.times(2)).getXAConnection();
+            Mockito.verify(xaConnection, Mockito.times(1)).close();
+        } finally {
+            subject.destroy();
+        }
+    }
+
+    @Test
+    public void metricsPooled() throws Exception {
+        subject.setAllowNonTransactedConnections("yes");
+
+        Connection connection = Mockito.mock(Connection.class);
+        XAResource xaResource = Mockito.mock(XAResource.class);
+        XAConnection xaConnection = Mockito.mock(XAConnection.class);
+        Mockito.when(connection.getAutoCommit()).thenReturn(true);
+        Mockito.when(connection.isValid(Mockito.anyInt())).thenReturn(true);
+        Mockito.when(xaConnection.getConnection()).thenReturn(connection);
+        Mockito.when(xaConnection.getXAResource()).thenReturn(xaResource);
+        Mockito.when(xaResource.recover(XAResource.TMENDRSCAN)).thenReturn(new Xid[]{});
+        Mockito.when(xaDataSource.getXAConnection()).thenReturn(xaConnection);
+
+        MetricsRegistry metricsRegistry = Mockito.mock(MetricsRegistry.class);
+        subject.setMetricsRegistry(metricsRegistry);
+        subject.setJmxEnabled(true);
+        subject.setMaxPoolSize(2);
+        subject.afterPropertiesSet();
+        ObjectName objectName = new ObjectName("nl.futureedge.simple.jta:type=Resource,name=\"testXaDataSource\"");
+        try {
+            for (int i = 0; i < 2; i++) {
+                transactionManager.begin();
+                subject.getConnection().close();
+                subject.getConnection().close();
+                transactionManager.commit();
+            }
+            subject.getConnection().close();
+
+            ResourceMetrics metrics = subject.getMetrics();
+            Assert.assertEquals(Long.valueOf(4), metrics.getCounters().get(ResourceMetrics.ACQUIRED));
+            Assert.assertEquals(Long.valueOf(2), metrics.getCounters().get(ResourceMetrics.REOPENED));
+            Assert.assertEquals(Long.valueOf(2), metrics.getCounters().get(ResourceMetrics.TRANSACTIONS));
+            Assert.assertEquals(Long.valueOf(2), metrics.getCounters().get(ResourceMetrics.ENLISTED));
+            Assert.assertEquals(Long.valueOf(1), metrics.getCounters().get(ResourceMetrics.NON_TRANSACTED));
+            Assert.assertEquals(4, metrics.getLatencies().get(ResourceMetrics.ACQUIRE).getCount());
+            Assert.assertEquals(3, metrics.getLatencies().get(ResourceMetrics.POOL_WAIT).getCount());
+            Assert.assertEquals(2, metrics.getLatencies().get(ResourceMetrics.ENLIST).getCount());
+            Assert.assertEquals(2, metrics.getLatencies().get(ResourceMetrics.CLOSE).getCount());
+            Assert.assertEquals(Long.valueOf(1), metrics.getGauges().get(ResourceMetrics.POOL_SIZE));
+            Assert.assertEquals(Long.valueOf(1), metrics.getGauges().get(ResourceMetrics.POOL_IDLE));
+
+            // JMX
+            ResourceMetricsMXBean mxBean = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(), objectName, ResourceMetricsMXBean.class);
+            Assert.assertEquals("testXaDataSource", mxBean.getResource());
+            Assert.assertEquals(Long.valueOf(4), mxBean.getCounters().get(ResourceMetrics.ACQUIRED));
+            Assert.assertEquals(2, mxBean.getLatencies().get(ResourceMetrics.ENLIST).getCount());
+
+            // Registry
+            Mockito.verify(metricsRegistry).registerGauge(Mockito.eq("testXaDataSource"), Mockito.eq(ResourceMetrics.POOL_SIZE),
+                    Mockito.any(LongSupplier.class));
+            Mockito.verify(metricsRegistry, Mockito.times(4)).increment("testXaDataSource", ResourceMetrics.ACQUIRED);
+            Mockito.verify(metricsRegistry, Mockito.times(2)).record(Mockito.eq("testXaDataSource"), Mockito.eq(ResourceMetrics.ENLIST), Mockito.anyLong());
+        } finally {
+            subject.destroy();
+        }
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+        Mockito.verify(metricsRegistry).unregister("testXaDataSource");
+    }
+
+    @Test
+    public void readReplica() throws Exception {
+        subject.setAllowNonTransactedConnections("yes");
+        DataSource replicaDataSource = Mockito.mock(DataSource.class);
+        Connection replicaConnection = Mockito.mock(Connection.class);
+        Mockito.when(replicaDataSource.getConnection()).thenReturn(replicaConnection);
+        subject.setReadReplicaDataSource(replicaDataSource);
+
+        Connection connection = Mockito.mock(Connection.class);
+        XAResource xaResource = Mockito.mock(XAResource.class);
+        XAConnection xaConnection = Mockito.mock(XAConnection.class);
+        Mockito.when(xaConnection.getConnection()).thenReturn(connection);
+        Mockito.when(xaConnection.getXAResource()).thenReturn(xaResource);
+        Mockito.when(xaDataSource.getXAConnection()).thenReturn(xaConnection);
+
+        // Outside transaction
+        Assert.assertSame(replicaConnection, subject.getConnection());
+
+        // Read-only transaction; not enlisted
+        transactionManager.beginReadOnly();
+        Assert.assertSame(replicaConnection, subject.getConnection());
+        transactionManager.commit();
+        Mockito.verifyZeroInteractions(xaDataSource);
+        Mockito.verify(replicaDataSource, Mockito.times(2)).getConnection();
+
+        // Read-write transaction; primary
+        transactionManager.begin();
+        Connection result = subject.getConnection();
+        Assert.assertTrue(result instanceof XAConnectionAdapter);
+        Mockito.verify(xaResource).start(Mockito.any(), Mockito.eq(XAResource.TMNOFLAGS));
+        transactionManager.commit();
+
+        Mockito.verify(xaDataSource).getXAConnection();
+        Mockito.verifyNoMoreInteractions(replicaDataSource);
+        Assert.assertEquals(Long.valueOf(2), subject.getMetrics().getCounters().get(ResourceMetrics.REPLICA));
+    }
+
+    @Test
+    public void readReplicaNotAllowed() throws Exception {
+        subject.setAllowNonTransactedConnections("no");
+        DataSource replicaDataSource = Mockito.mock(DataSource.class);
+        subject.setReadReplicaDataSource(replicaDataSource);
+
+        try {
+            subject.getConnection();
+            Assert.fail("SQLException expected");
+        } catch (SQLException e) {
+            // Expected
+        }
+        Mockito.verifyZeroInteractions(replicaDataSource);
+    }
+
+    @Test
+    public void readReplicaWithCredentials() throws Exception {
+        subject.setAllowNonTransactedConnections("yes");
+        DataSource replicaDataSource = Mockito.mock(DataSource.class);
+        subject.setReadReplicaDataSource(replicaDataSource);
+
+        XAConnection xaConnection = Mockito.mock(XAConnection.class);
+        Mockito.when(xaConnection.getConnection()).thenReturn(Mockito.mock(Connection.class));
+        Mockito.when(xaDataSource.getXAConnection("user", "pass")).thenReturn(xaConnection);
+
+        Assert.assertTrue(subject.getConnection("user", "pass") instanceof UnmanagedConnectionAdapter);
+        Mockito.verifyZeroInteractions(replicaDataSource);
+    }
+
     @Test
     public void testReopen() throws Exception {
         transactionManager.begin();
@@ -260,4 +597,104 @@ public class XADataSourceAdapterTest {
 
     }
 
+    @Test
+    public void testReopenLast() throws Exception {
+        transactionManager.begin();
+
+        Connection connection = Mockito.mock(Connection.class);
+        XAConnection xaConnection = Mockito.mock(XAConnection.class);
+        Mockito.when(xaConnection.getConnection()).thenReturn(connection);
+        Mockito.when(xaConnection.getXAResource()).thenReturn(Mockito.mock(XAResource.class));
+        Mockito.when(xaDataSource.getXAConnection()).thenReturn(xaConnection);
+
+        // Other data source in the same transaction; does not share connections
+        XADataSource otherXaDataSource = Mockito.mock(XADataSource.class);
+        XAConnection otherXaConnection = Mockito.mock(XAConnection.class);
+        Mockito.when(otherXaConnection.getConnection()).thenReturn(Mockito.mock(Connection.class));
+        Mockito.when(otherXaConnection.getXAResource()).thenReturn(Mockito.mock(XAResource.class));
+        Mockito.when(otherXaDataSource.getXAConnection()).thenReturn(otherXaConnection);
+        XADataSourceAdapter other = new XADataSourceAdapter();
+        other.setUniqueName("otherXaDataSource");
+        other.setXaDataSource(otherXaDataSource);
+        other.setJtaTransactionManager(transactionManager);
+
+        Connection result = subject.getConnection();
+        result.close();
+        for (int i = 0; i < 3; i++) {
+            Connection reopened = subject.getConnection();
+            Assert.assertSame(result, reopened);
+            reopened.close();
+        }
+
+        Connection otherResult = other.getConnection();
+        Assert.assertNotSame(result, otherResult);
+        otherResult.close();
+        Assert.assertSame(result, subject.getConnection());
+        Assert.assertSame(otherResult, other.getConnection());
+
+        Mockito.verify(xaDataSource, Mockito.times(1)).getXAConnection();
+        Mockito.verify(otherXaDataSource, Mockito.times(1)).getXAConnection();
+        transactionManager.rollback();
+    }
+
+    @Test
+    public void statementAfterTimeout() throws Exception {
+        final JDBCXADataSource hsqldb = new JDBCXADataSource();
+        hsqldb.setUrl("jdbc:hsqldb:mem:timeout");
+        hsqldb.setUser("sa");
+        hsqldb.setPassword("");
+        try (Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:timeout", "sa", ""); Statement statement = connection.createStatement()) {
+            statement.execute("create table timeout(id integer)");
+        }
+        subject.setXaDataSource(hsqldb);
+
+        transactionManager.setTransactionTimeout(1);
+        transactionManager.begin();
+        final JtaTransaction transaction = transactionManager.getRequiredTransaction();
+        final Connection connection = subject.getConnection();
+        final PreparedStatement statement = connection.prepareStatement("insert into timeout(id) values (?)");
+        statement.setInt(1, 1);
+        statement.executeUpdate();
+
+        // Timeout (branch rolled back on the completion executor)
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!connection.isClosed() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assert.assertTrue(transaction.isTimedOut());
+
+        // Work after the timeout would be done outside of the transaction
+        try {
+            statement.setInt(1, 2);
+            statement.executeUpdate();
+            Assert.fail("SQLException expected");
+        } catch (final SQLException e) {
+            // Expected
+        }
+        try {
+            connection.createStatement();
+            Assert.fail("SQLException expected");
+        } catch (final SQLException e) {
+            Assert.assertEquals("Transaction has timed out", e.getMessage());
+        }
+        connection.close();
+        try {
+            subject.getConnection();
+            Assert.fail("SQLException expected");
+        } catch (final SQLException e) {
+            Assert.assertEquals("Transaction has timed out", e.getMessage());
+        }
+
+        try {
+            transactionManager.commit();
+            Assert.fail("RollbackException expected");
+        } catch (final RollbackException e) {
+            // Expected
+        }
+        try (Connection check = DriverManager.getConnection("jdbc:hsqldb:mem:timeout", "sa", ""); Statement count = check.createStatement();
+             ResultSet result = count.executeQuery("select count(*) from timeout")) {
+            Assert.assertTrue(result.next());
+            Assert.assertEquals(0, result.getInt(1));
+        }
+    }
 }
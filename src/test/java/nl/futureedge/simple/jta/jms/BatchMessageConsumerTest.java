@@ -0,0 +1,225 @@
+package nl.futureedge.simple.jta.jms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.transaction.Status;
+import nl.futureedge.simple.jta.JtaTransaction;
+import nl.futureedge.simple.jta.JtaTransactionManager;
+import nl.futureedge.simple.jta.store.JtaTransactionStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class BatchMessageConsumerTest {
+
+    private JtaTransactionManager transactionManager;
+    private ConnectionFactory connectionFactory;
+    private Connection connection;
+    private Session session;
+    private MessageConsumer consumer;
+    private Queue queue;
+
+    private final List<List<Message>> batches = new ArrayList<>();
+    private final List<JtaTransaction> transactions = new ArrayList<>();
+    private RuntimeException failure;
+
+    private BatchMessageConsumer subject;
+
+    @Before
+    public void setup() throws Exception {
+        JtaTransactionStore transactionStore = Mockito.mock(JtaTransactionStore.class);
+        transactionManager = new JtaTransactionManager();
+        transactionManager.setUniqueName("test");
+        transactionManager.setJtaTransactionStore(transactionStore);
+        transactionManager.afterPropertiesSet();
+
+        queue = Mockito.mock(Queue.class);
+        consumer = Mockito.mock(MessageConsumer.class);
+        session = Mockito.mock(Session.class);
+        Mockito.when(session.createConsumer(queue, null)).thenReturn(consumer);
+        connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.createSession(true, Session.SESSION_TRANSACTED)).thenReturn(session);
+        connectionFactory = Mockito.mock(ConnectionFactory.class);
+        Mockito.when(connectionFactory.createConnection()).thenReturn(connection);
+
+        subject = new BatchMessageConsumer();
+        subject.setConnectionFactory(connectionFactory);
+        subject.setJtaTransactionManager(transactionManager);
+        subject.setDestination(queue);
+        subject.setBatchSize(3);
+        subject.setBatchTimeout(100);
+        subject.setBatchMessageListener(messages -> {
+            batches.add(new ArrayList<>(messages));
+            transactions.add(transactionManager.getTransaction());
+            if (failure != null) {
+                throw failure;
+            }
+        });
+    }
+
+    @After
+    public void destroy() throws Exception {
+        subject.destroy();
+        transactionManager.destroy();
+    }
+
+    @Test
+    public void batch() throws Exception {
+        Message one = Mockito.mock(Message.class);
+        Message two = Mockito.mock(Message.class);
+        Message three = Mockito.mock(Message.class);
+        Message four = Mockito.mock(Message.class);
+        Mockito.when(consumer.receive(Mockito.anyLong())).thenReturn(one, two, three, four, null);
+        Mockito.when(consumer.receiveNoWait()).thenReturn(null);
+
+        Assert.assertTrue(subject.consume(connection, 3));
+        Assert.assertTrue(subject.consume(connection, 3));
+
+        Assert.assertEquals(2, batches.size());
+        Assert.assertEquals(3, batches.get(0).size());
+        Assert.assertSame(one, batches.get(0).get(0));
+        Assert.assertEquals(1, batches.get(1).size());
+        Assert.assertSame(four, batches.get(1).get(0));
+        Assert.assertEquals(Status.STATUS_COMMITTED, transactions.get(0).getStatus());
+        Assert.assertEquals(Status.STATUS_COMMITTED, transactions.get(1).getStatus());
+        Assert.assertNull(transactionManager.getTransaction());
+        Mockito.verify(session, Mockito.times(2)).close();
+    }
+
+    @Test
+    public void empty() throws Exception {
+        Mockito.when(consumer.receive(Mockito.anyLong())).thenReturn(null);
+        Mockito.when(consumer.receiveNoWait()).thenReturn(null);
+
+        Assert.assertFalse(subject.consume(connection, 3));
+        Assert.assertTrue(batches.isEmpty());
+        Assert.assertNull(transactionManager.getTransaction());
+    }
+
+    private static Message message(final String messageId) throws Exception {
+        final Message message = Mockito.mock(Message.class);
+        Mockito.when(message.getJMSMessageID()).thenReturn(messageId);
+        return message;
+    }
+
+    @Test
+    public void batchFailed() throws Exception {
+        final Message one = message("ID:1");
+        final Message two = message("ID:2");
+        Mockito.when(consumer.receive(Mockito.anyLong())).thenReturn(one, two, null);
+        Mockito.when(consumer.receiveNoWait()).thenReturn(null);
+        failure = new IllegalArgumentException("Fail");
+
+        Assert.assertFalse(subject.consume(connection, 3));
+        Assert.assertEquals(Status.STATUS_ROLLEDBACK, transactions.get(0).getStatus());
+        Assert.assertNull(transactionManager.getTransaction());
+        Assert.assertTrue(subject.isFailed(one));
+        Assert.assertTrue(subject.isFailed(two));
+        Assert.assertFalse(subject.isFailed(message("ID:3")));
+        Assert.assertFalse(subject.isFailed(message(null)));
+    }
+
+    @Test
+    public void singleFailed() throws Exception {
+        final Message message = message("ID:1");
+        Mockito.when(consumer.receive(Mockito.anyLong())).thenReturn(message);
+        failure = new IllegalArgumentException("Fail");
+
+        Assert.assertFalse(subject.consume(connection, 1));
+        Assert.assertEquals(Status.STATUS_ROLLEDBACK, transactions.get(0).getStatus());
+        // Remains isolated when redelivered
+        Assert.assertTrue(subject.isFailed(message));
+    }
+
+    @Test
+    public void rollbackOnly() throws Exception {
+        final Message one = message("ID:1");
+        final Message two = message("ID:2");
+        Mockito.when(consumer.receive(Mockito.anyLong())).thenReturn(one, two, null);
+        Mockito.when(consumer.receiveNoWait()).thenReturn(null);
+        subject.setBatchMessageListener(messages -> {
+            transactions.add(transactionManager.getTransaction());
+            transactions.get(0).setRollbackOnly();
+        });
+
+        Assert.assertFalse(subject.consume(connection, 3));
+        Assert.assertEquals(Status.STATUS_ROLLEDBACK, transactions.get(0).getStatus());
+        Assert.assertTrue(subject.isFailed(one));
+    }
+
+    @Test
+    public void isolateById() throws Exception {
+        final Message one = message("ID:1");
+        final Message two = message("ID:2");
+        final Message other = message("ID:3");
+        final Message three = message("ID:4");
+        failure = new IllegalArgumentException("Fail");
+        Mockito.when(consumer.receive(Mockito.anyLong())).thenReturn(one, two, null);
+        Mockito.when(consumer.receiveNoWait()).thenReturn(null);
+        Assert.assertFalse(subject.consume(connection, 3));
+
+        // Redelivered (in another order, after another message); failed messages are processed on their own
+        failure = null;
+        Mockito.when(consumer.receive(Mockito.anyLong())).thenReturn(two, other, one, three, null);
+        Assert.assertTrue(subject.consume(connection, 3));
+        Assert.assertTrue(subject.consume(connection, 3));
+        Assert.assertTrue(subject.consume(connection, 3));
+
+        Assert.assertEquals(4, batches.size());
+        Assert.assertEquals(1, batches.get(1).size());
+        Assert.assertSame(two, batches.get(1).get(0));
+        // Batch ended with the failed message
+        Assert.assertEquals(2, batches.get(2).size());
+        Assert.assertSame(other, batches.get(2).get(0));
+        Assert.assertSame(one, batches.get(2).get(1));
+        Assert.assertEquals(1, batches.get(3).size());
+        Assert.assertSame(three, batches.get(3).get(0));
+
+        // Processed successfully; forgotten
+        Assert.assertFalse(subject.isFailed(one));
+        Assert.assertFalse(subject.isFailed(two));
+    }
+
+    @Test
+    public void isolate() throws Exception {
+        Message good = message("ID:good");
+        Message poison = message("ID:poison");
+        final CountDownLatch done = new CountDownLatch(3);
+        // Batch of two fails; messages are redelivered and processed individually
+        Mockito.when(consumer.receive(Mockito.anyLong())).thenReturn(good, poison, null, good, poison, null);
+        Mockito.when(consumer.receiveNoWait()).thenReturn(null);
+        subject.setBatchMessageListener(messages -> {
+            synchronized (batches) {
+                batches.add(new ArrayList<>(messages));
+            }
+            done.countDown();
+            if (messages.contains(poison)) {
+                throw new IllegalArgumentException("Poison");
+            }
+        });
+
+        subject.afterPropertiesSet();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        subject.destroy();
+
+        synchronized (batches) {
+            Assert.assertEquals(2, batches.get(0).size());
+            Assert.assertEquals(1, batches.get(1).size());
+            Assert.assertSame(good, batches.get(1).get(0));
+            Assert.assertEquals(1, batches.get(2).size());
+            Assert.assertSame(poison, batches.get(2).get(0));
+        }
+        Mockito.verify(connection).start();
+        Mockito.verify(connection).close();
+    }
+}
@@ -0,0 +1,196 @@
+package nl.futureedge.simple.jta.jms;
+
+import javax.jms.DeliveryMode;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TransactionInProgressException;
+import javax.jms.XASession;
+import javax.transaction.xa.XAResource;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TransactionSessionTest {
+
+    private XASession xaSession;
+    private Queue queue;
+    private MessageProducer producer;
+    private MessageConsumer consumer;
+
+    private TransactionSession subject;
+
+    @Before
+    public void setup() throws Exception {
+        queue = Mockito.mock(Queue.class);
+        producer = Mockito.mock(MessageProducer.class);
+        Mockito.when(producer.getDeliveryMode()).thenReturn(DeliveryMode.PERSISTENT);
+        Mockito.when(producer.getPriority()).thenReturn(4);
+        consumer = Mockito.mock(MessageConsumer.class);
+        xaSession = Mockito.mock(XASession.class);
+        Mockito.when(xaSession.createProducer(queue)).thenReturn(producer);
+        Mockito.when(xaSession.createConsumer(queue)).thenReturn(consumer);
+
+        subject = new TransactionSession(xaSession, new XAResourceAdapter("test", false, false, Mockito.mock(XAResource.class)));
+    }
+
+    @Test
+    public void producerCached() throws Exception {
+        final Message message = Mockito.mock(Message.class);
+        for (int i = 0; i < 3; i++) {
+            final Session session = subject.getSession();
+            final MessageProducer handle = session.createProducer(queue);
+            handle.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+            handle.send(message);
+            handle.close();
+            session.close();
+        }
+
+        Mockito.verify(xaSession, Mockito.times(1)).createProducer(queue);
+        Mockito.verify(producer, Mockito.times(3)).send(message);
+        Mockito.verify(producer, Mockito.times(3)).setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        // Settings are restored when the producer is reused
+        Mockito.verify(producer, Mockito.times(2)).setDeliveryMode(DeliveryMode.PERSISTENT);
+        Mockito.verify(producer, Mockito.never()).close();
+        Assert.assertEquals(1, subject.getProducerCount());
+
+        subject.close();
+        Mockito.verify(producer).close();
+        Mockito.verify(xaSession, Mockito.never()).close();
+    }
+
+    @Test
+    public void producerInUse() throws Exception {
+        final MessageProducer otherProducer = Mockito.mock(MessageProducer.class);
+        Mockito.when(xaSession.createProducer(queue)).thenReturn(producer, otherProducer);
+        final Message message = Mockito.mock(Message.class);
+
+        // Two open handles on the same destination; the settings of one handle are not changed by the other
+        final MessageProducer first = subject.getSession().createProducer(queue);
+        first.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        final MessageProducer second = subject.getSession().createProducer(queue);
+        first.send(message);
+        second.send(message);
+
+        Mockito.verify(xaSession, Mockito.times(2)).createProducer(queue);
+        Mockito.verify(producer).setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        Mockito.verify(producer, Mockito.never()).setDeliveryMode(DeliveryMode.PERSISTENT);
+        Mockito.verify(producer).send(message);
+        Mockito.verify(otherProducer).send(message);
+        Assert.assertEquals(2, subject.getProducerCount());
+
+        // Released producers are reused
+        first.close();
+        second.close();
+        subject.getSession().createProducer(queue);
+        subject.getSession().createProducer(queue);
+        Mockito.verify(xaSession, Mockito.times(2)).createProducer(queue);
+
+        subject.close();
+        Mockito.verify(producer).close();
+        Mockito.verify(otherProducer).close();
+    }
+
+    @Test
+    public void handleIdentity() throws Exception {
+        final Session session = subject.getSession();
+        final MessageProducer handle = session.createProducer(queue);
+        Assert.assertEquals(session, session);
+        Assert.assertEquals(session.hashCode(), session.hashCode());
+        Assert.assertNotEquals(session, subject.getSession());
+        Assert.assertEquals(handle, handle);
+        Assert.assertNotEquals(handle, producer);
+
+        // Also on closed handles
+        handle.close();
+        session.close();
+        Assert.assertEquals(session, session);
+        Assert.assertEquals(handle, handle);
+    }
+
+    @Test
+    public void producerClosed() throws Exception {
+        final MessageProducer handle = subject.getSession().createProducer(queue);
+        handle.close();
+        try {
+            handle.send(Mockito.mock(Message.class));
+            Assert.fail("IllegalStateException expected");
+        } catch (final javax.jms.IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void closeSession() throws Exception {
+        final Session session = subject.getSession();
+        Assert.assertSame(consumer, session.createConsumer(queue));
+        session.close();
+
+        Mockito.verify(consumer).close();
+        Mockito.verify(xaSession, Mockito.never()).close();
+        try {
+            session.createConsumer(queue);
+            Assert.fail("IllegalStateException expected");
+        } catch (final javax.jms.IllegalStateException e) {
+            // Expected
+        }
+
+        // New handle on the same session
+        subject.getSession().createConsumer(queue);
+        Mockito.verify(xaSession, Mockito.times(2)).createConsumer(queue);
+    }
+
+    @Test
+    public void close() throws Exception {
+        final Session session = subject.getSession();
+        session.createConsumer(queue);
+        subject.close();
+
+        Mockito.verify(consumer).close();
+        try {
+            session.createConsumer(queue);
+            Assert.fail("IllegalStateException expected");
+        } catch (final javax.jms.IllegalStateException e) {
+            // Expected
+        }
+        try {
+            session.commit();
+            Assert.fail("TransactionInProgressException expected");
+        } catch (final TransactionInProgressException e) {
+            // Expected
+        }
+        try {
+            subject.getSession();
+            Assert.fail("IllegalStateException expected");
+        } catch (final javax.jms.IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void timedOut() throws Exception {
+        final Session session = subject.getSession();
+        session.createConsumer(queue);
+        session.createProducer(queue);
+        subject.timedOut();
+
+        Mockito.verify(consumer).close();
+        Mockito.verify(producer).close();
+        try {
+            session.createConsumer(queue);
+            Assert.fail("IllegalStateException expected");
+        } catch (final javax.jms.IllegalStateException e) {
+            // Expected
+        }
+        try {
+            subject.getSession();
+            Assert.fail("IllegalStateException expected");
+        } catch (final javax.jms.IllegalStateException e) {
+            Assert.assertEquals("Transaction of session has timed out", e.getMessage());
+        }
+    }
+}
@@ -1,15 +1,30 @@
 package nl.futureedge.simple.jta.jms;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.jms.ConnectionConsumer;
 import javax.jms.ConnectionMetaData;
 import javax.jms.ExceptionListener;
 import javax.jms.JMSException;
+import javax.jms.Queue;
+import javax.jms.ServerSessionPool;
 import javax.jms.Session;
+import javax.jms.Topic;
 import javax.jms.XAConnection;
 import javax.jms.XASession;
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
 import nl.futureedge.simple.jta.JtaTransactionManager;
+import nl.futureedge.simple.jta.JtaTransactionPropagation;
+import nl.futureedge.simple.jta.metrics.ResourceMetrics;
 import nl.futureedge.simple.jta.store.JtaTransactionStore;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -19,6 +34,7 @@ public class XAConnectionAdapterTest {
 
     private JtaTransactionManager transactionManager;
     private XAConnection xaConnection;
+    private ResourceMetrics metrics;
 
     private XAConnectionAdapter subject;
 
@@ -32,7 +48,8 @@ public class XAConnectionAdapterTest {
         transactionManager.afterPropertiesSet();
 
         xaConnection = Mockito.mock(XAConnection.class);
-        subject = new XAConnectionAdapter("testResourceManager", false, false, xaConnection, transactionManager);
+        metrics = new ResourceMetrics();
+        subject = new XAConnectionAdapter("testResourceManager", false, false, 0, xaConnection, transactionManager, metrics);
 
         Mockito.verifyNoMoreInteractions(xaConnection);
     }
@@ -97,12 +114,80 @@ public class XAConnectionAdapterTest {
         Mockito.when(xaSession.getXAResource()).thenReturn(xaResource);
 
         transactionManager.begin();
-        Assert.assertSame(xaSession, subject.createSession(true, Session.AUTO_ACKNOWLEDGE));
+        Session session = subject.createSession(true, Session.AUTO_ACKNOWLEDGE);
+        Assert.assertTrue(session instanceof XASession);
+        session.close();
 
         Mockito.verify(xaConnection).createXASession();
         Mockito.verify(xaSession).getXAResource();
         Mockito.verify(xaResource).start(Mockito.any(), Mockito.eq(XAResource.TMNOFLAGS));
         Mockito.verifyNoMoreInteractions(xaConnection, xaSession, xaResource);
+
+        // Transaction scoped; same session (and enlistment) within the transaction
+        Assert.assertNotNull(subject.createSession(true, Session.AUTO_ACKNOWLEDGE));
+        Mockito.verifyNoMoreInteractions(xaConnection, xaSession, xaResource);
+
+        transactionManager.commit();
+        Mockito.verify(xaResource).end(Mockito.any(), Mockito.eq(XAResource.TMSUCCESS));
+        Mockito.verify(xaResource).commit(Mockito.any(), Mockito.eq(true));
+        Mockito.verify(xaSession).close();
+        Mockito.verifyNoMoreInteractions(xaConnection, xaSession, xaResource);
+
+        Assert.assertEquals(Long.valueOf(2), metrics.getCounters().get(ResourceMetrics.ACQUIRED));
+        Assert.assertEquals(Long.valueOf(1), metrics.getCounters().get(ResourceMetrics.REOPENED));
+        Assert.assertEquals(Long.valueOf(1), metrics.getCounters().get(ResourceMetrics.TRANSACTIONS));
+        Assert.assertEquals(Long.valueOf(1), metrics.getCounters().get(ResourceMetrics.ENLISTED));
+        Assert.assertEquals(1, metrics.getLatencies().get(ResourceMetrics.ENLIST).getCount());
+        Assert.assertEquals(1, metrics.getLatencies().get(ResourceMetrics.CLOSE).getCount());
+    }
+
+    @Test
+    public void createSessionParticipantThreads() throws Exception {
+        final List<XASession> xaSessions = new CopyOnWriteArrayList<>();
+        Mockito.when(xaConnection.createXASession()).thenAnswer(invocation -> {
+            final XASession xaSession = Mockito.mock(XASession.class);
+            Mockito.when(xaSession.getXAResource()).thenReturn(Mockito.mock(XAResource.class));
+            xaSessions.add(xaSession);
+            return xaSession;
+        });
+
+        transactionManager.begin();
+        subject.createSession(true, Session.AUTO_ACKNOWLEDGE);
+
+        // Fan out to participant threads; each thread gets its own (enlisted) session, reused within the thread
+        final JtaTransactionPropagation propagation = new JtaTransactionPropagation(transactionManager);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final CountDownLatch started = new CountDownLatch(2);
+            final List<Future<Session>> futures = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                futures.add(executor.submit(propagation.wrap(() -> {
+                    // Both tasks run concurrently (on different threads)
+                    started.countDown();
+                    Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+                    final Session session = subject.createSession(true, Session.AUTO_ACKNOWLEDGE);
+                    session.close();
+                    return subject.createSession(true, Session.AUTO_ACKNOWLEDGE);
+                })));
+            }
+            for (final Future<Session> future : futures) {
+                Assert.assertNotNull(future.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(3, xaSessions.size());
+
+        transactionManager.commit();
+        for (final XASession xaSession : xaSessions) {
+            Mockito.verify(xaSession.getXAResource()).start(Mockito.any(), Mockito.eq(XAResource.TMNOFLAGS));
+            Mockito.verify(xaSession.getXAResource()).commit(Mockito.any(), Mockito.eq(false));
+            Mockito.verify(xaSession).close();
+        }
+        Assert.assertEquals(Long.valueOf(5), metrics.getCounters().get(ResourceMetrics.ACQUIRED));
+        Assert.assertEquals(Long.valueOf(2), metrics.getCounters().get(ResourceMetrics.REOPENED));
+        Assert.assertEquals(Long.valueOf(1), metrics.getCounters().get(ResourceMetrics.TRANSACTIONS));
+        Assert.assertEquals(Long.valueOf(3), metrics.getCounters().get(ResourceMetrics.ENLISTED));
     }
 
     @Test
@@ -182,14 +267,102 @@ public class XAConnectionAdapterTest {
         Mockito.verifyNoMoreInteractions(xaConnection);
     }
 
-    @Test(expected = UnsupportedOperationException.class)
+    @Test(expected = JMSException.class)
+    public void createConnectionConsumerUnsupportedPool() throws Exception {
+        subject.createConnectionConsumer(null, null, Mockito.mock(ServerSessionPool.class), 100);
+    }
+
+    @Test(expected = JMSException.class)
+    public void createDurableConnectionConsumerUnsupportedPool() throws Exception {
+        subject.createDurableConnectionConsumer(null, null, null, Mockito.mock(ServerSessionPool.class), 100);
+    }
+
+    @Test
     public void createConnectionConsumer() throws Exception {
-        subject.createConnectionConsumer(null, null, null, 100);
+        Queue queue = Mockito.mock(Queue.class);
+        ConnectionConsumer connectionConsumer = Mockito.mock(ConnectionConsumer.class);
+        XAServerSessionPool sessionPool = new XAServerSessionPool(message -> {
+        }, 1);
+        Mockito.when(xaConnection.createConnectionConsumer(queue, "selector", sessionPool, 10)).thenReturn(connectionConsumer);
+
+        ConnectionConsumer result = subject.createConnectionConsumer(queue, "selector", sessionPool, 10);
+        Assert.assertSame(sessionPool, result.getServerSessionPool());
+        Mockito.verify(xaConnection).createConnectionConsumer(queue, "selector", sessionPool, 10);
+
+        try {
+            subject.createConnectionConsumer(queue, "selector", sessionPool, 10);
+            Assert.fail("IllegalStateException expected");
+        } catch (javax.jms.IllegalStateException e) {
+            // Expected; pool already in use
+        }
+
+        subject.close();
+        Mockito.verify(connectionConsumer).close();
+        Mockito.verify(xaConnection).close();
+        try {
+            sessionPool.getServerSession();
+            Assert.fail("IllegalStateException expected");
+        } catch (javax.jms.IllegalStateException e) {
+            // Expected; pool closed
+        }
     }
 
-    @Test(expected = UnsupportedOperationException.class)
+    @Test
     public void createDurableConnectionConsumer() throws Exception {
-        subject.createDurableConnectionConsumer(null, null, null, null, 100);
+        Topic topic = Mockito.mock(Topic.class);
+        ConnectionConsumer connectionConsumer = Mockito.mock(ConnectionConsumer.class);
+        XAServerSessionPool sessionPool = new XAServerSessionPool(message -> {
+        }, 1);
+        Mockito.when(xaConnection.createDurableConnectionConsumer(topic, "subscription", null, sessionPool, 10)).thenReturn(connectionConsumer);
+
+        ConnectionConsumer result = subject.createDurableConnectionConsumer(topic, "subscription", null, sessionPool, 10);
+        result.close();
+        Mockito.verify(connectionConsumer).close();
+    }
+
+    @Test
+    public void pooled() throws Exception {
+        XAResource xaResource = Mockito.mock(XAResource.class);
+        XASession xaSession = Mockito.mock(XASession.class);
+        Session session = Mockito.mock(Session.class);
+        Mockito.when(xaConnection.createXASession()).thenReturn(xaSession);
+        Mockito.when(xaConnection.createSession(false, Session.AUTO_ACKNOWLEDGE)).thenReturn(session);
+        Mockito.when(xaSession.getXAResource()).thenReturn(xaResource);
+
+        XASessionPool pool = new XASessionPool("test", () -> xaConnection, xa -> new XAResourceAdapter("test", false, false, xa.getXAResource()), 1, 1,
+                0);
+        XAConnectionAdapter pooledSubject = new XAConnectionAdapter(pool, transactionManager, new ResourceMetrics());
+
+        try {
+            pooledSubject.setClientID("clientID");
+            Assert.fail("IllegalStateException expected");
+        } catch (javax.jms.IllegalStateException e) {
+            // Expected
+        }
+        pooledSubject.start();
+        Assert.assertSame(session, pooledSubject.createSession(false, Session.AUTO_ACKNOWLEDGE));
+
+        transactionManager.begin();
+        pooledSubject.createSession(true, Session.SESSION_TRANSACTED);
+        pooledSubject.close();
+        Mockito.verify(session).close();
+        transactionManager.rollback();
+
+        Assert.assertEquals(1, pool.getIdle());
+        Mockito.verify(xaResource).rollback(Mockito.any());
+        Mockito.verify(xaConnection).start();
+        Mockito.verify(xaConnection, Mockito.never()).close();
+        Mockito.verify(xaSession, Mockito.never()).close();
+        try {
+            pooledSubject.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            Assert.fail("IllegalStateException expected");
+        } catch (javax.jms.IllegalStateException e) {
+            // Expected
+        }
+
+        pool.close();
+        Mockito.verify(xaSession).close();
+        Mockito.verify(xaConnection).close();
     }
 
 }
@@ -1,6 +1,7 @@
 package nl.futureedge.simple.jta.jms;
 
 import javax.jms.Connection;
+import javax.jms.Session;
 import javax.jms.XAConnection;
 import javax.jms.XAConnectionFactory;
 import javax.jms.XASession;
@@ -96,4 +97,45 @@ public class XAConnectionFactoryAdapterTest {
         Mockito.verify(xaConnectionFactory).createXAConnection("user", "pass");
         Mockito.verifyNoMoreInteractions(xaConnectionFactory, xaConnection);
     }
+
+    @Test
+    public void createConnectionPooled() throws Exception {
+        XAResource xaResource = Mockito.mock(XAResource.class);
+        XASession xaSession = Mockito.mock(XASession.class);
+        XAConnection xaConnection = Mockito.mock(XAConnection.class);
+
+        Mockito.when(xaConnectionFactory.createXAConnection()).thenReturn(xaConnection);
+        Mockito.when(xaConnection.createXASession()).thenReturn(xaSession);
+        Mockito.when(xaSession.getXAResource()).thenReturn(xaResource);
+        Mockito.when(xaResource.recover(XAResource.TMENDRSCAN)).thenReturn(new Xid[]{});
+
+        subject.setMaxPoolSize(2);
+        subject.afterPropertiesSet();
+        try {
+            for (int i = 0; i < 3; i++) {
+                transactionManager.begin();
+                Connection connection = subject.createConnection();
+                Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+                Assert.assertNotSame(xaSession, session);
+                session.close();
+                connection.close();
+                // Connections of the pool share the session of the transaction
+                Connection other = subject.createConnection();
+                other.createSession(true, Session.SESSION_TRANSACTED).close();
+                other.close();
+                transactionManager.commit();
+            }
+
+            // One connection (and session) for recovery, one shared connection with one pooled session
+            Mockito.verify(xaConnectionFactory, Mockito.times(2)).createXAConnection();
+            Mockito.verify(xaConnection, Mockito.times(2)).createXASession();
+            Mockito.verify(xaResource, Mockito.times(3)).commit(Mockito.any(), Mockito.eq(true));
+            Mockito.verify(xaSession, Mockito.times(1)).close();
+            Mockito.verify(xaConnection, Mockito.times(1)).close();
+        } finally {
+            subject.destroy();
+        }
+        Mockito.verify(xaSession, Mockito.times(2)).close();
+        Mockito.verify(xaConnection, Mockito.times(2)).close();
+    }
 }
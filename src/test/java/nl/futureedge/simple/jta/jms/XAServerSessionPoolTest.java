@@ -0,0 +1,135 @@
+package nl.futureedge.simple.jta.jms;
+
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.ServerSession;
+import javax.jms.XAConnection;
+import javax.jms.XASession;
+import javax.transaction.xa.XAResource;
+import nl.futureedge.simple.jta.JtaTransactionManager;
+import nl.futureedge.simple.jta.store.JtaTransactionStore;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+public class XAServerSessionPoolTest {
+
+    private JtaTransactionManager transactionManager;
+    private XAConnection xaConnection;
+    private XASession xaSession;
+    private XAResource xaResource;
+    private Message message;
+    private MessageListener messageListener;
+
+    private XAServerSessionPool subject;
+
+    @Before
+    public void setup() throws Exception {
+        JtaTransactionStore transactionStore = Mockito.mock(JtaTransactionStore.class);
+        transactionManager = new JtaTransactionManager();
+        transactionManager.setUniqueName("test");
+        transactionManager.setJtaTransactionStore(transactionStore);
+        transactionManager.afterPropertiesSet();
+
+        xaResource = Mockito.mock(XAResource.class);
+        xaSession = Mockito.mock(XASession.class);
+        Mockito.when(xaSession.getXAResource()).thenReturn(xaResource);
+        xaConnection = Mockito.mock(XAConnection.class);
+        Mockito.when(xaConnection.createXASession()).thenReturn(xaSession);
+
+        // Deliver a message to the message listener of the session when the session is run
+        message = Mockito.mock(Message.class);
+        final ArgumentCaptor<MessageListener> sessionListener = ArgumentCaptor.forClass(MessageListener.class);
+        Mockito.doNothing().when(xaSession).setMessageListener(sessionListener.capture());
+        Mockito.doAnswer(invocation -> {
+            sessionListener.getValue().onMessage(message);
+            return null;
+        }).when(xaSession).run();
+
+        messageListener = Mockito.mock(MessageListener.class);
+        subject = new XAServerSessionPool(messageListener, 1);
+        subject.setExecutor(Runnable::run);
+        subject.open(xaConnection, transactionManager, session -> new XAResourceAdapter("test", false, false, session.getXAResource()));
+    }
+
+    @After
+    public void destroy() throws Exception {
+        subject.close();
+        transactionManager.destroy();
+    }
+
+    @Test
+    public void deliver() throws Exception {
+        Mockito.doAnswer(invocation -> {
+            Assert.assertNotNull(transactionManager.getTransaction());
+            return null;
+        }).when(messageListener).onMessage(message);
+
+        for (int i = 0; i < 2; i++) {
+            final ServerSession serverSession = subject.getServerSession();
+            Assert.assertSame(xaSession, serverSession.getSession());
+            serverSession.start();
+        }
+        Assert.assertNull(transactionManager.getTransaction());
+
+        final InOrder ordered = Mockito.inOrder(xaResource, messageListener);
+        for (int i = 0; i < 2; i++) {
+            ordered.verify(xaResource).start(Mockito.any(), Mockito.eq(XAResource.TMNOFLAGS));
+            ordered.verify(messageListener).onMessage(message);
+            ordered.verify(xaResource).end(Mockito.any(), Mockito.eq(XAResource.TMSUCCESS));
+            ordered.verify(xaResource).commit(Mockito.any(), Mockito.eq(true));
+        }
+        Mockito.verify(xaConnection, Mockito.times(1)).createXASession();
+    }
+
+    @Test
+    public void deliverFailed() throws Exception {
+        Mockito.doThrow(new IllegalArgumentException("Fail")).when(messageListener).onMessage(message);
+
+        subject.getServerSession().start();
+        Assert.assertNull(transactionManager.getTransaction());
+
+        Mockito.verify(xaResource).rollback(Mockito.any());
+        Mockito.verify(xaResource, Mockito.never()).commit(Mockito.any(), Mockito.anyBoolean());
+
+        // Session is reused
+        subject.getServerSession();
+        Mockito.verify(xaConnection, Mockito.times(1)).createXASession();
+    }
+
+    @Test
+    public void deliverUnexpectedFailure() throws Exception {
+        Mockito.doThrow(new IllegalArgumentException("Fail")).when(xaSession).run();
+
+        subject.getServerSession().start();
+        Assert.assertNull(transactionManager.getTransaction());
+        // Transaction rolled back (not left suspended)
+        Assert.assertTrue(transactionManager.getActiveTransactions().isEmpty());
+        Mockito.verify(xaResource).rollback(Mockito.any());
+        Mockito.verify(xaResource, Mockito.never()).commit(Mockito.any(), Mockito.anyBoolean());
+
+        // Session is not reused
+        Mockito.verify(xaSession).close();
+        subject.getServerSession();
+        Mockito.verify(xaConnection, Mockito.times(2)).createXASession();
+    }
+
+    @Test
+    public void close() throws Exception {
+        subject.getServerSession().start();
+        subject.close();
+
+        Mockito.verify(xaSession).close();
+        try {
+            subject.getServerSession();
+            Assert.fail("IllegalStateException expected");
+        } catch (final javax.jms.IllegalStateException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package nl.futureedge.simple.jta.jms;
+
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.XAConnection;
+import javax.jms.XASession;
+import javax.transaction.xa.XAResource;
+import nl.futureedge.simple.jta.xa.XAResourceAdapter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+public class XASessionPoolTest {
+
+    private XAConnection xaConnection;
+    private XASession xaSession;
+
+    private XASessionPool subject;
+
+    @Before
+    public void setup() throws Exception {
+        xaSession = Mockito.mock(XASession.class);
+        Mockito.when(xaSession.getXAResource()).thenReturn(Mockito.mock(XAResource.class));
+        xaConnection = Mockito.mock(XAConnection.class);
+        Mockito.when(xaConnection.createXASession()).thenReturn(xaSession);
+
+        subject = new XASessionPool("test", () -> xaConnection, session -> new XAResourceAdapter("test", false, false, session.getXAResource()), 1, 1, 0);
+        subject.start();
+    }
+
+    @After
+    public void destroy() {
+        subject.close();
+    }
+
+    @Test
+    public void reuse() throws Exception {
+        final XASessionPool.PooledXASession first = subject.borrow();
+        first.release(true);
+        Assert.assertEquals(1, subject.getIdle());
+
+        final XASessionPool.PooledXASession second = subject.borrow();
+        Assert.assertSame(first, second);
+        Assert.assertEquals(0, subject.getIdle());
+        second.release(true);
+
+        Mockito.verify(xaConnection).start();
+        Mockito.verify(xaConnection).createXASession();
+        Mockito.verify(xaSession, Mockito.never()).close();
+        Assert.assertEquals(1, subject.getSize());
+    }
+
+    @Test
+    public void notReusable() throws Exception {
+        subject.borrow().release(false);
+
+        Mockito.verify(xaSession).close();
+        Assert.assertEquals(0, subject.getSize());
+        Assert.assertEquals(0, subject.getIdle());
+    }
+
+    @Test
+    public void maxWait() throws Exception {
+        final XASessionPool.PooledXASession pooled = subject.borrow();
+        try {
+            subject.borrow();
+            Assert.fail("JMSException expected");
+        } catch (final JMSException e) {
+            // Expected
+        }
+        pooled.release(true);
+        subject.borrow().release(true);
+    }
+
+    @Test
+    public void connectionFailed() throws Exception {
+        final ExceptionListener exceptionListener = Mockito.mock(ExceptionListener.class);
+        subject.addExceptionListener(exceptionListener);
+        subject.borrow().release(true);
+
+        final ArgumentCaptor<ExceptionListener> listener = ArgumentCaptor.forClass(ExceptionListener.class);
+        Mockito.verify(xaConnection).setExceptionListener(listener.capture());
+        final JMSException exception = new JMSException("Fail");
+        listener.getValue().onException(exception);
+
+        Mockito.verify(xaConnection).close();
+        Mockito.verify(exceptionListener).onException(exception);
+
+        // Idle session of the failed connection is closed; a new connection is created
+        final XAConnection failedConnection = xaConnection;
+        final XASession failedSession = xaSession;
+        xaConnection = Mockito.mock(XAConnection.class);
+        xaSession = Mockito.mock(XASession.class);
+        Mockito.when(xaConnection.createXASession()).thenReturn(xaSession);
+
+        final XASessionPool.PooledXASession pooled = subject.borrow();
+        Assert.assertSame(xaConnection, subject.getConnection());
+        Mockito.verify(failedSession).close();
+        Mockito.verify(xaConnection).start();
+        Mockito.verify(failedConnection, Mockito.times(1)).close();
+        pooled.release(true);
+        Assert.assertEquals(1, subject.getSize());
+    }
+}
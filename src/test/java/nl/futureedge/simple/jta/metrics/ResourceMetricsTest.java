@@ -0,0 +1,72 @@
+package nl.futureedge.simple.jta.metrics;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class ResourceMetricsTest {
+
+    @Test
+    public void histogram() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getStatistics().getCount());
+        Assert.assertEquals(0, histogram.getStatistics().getP99());
+
+        for (int i = 0; i < 98; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(10));
+        }
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(1000));
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(3000));
+
+        final LatencyStatistics statistics = histogram.getStatistics();
+        Assert.assertEquals(100, statistics.getCount());
+        Assert.assertEquals((98 * 10 + 1000 + 3000) / 100, statistics.getMean());
+        Assert.assertEquals(3000, statistics.getMax());
+        // Upper bound of the bucket
+        Assert.assertEquals(16, statistics.getP50());
+        Assert.assertEquals(1024, statistics.getP99());
+    }
+
+    @Test
+    public void histogramMaximum() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+
+        final LatencyStatistics statistics = histogram.getStatistics();
+        Assert.assertEquals(100, statistics.getP50());
+        Assert.assertEquals(100, statistics.getP99());
+    }
+
+    @Test
+    public void registry() throws Exception {
+        final MetricsRegistry registry = Mockito.mock(MetricsRegistry.class);
+        final ResourceMetrics subject = new ResourceMetrics();
+
+        // Recorded before the metrics are published
+        subject.registerGauge(ResourceMetrics.POOL_SIZE, () -> 3);
+        subject.increment(ResourceMetrics.ACQUIRED);
+
+        subject.start("test", registry, false);
+        Assert.assertNull(subject.getObjectName());
+        Mockito.verify(registry).registerGauge(Mockito.eq("test"), Mockito.eq(ResourceMetrics.POOL_SIZE), Mockito.any());
+        Mockito.verifyNoMoreInteractions(registry);
+
+        subject.increment(ResourceMetrics.ACQUIRED);
+        subject.recordSince(ResourceMetrics.ACQUIRE, System.nanoTime());
+        Mockito.verify(registry).increment("test", ResourceMetrics.ACQUIRED);
+        Mockito.verify(registry).record(Mockito.eq("test"), Mockito.eq(ResourceMetrics.ACQUIRE), Mockito.anyLong());
+
+        Assert.assertEquals("test", subject.getResource());
+        Assert.assertEquals(Long.valueOf(3), subject.getGauges().get(ResourceMetrics.POOL_SIZE));
+        Assert.assertEquals(Long.valueOf(2), subject.getCounters().get(ResourceMetrics.ACQUIRED));
+        Assert.assertEquals(1, subject.getLatencies().get(ResourceMetrics.ACQUIRE).getCount());
+
+        subject.stop();
+        Mockito.verify(registry).unregister("test");
+
+        // Not forwarded after stop
+        subject.increment(ResourceMetrics.ACQUIRED);
+        Mockito.verifyNoMoreInteractions(registry);
+    }
+}
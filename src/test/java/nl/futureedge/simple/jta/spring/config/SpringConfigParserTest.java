@@ -1,7 +1,13 @@
 package nl.futureedge.simple.jta.spring.config;
 
 import nl.futureedge.simple.jta.ReflectionTestUtils;
+import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.w3c.dom.Element;
 
 public class SpringConfigParserTest {
 
@@ -9,4 +15,24 @@ public class SpringConfigParserTest {
     public void constructor() throws Exception {
         ReflectionTestUtils.testNotInstantiable(SpringConfigParser.class);
     }
+
+    @Test
+    public void addProperty() {
+        final Element element = Mockito.mock(Element.class);
+        Mockito.when(element.getAttribute("max-pool-size")).thenReturn("5");
+        Mockito.when(element.getAttribute("min-pool-size")).thenReturn("");
+        Mockito.when(element.getAttribute("metrics-registry")).thenReturn("registry");
+
+        final BeanDefinitionBuilder builder = BeanDefinitionBuilder.rootBeanDefinition(Object.class);
+        SpringConfigParser.addProperty(builder, element, "max-pool-size", "maxPoolSize");
+        SpringConfigParser.addProperty(builder, element, "min-pool-size", "minPoolSize");
+        SpringConfigParser.addProperty(builder, element, "pool-max-wait", "poolMaxWait");
+        SpringConfigParser.addPropertyReference(builder, element, "metrics-registry", "metricsRegistry");
+        SpringConfigParser.addPropertyReference(builder, element, "read-replica-data-source", "readReplicaDataSource");
+
+        final MutablePropertyValues values = builder.getBeanDefinition().getPropertyValues();
+        Assert.assertEquals(2, values.size());
+        Assert.assertEquals("5", values.getPropertyValue("maxPoolSize").getValue());
+        Assert.assertEquals("registry", ((RuntimeBeanReference) values.getPropertyValue("metricsRegistry").getValue()).getBeanName());
+    }
 }
@@ -0,0 +1,46 @@
+package nl.futureedge.simple.jta.spring.tx;
+
+import nl.futureedge.simple.jta.JtaTransactionManager;
+import nl.futureedge.simple.jta.store.JtaTransactionStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.context.support.GenericXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class SimpleJtaPlatformTransactionManagerContextTest {
+
+    private GenericXmlApplicationContext context;
+
+    @Before
+    public void start() {
+        context = new GenericXmlApplicationContext("classpath:test-readonly-context.xml");
+    }
+
+    @After
+    public void shutdown() {
+        context.close();
+    }
+
+    @Test
+    public void readOnly() throws Exception {
+        final JtaTransactionManager transactionManager = context.getBean(JtaTransactionManager.class);
+        final TransactionTemplate transactionTemplate = context.getBean(TransactionTemplate.class);
+        final JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        // Startup (and recovery) uses the store
+        final JtaTransactionStore transactionStore = context.getBean(JtaTransactionStore.class);
+        Mockito.clearInvocations(transactionStore);
+
+        final Integer result = transactionTemplate.execute(status -> {
+            Assert.assertTrue(transactionManager.getTransaction().isReadOnly());
+            return jdbcTemplate.queryForObject("select count(*) from information_schema.system_tables", Integer.class);
+        });
+        Assert.assertTrue(result > 0);
+
+        // Read-only transactions do not use the transaction store
+        Mockito.verifyZeroInteractions(transactionStore);
+    }
+}
@@ -0,0 +1,58 @@
+package nl.futureedge.simple.jta.spring.tx;
+
+import nl.futureedge.simple.jta.JtaTransactionManager;
+import nl.futureedge.simple.jta.store.JtaTransactionStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class SimpleJtaPlatformTransactionManagerTest {
+
+    private JtaTransactionStore transactionStore;
+    private JtaTransactionManager transactionManager;
+    private TransactionTemplate transactionTemplate;
+
+    @Before
+    public void setup() throws Exception {
+        transactionStore = Mockito.mock(JtaTransactionStore.class);
+        transactionManager = new JtaTransactionManager();
+        transactionManager.setUniqueName("tm");
+        transactionManager.setJtaTransactionStore(transactionStore);
+        transactionManager.afterPropertiesSet();
+
+        final SimpleJtaPlatformTransactionManager subject = new SimpleJtaPlatformTransactionManager();
+        subject.setTransactionManager(transactionManager);
+        subject.afterPropertiesSet();
+
+        transactionTemplate = new TransactionTemplate(subject);
+    }
+
+    @After
+    public void destroy() throws Exception {
+        transactionManager.destroy();
+    }
+
+    @Test
+    public void readOnly() throws Exception {
+        transactionTemplate.setReadOnly(true);
+        transactionTemplate.setTimeout(30);
+        final Boolean readOnly = transactionTemplate.execute(status -> transactionManager.getTransaction().isReadOnly());
+        Assert.assertTrue(readOnly);
+
+        Mockito.verify(transactionStore).cleanup();
+        Mockito.verifyNoMoreInteractions(transactionStore);
+    }
+
+    @Test
+    public void readWrite() throws Exception {
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRED);
+        final Boolean readOnly = transactionTemplate.execute(status -> transactionManager.getTransaction().isReadOnly());
+        Assert.assertFalse(readOnly);
+
+        Mockito.verify(transactionStore).transactionCompleted(Mockito.any());
+    }
+}
@@ -0,0 +1,79 @@
+package nl.futureedge.simple.jta.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashedWheelTimerTest {
+
+    private HashedWheelTimer timer;
+
+    @Before
+    public void setup() {
+        // Small wheel so multiple rounds are tested
+        timer = new HashedWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 6);
+    }
+
+    @After
+    public void destroy() {
+        timer.stop();
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(3);
+        final long start = System.nanoTime();
+        final HashedWheelTimer.Timeout one = timer.schedule(latch::countDown, 0, TimeUnit.MILLISECONDS);
+        final HashedWheelTimer.Timeout two = timer.schedule(latch::countDown, 50, TimeUnit.MILLISECONDS);
+        final HashedWheelTimer.Timeout three = timer.schedule(latch::countDown, 250, TimeUnit.MILLISECONDS);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250);
+        Assert.assertTrue(one.isExpired());
+        Assert.assertTrue(two.isExpired());
+        Assert.assertTrue(three.isExpired());
+        Assert.assertFalse(three.cancel());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final AtomicInteger executed = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final HashedWheelTimer.Timeout cancelled = timer.schedule(executed::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+        final HashedWheelTimer.Timeout cancelledLater = timer.schedule(executed::incrementAndGet, 150, TimeUnit.MILLISECONDS);
+        timer.schedule(latch::countDown, 200, TimeUnit.MILLISECONDS);
+
+        Assert.assertTrue(cancelled.cancel());
+        Assert.assertFalse(cancelled.cancel());
+        Assert.assertTrue(cancelled.isCancelled());
+        Thread.sleep(50);
+        Assert.assertTrue(cancelledLater.cancel());
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, executed.get());
+        Assert.assertFalse(cancelled.isExpired());
+        Assert.assertFalse(cancelledLater.isExpired());
+    }
+
+    @Test
+    public void testTaskFailure() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        timer.schedule(() -> {
+            throw new IllegalStateException("Fail");
+        }, 10, TimeUnit.MILLISECONDS);
+        timer.schedule(latch::countDown, 20, TimeUnit.MILLISECONDS);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testStopped() {
+        timer.stop();
+        timer.schedule(() -> {
+        }, 10, TimeUnit.MILLISECONDS);
+    }
+}
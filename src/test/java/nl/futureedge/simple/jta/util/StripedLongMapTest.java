@@ -0,0 +1,162 @@
+package nl.futureedge.simple.jta.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StripedLongMapTest {
+
+    @Test
+    public void test() {
+        final StripedLongMap<Object> map = new StripedLongMap<>();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertEquals(0, map.size());
+
+        final List<Object> values = new ArrayList<>();
+        for (long key = 0; key < 1000; key++) {
+            final Object value = new Object();
+            values.add(value);
+            map.put(key, value);
+        }
+        Assert.assertFalse(map.isEmpty());
+        Assert.assertEquals(1000, map.size());
+        Assert.assertEquals(new HashSet<>(values), new HashSet<>(map.values()));
+
+        // Remove every other value
+        for (int key = 0; key < values.size(); key += 2) {
+            Assert.assertSame(values.get(key), map.remove(key));
+        }
+        Assert.assertEquals(500, map.size());
+        for (int key = 0; key < values.size(); key++) {
+            final Object expected = key % 2 == 0 ? null : values.get(key);
+            Assert.assertSame(expected, map.get(key));
+            Assert.assertEquals(expected != null, map.containsKey(key));
+        }
+
+        // Conditional remove only removes the same instance
+        Assert.assertFalse(map.remove(1, new Object()));
+        Assert.assertSame(values.get(1), map.get(1));
+        Assert.assertTrue(map.remove(1, values.get(1)));
+        Assert.assertNull(map.get(1));
+
+        // Put if absent
+        final Object other = new Object();
+        Assert.assertSame(values.get(3), map.putIfAbsent(3, other));
+        Assert.assertSame(values.get(3), map.get(3));
+        Assert.assertNull(map.putIfAbsent(1, other));
+        Assert.assertSame(other, map.get(1));
+
+        // Clear
+        Assert.assertEquals(500, map.clear().size());
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertTrue(map.values().isEmpty());
+        Assert.assertNull(map.get(3));
+    }
+
+    @Test
+    public void testNegativeAndLargeKeys() {
+        final StripedLongMap<String> map = new StripedLongMap<>();
+        map.put(Long.MIN_VALUE, "min");
+        map.put(-1L, "minus-one");
+        map.put(Long.MAX_VALUE, "max");
+
+        Assert.assertEquals("min", map.get(Long.MIN_VALUE));
+        Assert.assertEquals("minus-one", map.get(-1L));
+        Assert.assertEquals("max", map.get(Long.MAX_VALUE));
+        Assert.assertNull(map.get(0L));
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final StripedLongMap<Object> map = new StripedLongMap<>();
+        final int threads = 8;
+        final int perThread = 2000;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                final long offset = thread * (long) perThread;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (long key = offset; key < offset + perThread; key++) {
+                        final Object value = new Object();
+                        map.put(key, value);
+                        Assert.assertSame(value, map.get(key));
+                        map.values();
+                        Assert.assertTrue(map.remove(key, value));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (final Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        // Stable keys are read while other keys (in the same stripes) are added and removed, causing resizes and shifts
+        final StripedLongMap<Object> map = new StripedLongMap<>();
+        final int stable = 1000;
+        final List<Object> values = new ArrayList<>();
+        for (long key = 0; key < stable; key++) {
+            final Object value = new Object();
+            values.add(value);
+            map.put(key, value);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 2; thread++) {
+                final long offset = stable + thread * 100_000L;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int round = 0; round < 20; round++) {
+                        for (long key = offset; key < offset + 2000; key++) {
+                            map.put(key, Boolean.TRUE);
+                        }
+                        for (long key = offset; key < offset + 2000; key++) {
+                            Assert.assertNotNull(map.remove(key));
+                        }
+                    }
+                    return null;
+                }));
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int round = 0; round < 200; round++) {
+                        for (int key = 0; key < stable; key++) {
+                            Assert.assertSame(values.get(key), map.get(key));
+                            Assert.assertFalse(map.containsKey(-1 - key));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (final Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(stable, map.size());
+    }
+}
@@ -88,6 +88,26 @@ public class XAResourceAdapterTest {
         Mockito.verifyNoMoreInteractions(xaResource);
     }
 
+    @Test
+    public void setTransactionTimeoutUnchanged() throws Exception {
+        Mockito.when(xaResource.setTransactionTimeout(34)).thenReturn(true);
+        Assert.assertTrue(subject.setTransactionTimeout(34));
+        Assert.assertTrue(subject.setTransactionTimeout(34));
+        Assert.assertFalse(subject.setTransactionTimeout(35));
+        Mockito.verify(xaResource).setTransactionTimeout(34);
+        Mockito.verify(xaResource).setTransactionTimeout(35);
+        Mockito.verifyNoMoreInteractions(xaResource);
+    }
+
+    @Test
+    public void setTransactionTimeoutNotSet() throws Exception {
+        Mockito.when(xaResource.setTransactionTimeout(34)).thenReturn(false);
+        Assert.assertFalse(subject.setTransactionTimeout(34));
+        Assert.assertFalse(subject.setTransactionTimeout(34));
+        Mockito.verify(xaResource, Mockito.times(2)).setTransactionTimeout(34);
+        Mockito.verifyNoMoreInteractions(xaResource);
+    }
+
     @Test
     public void start() throws Exception {
         subject.start(xid, XAResource.TMNOFLAGS);